@@ -0,0 +1,91 @@
+/* Copyright (C) 2002 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package cc.mallet.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import cc.mallet.fst.CRF;
+import cc.mallet.fst.CRFDecoder;
+import cc.mallet.fst.MaxLatticeDefault;
+import cc.mallet.fst.SumLatticeCRF;
+import cc.mallet.fst.SumLatticeDefault;
+import cc.mallet.fst.SumLatticeFactory;
+import cc.mallet.types.FeatureVectorSequence;
+import cc.mallet.types.Instance;
+import cc.mallet.types.InstanceList;
+
+/**
+ * Forward-backward and Viterbi over a batch of sentences with a fully
+ *  connected first-order CRF, comparing the generic lattices with the
+ *  CRF-specific ones.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CRFLatticeBenchmark {
+
+    @Param({"5", "20"})
+    public int numLabels;
+
+    CRF crf;
+    InstanceList sentences;
+    SumLatticeFactory crfLattices;
+    CRFDecoder decoder;
+
+    @Setup
+    public void setUp() {
+        sentences = SyntheticData.sequenceCorpus(5000, numLabels, 200, 30);
+        crf = SyntheticData.randomCRF(sentences);
+        crfLattices = new SumLatticeCRF.Factory();
+        decoder = new CRFDecoder(crf);
+    }
+
+    @Benchmark
+    public void sumLatticeDefault(Blackhole blackhole) {
+        for (Instance sentence: sentences) {
+            blackhole.consume(new SumLatticeDefault(crf, (FeatureVectorSequence) sentence.getData()).getTotalWeight());
+        }
+    }
+
+    @Benchmark
+    public void sumLatticeCRF(Blackhole blackhole) {
+        for (Instance sentence: sentences) {
+            blackhole.consume(crfLattices.newSumLattice(crf, (FeatureVectorSequence) sentence.getData()).getTotalWeight());
+        }
+    }
+
+    @Benchmark
+    public void maxLatticeDefault(Blackhole blackhole) {
+        for (Instance sentence: sentences) {
+            blackhole.consume(new MaxLatticeDefault(crf, (FeatureVectorSequence) sentence.getData()).bestOutputSequence());
+        }
+    }
+
+    @Benchmark
+    public void crfDecoder(Blackhole blackhole) {
+        for (Instance sentence: sentences) {
+            blackhole.consume(decoder.bestOutputSequence((FeatureVectorSequence) sentence.getData()));
+        }
+    }
+}
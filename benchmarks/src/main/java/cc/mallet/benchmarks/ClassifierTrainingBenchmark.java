@@ -0,0 +1,88 @@
+/* Copyright (C) 2002 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package cc.mallet.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import cc.mallet.classify.MaxEnt;
+import cc.mallet.classify.MaxEntOptimizableByLabelLikelihood;
+import cc.mallet.classify.MaxEntSGDTrainer;
+import cc.mallet.classify.NaiveBayes;
+import cc.mallet.classify.NaiveBayesTrainer;
+import cc.mallet.types.InstanceList;
+import cc.mallet.util.Randoms;
+
+/**
+ * The per-iteration cost of MaxEnt training, one evaluation of the
+ *  likelihood gradient, against one pass of mini-batch AdaGrad, and a
+ *  complete naive Bayes training pass, counted on one thread or four.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ClassifierTrainingBenchmark {
+
+    @Param({"10", "50"})
+    public int numClasses;
+
+    InstanceList training;
+    MaxEntOptimizableByLabelLikelihood optimizable;
+    double[] parameters;
+    double[] gradient;
+
+    @Setup
+    public void setUp() {
+        training = SyntheticData.classificationCorpus(20000, numClasses, 5000 / numClasses, 100);
+
+        optimizable = new MaxEntOptimizableByLabelLikelihood(training, null);
+        parameters = new double[optimizable.getNumParameters()];
+        gradient = new double[parameters.length];
+        Randoms random = new Randoms(SyntheticData.SEED);
+        for (int i = 0; i < parameters.length; i++) {
+            parameters[i] = random.nextGaussian(0, 0.1);
+        }
+    }
+
+    @Benchmark
+    public double[] maxEntValueGradient() {
+        // Setting the parameters invalidates the cached value and gradient
+        optimizable.setParameters(parameters);
+        optimizable.getValueGradient(gradient);
+        return gradient;
+    }
+
+    @Benchmark
+    public MaxEnt maxEntSGDPass() {
+        return new MaxEntSGDTrainer().setNumIterations(1).train(training);
+    }
+
+    @Benchmark
+    public NaiveBayes naiveBayesTrain() {
+        return new NaiveBayesTrainer().train(training);
+    }
+
+    @Benchmark
+    public NaiveBayes naiveBayesTrainThreaded() {
+        return new NaiveBayesTrainer().setNumThreads(4).train(training);
+    }
+}
@@ -0,0 +1,89 @@
+/* Copyright (C) 2002 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package cc.mallet.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import cc.mallet.classify.FeatureMajorMaxEnt;
+import cc.mallet.classify.MaxEnt;
+import cc.mallet.types.InstanceList;
+import cc.mallet.util.Randoms;
+
+/**
+ * Unnormalized scores for every instance in a corpus, from a {@link MaxEnt}
+ *  and from its {@link FeatureMajorMaxEnt} copies with double and float weights.
+ *  The weights are random, since only the cost of scoring is measured.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MaxEntScoringBenchmark {
+
+    @Param({"10", "200", "2000"})
+    public int numClasses;
+
+    InstanceList instances;
+    MaxEnt maxent;
+    FeatureMajorMaxEnt featureMajor;
+    FeatureMajorMaxEnt featureMajorFloats;
+    double[] scores;
+
+    @Setup
+    public void setUp() {
+        instances = SyntheticData.classificationCorpus(5000, numClasses, Math.max(1, 2000 / numClasses), 100);
+
+        double[] parameters = new double[MaxEnt.getNumParameters(instances.getPipe())];
+        Randoms random = new Randoms(SyntheticData.SEED);
+        for (int i = 0; i < parameters.length; i++) {
+            parameters[i] = random.nextGaussian(0, 0.1);
+        }
+        maxent = new MaxEnt(instances.getPipe(), parameters);
+        featureMajor = new FeatureMajorMaxEnt(maxent);
+        featureMajorFloats = new FeatureMajorMaxEnt(maxent, true);
+        scores = new double[numClasses];
+    }
+
+    @Benchmark
+    public double[] maxEnt() {
+        for (int i = 0; i < instances.size(); i++) {
+            maxent.getUnnormalizedClassificationScores(instances.get(i), scores);
+        }
+        return scores;
+    }
+
+    @Benchmark
+    public double[] featureMajor() {
+        for (int i = 0; i < instances.size(); i++) {
+            featureMajor.getUnnormalizedClassificationScores(instances.get(i), scores);
+        }
+        return scores;
+    }
+
+    @Benchmark
+    public double[] featureMajorFloats() {
+        for (int i = 0; i < instances.size(); i++) {
+            featureMajorFloats.getUnnormalizedClassificationScores(instances.get(i), scores);
+        }
+        return scores;
+    }
+}
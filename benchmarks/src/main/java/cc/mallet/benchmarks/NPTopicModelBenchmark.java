@@ -0,0 +1,98 @@
+/* Copyright (C) 2002 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package cc.mallet.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import cc.mallet.topics.NPTopicModel;
+import cc.mallet.topics.ParallelNPTopicModel;
+import cc.mallet.topics.ParallelTopicModel;
+import cc.mallet.types.InstanceList;
+
+/**
+ * One training iteration of the non-parametric topic models against
+ *  {@link ParallelTopicModel} on the same corpus, with every model started
+ *  from the same number of topics. The non-parametric models add and remove
+ *  topics as they sample, so the number of topics drifts between iterations.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class NPTopicModelBenchmark {
+
+    @Param({"100"})
+    public int numTopics;
+
+    @Param({"1", "4"})
+    public int numThreads;
+
+    @Param({"NPTopicModel", "ParallelNPTopicModel", "ParallelTopicModel"})
+    public String model;
+
+    NPTopicModel npModel;
+    ParallelNPTopicModel parallelNPModel;
+    ParallelTopicModel ldaModel;
+
+    @Setup
+    public void setUp() {
+        InstanceList instances = SyntheticData.topicCorpus(10000, 2000, 100);
+
+        if (model.equals("NPTopicModel")) {
+            npModel = new NPTopicModel(5.0, 10.0, 0.01);
+            npModel.setRandomSeed(SyntheticData.SEED);
+            npModel.setTopicDisplay(0, 0);
+            npModel.addInstances(instances, numTopics);
+        }
+        else if (model.equals("ParallelNPTopicModel")) {
+            parallelNPModel = new ParallelNPTopicModel(5.0, 10.0, 0.01);
+            parallelNPModel.setRandomSeed(SyntheticData.SEED);
+            parallelNPModel.setTopicDisplay(0, 0);
+            parallelNPModel.setNumThreads(numThreads);
+            parallelNPModel.addInstances(instances, numTopics);
+        }
+        else {
+            ldaModel = new ParallelTopicModel(numTopics, numTopics * 0.1, 0.01);
+            ldaModel.setRandomSeed(SyntheticData.SEED);
+            ldaModel.setTopicDisplay(0, 0);
+            ldaModel.setNumIterations(1);
+            ldaModel.setNumThreads(numThreads);
+            ldaModel.printLogLikelihood = false;
+            ldaModel.addInstances(instances);
+        }
+    }
+
+    /** {@link NPTopicModel} has no threads, so its four-thread runs repeat the one-thread case. */
+    @Benchmark
+    public void iteration() throws IOException {
+        if (npModel != null) {
+            npModel.sample(1);
+        }
+        else if (parallelNPModel != null) {
+            parallelNPModel.sample(1);
+        }
+        else {
+            ldaModel.estimate();
+        }
+    }
+}
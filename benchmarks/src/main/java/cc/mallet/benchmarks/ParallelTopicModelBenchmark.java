@@ -0,0 +1,103 @@
+/* Copyright (C) 2002 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package cc.mallet.benchmarks;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import cc.mallet.topics.ParallelTopicModel;
+
+/**
+ * One training iteration of {@link ParallelTopicModel}, including the
+ *  per-thread count copies and merges, or the striped locks when counts
+ *  are shared between threads.
+ * <p>
+ * JMH reports training iterations per second, and sampled tokens per
+ *  second as a secondary result. The peak heap of each trial, model
+ *  included, is printed when the trial ends. It is the sum of the peaks
+ *  of the heap memory pools, so it can overstate the largest heap
+ *  actually in use at one time.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParallelTopicModelBenchmark {
+
+    @Param({"100"})
+    public int numTopics;
+
+    @Param({"1", "4"})
+    public int numThreads;
+
+    @Param({"false", "true"})
+    public boolean sharedCounts;
+
+    @Param({ParallelTopicModel.SPARSE_SAMPLER, ParallelTopicModel.ALIAS_SAMPLER})
+    public String sampler;
+
+    ParallelTopicModel model;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Tokens {
+        public long tokens;
+    }
+
+    @Setup
+    public void setUp() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            pool.resetPeakUsage();
+        }
+        model = new ParallelTopicModel(numTopics, numTopics * 0.1, 0.01);
+        model.setRandomSeed(SyntheticData.SEED);
+        model.setTopicDisplay(0, 0);
+        model.setNumIterations(1);
+        model.setNumThreads(numThreads);
+        model.setSharedCounts(sharedCounts);
+        model.setSampler(sampler);
+        model.printLogLikelihood = false;
+        model.addInstances(SyntheticData.topicCorpus(10000, 2000, 100));
+    }
+
+    @TearDown
+    public void printPeakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        System.out.println("Peak heap: " + (peak >> 20) + " MB");
+    }
+
+    @Benchmark
+    public void iteration(Tokens tokens) throws IOException {
+        model.estimate();
+        tokens.tokens += model.totalTokens;
+    }
+}
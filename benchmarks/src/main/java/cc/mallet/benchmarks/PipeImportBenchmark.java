@@ -0,0 +1,102 @@
+/* Copyright (C) 2002 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package cc.mallet.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import cc.mallet.pipe.CharSequence2TokenSequence;
+import cc.mallet.pipe.CharSequenceLowercase;
+import cc.mallet.pipe.FeatureSequence2AugmentableFeatureVector;
+import cc.mallet.pipe.Pipe;
+import cc.mallet.pipe.SerialPipes;
+import cc.mallet.pipe.Target2Label;
+import cc.mallet.pipe.TokenSequence2FeatureSequence;
+import cc.mallet.pipe.TokenSequenceRemoveStopwords;
+import cc.mallet.types.Instance;
+import cc.mallet.types.InstanceList;
+import cc.mallet.types.TokenSequence;
+
+/**
+ * Importing raw text through the usual classification pipe, as
+ *  <code>bin/mallet import-dir</code> does, with one or several threads.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PipeImportBenchmark {
+
+    @Param({"1", "4"})
+    public int numThreads;
+
+    ArrayList<String> texts;
+    ArrayList<Object> targets;
+
+    @Setup
+    public void setUp() {
+        texts = new ArrayList<String>();
+        targets = new ArrayList<Object>();
+        Iterator<Instance> documents = SyntheticData.documents(20000, 10, 500, 200);
+        while (documents.hasNext()) {
+            Instance document = documents.next();
+            TokenSequence tokens = (TokenSequence) document.getData();
+            StringBuilder text = new StringBuilder();
+            for (int i = 0; i < tokens.size(); i++) {
+                text.append(tokens.get(i).getText());
+                text.append(' ');
+            }
+            texts.add(text.toString());
+            targets.add(document.getTarget());
+        }
+    }
+
+    static Pipe newPipe() {
+        ArrayList<Pipe> pipes = new ArrayList<Pipe>();
+        pipes.add(new Target2Label());
+        pipes.add(new CharSequenceLowercase());
+        pipes.add(new CharSequence2TokenSequence());
+        pipes.add(new TokenSequenceRemoveStopwords(false, false));
+        pipes.add(new TokenSequence2FeatureSequence());
+        pipes.add(new FeatureSequence2AugmentableFeatureVector());
+        return new SerialPipes(pipes);
+    }
+
+    @Benchmark
+    public InstanceList importDocuments() {
+        // Pipes modify instances in place, so start from fresh ones every time
+        ArrayList<Instance> raw = new ArrayList<Instance>(texts.size());
+        for (int i = 0; i < texts.size(); i++) {
+            raw.add(new Instance(texts.get(i), targets.get(i), "doc" + i, null));
+        }
+
+        InstanceList instances = new InstanceList(newPipe());
+        if (numThreads == 1) {
+            instances.addThruPipe(raw.iterator());
+        }
+        else {
+            instances.addThruPipe(raw.iterator(), numThreads);
+        }
+        return instances;
+    }
+}
@@ -0,0 +1,143 @@
+/* Copyright (C) 2002 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package cc.mallet.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import cc.mallet.fst.CRF;
+import cc.mallet.pipe.FeatureSequence2FeatureVector;
+import cc.mallet.pipe.Pipe;
+import cc.mallet.pipe.SerialPipes;
+import cc.mallet.pipe.Target2Label;
+import cc.mallet.pipe.Target2LabelSequence;
+import cc.mallet.pipe.TokenSequence2FeatureSequence;
+import cc.mallet.pipe.TokenSequence2FeatureVectorSequence;
+import cc.mallet.pipe.iterator.RandomTokenSequenceIterator;
+import cc.mallet.types.Alphabet;
+import cc.mallet.types.Dirichlet;
+import cc.mallet.types.Instance;
+import cc.mallet.types.InstanceList;
+import cc.mallet.types.SparseVector;
+import cc.mallet.types.Token;
+import cc.mallet.types.TokenSequence;
+import cc.mallet.util.Randoms;
+
+/**
+ * Synthetic corpora for the benchmarks, drawn from
+ *  {@link RandomTokenSequenceIterator} with a fixed seed so that every
+ *  run measures the same data and no files or network access are needed.
+ */
+public class SyntheticData {
+
+    public static final int SEED = 1;
+
+    static {
+        // Training progress messages would otherwise be printed on every invocation
+        Logger.getLogger("").setLevel(Level.WARNING);
+    }
+
+    /** Raw documents: token sequences with a class name as the target. */
+    public static Iterator<Instance> documents(int vocabSize, int numClasses, int docsPerClass, int docLength) {
+        Alphabet vocabulary = new Alphabet();
+        for (int i = 0; i < vocabSize; i++) {
+            vocabulary.lookupIndex("w" + i);
+        }
+        String[] classNames = new String[numClasses];
+        for (int i = 0; i < numClasses; i++) {
+            classNames[i] = "class" + i;
+        }
+        return new RandomTokenSequenceIterator(new Randoms(SEED), new Dirichlet(vocabulary, 2.0),
+                                               30, 0, docLength, docsPerClass, classNames);
+    }
+
+    /** The pipe used for topic models: token sequences to feature sequences. */
+    public static Pipe sequencePipe() {
+        ArrayList<Pipe> pipes = new ArrayList<Pipe>();
+        pipes.add(new Target2Label());
+        pipes.add(new TokenSequence2FeatureSequence());
+        return new SerialPipes(pipes);
+    }
+
+    /** The pipe used for classifiers: token sequences to feature vectors. */
+    public static Pipe vectorPipe() {
+        ArrayList<Pipe> pipes = new ArrayList<Pipe>();
+        pipes.add(new Target2Label());
+        pipes.add(new TokenSequence2FeatureSequence());
+        pipes.add(new FeatureSequence2FeatureVector());
+        return new SerialPipes(pipes);
+    }
+
+    /** Documents as feature sequences, for topic models. */
+    public static InstanceList topicCorpus(int vocabSize, int numDocs, int docLength) {
+        InstanceList instances = new InstanceList(sequencePipe());
+        instances.addThruPipe(documents(vocabSize, 10, numDocs / 10, docLength));
+        return instances;
+    }
+
+    /** Documents as feature vectors with class labels, for classifiers. */
+    public static InstanceList classificationCorpus(int vocabSize, int numClasses, int docsPerClass, int docLength) {
+        InstanceList instances = new InstanceList(vectorPipe());
+        instances.addThruPipe(documents(vocabSize, numClasses, docsPerClass, docLength));
+        return instances;
+    }
+
+    /**
+     * Sentences for sequence labeling. Each token is labeled by a
+     *  deterministic function of its word, and carries features for the
+     *  word and its neighbours.
+     */
+    public static InstanceList sequenceCorpus(int vocabSize, int numLabels, int numSentences, int sentenceLength) {
+        ArrayList<Instance> sentences = new ArrayList<Instance>();
+        Iterator<Instance> documents = documents(vocabSize, 10, numSentences / 10, sentenceLength);
+        while (documents.hasNext()) {
+            Instance document = documents.next();
+            TokenSequence words = (TokenSequence) document.getData();
+            TokenSequence labels = new TokenSequence(words.size());
+            for (int i = 0; i < words.size(); i++) {
+                Token word = words.get(i);
+                if (i > 0) { word.setFeatureValue("prev=" + words.get(i-1).getText(), 1.0); }
+                if (i < words.size() - 1) { word.setFeatureValue("next=" + words.get(i+1).getText(), 1.0); }
+                labels.add("L" + Math.floorMod(word.getText().hashCode(), numLabels));
+            }
+            sentences.add(new Instance(words, labels, document.getName(), null));
+        }
+
+        ArrayList<Pipe> pipes = new ArrayList<Pipe>();
+        pipes.add(new Target2LabelSequence());
+        pipes.add(new TokenSequence2FeatureVectorSequence());
+        InstanceList instances = new InstanceList(new SerialPipes(pipes));
+        instances.addThruPipe(sentences.iterator());
+        return instances;
+    }
+
+    /**
+     * A fully connected first-order CRF whose weights cover every feature
+     *  seen in <code>training</code>, filled with random values so that
+     *  inference does the same work as on a trained model.
+     */
+    public static CRF randomCRF(InstanceList training) {
+        CRF crf = new CRF(training.getPipe(), null);
+        crf.addFullyConnectedStatesForLabels();
+        crf.setWeightsDimensionAsIn(training, false);
+
+        Randoms random = new Randoms(SEED);
+        SparseVector[] weights = crf.getWeights();
+        for (int i = 0; i < weights.length; i++) {
+            for (int location = 0; location < weights[i].numLocations(); location++) {
+                weights[i].setValueAtLocation(location, random.nextGaussian(0, 0.1));
+            }
+            // Without a bias, transitions with no supported features would tie
+            crf.setDefaultWeight(i, random.nextGaussian(0, 0.1));
+        }
+        crf.weightsValueChanged();
+        return crf;
+    }
+}
@@ -0,0 +1,75 @@
+/* Copyright (C) 2002 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package cc.mallet.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import cc.mallet.topics.ParallelTopicModel;
+import cc.mallet.topics.TopicInferencer;
+import cc.mallet.types.Instance;
+import cc.mallet.types.InstanceList;
+
+/**
+ * {@link TopicInferencer#getSampledDistribution} over a batch of documents,
+ *  using a model trained briefly on the same synthetic corpus.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TopicInferenceBenchmark {
+
+    @Param({"100", "1000"})
+    public int numTopics;
+
+    @Param({"10"})
+    public int numIterations;
+
+    TopicInferencer inferencer;
+    InstanceList testing;
+
+    @Setup
+    public void setUp() throws IOException {
+        InstanceList training = SyntheticData.topicCorpus(10000, 2000, 100);
+
+        ParallelTopicModel model = new ParallelTopicModel(numTopics, numTopics * 0.1, 0.01);
+        model.setRandomSeed(SyntheticData.SEED);
+        model.setTopicDisplay(0, 0);
+        model.setNumIterations(20);
+        model.printLogLikelihood = false;
+        model.addInstances(training);
+        model.estimate();
+
+        inferencer = model.getInferencer();
+        inferencer.setRandomSeed(SyntheticData.SEED);
+        testing = training.subList(0, 200);
+    }
+
+    @Benchmark
+    public void sampledDistributions(Blackhole blackhole) {
+        for (Instance instance: testing) {
+            blackhole.consume(inferencer.getSampledDistribution(instance, numIterations, 1, numIterations / 2));
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/* Copyright (C) 2002 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package cc.mallet.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.errorprone.annotations.Var;
+
+import cc.mallet.topics.AliasWorkerCallable;
+import cc.mallet.topics.ParallelTopicModel;
+import cc.mallet.topics.TopicAssignment;
+import cc.mallet.topics.WorkerCallable;
+import cc.mallet.util.Randoms;
+
+/**
+ * One Gibbs sampling sweep of a single {@link WorkerCallable}, that is,
+ *  <code>sampleTopicsForOneDoc</code> for every document, with no thread
+ *  pool or count merging around it.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TopicSamplingBenchmark {
+
+    @Param({"100", "1000"})
+    public int numTopics;
+
+    @Param({ParallelTopicModel.SPARSE_SAMPLER, ParallelTopicModel.ALIAS_SAMPLER})
+    public String sampler;
+
+    WorkerCallable worker;
+
+    @Setup
+    public void setUp() {
+        ParallelTopicModel model = new ParallelTopicModel(numTopics, numTopics * 0.1, 0.01);
+        model.setRandomSeed(SyntheticData.SEED);
+        model.addInstances(SyntheticData.topicCorpus(10000, 2000, 100));
+
+        @Var
+        int maxLength = 0;
+        for (TopicAssignment document: model.getData()) {
+            maxLength = Math.max(maxLength, document.topicSequence.getLength());
+        }
+
+        Randoms random = new Randoms(SyntheticData.SEED);
+        if (sampler.equals(ParallelTopicModel.ALIAS_SAMPLER)) {
+            worker = new AliasWorkerCallable(numTopics, model.alpha, model.alphaSum, model.beta, random,
+                                             model.getData(), model.getTypeTopicCounts(), model.getTokensPerTopic(),
+                                             0, model.getData().size());
+        }
+        else {
+            worker = new WorkerCallable(numTopics, model.alpha, model.alphaSum, model.beta, random,
+                                        model.getData(), model.getTypeTopicCounts(), model.getTokensPerTopic(),
+                                        0, model.getData().size());
+        }
+        worker.initializeAlphaStatistics(maxLength + 1);
+        worker.makeOnlyThread();
+    }
+
+    @Benchmark
+    public int sweep() throws Exception {
+        return worker.call();
+    }
+}
@@ -0,0 +1,153 @@
+/* Copyright (C) 2002 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package cc.mallet.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.errorprone.annotations.Var;
+
+import cc.mallet.types.Alphabet;
+import cc.mallet.types.FeatureVector;
+import cc.mallet.types.Instance;
+import cc.mallet.types.InstanceList;
+import cc.mallet.types.SparseVector;
+import cc.mallet.types.TokenSequence;
+import cc.mallet.util.Randoms;
+
+/**
+ * Alphabet lookups and sparse dot products, the operations underneath
+ *  most pipes and linear models.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TypesBenchmark {
+
+    String[] tokens;
+    Alphabet growing;
+    Alphabet frozen;
+
+    FeatureVector[] vectors;
+    SparseVector weights;
+
+    @Setup
+    public void setUp() {
+        // Word tokens in document order, so frequent words repeat as in real text
+        ArrayList<String> words = new ArrayList<String>();
+        Iterator<Instance> documents = SyntheticData.documents(50000, 10, 50, 100);
+        while (documents.hasNext()) {
+            TokenSequence document = (TokenSequence) documents.next().getData();
+            for (int i = 0; i < document.size(); i++) {
+                words.add(document.get(i).getText());
+            }
+        }
+        tokens = words.toArray(new String[words.size()]);
+
+        growing = new Alphabet();
+        frozen = new Alphabet();
+        for (String token: tokens) {
+            growing.lookupIndex(token);
+            frozen.lookupIndex(token);
+        }
+        frozen.stopGrowth();
+
+        InstanceList instances = SyntheticData.classificationCorpus(50000, 10, 50, 100);
+        vectors = new FeatureVector[instances.size()];
+        for (int i = 0; i < vectors.length; i++) {
+            vectors[i] = (FeatureVector) instances.get(i).getData();
+        }
+
+        // A weight for every other feature, like one row of a linear model's parameters
+        int numFeatures = instances.getDataAlphabet().size();
+        int[] indices = new int[numFeatures / 2];
+        double[] values = new double[indices.length];
+        Randoms random = new Randoms(SyntheticData.SEED);
+        for (int i = 0; i < indices.length; i++) {
+            indices[i] = 2 * i;
+            values[i] = random.nextGaussian(0, 1);
+        }
+        weights = new SparseVector(indices, values);
+    }
+
+    @Benchmark
+    public int alphabetLookup() {
+        @Var
+        int sum = 0;
+        for (String token: tokens) {
+            sum += growing.lookupIndex(token);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public int alphabetLookupFrozen() {
+        @Var
+        int sum = 0;
+        for (String token: tokens) {
+            sum += frozen.lookupIndex(token);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @Threads(4)
+    public int alphabetLookupConcurrent() {
+        @Var
+        int sum = 0;
+        for (String token: tokens) {
+            sum += growing.lookupIndex(token);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public Alphabet alphabetBuild() {
+        Alphabet alphabet = new Alphabet();
+        for (String token: tokens) {
+            alphabet.lookupIndex(token);
+        }
+        return alphabet;
+    }
+
+    @Benchmark
+    public double sparseDotProduct() {
+        @Var
+        double sum = 0;
+        for (FeatureVector vector: vectors) {
+            sum += weights.dotProduct(vector);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double sparseDotProductPairs() {
+        @Var
+        double sum = 0;
+        for (int i = 1; i < vectors.length; i++) {
+            sum += vectors[i].dotProduct(vectors[i-1]);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,156 @@
+/* Copyright (C) 2002 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package cc.mallet.classify;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+import com.google.errorprone.annotations.Var;
+
+import cc.mallet.types.FeatureSelection;
+import cc.mallet.types.FeatureVector;
+import cc.mallet.types.Instance;
+import cc.mallet.types.LabelVector;
+import cc.mallet.types.MatrixOps;
+
+/**
+ * A read-only copy of a trained {@link MaxEnt} laid out for fast classification.
+ * <p>
+ * <code>MaxEnt</code> stores its parameters label-major, so scoring an instance
+ *  walks the feature vector once per label. This classifier stores the weights
+ *  feature-major, <code>[featureIndex * numLabels + labelIndex]</code>, and scores
+ *  every label in a single pass over the non-zero features, reading one contiguous
+ *  row of weights per feature. Feature selections are applied once, when the copy
+ *  is built, by zeroing the weights of unselected features.
+ * <p>
+ * With <code>useFloats</code> the weights are stored as floats, which halves the
+ *  memory and the bandwidth of each row. Scores are still accumulated in doubles.
+ *  Without it, scores are identical to those of the original classifier.
+ * <p>
+ * The copy does not follow later changes to the <code>MaxEnt</code> it was built from.
+ */
+public class FeatureMajorMaxEnt extends Classifier implements Serializable
+{
+	final int numLabels;
+	final int defaultFeatureIndex;
+	final double[] weights;		// indexed by <featureIndex,labelIndex>, or null
+	final float[] floatWeights;	// the same, if the weights are stored as floats
+	final double[] biases;		// the weights of the default feature
+
+	public FeatureMajorMaxEnt (MaxEnt maxent)
+	{
+		this (maxent, false);
+	}
+
+	public FeatureMajorMaxEnt (MaxEnt maxent, boolean useFloats)
+	{
+		super (maxent.getInstancePipe());
+		this.numLabels = maxent.getLabelAlphabet().size();
+		this.defaultFeatureIndex = maxent.getDefaultFeatureIndex();
+
+		int numFeatures = defaultFeatureIndex + 1;
+		double[] parameters = maxent.getParameters();
+		FeatureSelection featureSelection = maxent.getFeatureSelection();
+		FeatureSelection[] perClassFeatureSelection = maxent.getPerClassFeatureSelection();
+
+		// MaxEnt adds a feature at the default index like any other, so it stays in the table
+		double[] transposed = new double[numFeatures * numLabels];
+		biases = new double[numLabels];
+		for (int li = 0; li < numLabels; li++) {
+			FeatureSelection selection = perClassFeatureSelection == null
+				? featureSelection : perClassFeatureSelection[li];
+			for (int fi = 0; fi < numFeatures; fi++) {
+				if (selection == null || selection.contains(fi)) {
+					transposed[fi * numLabels + li] = parameters[li * numFeatures + fi];
+				}
+			}
+			biases[li] = parameters[li * numFeatures + defaultFeatureIndex];
+		}
+
+		if (useFloats) {
+			this.weights = null;
+			this.floatWeights = new float[transposed.length];
+			for (int i = 0; i < transposed.length; i++) {
+				floatWeights[i] = (float) transposed[i];
+			}
+		}
+		else {
+			this.weights = transposed;
+			this.floatWeights = null;
+		}
+	}
+
+	public boolean usesFloats () {
+		return floatWeights != null;
+	}
+
+	public int getNumLabels () {
+		return numLabels;
+	}
+
+	public void getUnnormalizedClassificationScores (Instance instance, double[] scores)
+	{
+		assert (scores.length == numLabels);
+		FeatureVector fv = (FeatureVector) instance.getData ();
+		assert (fv.getAlphabet () == this.instancePipe.getDataAlphabet ());
+
+		Arrays.fill (scores, 0.0);
+		int size = fv.numLocations();
+		if (floatWeights != null) {
+			for (int location = 0; location < size; location++) {
+				int fi = fv.indexAtLocation (location);
+				// Features added to the alphabet after training have no weights
+				if (fi > defaultFeatureIndex) { continue; }
+				double value = fv.valueAtLocation (location);
+				int offset = fi * numLabels;
+				for (int li = 0; li < numLabels; li++) {
+					scores[li] += floatWeights[offset + li] * value;
+				}
+			}
+		}
+		else {
+			for (int location = 0; location < size; location++) {
+				int fi = fv.indexAtLocation (location);
+				if (fi > defaultFeatureIndex) { continue; }
+				double value = fv.valueAtLocation (location);
+				int offset = fi * numLabels;
+				for (int li = 0; li < numLabels; li++) {
+					scores[li] += weights[offset + li] * value;
+				}
+			}
+		}
+
+		// Added last, as MaxEnt does, so that the double scores match to the bit
+		for (int li = 0; li < numLabels; li++) {
+			scores[li] = biases[li] + scores[li];
+		}
+	}
+
+	public void getClassificationScores (Instance instance, double[] scores)
+	{
+		getUnnormalizedClassificationScores(instance, scores);
+		// Move scores to a range where exp() is accurate, and normalize
+		double max = MatrixOps.max (scores);
+		@Var
+		double sum = 0;
+		for (int li = 0; li < numLabels; li++)
+			sum += (scores[li] = Math.exp (scores[li] - max));
+		for (int li = 0; li < numLabels; li++)
+			scores[li] /= sum;
+	}
+
+	public Classification classify (Instance instance)
+	{
+		double[] scores = new double[numLabels];
+		getClassificationScores(instance, scores);
+		return new Classification (instance, this,
+				new LabelVector (getLabelAlphabet(), scores));
+	}
+
+	private static final long serialVersionUID = 1;
+}
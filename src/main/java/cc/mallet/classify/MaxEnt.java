@@ -28,6 +28,7 @@ import cc.mallet.types.RankedFeatureVector;
 
 /**
  * Maximum Entropy (AKA Multivariate Logistic Regression) classifier.
+ * For faster classification with many labels, see {@link FeatureMajorMaxEnt}.
  @author Andrew McCallum <a href="mailto:mccallum@cs.umass.edu">mccallum@cs.umass.edu</a>
  */
 
@@ -1,7 +1,13 @@
 package cc.mallet.classify;
 
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Iterator;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 
 import com.google.errorprone.annotations.Var;
@@ -20,7 +26,7 @@ import cc.mallet.util.MalletLogger;
 import cc.mallet.util.MalletProgressMessageLogger;
 import cc.mallet.util.Maths;
 
-public class MaxEntOptimizableByLabelLikelihood implements Optimizable.ByGradientValue {
+public class MaxEntOptimizableByLabelLikelihood implements Optimizable.ByGradientValue, Optimizable.ByCombiningBatchGradient {
 
 	private static Logger logger =
 		MalletLogger.getLogger(MaxEntOptimizableByLabelLikelihood.class.getName());
@@ -55,9 +61,28 @@ public class MaxEntOptimizableByLabelLikelihood implements Optimizable.ByGradien
 	int numGetValueCalls = 0;
 	int numGetValueGradientCalls = 0;
 
+	// Instances are split into this many contiguous batches. If there is an
+	//  executor, the expectations of each batch are computed in parallel into
+	//  their own buffers, which are then summed.
+	int numBatches = 1;
+	ExecutorService executor = null;
+	double[][] batchExpectations = null;
+
 	public MaxEntOptimizableByLabelLikelihood() {
 	}
 
+	/**
+	 *  Compute the value and gradient in <code>numBatches</code> batches of instances,
+	 *   running the batches as tasks on <code>executor</code>. The caller owns the executor.
+	 */
+	public MaxEntOptimizableByLabelLikelihood (InstanceList trainingSet, MaxEnt initialClassifier,
+											   int numBatches, ExecutorService executor)
+	{
+		this(trainingSet, initialClassifier);
+		this.numBatches = Math.max(1, Math.min(numBatches, trainingSet.size()));
+		this.executor = executor;
+	}
+
 	public MaxEntOptimizableByLabelLikelihood (InstanceList trainingSet, MaxEnt initialClassifier)
 	{
 		this.trainingList = trainingSet;
@@ -133,6 +158,14 @@ public class MaxEntOptimizableByLabelLikelihood implements Optimizable.ByGradien
 
 	public MaxEnt getClassifier () { return theClassifier; }
 
+	/**
+	 *  Set the executor for the batches, or null to compute them one after another
+	 *   in the calling thread, for example once the executor has been shut down.
+	 */
+	public void setExecutor (ExecutorService executor) {
+		this.executor = executor;
+	}
+
 	public double getParameter (int index) {
 		return parameters[index];
 	}
@@ -173,66 +206,25 @@ public class MaxEntOptimizableByLabelLikelihood implements Optimizable.ByGradien
 			cachedGradientStale = true;
 			MatrixOps.setAll (cachedGradient, 0.0);
 			// Incorporate likelihood of data
-			double[] scores = new double[trainingList.getTargetAlphabet().size()];
-			@Var
-			double value = 0.0;
-			Iterator<Instance> iter = trainingList.iterator();
-			@Var
-			int ii=0;
-			while (iter.hasNext()) {
-				ii++;
-				Instance instance = iter.next();
-				double instanceWeight = trainingList.getInstanceWeight(instance);
-				Labeling labeling = instance.getLabeling ();
-				if (labeling == null)
-					continue;
-				//System.out.println("L Now "+inputAlphabet.size()+" regular features.");
-
-				this.theClassifier.getClassificationScores (instance, scores);
-				FeatureVector fv = (FeatureVector) instance.getData ();
-				int li = labeling.getBestIndex();
-				value = - (instanceWeight * Math.log (scores[li]));
-				if(Double.isNaN(value)) {
-					logger.fine ("MaxEntTrainer: Instance " + instance.getName() +
-							"has NaN value. log(scores)= " + Math.log(scores[li]) +
-							" scores = " + scores[li] + 
-							" has instance weight = " + instanceWeight);
-
-				}
-				if (Double.isInfinite(value)) {
-					logger.warning ("Instance "+instance.getSource() + " has infinite value; skipping value and gradient");
-					cachedValue -= value;
-					cachedValueStale = false;
-					return -value;
-//					continue;
-				}
-				cachedValue += value;
-				for (int si = 0; si < scores.length; si++) {
-					if (scores[si] == 0) continue;
-					assert (!Double.isInfinite(scores[si]));
-					MatrixOps.rowPlusEquals (cachedGradient, numFeatures,
-							si, fv, -instanceWeight * scores[si]);
-					cachedGradient[numFeatures*si + defaultFeatureIndex] += (-instanceWeight * scores[si]);
+			if (executor == null || numBatches == 1) {
+				for (int batch = 0; batch < numBatches; batch++) {
+					cachedValue += addBatchExpectations (cachedGradient, getBatchAssignments(batch));
 				}
 			}
+			else {
+				cachedValue = getParallelExpectations ();
+			}
+
+			if (Double.isInfinite(cachedValue)) {
+				// An instance has zero probability; skip the prior
+				cachedValue = Double.NEGATIVE_INFINITY;
+				cachedValueStale = false;
+				return cachedValue;
+			}
 			//logger.info ("-Expectations:"); cachedGradient.print();
 
 			// Incorporate prior on parameters
-			@Var
-			double prior = 0;
-			if (usingHyperbolicPrior) {
-				for (int li = 0; li < numLabels; li++)
-					for (int fi = 0; fi < numFeatures; fi++)
-						prior += (hyperbolicPriorSlope / hyperbolicPriorSharpness
-								* Math.log (Maths.cosh (hyperbolicPriorSharpness * parameters[li *numFeatures + fi])));
-			}
-			else if (usingGaussianPrior) {
-				for (int li = 0; li < numLabels; li++)
-					for (int fi = 0; fi < numFeatures; fi++) {
-						double param = parameters[li*numFeatures + fi];
-						prior += param * param / (2 * gaussianPriorVariance);
-					}
-			}
+			double prior = getPriorPenalty ();
 
 			double oValue = cachedValue;
 			cachedValue += prior;
@@ -252,37 +244,229 @@ public class MaxEntOptimizableByLabelLikelihood implements Optimizable.ByGradien
 				// This will fill in the cachedGradient with the "-expectation"
 				getValue ();
 			MatrixOps.plusEquals (cachedGradient, constraints);
-			// Incorporate prior on parameters
-			if (usingHyperbolicPrior) {
-				throw new UnsupportedOperationException ("Hyperbolic prior not yet implemented.");
-			}
-			else if (usingGaussianPrior) {
-				MatrixOps.plusEquals (cachedGradient, parameters,
-									  -1.0 / gaussianPriorVariance);
-			}
-
-			// A parameter may be set to -infinity by an external user.
-			// We set gradient to 0 because the parameter's value can
-			// never change anyway and it will mess up future calculations
-			// on the matrix, such as norm().
-			MatrixOps.substitute (cachedGradient, Double.NEGATIVE_INFINITY, 0.0);
-			// Set to zero all the gradient dimensions that are not among the selected features
-			if (perLabelFeatureSelection == null) {
-				for (int labelIndex = 0; labelIndex < numLabels; labelIndex++)
-					MatrixOps.rowSetAll (cachedGradient, numFeatures,
-							labelIndex, 0.0, featureSelection, false);
-			} else {
-				for (int labelIndex = 0; labelIndex < numLabels; labelIndex++)
-					MatrixOps.rowSetAll (cachedGradient, numFeatures,
-							labelIndex, 0.0,
-							perLabelFeatureSelection[labelIndex], false);
-			}
+			addPriorGradient (cachedGradient);
+			cleanGradient (cachedGradient);
 			cachedGradientStale = false;
 		}
 		assert (buffer != null && buffer.length == parameters.length);
 		System.arraycopy (cachedGradient, 0, buffer, 0, cachedGradient.length);
 		//System.out.println ("MaxEntTrainer gradient infinity norm = "+MatrixOps.infinityNorm(cachedGradient));
 	}
+
+	/**
+	 *  Compute each batch's expectations into its own buffer on the executor, then sum
+	 *   the buffers into <code>cachedGradient</code>, also in parallel, with each task
+	 *   summing one contiguous range of parameters. Returns the negative log probability
+	 *   of the training labels.
+	 */
+	private double getParallelExpectations () {
+		if (batchExpectations == null) {
+			batchExpectations = new double[numBatches][ parameters.length ];
+		}
+
+		List<Callable<Double>> tasks = new ArrayList<Callable<Double>>(numBatches);
+		for (int batch = 0; batch < numBatches; batch++) {
+			double[] expectations = batchExpectations[batch];
+			int[] batchAssignments = getBatchAssignments(batch);
+			tasks.add(() -> {
+					Arrays.fill(expectations, 0.0);
+					return addBatchExpectations(expectations, batchAssignments);
+				});
+		}
+
+		@Var
+		double value = 0.0;
+		for (double batchValue: invokeAll(tasks)) {
+			value += batchValue;
+		}
+
+		tasks.clear();
+		for (int batch = 0; batch < numBatches; batch++) {
+			int start = (int) ((long) batch * parameters.length / numBatches);
+			int end = (int) ((long) (batch + 1) * parameters.length / numBatches);
+			tasks.add(() -> {
+					for (double[] expectations: batchExpectations) {
+						for (int i = start; i < end; i++) {
+							cachedGradient[i] += expectations[i];
+						}
+					}
+					return 0.0;
+				});
+		}
+		invokeAll(tasks);
+
+		return value;
+	}
+
+	/**
+	 *  Add the negative expected feature counts of instances <code>[start, end)</code> to
+	 *   <code>expectations</code>, if it is not null, and return their negative log
+	 *   probability. If an instance has zero probability, returns positive infinity
+	 *   without looking at the remaining instances.
+	 */
+	private double addBatchExpectations (double[] expectations, int[] batchAssignments) {
+		double[] scores = new double[numLabels];
+		@Var
+		double batchValue = 0.0;
+
+		for (int ii = batchAssignments[0]; ii < batchAssignments[1]; ii++) {
+			Instance instance = trainingList.get(ii);
+			double instanceWeight = trainingList.getInstanceWeight(instance);
+			Labeling labeling = instance.getLabeling ();
+			if (labeling == null)
+				continue;
+			//System.out.println("L Now "+inputAlphabet.size()+" regular features.");
+
+			this.theClassifier.getClassificationScores (instance, scores);
+			FeatureVector fv = (FeatureVector) instance.getData ();
+			int li = labeling.getBestIndex();
+			double value = - (instanceWeight * Math.log (scores[li]));
+			if(Double.isNaN(value)) {
+				logger.fine ("MaxEntTrainer: Instance " + instance.getName() +
+						"has NaN value. log(scores)= " + Math.log(scores[li]) +
+						" scores = " + scores[li] + 
+						" has instance weight = " + instanceWeight);
+
+			}
+			if (Double.isInfinite(value)) {
+				logger.warning ("Instance "+instance.getSource() + " has infinite value; skipping value and gradient");
+				return Double.POSITIVE_INFINITY;
+			}
+			batchValue += value;
+			if (expectations == null)
+				continue;
+			for (int si = 0; si < scores.length; si++) {
+				if (scores[si] == 0) continue;
+				assert (!Double.isInfinite(scores[si]));
+				MatrixOps.rowPlusEquals (expectations, numFeatures,
+						si, fv, -instanceWeight * scores[si]);
+				expectations[numFeatures*si + defaultFeatureIndex] += (-instanceWeight * scores[si]);
+			}
+		}
+		return batchValue;
+	}
+
+	/** The negative log of the prior on the parameters, or 0 if there is no prior. */
+	private double getPriorPenalty () {
+		@Var
+		double prior = 0;
+		if (usingHyperbolicPrior) {
+			for (int li = 0; li < numLabels; li++)
+				for (int fi = 0; fi < numFeatures; fi++)
+					prior += (hyperbolicPriorSlope / hyperbolicPriorSharpness
+							* Math.log (Maths.cosh (hyperbolicPriorSharpness * parameters[li *numFeatures + fi])));
+		}
+		else if (usingGaussianPrior) {
+			for (int li = 0; li < numLabels; li++)
+				for (int fi = 0; fi < numFeatures; fi++) {
+					double param = parameters[li*numFeatures + fi];
+					prior += param * param / (2 * gaussianPriorVariance);
+				}
+		}
+		return prior;
+	}
+
+	private void addPriorGradient (double[] gradient) {
+		// Incorporate prior on parameters
+		if (usingHyperbolicPrior) {
+			throw new UnsupportedOperationException ("Hyperbolic prior not yet implemented.");
+		}
+		else if (usingGaussianPrior) {
+			MatrixOps.plusEquals (gradient, parameters,
+								  -1.0 / gaussianPriorVariance);
+		}
+	}
+
+	private void cleanGradient (double[] gradient) {
+		// A parameter may be set to -infinity by an external user.
+		// We set gradient to 0 because the parameter's value can
+		// never change anyway and it will mess up future calculations
+		// on the matrix, such as norm().
+		MatrixOps.substitute (gradient, Double.NEGATIVE_INFINITY, 0.0);
+		// Set to zero all the gradient dimensions that are not among the selected features
+		if (perLabelFeatureSelection == null) {
+			for (int labelIndex = 0; labelIndex < numLabels; labelIndex++)
+				MatrixOps.rowSetAll (gradient, numFeatures,
+						labelIndex, 0.0, featureSelection, false);
+		} else {
+			for (int labelIndex = 0; labelIndex < numLabels; labelIndex++)
+				MatrixOps.rowSetAll (gradient, numFeatures,
+						labelIndex, 0.0,
+						perLabelFeatureSelection[labelIndex], false);
+		}
+	}
+
+	/** Run value or gradient tasks on the executor and return their results in order. */
+	private double[] invokeAll (List<Callable<Double>> tasks) {
+		double[] results = new double[ tasks.size() ];
+		try {
+			List<Future<Double>> futures = executor.invokeAll(tasks);
+			for (int i = 0; i < results.length; i++) {
+				results[i] = futures.get(i).get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while computing MaxEnt value", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("MaxEnt value thread failed", e.getCause());
+		}
+		return results;
+	}
+
+	/** The first (inclusive) and last (exclusive) instance index of one batch. */
+	int[] getBatchAssignments (int batchIndex) {
+		int numInstances = trainingList.size();
+		return new int[] { (int) ((long) batchIndex * numInstances / numBatches),
+						   (int) ((long) (batchIndex + 1) * numInstances / numBatches) };
+	}
+
+	public int getNumBatches () { return numBatches; }
+
+	/**
+	 *  The log probability of the training labels in one batch of instances,
+	 *   plus the log prior if this is the last batch.
+	 */
+	public double getBatchValue (int batchIndex, int[] batchAssignments) {
+		@Var
+		double value = -addBatchExpectations (null, batchAssignments);
+		if (batchIndex == numBatches - 1) {
+			value -= getPriorPenalty ();
+		}
+		return value;
+	}
+
+	/**
+	 *  Set the buffer to the gradient of the log probability of the training labels in
+	 *   one batch of instances, including the gradient of the prior if this is the last batch.
+	 */
+	public void getBatchValueGradient (double[] buffer, int batchIndex, int[] batchAssignments) {
+		Arrays.fill (buffer, 0.0);
+		addBatchExpectations (buffer, batchAssignments);
+
+		for (int ii = batchAssignments[0]; ii < batchAssignments[1]; ii++) {
+			Instance instance = trainingList.get(ii);
+			Labeling labeling = instance.getLabeling ();
+			if (labeling == null)
+				continue;
+			double instanceWeight = trainingList.getInstanceWeight(instance);
+			int li = labeling.getBestIndex();
+			MatrixOps.rowPlusEquals (buffer, numFeatures, li, (FeatureVector) instance.getData(), instanceWeight);
+			buffer[li*numFeatures + defaultFeatureIndex] += instanceWeight;
+		}
+
+		if (batchIndex == numBatches - 1) {
+			addPriorGradient (buffer);
+		}
+	}
+
+	/** Add up the gradients of all batches. */
+	public void combineGradients (Collection<double[]> gradients, double[] buffer) {
+		Arrays.fill (buffer, 0.0);
+		for (double[] gradient: gradients) {
+			MatrixOps.plusEquals (buffer, gradient);
+		}
+		cleanGradient (buffer);
+	}
 	
 	// XXX Should these really be public?  Why?
 	/** Counts how many times this trainer has computed the gradient of the 
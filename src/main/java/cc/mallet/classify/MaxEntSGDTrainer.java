@@ -0,0 +1,561 @@
+/* Copyright (C) 2002 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package cc.mallet.classify;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import com.google.errorprone.annotations.Var;
+
+import cc.mallet.pipe.Pipe;
+import cc.mallet.types.Alphabet;
+import cc.mallet.types.FeatureSelection;
+import cc.mallet.types.FeatureVector;
+import cc.mallet.types.Instance;
+import cc.mallet.types.InstanceList;
+import cc.mallet.types.Labeling;
+import cc.mallet.util.MalletLogger;
+
+/**
+ * Trains a {@link MaxEnt} classifier by mini-batch stochastic gradient ascent on the
+ *  conditional log-likelihood, either with one step size per pass that decays from
+ *  pass to pass, or with per-parameter AdaGrad step sizes.
+ * <p>
+ * The objective is the one {@link MaxEntTrainer} maximizes: a Gaussian prior with
+ *  variance <code>gaussianPriorVariance</code> and an optional L1 penalty, spread evenly
+ *  over the training instances. The penalties touch every parameter, but an instance
+ *  only touches the weights of its own features. Each feature therefore records the
+ *  step through which it has been regularized, and the steps it missed are applied in
+ *  closed form the next time an instance uses it, and at the end of every pass.
+ * <p>
+ * With several threads, the threads take mini-batches from the same shuffled pass and
+ *  update the shared weights without locking ("Hogwild!"). Concurrent updates to the
+ *  same weight can then be lost, so results depend on scheduling. With one thread,
+ *  training is deterministic given the random seed.
+ * <p>
+ * If validation instances are set, their log-likelihood is measured after every pass,
+ *  and training stops once it has not improved for <code>patience</code> passes. The
+ *  classifier then gets the weights of the best pass.
+ * <p>
+ * Instances are weighted by their instance weights. Per-label feature selections are
+ *  not supported.
+ */
+public class MaxEntSGDTrainer extends ClassifierTrainer<MaxEnt>
+	implements ClassifierTrainer.ByIncrements<MaxEnt>, Serializable
+{
+	private static Logger logger = MalletLogger.getLogger(MaxEntSGDTrainer.class.getName());
+
+	static final double DEFAULT_GAUSSIAN_PRIOR_VARIANCE = 1;
+	// AdaGrad's sums of squared gradients start here, which bounds the first steps
+	static final double ADAGRAD_INITIAL_ACCUMULATOR = 0.1;
+
+	int numIterations = 20;		// passes over the training instances
+	int batchSize = 32;
+	double learningRate = 0.1;
+	double learningRateDecay = 1.0;
+	boolean adaGrad = true;
+	double gaussianPriorVariance = DEFAULT_GAUSSIAN_PRIOR_VARIANCE;
+	double l1Weight = 0.0;
+	int numThreads = 1;
+	int patience = 3;
+	int randomSeed = 1;
+
+	MaxEnt initialClassifier;
+	MaxEnt classifier;
+
+	// Training state, kept between calls to trainIncremental
+	Pipe instancePipe;
+	int numLabels;
+	int defaultFeatureIndex;
+	int numFeatures;
+	FeatureSelection featureSelection;
+	double[] weights;				// indexed by <featureIndex,labelIndex>
+	double[] squaredGradients;		// AdaGrad only, indexed like the weights
+	int[] lastStep;					// the first step whose penalties each feature has not had
+	double l2Penalty;				// the per-step share of the penalties
+	double l1Penalty;
+	double stepSize;				// the step size of the current pass, without AdaGrad
+	int iteration = 0;
+	Random random;
+
+	public MaxEntSGDTrainer () {}
+
+	/** Start training from the parameters of this classifier. */
+	public MaxEntSGDTrainer (MaxEnt initialClassifier) {
+		this.initialClassifier = initialClassifier;
+	}
+
+	public MaxEntSGDTrainer setNumIterations (int numIterations) {
+		this.numIterations = numIterations;
+		return this;
+	}
+
+	public int getIteration () {
+		return iteration;
+	}
+
+	/** The number of instances whose gradients are averaged in each update. */
+	public MaxEntSGDTrainer setBatchSize (int batchSize) {
+		this.batchSize = batchSize;
+		return this;
+	}
+
+	/**
+	 *  The step size. With AdaGrad each parameter's step is this divided by the root of
+	 *   its sum of squared gradients; without it, pass <i>t</i> takes steps of
+	 *   <code>learningRate / (1 + learningRateDecay * t)</code>.
+	 */
+	public MaxEntSGDTrainer setLearningRate (double learningRate) {
+		this.learningRate = learningRate;
+		return this;
+	}
+
+	public MaxEntSGDTrainer setLearningRateDecay (double learningRateDecay) {
+		this.learningRateDecay = learningRateDecay;
+		return this;
+	}
+
+	public MaxEntSGDTrainer setAdaGrad (boolean adaGrad) {
+		this.adaGrad = adaGrad;
+		return this;
+	}
+
+	/** A smaller variance keeps the weights closer to 0. Use infinity for no L2 penalty. */
+	public MaxEntSGDTrainer setGaussianPriorVariance (double gaussianPriorVariance) {
+		this.gaussianPriorVariance = gaussianPriorVariance;
+		return this;
+	}
+
+	/** Add an L1 penalty. Larger values mean more weights will be exactly 0. */
+	public MaxEntSGDTrainer setL1Weight (double l1Weight) {
+		this.l1Weight = l1Weight;
+		return this;
+	}
+
+	/** Update the weights from this many threads at once, without locking. */
+	public MaxEntSGDTrainer setNumThreads (int numThreads) {
+		this.numThreads = numThreads;
+		return this;
+	}
+
+	public int getNumThreads () {
+		return numThreads;
+	}
+
+	/** With validation instances, stop after this many passes without improvement. */
+	public MaxEntSGDTrainer setPatience (int patience) {
+		this.patience = patience;
+		return this;
+	}
+
+	/** The seed for shuffling the instances. */
+	public MaxEntSGDTrainer setRandomSeed (int randomSeed) {
+		this.randomSeed = randomSeed;
+		return this;
+	}
+
+	public MaxEnt getClassifier () {
+		if (weights == null)
+			return initialClassifier;
+
+		if (classifier == null) {
+			classifier = new MaxEnt (instancePipe, null, featureSelection);
+		}
+		// MaxEnt is label-major
+		double[] parameters = classifier.getParameters();
+		for (int fi = 0; fi < numFeatures; fi++)
+			for (int li = 0; li < numLabels; li++)
+				parameters[li * numFeatures + fi] = weights[fi * numLabels + li];
+		return classifier;
+	}
+
+	public MaxEnt train (InstanceList trainingSet) {
+		initialize (trainingSet);
+
+		boolean validating = validationSet != null && validationSet.size() > 0;
+		@Var
+		double bestValue = Double.NEGATIVE_INFINITY;
+		@Var
+		double[] bestWeights = null;
+		@Var
+		int passesSinceBest = 0;
+
+		finishedTraining = false;
+		ExecutorService executor = numThreads > 1 ? Executors.newFixedThreadPool(numThreads) : null;
+		try {
+			for (int i = 0; i < numIterations; i++) {
+				double value = trainPass (trainingSet, executor);
+				if (! validating) {
+					logger.fine ("Pass " + iteration + ": training log-likelihood " + value);
+					continue;
+				}
+
+				double validationValue = getLogLikelihood (validationSet);
+				logger.fine ("Pass " + iteration + ": training log-likelihood " + value +
+							 ", validation log-likelihood " + validationValue);
+				if (validationValue > bestValue) {
+					bestValue = validationValue;
+					bestWeights = weights.clone();
+					passesSinceBest = 0;
+				}
+				else if (++passesSinceBest >= patience) {
+					logger.info ("Stopping after pass " + iteration + ", the best validation log-likelihood was " +
+								 passesSinceBest + " passes ago");
+					finishedTraining = true;
+					break;
+				}
+			}
+		} finally {
+			if (executor != null)
+				executor.shutdown();
+		}
+
+		if (bestWeights != null)
+			System.arraycopy (bestWeights, 0, weights, 0, weights.length);
+		return getClassifier();
+	}
+
+	/**
+	 *  Make one pass over these instances, continuing from the current weights. The first
+	 *   call starts from the initial classifier, if there is one, and sets the penalties
+	 *   from the size of its instance list.
+	 */
+	public MaxEnt trainIncremental (InstanceList trainingInstancesToAdd) {
+		if (weights == null)
+			initialize (trainingInstancesToAdd);
+		assert (Alphabet.alphabetsMatch (trainingInstancesToAdd, getClassifier()));
+
+		ExecutorService executor = numThreads > 1 ? Executors.newFixedThreadPool(numThreads) : null;
+		try {
+			trainPass (trainingInstancesToAdd, executor);
+		} finally {
+			if (executor != null)
+				executor.shutdown();
+		}
+		return getClassifier();
+	}
+
+	private void initialize (InstanceList trainingSet) {
+		if (trainingSet.getPerLabelFeatureSelection() != null)
+			throw new UnsupportedOperationException ("Per-label feature selections are not supported");
+
+		instancePipe = trainingSet.getPipe();
+		numLabels = trainingSet.getTargetAlphabet().size();
+		defaultFeatureIndex = trainingSet.getDataAlphabet().size();
+		numFeatures = defaultFeatureIndex + 1;
+		featureSelection = trainingSet.getFeatureSelection();
+
+		weights = new double[numFeatures * numLabels];
+		if (initialClassifier != null) {
+			assert (Alphabet.alphabetsMatch (trainingSet, initialClassifier));
+			assert (initialClassifier.getDefaultFeatureIndex() == defaultFeatureIndex);
+			double[] parameters = initialClassifier.getParameters();
+			for (int li = 0; li < numLabels; li++)
+				for (int fi = 0; fi < numFeatures; fi++)
+					weights[fi * numLabels + li] = parameters[li * numFeatures + fi];
+			classifier = initialClassifier;
+		}
+		else {
+			classifier = null;
+		}
+
+		if (adaGrad) {
+			squaredGradients = new double[weights.length];
+			Arrays.fill (squaredGradients, ADAGRAD_INITIAL_ACCUMULATOR);
+		}
+		else {
+			squaredGradients = null;
+		}
+		lastStep = new int[numFeatures];
+
+		int numInstances = Math.max (1, trainingSet.size());
+		l2Penalty = 1.0 / (gaussianPriorVariance * numInstances);
+		l1Penalty = l1Weight / numInstances;
+		iteration = 0;
+		random = new Random (randomSeed);
+	}
+
+	/** Returns the log-likelihood of the training instances, each scored just before its update. */
+	private double trainPass (InstanceList instances, ExecutorService executor) {
+		int[] order = new int[instances.size()];
+		for (int i = 0; i < order.length; i++)
+			order[i] = i;
+		for (int i = order.length - 1; i > 0; i--) {
+			int j = random.nextInt (i + 1);
+			int swap = order[i];
+			order[i] = order[j];
+			order[j] = swap;
+		}
+
+		stepSize = learningRate / (1.0 + learningRateDecay * iteration);
+		int numBatches = (order.length + batchSize - 1) / batchSize;
+		AtomicInteger nextBatch = new AtomicInteger (0);
+
+		Callable<Double> pass = () -> {
+			Scratch scratch = new Scratch();
+			@Var
+			double value = 0.0;
+			for (int batch = nextBatch.getAndIncrement(); batch < numBatches; batch = nextBatch.getAndIncrement()) {
+				value += trainBatch (instances, order, batch * batchSize,
+									 Math.min (order.length, (batch + 1) * batchSize), batch, scratch);
+			}
+			return value;
+		};
+
+		@Var
+		double value = 0.0;
+		if (executor == null) {
+			try {
+				value = pass.call();
+			} catch (Exception e) {
+				throw new IllegalStateException ("SGD pass failed", e);
+			}
+		}
+		else {
+			List<Callable<Double>> tasks = new ArrayList<Callable<Double>>(numThreads);
+			for (int thread = 0; thread < numThreads; thread++)
+				tasks.add (pass);
+			try {
+				for (Future<Double> future: executor.invokeAll (tasks))
+					value += future.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException ("Interrupted while training", e);
+			} catch (ExecutionException e) {
+				throw new IllegalStateException ("SGD training thread failed", e.getCause());
+			}
+		}
+
+		// Bring every feature up to the end of the pass; the next pass counts from zero
+		for (int fi = 0; fi < numFeatures; fi++) {
+			regularize (fi, numBatches - lastStep[fi]);
+			lastStep[fi] = 0;
+		}
+		iteration++;
+		return value;
+	}
+
+	/** Per-thread buffers for the gradient of one mini-batch, by feature. */
+	private class Scratch {
+		final int[] slots = new int[numFeatures];		// each feature's row in gradients, or -1
+		int[] features = new int[64];
+		double[] gradients = new double[64 * numLabels];
+		int numTouched = 0;
+		final double[] scores = new double[numLabels];
+
+		Scratch () {
+			Arrays.fill (slots, -1);
+		}
+
+		/** Reserve a gradient row for this feature and regularize it up to <code>step</code>. */
+		void touch (int fi, int step) {
+			if (slots[fi] != -1)
+				return;
+			if (numTouched == features.length) {
+				features = Arrays.copyOf (features, 2 * features.length);
+				gradients = Arrays.copyOf (gradients, features.length * numLabels);
+			}
+			slots[fi] = numTouched;
+			features[numTouched++] = fi;
+			regularize (fi, step - lastStep[fi]);
+			lastStep[fi] = step;
+		}
+	}
+
+	private double trainBatch (InstanceList instances, int[] order, int start, int end,
+							   int step, Scratch scratch) {
+		// Catch up the rows of the batch's features before scoring with them
+		scratch.touch (defaultFeatureIndex, step);
+		for (int i = start; i < end; i++) {
+			Instance instance = instances.get (order[i]);
+			if (instance.getLabeling() == null)
+				continue;
+			FeatureVector fv = (FeatureVector) instance.getData();
+			for (int location = 0; location < fv.numLocations(); location++) {
+				int fi = fv.indexAtLocation (location);
+				if (fi < defaultFeatureIndex && (featureSelection == null || featureSelection.contains (fi)))
+					scratch.touch (fi, step);
+			}
+		}
+
+		@Var
+		double value = 0.0;
+		@Var
+		int numInstances = 0;
+		double[] scores = scratch.scores;
+		for (int i = start; i < end; i++) {
+			Instance instance = instances.get (order[i]);
+			Labeling labeling = instance.getLabeling();
+			if (labeling == null)
+				continue;
+			numInstances++;
+			double instanceWeight = instances.getInstanceWeight (instance);
+			FeatureVector fv = (FeatureVector) instance.getData();
+			int correctLabel = labeling.getBestIndex();
+
+			value += instanceWeight * getLogProbabilities (fv, scores)[correctLabel];
+
+			// The gradient of the log-likelihood is (observed - expected) feature counts
+			for (int li = 0; li < numLabels; li++)
+				scores[li] = instanceWeight * ((li == correctLabel ? 1.0 : 0.0) - Math.exp (scores[li]));
+			for (int location = 0; location < fv.numLocations(); location++) {
+				int fi = fv.indexAtLocation (location);
+				// Features added to the alphabet after the first pass have no weights
+				if (fi >= defaultFeatureIndex || (featureSelection != null && ! featureSelection.contains (fi)))
+					continue;
+				int slot = scratch.slots[fi];
+				double featureValue = fv.valueAtLocation (location);
+				int offset = slot * numLabels;
+				for (int li = 0; li < numLabels; li++)
+					scratch.gradients[offset + li] += scores[li] * featureValue;
+			}
+			int offset = scratch.slots[defaultFeatureIndex] * numLabels;
+			for (int li = 0; li < numLabels; li++)
+				scratch.gradients[offset + li] += scores[li];
+		}
+
+		for (int slot = 0; slot < scratch.numTouched; slot++) {
+			int fi = scratch.features[slot];
+			int gradientOffset = slot * numLabels;
+			int weightOffset = fi * numLabels;
+			if (numInstances > 0) {
+				for (int li = 0; li < numLabels; li++) {
+					double gradient = scratch.gradients[gradientOffset + li] / numInstances;
+					if (adaGrad) {
+						squaredGradients[weightOffset + li] += gradient * gradient;
+						weights[weightOffset + li] += learningRate * gradient / Math.sqrt (squaredGradients[weightOffset + li]);
+					}
+					else {
+						weights[weightOffset + li] += stepSize * gradient;
+					}
+				}
+			}
+			// This step's share of the penalties is applied with the next catch-up
+			Arrays.fill (scratch.gradients, gradientOffset, gradientOffset + numLabels, 0.0);
+			scratch.slots[fi] = -1;
+		}
+		scratch.numTouched = 0;
+
+		return value;
+	}
+
+	/**
+	 *  Apply <code>numSteps</code> steps of the penalties to one feature's weights. Each
+	 *   step divides a weight by <code>1 + rate * l2Penalty</code> and then moves it
+	 *   <code>rate * l1Penalty</code> towards 0, stopping at 0. Since the weight only
+	 *   shrinks, the steps can be applied at once: after <i>k</i> steps its magnitude is
+	 *   <code>|w| d<sup>k</sup> - rate * l1Penalty * (1 + d + ... + d<sup>k-1</sup>)</code>,
+	 *   where <code>d = 1 / (1 + rate * l2Penalty)</code>, or 0 if that is negative.
+	 */
+	private void regularize (int fi, int numSteps) {
+		if (numSteps <= 0 || (l2Penalty == 0.0 && l1Penalty == 0.0))
+			return;
+		int offset = fi * numLabels;
+		if (! adaGrad) {
+			// Every weight in the row has the same step size
+			double decay = 1.0 / (1.0 + stepSize * l2Penalty);
+			double scale = numSteps == 1 ? decay : Math.pow (decay, numSteps);
+			double shrinkage = stepSize * l1Penalty * (decay == 1.0 ? numSteps : (1.0 - scale) / (1.0 - decay));
+			for (int li = 0; li < numLabels; li++)
+				weights[offset + li] = shrink (weights[offset + li], scale, shrinkage);
+			return;
+		}
+		for (int li = 0; li < numLabels; li++) {
+			if (weights[offset + li] == 0.0)
+				continue;
+			double rate = learningRate / Math.sqrt (squaredGradients[offset + li]);
+			double decay = 1.0 / (1.0 + rate * l2Penalty);
+			double scale = numSteps == 1 ? decay : Math.pow (decay, numSteps);
+			double shrinkage = rate * l1Penalty * (decay == 1.0 ? numSteps : (1.0 - scale) / (1.0 - decay));
+			weights[offset + li] = shrink (weights[offset + li], scale, shrinkage);
+		}
+	}
+
+	private static double shrink (double weight, double scale, double shrinkage) {
+		double magnitude = Math.abs (weight) * scale - shrinkage;
+		return magnitude > 0.0 ? Math.copySign (magnitude, weight) : 0.0;
+	}
+
+	/** Fill <code>scores</code> with the log probability of each label, and return it. */
+	private double[] getLogProbabilities (FeatureVector fv, double[] scores) {
+		int biasOffset = defaultFeatureIndex * numLabels;
+		for (int li = 0; li < numLabels; li++)
+			scores[li] = weights[biasOffset + li];
+		for (int location = 0; location < fv.numLocations(); location++) {
+			int fi = fv.indexAtLocation (location);
+			if (fi >= defaultFeatureIndex || (featureSelection != null && ! featureSelection.contains (fi)))
+				continue;
+			double featureValue = fv.valueAtLocation (location);
+			int offset = fi * numLabels;
+			for (int li = 0; li < numLabels; li++)
+				scores[li] += weights[offset + li] * featureValue;
+		}
+
+		@Var
+		double max = Double.NEGATIVE_INFINITY;
+		for (int li = 0; li < numLabels; li++)
+			max = Math.max (max, scores[li]);
+		@Var
+		double sum = 0.0;
+		for (int li = 0; li < numLabels; li++)
+			sum += Math.exp (scores[li] - max);
+		double logNormalizer = max + Math.log (sum);
+		for (int li = 0; li < numLabels; li++)
+			scores[li] -= logNormalizer;
+		return scores;
+	}
+
+	/** The weighted log-likelihood of the labeled instances under the weights being trained. */
+	public double getLogLikelihood (InstanceList instances) {
+		double[] scores = new double[numLabels];
+		@Var
+		double value = 0.0;
+		for (Instance instance: instances) {
+			Labeling labeling = instance.getLabeling();
+			if (labeling == null)
+				continue;
+			FeatureVector fv = (FeatureVector) instance.getData();
+			value += instances.getInstanceWeight (instance) *
+				getLogProbabilities (fv, scores)[labeling.getBestIndex()];
+		}
+		return value;
+	}
+
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+
+		builder.append("MaxEntSGDTrainer");
+		builder.append(",numIterations=" + numIterations);
+		builder.append(",batchSize=" + batchSize);
+		builder.append(",learningRate=" + learningRate);
+		if (! adaGrad) {
+			builder.append(",adaGrad=false,learningRateDecay=" + learningRateDecay);
+		}
+		if (numThreads > 1) {
+			builder.append(",numThreads=" + numThreads);
+		}
+		builder.append(",gaussianPriorVariance=" + gaussianPriorVariance);
+		if (l1Weight != 0.0) {
+			builder.append(",l1Weight=" + l1Weight);
+		}
+
+		return builder.toString();
+	}
+
+	private static final long serialVersionUID = 1;
+}
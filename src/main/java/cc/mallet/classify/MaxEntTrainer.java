@@ -10,6 +10,8 @@ package cc.mallet.classify;
 import java.util.logging.*;
 import java.util.*;
 import java.io.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import cc.mallet.classify.Classifier;
 import cc.mallet.optimize.ConjugateGradient;
@@ -51,6 +53,9 @@ import cc.mallet.util.Maths;
 public class MaxEntTrainer extends ClassifierTrainer<MaxEnt>
 	implements ClassifierTrainer.ByOptimization<MaxEnt>, Boostable, Serializable {
 
+	// The value computed for the class before numThreads was added, so that saved trainers still load
+	private static final long serialVersionUID = 2366539957903630089L;
+
 	private static Logger logger = MalletLogger.getLogger(MaxEntTrainer.class.getName());
 	private static Logger progressLogger = MalletProgressMessageLogger.getLogger(MaxEntTrainer.class.getName()+"-pl");
 
@@ -70,6 +75,10 @@ public class MaxEntTrainer extends ClassifierTrainer<MaxEnt>
 
 	Class maximizerClass = DEFAULT_MAXIMIZER_CLASS;
 
+	// With more than one thread, the value and gradient are computed in
+	//  this many batches of instances in parallel.
+	int numThreads = 1;
+
 	InstanceList trainingSet = null;
 	MaxEnt initialClassifier;
 
@@ -138,7 +147,7 @@ public class MaxEntTrainer extends ClassifierTrainer<MaxEnt>
 			this.initialClassifier = initialClassifier;
 
 			if (optimizable == null || optimizable.trainingList != trainingSet) {
-				optimizable = new MaxEntOptimizableByLabelLikelihood (trainingSet, initialClassifier);
+				optimizable = new MaxEntOptimizableByLabelLikelihood (trainingSet, initialClassifier, numThreads, null);
 
 				if (l1Weight == 0.0) {
 					optimizable.setGaussianPriorVariance(gaussianPriorVariance);
@@ -237,11 +246,43 @@ public class MaxEntTrainer extends ClassifierTrainer<MaxEnt>
 		return this;
 	}
 
+	/**
+	 *  Compute the value and gradient with several threads, each handling a
+	 *   contiguous batch of the training instances with its own gradient buffer.
+	 *   The threads only run during {@link #train(InstanceList, int)}. The number
+	 *   of batches is fixed when the optimizable for a training set is created.
+	 */
+	public MaxEntTrainer setNumThreads (int numThreads) {
+		this.numThreads = numThreads;
+		return this;
+	}
+
+	public int getNumThreads () {
+		return numThreads;
+	}
+
 	public MaxEnt train (InstanceList trainingSet) {
 		return train (trainingSet, numIterations);
 	}
 
 	public MaxEnt train (InstanceList trainingSet, int numIterations)
+	{
+		if (numThreads <= 1) {
+			return trainWithOptimizer (trainingSet, numIterations);
+		}
+
+		getOptimizable (trainingSet);
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+		optimizable.setExecutor(executor);
+		try {
+			return trainWithOptimizer (trainingSet, numIterations);
+		} finally {
+			optimizable.setExecutor(null);
+			executor.shutdown();
+		}
+	}
+
+	private MaxEnt trainWithOptimizer (InstanceList trainingSet, int numIterations)
 	{
 		logger.fine ("trainingSet.size() = "+trainingSet.size());
 		getOptimizer (trainingSet);  // This will set this.optimizer, this.optimizable
@@ -486,6 +527,9 @@ public class MaxEntTrainer extends ClassifierTrainer<MaxEnt>
 		if (numIterations < Integer.MAX_VALUE) {
 			builder.append(",numIterations=" + numIterations);
 		}
+		if (numThreads > 1) {
+			builder.append(",numThreads=" + numThreads);
+		}
 		if (l1Weight != 0.0) {
 			builder.append(",l1Weight=" + l1Weight);
 		}
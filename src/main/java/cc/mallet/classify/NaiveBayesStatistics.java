@@ -0,0 +1,285 @@
+/* Copyright (C) 2002 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package cc.mallet.classify;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.carrotsearch.hppc.IntDoubleHashMap;
+import com.carrotsearch.hppc.cursors.IntDoubleCursor;
+import com.google.errorprone.annotations.Var;
+
+import cc.mallet.types.Alphabet;
+import cc.mallet.types.AlphabetCarrying;
+import cc.mallet.types.FeatureVector;
+import cc.mallet.types.Instance;
+import cc.mallet.types.InstanceList;
+import cc.mallet.types.Labeling;
+import cc.mallet.types.Multinomial;
+
+/**
+ * The sufficient statistics of a {@link NaiveBayes} classifier: the weighted count
+ *  of each feature under each label, and the weight of each label.
+ * <p>
+ * The feature counts are kept in one sparse map per label, so memory grows with the
+ *  number of non-zero counts rather than with labels &times; vocabulary. Statistics
+ *  gathered from different parts of a corpus, possibly in different threads or
+ *  processes, can be combined with {@link #merge}, and saved by serialization.
+ *  {@link NaiveBayesTrainer#train(NaiveBayesStatistics)} turns them into a classifier.
+ * <p>
+ * Instances are counted as {@link NaiveBayesTrainer} counts them: unlabeled instances
+ *  and instances with no features are skipped, and with a positive
+ *  <code>docLengthNormalization</code> each instance is scaled so that its feature
+ *  values sum to that length.
+ */
+public class NaiveBayesStatistics implements AlphabetCarrying, Serializable
+{
+	Alphabet dataAlphabet;
+	Alphabet targetAlphabet;
+	double docLengthNormalization;
+	IntDoubleHashMap[] featureCounts;		// indexed by label, then feature
+	double[] labelCounts;
+
+	public NaiveBayesStatistics (Alphabet dataAlphabet, Alphabet targetAlphabet, double docLengthNormalization)
+	{
+		this.dataAlphabet = dataAlphabet;
+		this.targetAlphabet = targetAlphabet;
+		this.docLengthNormalization = docLengthNormalization;
+		this.featureCounts = new IntDoubleHashMap[0];
+		this.labelCounts = new double[0];
+		ensureLabelCapacity (targetAlphabet.size());
+	}
+
+	public NaiveBayesStatistics (Alphabet dataAlphabet, Alphabet targetAlphabet)
+	{
+		this (dataAlphabet, targetAlphabet, -1);
+	}
+
+	/** Count every instance of the list, using <code>numThreads</code> threads. */
+	public static NaiveBayesStatistics count (InstanceList instances, double docLengthNormalization, int numThreads)
+	{
+		Alphabet dataAlphabet = instances.getDataAlphabet();
+		Alphabet targetAlphabet = instances.getTargetAlphabet();
+		int numShards = Math.min (numThreads, instances.size());
+		if (numShards <= 1)
+			return new NaiveBayesStatistics (dataAlphabet, targetAlphabet, docLengthNormalization).add (instances);
+
+		// Each thread counts a contiguous shard, and the later shards are merged into the first, in order
+		List<Callable<NaiveBayesStatistics>> tasks = new ArrayList<Callable<NaiveBayesStatistics>>();
+		for (int shard = 0; shard < numShards; shard++) {
+			int start = (int) ((long) shard * instances.size() / numShards);
+			int end = (int) ((long) (shard + 1) * instances.size() / numShards);
+			tasks.add (() -> {
+				NaiveBayesStatistics statistics =
+					new NaiveBayesStatistics (dataAlphabet, targetAlphabet, docLengthNormalization);
+				for (int i = start; i < end; i++)
+					statistics.add (instances.get(i), instances.getInstanceWeight(i));
+				return statistics;
+			});
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool (numShards);
+		try {
+			List<Future<NaiveBayesStatistics>> futures = executor.invokeAll (tasks);
+			NaiveBayesStatistics statistics = futures.get(0).get();
+			for (int shard = 1; shard < numShards; shard++)
+				statistics.merge (futures.get(shard).get());
+			return statistics;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException ("Interrupted while counting NaiveBayes statistics", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException ("NaiveBayes counting thread failed", e.getCause());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	public double getDocLengthNormalization () {
+		return docLengthNormalization;
+	}
+
+	public int getNumLabels () {
+		return labelCounts.length;
+	}
+
+	/** The total weight of the instances counted under label <code>li</code>. */
+	public double getLabelCount (int li) {
+		return li < labelCounts.length ? labelCounts[li] : 0.0;
+	}
+
+	/** The weighted count of feature <code>fi</code> under label <code>li</code>. */
+	public double getFeatureCount (int li, int fi) {
+		return li < featureCounts.length ? featureCounts[li].getOrDefault (fi, 0.0) : 0.0;
+	}
+
+	/** The number of non-zero feature counts, over all labels. */
+	public int getNumFeatureCounts () {
+		@Var
+		int total = 0;
+		for (IntDoubleHashMap counts : featureCounts)
+			total += counts.size();
+		return total;
+	}
+
+	public NaiveBayesStatistics add (InstanceList instances)
+	{
+		for (int i = 0; i < instances.size(); i++)
+			add (instances.get(i), instances.getInstanceWeight(i));
+		return this;
+	}
+
+	/** Count instances one at a time, for example as they come out of a pipe, without keeping them. */
+	public NaiveBayesStatistics add (Iterator<Instance> instances)
+	{
+		while (instances.hasNext())
+			add (instances.next(), 1.0);
+		return this;
+	}
+
+	public NaiveBayesStatistics add (Instance instance, @Var double instanceWeight)
+	{
+		Labeling labeling = instance.getLabeling ();
+		if (labeling == null) return this; // Handle unlabeled instances by skipping them
+		FeatureVector fv = (FeatureVector) instance.getData ();
+		if (fv.getAlphabet() != dataAlphabet)
+			throw new IllegalArgumentException ("Vocabularies don't match.");
+		double oneNorm = fv.oneNorm();
+		if (oneNorm <= 0) return this; // Skip instances that have no features present
+		if (docLengthNormalization > 0)
+			instanceWeight *= docLengthNormalization / oneNorm;
+		assert (instanceWeight > 0 && !Double.isInfinite(instanceWeight));
+		ensureLabelCapacity (targetAlphabet.size());
+		for (int lpos = 0; lpos < labeling.numLocations(); lpos++) {
+			int li = labeling.indexAtLocation (lpos);
+			double labelWeight = labeling.valueAtLocation (lpos);
+			if (labelWeight == 0) continue;
+			double weight = labelWeight * instanceWeight;
+			IntDoubleHashMap counts = featureCounts[li];
+			for (int location = 0; location < fv.numLocations(); location++)
+				counts.addTo (fv.indexAtLocation (location), weight * fv.valueAtLocation (location));
+			labelCounts[li] += weight;
+		}
+		return this;
+	}
+
+	/**
+	 * Add the counts of <code>other</code> to these. The two must have the same
+	 *  alphabets and the same document length normalization.
+	 */
+	public NaiveBayesStatistics merge (NaiveBayesStatistics other)
+	{
+		if (!alphabetsMatch (other))
+			throw new IllegalArgumentException ("NaiveBayesStatistics alphabets do not match.");
+		if (docLengthNormalization != other.docLengthNormalization)
+			throw new IllegalArgumentException ("NaiveBayesStatistics document length normalizations differ: " +
+												docLengthNormalization + " and " + other.docLengthNormalization);
+		ensureLabelCapacity (other.labelCounts.length);
+		for (int li = 0; li < other.labelCounts.length; li++) {
+			IntDoubleHashMap counts = featureCounts[li];
+			for (IntDoubleCursor cursor : other.featureCounts[li])
+				counts.addTo (cursor.key, cursor.value);
+			labelCounts[li] += other.labelCounts[li];
+		}
+		return this;
+	}
+
+	/** Add these counts to the estimators of a trainer, one per label, and to its prior estimator. */
+	void incrementEstimators (Multinomial.Estimator[] featureEstimators, Multinomial.Estimator priorEstimator)
+	{
+		for (int li = 0; li < labelCounts.length; li++) {
+			for (IntDoubleCursor cursor : featureCounts[li])
+				featureEstimators[li].increment (cursor.key, cursor.value);
+			if (labelCounts[li] != 0)
+				priorEstimator.increment (li, labelCounts[li]);
+		}
+	}
+
+	private void ensureLabelCapacity (int numLabels)
+	{
+		if (numLabels <= labelCounts.length)
+			return;
+		IntDoubleHashMap[] newFeatureCounts = new IntDoubleHashMap[numLabels];
+		System.arraycopy (featureCounts, 0, newFeatureCounts, 0, featureCounts.length);
+		for (int li = featureCounts.length; li < numLabels; li++)
+			newFeatureCounts[li] = new IntDoubleHashMap();
+		featureCounts = newFeatureCounts;
+		double[] newLabelCounts = new double[numLabels];
+		System.arraycopy (labelCounts, 0, newLabelCounts, 0, labelCounts.length);
+		labelCounts = newLabelCounts;
+	}
+
+
+	// AlphabetCarrying interface
+	public boolean alphabetsMatch (AlphabetCarrying object) {
+		return Alphabet.alphabetsMatch (this, object);
+	}
+
+	public Alphabet getAlphabet () {
+		return dataAlphabet;
+	}
+
+	public Alphabet[] getAlphabets () {
+		return new Alphabet[] { dataAlphabet, targetAlphabet };
+	}
+
+
+	// Serialization
+	// The maps are written as (feature, count) pairs, since they are not serializable themselves.
+
+	private static final long serialVersionUID = 1;
+	private static final int CURRENT_SERIAL_VERSION = 1;
+
+	private void writeObject (ObjectOutputStream out) throws IOException
+	{
+		out.writeInt (CURRENT_SERIAL_VERSION);
+		out.writeObject (dataAlphabet);
+		out.writeObject (targetAlphabet);
+		out.writeDouble (docLengthNormalization);
+		out.writeInt (labelCounts.length);
+		for (int li = 0; li < labelCounts.length; li++) {
+			out.writeDouble (labelCounts[li]);
+			out.writeInt (featureCounts[li].size());
+			for (IntDoubleCursor cursor : featureCounts[li]) {
+				out.writeInt (cursor.key);
+				out.writeDouble (cursor.value);
+			}
+		}
+	}
+
+	private void readObject (ObjectInputStream in) throws IOException, ClassNotFoundException
+	{
+		int version = in.readInt ();
+		if (version != CURRENT_SERIAL_VERSION)
+			throw new ClassNotFoundException ("Mismatched NaiveBayesStatistics versions: wanted " +
+											  CURRENT_SERIAL_VERSION + ", got " + version);
+		dataAlphabet = (Alphabet) in.readObject ();
+		targetAlphabet = (Alphabet) in.readObject ();
+		docLengthNormalization = in.readDouble ();
+		int numLabels = in.readInt ();
+		labelCounts = new double[numLabels];
+		featureCounts = new IntDoubleHashMap[numLabels];
+		for (int li = 0; li < numLabels; li++) {
+			labelCounts[li] = in.readDouble ();
+			int size = in.readInt ();
+			featureCounts[li] = new IntDoubleHashMap (size);
+			for (int i = 0; i < size; i++)
+				featureCounts[li].put (in.readInt (), in.readDouble ());
+		}
+	}
+}
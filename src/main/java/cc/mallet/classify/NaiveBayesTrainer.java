@@ -50,6 +50,11 @@ import cc.mallet.types.Multinomial;
  * train by extending the previous training set.
  * <p>
  * A NaiveBayesTrainer can be persisted using serialization.
+ * <p>
+ * With <code>setNumThreads</code>, the counts of a training list are gathered in
+ * parallel into {@link NaiveBayesStatistics}. Statistics gathered separately, for
+ * example from partitions of a large corpus, can be merged and passed to
+ * <code>train(NaiveBayesStatistics)</code>.
  * @see NaiveBayes
  *  @author Andrew McCallum <a href="mailto:mccallum@cs.umass.edu">mccallum@cs.umass.edu</a>
  *
@@ -69,6 +74,7 @@ implements ClassifierTrainer.ByInstanceIncrements<NaiveBayes>, Boostable, Alphab
   Multinomial.Estimator[] me;
   Multinomial.Estimator pe;
   double docLengthNormalization = -1;  // A value of -1 means don't do any document length normalization
+  int numThreads = 1;
   NaiveBayes classifier;
 
   // If this style of incremental training is successful, the following members
@@ -107,6 +113,16 @@ implements ClassifierTrainer.ByInstanceIncrements<NaiveBayes>, Boostable, Alphab
   public double getDocLengthNormalization () {
   	return docLengthNormalization;
   }
+
+  /** Count the instances of each training list with this many threads. */
+  public NaiveBayesTrainer setNumThreads (int numThreads) {
+  	this.numThreads = numThreads;
+  	return this;
+  }
+
+  public int getNumThreads () {
+  	return numThreads;
+  }
   
   /**
    *  Get the MultinomialEstimator instance used to specify the type of estimator
@@ -198,8 +214,11 @@ implements ClassifierTrainer.ByInstanceIncrements<NaiveBayes>, Boostable, Alphab
   	setup(trainingInstancesToAdd, null);
 
   	// Incrementally add the counts of this new training data
-  	for (Instance instance : trainingInstancesToAdd)
-    	incorporateOneInstance(instance, trainingInstancesToAdd.getInstanceWeight(instance));
+  	if (numThreads > 1)
+  		NaiveBayesStatistics.count(trainingInstancesToAdd, docLengthNormalization, numThreads).incrementEstimators(me, pe);
+  	else
+  		for (Instance instance : trainingInstancesToAdd)
+  			incorporateOneInstance(instance, trainingInstancesToAdd.getInstanceWeight(instance));
     
     // Estimate multinomials, and return a new naive Bayes classifier.  
     // Note that, unlike MaxEnt, NaiveBayes is immutable, so we create a new one each time.
@@ -218,15 +237,39 @@ implements ClassifierTrainer.ByInstanceIncrements<NaiveBayes>, Boostable, Alphab
   	return classifier;
   }
 
+
+  /**
+   * Create a NaiveBayes classifier from counts gathered elsewhere, forgetting
+   * any previous counts. The document length normalization of the statistics
+   * applies, rather than that of this trainer.
+   */
+  public NaiveBayes train (NaiveBayesStatistics statistics)
+  {
+  	me = null; pe = null;
+  	this.classifier = trainIncremental (statistics);
+  	return classifier;
+  }
+
+  /** Add counts gathered elsewhere to those of the previous calls to trainIncremental(). */
+  public NaiveBayes trainIncremental (NaiveBayesStatistics statistics)
+  {
+  	setup (null, statistics);
+  	statistics.incrementEstimators (me, pe);
+  	if (instancePipe == null)
+  		instancePipe = new Noop (dataAlphabet, targetAlphabet);
+  	classifier = new NaiveBayes (instancePipe, pe.estimate(), estimateFeatureMultinomials());
+  	return classifier;
+  }
+
   
-  private void setup (InstanceList instances, @Var Instance instance) {
+  private void setup (InstanceList instances, @Var AlphabetCarrying instance) {
   	assert (instances != null || instance != null);
   	if (instance == null && instances != null)
   		instance = instances.get(0);
   	// Initialize the alphabets
   	if (dataAlphabet == null) {
-  		this.dataAlphabet = instance.getDataAlphabet();
-  		this.targetAlphabet = instance.getTargetAlphabet();
+  		this.dataAlphabet = instance.getAlphabets()[0];
+  		this.targetAlphabet = instance.getAlphabets()[1];
   	}	else if (!Alphabet.alphabetsMatch(instance, this))
   		// Make sure the alphabets match 
   		throw new IllegalArgumentException ("Training set alphabets do not match those of NaiveBayesTrainer.");
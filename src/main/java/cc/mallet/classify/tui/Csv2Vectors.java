@@ -111,6 +111,15 @@ public class Csv2Vectors {
          "Regular expression used for tokenization.\n" +
          "   Example: \"[\\p{L}\\p{N}_]+|[\\p{P}]+\" (unicode letters, numbers and underscore OR all punctuation) ", null);
 
+    static CommandOption.Integer numThreads = new CommandOption.Integer(Csv2Vectors.class, "num-threads", "INTEGER", true, 1,
+     "The number of threads for stateless pipe stages such as tokenization and stopword removal.\n" +
+     "   The output, including alphabet indices, is the same for any number of threads.", null);
+
+    static CommandOption.Integer outputChunkSize = new CommandOption.Integer(Csv2Vectors.class, "output-chunk-size", "INTEGER", true, 0,
+         "If positive, write instances to the output file in chunks of this many instances\n" +
+         "   as they are imported, rather than building the whole instance list in memory.\n" +
+         "   Commands that read instance lists accept either format.", null);
+
     static CommandOption.Boolean printOutput = new CommandOption.Boolean(Csv2Vectors.class, "print-output", "[TRUE|FALSE]", false, false,
          "If true, print a representation of the processed data\n" +
          "   to standard output. This option is intended for debugging.", null);
@@ -292,10 +301,9 @@ public class Csv2Vectors {
         }
 
         //
-        // Create the instance list and open the input file
+        // Open the input file
         // 
 
-        InstanceList instances = new InstanceList (instancePipe);
         Reader fileReader;
 
         if (inputFile.value.toString().equals ("-")) {
@@ -305,26 +313,49 @@ public class Csv2Vectors {
             fileReader = new InputStreamReader(new FileInputStream(inputFile.value), encoding.value);
         }
 
-        // 
-        // Read instances from the file
-        //
-
-        instances.addThruPipe (new CsvIterator (fileReader, Pattern.compile(lineRegex.value),
-                                                dataOption.value, labelOption.value, nameOption.value));
-        
-        // 
-        // Save instances to output file
-        //
+        CsvIterator csvIterator = new CsvIterator (fileReader, Pattern.compile(lineRegex.value),
+                                                   dataOption.value, labelOption.value, nameOption.value);
 
         ObjectOutputStream oos;
-        if (outputFile.value.toString().equals ("-")) {
-            oos = new ObjectOutputStream(System.out);
+
+        if (outputChunkSize.value > 0) {
+
+            // 
+            // Stream instances to the output file, one chunk at a time
+            //
+
+            ChunkedInstanceWriter writer;
+            if (outputFile.value.toString().equals ("-")) {
+                writer = new ChunkedInstanceWriter(System.out, instancePipe, outputChunkSize.value);
+            }
+            else {
+                writer = new ChunkedInstanceWriter(outputFile.value, instancePipe, outputChunkSize.value);
+            }
+            writer.addThruPipe(csvIterator, numThreads.value);
+            writer.close();
         }
         else {
-            oos = new ObjectOutputStream(new FileOutputStream(outputFile.value));
+
+            // 
+            // Read instances from the file
+            //
+
+            InstanceList instances = new InstanceList (instancePipe);
+            instances.addThruPipe (csvIterator, numThreads.value);
+        
+            // 
+            // Save instances to output file
+            //
+
+            if (outputFile.value.toString().equals ("-")) {
+                oos = new ObjectOutputStream(System.out);
+            }
+            else {
+                oos = new ObjectOutputStream(new FileOutputStream(outputFile.value));
+            }
+            oos.writeObject(instances);
+            oos.close();
         }
-        oos.writeObject(instances);
-        oos.close();
 
 
         // If we are reusing a pipe from an instance list 
@@ -108,6 +108,15 @@ public class Text2Vectors {
 		 "Regular expression used for tokenization.\n" +
 		 "   Example: \"[\\p{L}\\p{N}_]+|[\\p{P}]+\" (unicode letters, numbers and underscore OR all punctuation) ", null);
 	
+	static CommandOption.Integer numThreads = new CommandOption.Integer(Text2Vectors.class, "num-threads", "INTEGER", true, 1,
+	 "The number of threads for stateless pipe stages such as tokenization and stopword removal.\n" +
+	 "   The output, including alphabet indices, is the same for any number of threads.", null);
+
+	static CommandOption.Integer outputChunkSize = new CommandOption.Integer(Text2Vectors.class, "output-chunk-size", "INTEGER", true, 0,
+		 "If positive, write instances to the output file in chunks of this many instances\n" +
+		 "   as they are imported, rather than building the whole instance list in memory.\n" +
+		 "   Commands that read instance lists accept either format.", null);
+
 	static CommandOption.Boolean printOutput = new CommandOption.Boolean(Text2Vectors.class, "print-output", "[TRUE|FALSE]", false, false,
 		 "If true, print a representation of the processed data\n" +
 		 "   to standard output. This option is intended for debugging.", null);
@@ -327,21 +336,37 @@ public class Text2Vectors {
 
 		}
 	
-		InstanceList instances = new InstanceList (instancePipe);
-
 		boolean removeCommonPrefix = true;
-		instances.addThruPipe (new FileIterator (directories, FileIterator.STARTING_DIRECTORIES, removeCommonPrefix));
+		FileIterator fileIterator = new FileIterator (directories, FileIterator.STARTING_DIRECTORIES, removeCommonPrefix);
 
-		// write vector file
 		ObjectOutputStream oos;
-		if (outputFile.value.toString().equals ("-")) {
-			oos = new ObjectOutputStream(System.out);
+
+		if (outputChunkSize.value > 0) {
+			// stream vectors to the output file, one chunk at a time
+			ChunkedInstanceWriter writer;
+			if (outputFile.value.toString().equals ("-")) {
+				writer = new ChunkedInstanceWriter(System.out, instancePipe, outputChunkSize.value);
+			}
+			else {
+				writer = new ChunkedInstanceWriter(outputFile.value, instancePipe, outputChunkSize.value);
+			}
+			writer.addThruPipe(fileIterator, numThreads.value);
+			writer.close();
 		}
 		else {
-			oos = new ObjectOutputStream(new FileOutputStream(outputFile.value));
+			InstanceList instances = new InstanceList (instancePipe);
+			instances.addThruPipe (fileIterator, numThreads.value);
+
+			// write vector file
+			if (outputFile.value.toString().equals ("-")) {
+				oos = new ObjectOutputStream(System.out);
+			}
+			else {
+				oos = new ObjectOutputStream(new FileOutputStream(outputFile.value));
+			}
+			oos.writeObject(instances);
+			oos.close();
 		}
-		oos.writeObject(instances);
-		oos.close();
 	
 		// *rewrite* vector file used as source of pipe in case we changed the alphabet(!)
 		if (usePipeFromVectorsFile.wasInvoked()) {
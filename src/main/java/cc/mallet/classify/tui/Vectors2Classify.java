@@ -12,14 +12,26 @@
 package cc.mallet.classify.tui;
 
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.ObjectOutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.BitSet;
 import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.logging.ConsoleHandler;
 import java.util.logging.Handler;
 import java.util.logging.Logger;
@@ -32,6 +44,7 @@ import  cc.mallet.util.JShellInterpreter;
 import cc.mallet.classify.ClassifierTrainer;
 import cc.mallet.classify.Trial;
 import cc.mallet.classify.evaluate.ConfusionMatrix;
+import cc.mallet.types.Alphabet;
 import cc.mallet.types.CrossValidationIterator;
 import cc.mallet.types.Instance;
 import cc.mallet.types.InstanceList;
@@ -49,7 +62,8 @@ import cc.mallet.util.ProgressMessageLogFormatter;
 
 public abstract class Vectors2Classify
 {
-	static JShellInterpreter interpreter = new JShellInterpreter();
+	// Created when first needed, since most trainer arguments can be handled without it
+	private static JShellInterpreter interpreter = null;
 
 	private static Logger logger = MalletLogger.getLogger(Vectors2Classify.class.getName());
 	private static Logger progressLogger = MalletProgressMessageLogger.getLogger(Vectors2Classify.class.getName() + "-pl");
@@ -141,7 +155,10 @@ public abstract class Vectors2Classify
 
 	static CommandOption.String trainerConstructor = new CommandOption.String(Vectors2Classify.class, "trainer", "ClassifierTrainer constructor",  true, "new NaiveBayesTrainer()",
 					"Java code for the constructor used to create a ClassifierTrainer.  "+
-							"If no '(' appears, then \"new \" will be prepended and \"Trainer()\" will be appended."+
+							"If no '(' appears, then \"new \" will be prepended and \"Trainer()\" will be appended.  "+
+							"Setters can follow the name after commas, for example MaxEnt,gaussianPriorVariance=10,numThreads=8 " +
+							"to train a MaxEnt classifier with 8 threads, or MaxEntSGD,batchSize=64,numThreads=8 " +
+							"for mini-batch AdaGrad that stops early on the validation instances.  " +
 							"You may use this option mutiple times to compare multiple classifiers.", null) {
 		public void postParsing (CommandOption.List list) {
 			classifierTrainerStrings.add (this.value);
@@ -214,21 +231,18 @@ public abstract class Vectors2Classify
 		static CommandOption.Integer crossValidation = new CommandOption.Integer(Vectors2Classify.class, "cross-validation", "INT", true, 0,
 						"The number of folds for cross-validation (DEFAULT=0).", null);
 
-    public static void main (String[] args) throws Exception
-		{
-			// Process the command-line options
-			CommandOption.setSummary (Vectors2Classify.class,
-					"A tool for training, saving and printing diagnostics from a classifier on vectors.");
-			CommandOption.process (Vectors2Classify.class, args);
+		static CommandOption.Integer numThreadsOption = new CommandOption.Integer(Vectors2Classify.class, "num-threads", "INTEGER", true, 1,
+						"The number of trainers to train and evaluate at once, over all trials and cross-validation folds.  " +
+								"The reports are printed in the same order as with one thread.", null);
 
-			// handle default trainer here for now; default argument processing doesn't  work
-			if (!trainerConstructor.wasInvoked()){
-				classifierTrainerStrings.add ("new NaiveBayesTrainer()");
-			}
+		static CommandOption.Integer jobMemoryOption = new CommandOption.Integer(Vectors2Classify.class, "job-memory", "MB", true, 0,
+						"The heap that training and evaluating one trainer needs, in megabytes.  If set, fewer than --num-threads " +
+								"jobs run at once when that many would not fit in the free heap.  The memory each job allocates " +
+								"is logged, which can help choose this value.  0 means no limit.", null);
 
-			if (!report.wasInvoked()){
-				report.postParsing(null);  // force postprocessing of default value
-			}
+    public static void main (String[] args) throws Exception
+		{
+			processOptions (args);
 
 			int verbosity = verbosityOption.value;
 
@@ -261,17 +275,9 @@ public abstract class Vectors2Classify
 			@Var
 			InstanceList validationFileIlist=null;
 
-			String labels[] ; 
-
 			if (!separateIlists) { // normal case, --input-file specified
 				// Read in the InstanceList, from stdin if the input filename is "-".
 				ilist = InstanceList.load (new File(inputFile.value));
-
-				labels = new String [ilist.getAlphabets()[1].size()] ;
-				for (int k =0 ; k < ilist.getAlphabets()[1].size(); k++) {
-					labels[k] = (String) (ilist.getAlphabets()[1].toArray())[k];
-					//System.out.println("Debug: labels.length "+ labels.length + " labels["+k+"] "+labels[k] );
-				}
 			}
 			else{  // user specified separate files for testing and training sets.
 				trainingFileIlist = InstanceList.load (new File(trainingFile.value));
@@ -305,13 +311,49 @@ public abstract class Vectors2Classify
 				else {
 					validationFileIlist = new InstanceList(new cc.mallet.pipe.Noop());
 				}
+			}
 
-				labels = new String [trainingFileIlist.getAlphabets()[1].size()] ;
-				for (int k =0 ; k < trainingFileIlist.getAlphabets()[1].size(); k++) {
-					labels[k] = (String) (trainingFileIlist.getAlphabets()[1].toArray())[k];
-					//System.out.println("Debug: labels.length "+ labels.length + " labels["+k+"] "+labels[k] );
-				}
+			runTrials (ilist, trainingFileIlist, testFileIlist, validationFileIlist, System.out);
+		}
+
+		/**
+		 * Process the command-line options. The trainers and reports replace those of
+		 *  any earlier call, so the options can be processed more than once in a JVM.
+		 */
+		static void processOptions (String[] args)
+		{
+			classifierTrainerStrings.clear();
+			for (boolean[] dataOptions: ReportOptions)
+				Arrays.fill (dataOptions, false);
+
+			CommandOption.setSummary (Vectors2Classify.class,
+					"A tool for training, saving and printing diagnostics from a classifier on vectors.");
+			CommandOption.process (Vectors2Classify.class, args);
+
+			// handle default trainer here for now; default argument processing doesn't  work
+			if (!trainerConstructor.wasInvoked()){
+				classifierTrainerStrings.add ("new NaiveBayesTrainer()");
+			}
+
+			if (!report.wasInvoked()){
+				report.postParsing(null);  // force postprocessing of default value
+			}
+		}
+
+		/**
+		 * Run the trials and print their reports and summaries to <code>output</code>.
+		 *  <code>ilist</code> is split into training, validation and test instances;
+		 *  if it is null, the separate lists are used instead.
+		 */
+		static void runTrials (InstanceList ilist, InstanceList trainingFileIlist, InstanceList testFileIlist,
+				InstanceList validationFileIlist, PrintStream output) throws Exception
+		{
+			boolean separateIlists = ilist == null;
 
+			Alphabet labelAlphabet = (separateIlists ? trainingFileIlist : ilist).getAlphabets()[1];
+			String labels[] = new String [labelAlphabet.size()];
+			for (int k =0 ; k < labelAlphabet.size(); k++) {
+				labels[k] = (String) (labelAlphabet.toArray())[k];
 			}
 
 			if (crossValidation.wasInvoked() && trainingProportionOption.wasInvoked()) {
@@ -394,339 +436,502 @@ public abstract class Vectors2Classify
 			}
 
 			String[] trainerNames = new String[numTrainers];
-			for (int trialIndex = 0; trialIndex < numTrials; trialIndex++) {
-				System.out.println("\n-------------------- Trial " + trialIndex + "  --------------------\n");
-				@Var
-				InstanceList[] ilists;
-				@Var
-				BitSet unlabeledIndices = null;
-				if (!separateIlists){
-					if (crossValidation.wasInvoked()) {
-						InstanceList[] cvSplit = cvIter.next();
-						ilists = new InstanceList[3];
-						ilists[0] = cvSplit[0];
-						ilists[1] = cvSplit[1];
-						ilists[2] = cvSplit[0].cloneEmpty();
-					}
+
+			// Each trainer in each trial is one job. With several threads, the jobs' reports
+			//  are printed in the order a single thread would print them, as soon as each
+			//  report and those before it are done. At most 2 * numThreads reports are
+			//  queued, so the threads stay busy without holding every report in memory.
+			int numThreads = getNumJobThreads();
+			ExecutorService executor = numThreads > 1 ? Executors.newFixedThreadPool(numThreads) : null;
+			ArrayDeque<Future<String>> reports = new ArrayDeque<Future<String>>();
+			try {
+				for (int trialIndex = 0; trialIndex < numTrials; trialIndex++) {
+					String header = "\n-------------------- Trial " + trialIndex + "  --------------------\n";
+					if (executor == null)
+						output.println(header);
+					else
+						reports.add(CompletableFuture.completedFuture(header + System.lineSeparator()));
+					@Var
+					InstanceList[] ilists;
+					@Var
+					BitSet unlabeledIndices = null;
+					if (!separateIlists){
+						if (crossValidation.wasInvoked()) {
+							InstanceList[] cvSplit = cvIter.next();
+							ilists = new InstanceList[3];
+							ilists[0] = cvSplit[0];
+							ilists[1] = cvSplit[1];
+							ilists[2] = cvSplit[0].cloneEmpty();
+						}
+						else {
+							ilists = ilist.split (r, new double[] {t, 1-t-v, v});
+						}
+					} 
 					else {
-						ilists = ilist.split (r, new double[] {t, 1-t-v, v});
+						ilists = new InstanceList[3];
+						ilists[0] = trainingFileIlist;
+						ilists[1] = testFileIlist;
+						ilists[2] = validationFileIlist;
 					}
-				} 
-				else {
-					ilists = new InstanceList[3];
-					ilists[0] = trainingFileIlist;
-					ilists[1] = testFileIlist;
-					ilists[2] = validationFileIlist;
-				}
 
-				if (unlabeledProportionOption.value > 0)
-					unlabeledIndices = new cc.mallet.util.Randoms(r.nextInt())
-				.nextBitSet(ilists[0].size(), unlabeledProportionOption.value);
-
-				//InfoGain ig = new InfoGain (ilists[0]);
-				//int igl = Math.min (10, ig.numLocations());
-				//for (int i = 0; i < igl; i++)
-				//System.out.println ("InfoGain["+ig.getObjectAtRank(i)+"]="+ig.getValueAtRank(i));
-				//ig.print();
-
-				//FeatureSelection selectedFeatures = new FeatureSelection (ig, 8000);
-				//ilists[0].setFeatureSelection (selectedFeatures);
-				//OddsRatioFeatureInducer orfi = new OddsRatioFeatureInducer (ilists[0]);
-				//orfi.induceFeatures (ilists[0], false, true);
-
-				//System.out.println ("Training with "+ilists[0].size()+" instances");
-				long time[] = new long[numTrainers];
-				for (int c = 0; c < numTrainers; c++){
-					time[c] = System.currentTimeMillis();
-					ClassifierTrainer trainer = getTrainer(classifierTrainerStrings.get(c));
-					trainer.setValidationInstances(ilists[2]);
-					System.out.println ("Trial " + trialIndex + " Training " + trainer + " with "+ilists[0].size()+" instances");
 					if (unlabeledProportionOption.value > 0)
-						ilists[0].hideSomeLabels(unlabeledIndices);
-					Classifier classifier = trainer.train (ilists[0]);
-					if (unlabeledProportionOption.value > 0)
-						ilists[0].unhideAllLabels();
-
-					System.out.println ("Trial " + trialIndex + " Training " + trainer.toString() + " finished");
-					time[c] = System.currentTimeMillis() - time[c];
-					Trial trainTrial = new Trial (classifier, ilists[0]);
-					//assert (ilists[1].size() > 0);
-					Trial testTrial = new Trial (classifier, ilists[1]);
-					Trial validationTrial = new Trial(classifier, ilists[2]);
-
-					// gdruck - only perform evaluation if requested in report options
-					if (ReportOptions[ReportOption.train][ReportOption.confusion] && ilists[0].size()>0) 
-						trainConfusionMatrix[c][trialIndex] = new ConfusionMatrix (trainTrial).toString();
-					if (ReportOptions[ReportOption.test][ReportOption.confusion] && ilists[1].size()>0) 
-						testConfusionMatrix[c][trialIndex] = new ConfusionMatrix (testTrial).toString();
-					if (ReportOptions[ReportOption.validation][ReportOption.confusion] && ilists[2].size()>0) 
-						validationConfusionMatrix[c][trialIndex] = new ConfusionMatrix (validationTrial).toString();
-
-					// gdruck - only perform evaluation if requested in report options
-					if (ReportOptions[ReportOption.train][ReportOption.accuracy]) 
-						trainAccuracy[c][trialIndex] = trainTrial.getAccuracy();
-					if (ReportOptions[ReportOption.test][ReportOption.accuracy]) 
-						testAccuracy[c][trialIndex] = testTrial.getAccuracy();
-					if (ReportOptions[ReportOption.validation][ReportOption.accuracy]) 
-						validationAccuracy[c][trialIndex] = validationTrial.getAccuracy();
-
-					// gdruck - only perform evaluation if requested in report options
-					if (ReportOptions[ReportOption.train][ReportOption.precision]) {
-						for (int k =0 ; k < labels.length; k++) 
-							trainPrecision[c][k][trialIndex] = trainTrial.getPrecision(labels[k]);
-					}
-					if (ReportOptions[ReportOption.test][ReportOption.precision]) {
-						for (int k =0 ; k < labels.length; k++) 
-							testPrecision[c][k][trialIndex] = testTrial.getPrecision(labels[k]);
-					}
-					if (ReportOptions[ReportOption.validation][ReportOption.precision]) {
-						for (int k =0 ; k < labels.length; k++) 
-							validationPrecision[c][k][trialIndex] = validationTrial.getPrecision(labels[k]);
-					}
-
-					// gdruck - only perform evaluation if requested in report options
-					if (ReportOptions[ReportOption.train][ReportOption.recall]) {
-						for (int k =0 ; k < labels.length; k++) 
-							trainRecall[c][k][trialIndex] = trainTrial.getRecall(labels[k]);
-					}	
-					if (ReportOptions[ReportOption.test][ReportOption.recall]) {
-						for (int k =0 ; k < labels.length; k++) 
-							testRecall[c][k][trialIndex] = testTrial.getRecall(labels[k]);
-					}					
-					if (ReportOptions[ReportOption.validation][ReportOption.recall]) {
-						for (int k =0 ; k < labels.length; k++) 
-							validationRecall[c][k][trialIndex] = validationTrial.getRecall(labels[k]);
-					}	
-
-					// gdruck - only perform evaluation if requested in report options
-					if (ReportOptions[ReportOption.train][ReportOption.f1]) {
-						for (int k =0 ; k < labels.length; k++) 
-							trainF1[c][k][trialIndex] = trainTrial.getF1(labels[k]);
-					}					
-					if (ReportOptions[ReportOption.test][ReportOption.f1]) {
-						for (int k =0 ; k < labels.length; k++) 
-							testF1[c][k][trialIndex] = testTrial.getF1(labels[k]);
-					}						
-					if (ReportOptions[ReportOption.validation][ReportOption.f1]) {
-						for (int k =0 ; k < labels.length; k++) 
-							validationF1[c][k][trialIndex] = validationTrial.getF1(labels[k]);
-					}	
-
-					if (outputFile.wasInvoked()) {
-						@Var
-						String filename = outputFile.value;
-						if (numTrainers > 1) filename = filename+trainer.toString();
-						if (numTrials > 1) filename = filename+".trial"+trialIndex;
-						try {
-							ObjectOutputStream oos = new ObjectOutputStream
-									(new FileOutputStream (filename));
-							oos.writeObject (classifier);
-							oos.close();
-						} catch (Exception e) {
-							e.printStackTrace();
-							throw new IllegalArgumentException ("Couldn't write classifier to filename "+
-									filename);
+						unlabeledIndices = new cc.mallet.util.Randoms(r.nextInt())
+					.nextBitSet(ilists[0].size(), unlabeledProportionOption.value);
+
+					//InfoGain ig = new InfoGain (ilists[0]);
+					//int igl = Math.min (10, ig.numLocations());
+					//for (int i = 0; i < igl; i++)
+					//System.out.println ("InfoGain["+ig.getObjectAtRank(i)+"]="+ig.getValueAtRank(i));
+					//ig.print();
+
+					//FeatureSelection selectedFeatures = new FeatureSelection (ig, 8000);
+					//ilists[0].setFeatureSelection (selectedFeatures);
+					//OddsRatioFeatureInducer orfi = new OddsRatioFeatureInducer (ilists[0]);
+					//orfi.induceFeatures (ilists[0], false, true);
+
+					//System.out.println ("Training with "+ilists[0].size()+" instances");
+					for (int c = 0; c < numTrainers; c++){
+						// Trainers are created here rather than in the jobs, since they share the interpreter
+						ClassifierTrainer trainer = getTrainer(classifierTrainerStrings.get(c));
+						int trial = trialIndex;
+						int trainerIndex = c;
+						InstanceList[] trialLists = ilists;
+						BitSet hiddenLabels = unlabeledIndices;
+						TrialJob job = (out) -> {
+							trainer.setValidationInstances(trialLists[2]);
+							out.println ("Trial " + trial + " Training " + trainer + " with "+trialLists[0].size()+" instances");
+							// Other jobs may be reading the same instances, so labels are hidden in a copy
+							InstanceList trainingList = hiddenLabels == null ? trialLists[0] : hideLabels (trialLists[0], hiddenLabels);
+							Classifier classifier = trainer.train (trainingList);
+
+							out.println ("Trial " + trial + " Training " + trainer.toString() + " finished");
+							Trial trainTrial = new Trial (classifier, trialLists[0]);
+							//assert (trialLists[1].size() > 0);
+							Trial testTrial = new Trial (classifier, trialLists[1]);
+							Trial validationTrial = new Trial(classifier, trialLists[2]);
+
+							// gdruck - only perform evaluation if requested in report options
+							if (ReportOptions[ReportOption.train][ReportOption.confusion] && trialLists[0].size()>0) 
+								trainConfusionMatrix[trainerIndex][trial] = new ConfusionMatrix (trainTrial).toString();
+							if (ReportOptions[ReportOption.test][ReportOption.confusion] && trialLists[1].size()>0) 
+								testConfusionMatrix[trainerIndex][trial] = new ConfusionMatrix (testTrial).toString();
+							if (ReportOptions[ReportOption.validation][ReportOption.confusion] && trialLists[2].size()>0) 
+								validationConfusionMatrix[trainerIndex][trial] = new ConfusionMatrix (validationTrial).toString();
+
+							// gdruck - only perform evaluation if requested in report options
+							if (ReportOptions[ReportOption.train][ReportOption.accuracy]) 
+								trainAccuracy[trainerIndex][trial] = trainTrial.getAccuracy();
+							if (ReportOptions[ReportOption.test][ReportOption.accuracy]) 
+								testAccuracy[trainerIndex][trial] = testTrial.getAccuracy();
+							if (ReportOptions[ReportOption.validation][ReportOption.accuracy]) 
+								validationAccuracy[trainerIndex][trial] = validationTrial.getAccuracy();
+
+							// gdruck - only perform evaluation if requested in report options
+							if (ReportOptions[ReportOption.train][ReportOption.precision]) {
+								for (int k =0 ; k < labels.length; k++) 
+									trainPrecision[trainerIndex][k][trial] = trainTrial.getPrecision(labels[k]);
+							}
+							if (ReportOptions[ReportOption.test][ReportOption.precision]) {
+								for (int k =0 ; k < labels.length; k++) 
+									testPrecision[trainerIndex][k][trial] = testTrial.getPrecision(labels[k]);
+							}
+							if (ReportOptions[ReportOption.validation][ReportOption.precision]) {
+								for (int k =0 ; k < labels.length; k++) 
+									validationPrecision[trainerIndex][k][trial] = validationTrial.getPrecision(labels[k]);
+							}
+
+							// gdruck - only perform evaluation if requested in report options
+							if (ReportOptions[ReportOption.train][ReportOption.recall]) {
+								for (int k =0 ; k < labels.length; k++) 
+									trainRecall[trainerIndex][k][trial] = trainTrial.getRecall(labels[k]);
+							}	
+							if (ReportOptions[ReportOption.test][ReportOption.recall]) {
+								for (int k =0 ; k < labels.length; k++) 
+									testRecall[trainerIndex][k][trial] = testTrial.getRecall(labels[k]);
+							}					
+							if (ReportOptions[ReportOption.validation][ReportOption.recall]) {
+								for (int k =0 ; k < labels.length; k++) 
+									validationRecall[trainerIndex][k][trial] = validationTrial.getRecall(labels[k]);
+							}	
+
+							// gdruck - only perform evaluation if requested in report options
+							if (ReportOptions[ReportOption.train][ReportOption.f1]) {
+								for (int k =0 ; k < labels.length; k++) 
+									trainF1[trainerIndex][k][trial] = trainTrial.getF1(labels[k]);
+							}					
+							if (ReportOptions[ReportOption.test][ReportOption.f1]) {
+								for (int k =0 ; k < labels.length; k++) 
+									testF1[trainerIndex][k][trial] = testTrial.getF1(labels[k]);
+							}						
+							if (ReportOptions[ReportOption.validation][ReportOption.f1]) {
+								for (int k =0 ; k < labels.length; k++) 
+									validationF1[trainerIndex][k][trial] = validationTrial.getF1(labels[k]);
+							}	
+
+							if (outputFile.wasInvoked()) {
+								@Var
+								String filename = outputFile.value;
+								if (numTrainers > 1) filename = filename+trainer.toString();
+								if (numTrials > 1) filename = filename+".trial"+trial;
+								try {
+									ObjectOutputStream oos = new ObjectOutputStream
+											(new FileOutputStream (filename));
+									oos.writeObject (classifier);
+									oos.close();
+								} catch (Exception e) {
+									e.printStackTrace();
+									throw new IllegalArgumentException ("Couldn't write classifier to filename "+
+											filename);
+								}
+							}
+
+							// New Reporting
+
+							// raw output
+							if (ReportOptions[ReportOption.train][ReportOption.raw]){
+								out.println("Trial " + trial + " Trainer " + trainer.toString());
+								out.println(" Raw Training Data");
+								printTrialClassification(out, trainTrial);
+							}
+
+							if (ReportOptions[ReportOption.test][ReportOption.raw]){
+								out.println("Trial " + trial + " Trainer " + trainer.toString());
+								out.println(" Raw Testing Data");
+								printTrialClassification(out, testTrial);
+							}
+
+							if (ReportOptions[ReportOption.validation][ReportOption.raw]){
+								out.println("Trial " + trial + " Trainer " + trainer.toString());
+								out.println(" Raw Validation Data");
+								printTrialClassification(out, validationTrial);
+							}
+
+
+							//train
+							if (ReportOptions[ReportOption.train][ReportOption.confusion]){
+								out.println("Trial " + trial + " Trainer " + trainer.toString() +  " Training Data Confusion Matrix");
+								if (trialLists[0].size()>0) out.println (trainConfusionMatrix[trainerIndex][trial]);
+							}
+
+							if (ReportOptions[ReportOption.train][ReportOption.precision]){
+								for (int k =0 ; k < labels.length; k++) 
+									out.println ("Trial " + trial + " Trainer " + trainer.toString() + " training data Precision(" + labels[k] + ") = "+ trainTrial.getPrecision(labels[k]));
+							}
+
+							if (ReportOptions[ReportOption.train][ReportOption.recall]){
+								for (int k =0 ; k < labels.length; k++) 
+									out.println ("Trial " + trial + " Trainer " + trainer.toString() + " training data Recall(" + labels[k] + ") = "+ trainTrial.getRecall(labels[k]));
+							}
+
+							if (ReportOptions[ReportOption.train][ReportOption.f1]){
+								for (int k =0 ; k < labels.length; k++) 
+									out.println ("Trial " + trial + " Trainer " + trainer.toString() + " training data F1(" + labels[k] + ") = "+ trainTrial.getF1(labels[k]));
+							}
+
+							if (ReportOptions[ReportOption.train][ReportOption.accuracy]){
+								out.println ("Trial " + trial + " Trainer " + trainer.toString() + " training data accuracy = "+ trainAccuracy[trainerIndex][trial]);
+							}
+
+							//validation
+							if (ReportOptions[ReportOption.validation][ReportOption.confusion]){
+								out.println("Trial " + trial + " Trainer " + trainer.toString() +  " Validation Data Confusion Matrix");
+								if (trialLists[2].size()>0) out.println (validationConfusionMatrix[trainerIndex][trial]);
+							}
+
+							if (ReportOptions[ReportOption.validation][ReportOption.precision]){
+								for (int k =0 ; k < labels.length; k++) 
+									out.println ("Trial " + trial + " Trainer " + trainer.toString() + " validation data precision(" + labels[k] + ") = "+ validationTrial.getPrecision(labels[k]));
+							}
+
+							if (ReportOptions[ReportOption.validation][ReportOption.recall]){
+								for (int k =0 ; k < labels.length; k++) 
+									out.println ("Trial " + trial + " Trainer " + trainer.toString() + " validation data recall(" + labels[k] + ") = "+ validationTrial.getRecall(labels[k]));
+							}
+
+							if (ReportOptions[ReportOption.validation][ReportOption.f1]){
+								for (int k =0 ; k < labels.length; k++) 
+									out.println ("Trial " + trial + " Trainer " + trainer.toString() + " validation data F1(" + labels[k] + ") = "+ validationTrial.getF1(labels[k]));
+							}
+							if (ReportOptions[ReportOption.validation][ReportOption.accuracy]){
+								out.println ("Trial " + trial + " Trainer " + trainer.toString() + " validation data accuracy = "+ validationAccuracy[trainerIndex][trial]);
+							}
+
+							//test
+							if (ReportOptions[ReportOption.test][ReportOption.confusion]){
+								out.println("Trial " + trial + " Trainer " + trainer.toString() + " Test Data Confusion Matrix");
+								if (trialLists[1].size()>0) out.println (testConfusionMatrix[trainerIndex][trial]);
+							}
+
+							if (ReportOptions[ReportOption.test][ReportOption.precision]){
+								for (int k =0 ; k < labels.length; k++) 
+									out.println ("Trial " + trial + " Trainer " + trainer.toString() + " test data precision(" + labels[k] + ") = "+ testTrial.getPrecision(labels[k]));
+							}
+
+							if (ReportOptions[ReportOption.test][ReportOption.recall]){
+								for (int k =0 ; k < labels.length; k++) 
+									out.println ("Trial " + trial + " Trainer " + trainer.toString() + " test data recall(" + labels[k] + ") = "+ testTrial.getRecall(labels[k]));
+							}
+
+							if (ReportOptions[ReportOption.test][ReportOption.f1]){
+								for (int k =0 ; k < labels.length; k++) 
+									out.println ("Trial " + trial + " Trainer " + trainer.toString() + " test data F1(" + labels[k] + ") = "+ testTrial.getF1(labels[k]));
+							}
+
+							if (ReportOptions[ReportOption.test][ReportOption.accuracy]){
+								out.println ("Trial " + trial + " Trainer " + trainer.toString() + " test data accuracy = "+ testAccuracy[trainerIndex][trial]);
+							}
+
+							if (trial == 0) trainerNames[trainerIndex] = trainer.toString();
+						};
+
+						String jobName = "Trial " + trialIndex + " Trainer " + trainer;
+						if (executor == null)
+							runJob (job, output, jobName);
+						else {
+							reports.add (executor.submit (() -> collectReport (job, jobName)));
+							printReports (reports, 2 * numThreads, output);
 						}
-					}
-
-					// New Reporting
-
-					// raw output
-					if (ReportOptions[ReportOption.train][ReportOption.raw]){
-						System.out.println("Trial " + trialIndex + " Trainer " + trainer.toString());
-						System.out.println(" Raw Training Data");
-						printTrialClassification(trainTrial);
-					}
-
-					if (ReportOptions[ReportOption.test][ReportOption.raw]){
-						System.out.println("Trial " + trialIndex + " Trainer " + trainer.toString());
-						System.out.println(" Raw Testing Data");
-						printTrialClassification(testTrial);
-					}
 
-					if (ReportOptions[ReportOption.validation][ReportOption.raw]){
-						System.out.println("Trial " + trialIndex + " Trainer " + trainer.toString());
-						System.out.println(" Raw Validation Data");
-						printTrialClassification(validationTrial);
-					}
-
-
-					//train
-					if (ReportOptions[ReportOption.train][ReportOption.confusion]){
-						System.out.println("Trial " + trialIndex + " Trainer " + trainer.toString() +  " Training Data Confusion Matrix");
-						if (ilists[0].size()>0) System.out.println (trainConfusionMatrix[c][trialIndex]);
-					}
-
-					if (ReportOptions[ReportOption.train][ReportOption.precision]){
-						for (int k =0 ; k < labels.length; k++) 
-							System.out.println ("Trial " + trialIndex + " Trainer " + trainer.toString() + " training data Precision(" + labels[k] + ") = "+ trainTrial.getPrecision(labels[k]));
-					}
-
-					if (ReportOptions[ReportOption.train][ReportOption.recall]){
-						for (int k =0 ; k < labels.length; k++) 
-							System.out.println ("Trial " + trialIndex + " Trainer " + trainer.toString() + " training data Recall(" + labels[k] + ") = "+ trainTrial.getRecall(labels[k]));
-					}
+					}  // end for each trainer
+				}  // end for each trial
 
-					if (ReportOptions[ReportOption.train][ReportOption.f1]){
-						for (int k =0 ; k < labels.length; k++) 
-							System.out.println ("Trial " + trialIndex + " Trainer " + trainer.toString() + " training data F1(" + labels[k] + ") = "+ trainTrial.getF1(labels[k]));
-					}
-
-					if (ReportOptions[ReportOption.train][ReportOption.accuracy]){
-						System.out.println ("Trial " + trialIndex + " Trainer " + trainer.toString() + " training data accuracy = "+ trainAccuracy[c][trialIndex]);
-					}
-
-					//validation
-					if (ReportOptions[ReportOption.validation][ReportOption.confusion]){
-						System.out.println("Trial " + trialIndex + " Trainer " + trainer.toString() +  " Validation Data Confusion Matrix");
-						if (ilists[2].size()>0) System.out.println (validationConfusionMatrix[c][trialIndex]);
-					}
-
-					if (ReportOptions[ReportOption.validation][ReportOption.precision]){
-						for (int k =0 ; k < labels.length; k++) 
-							System.out.println ("Trial " + trialIndex + " Trainer " + trainer.toString() + " validation data precision(" + labels[k] + ") = "+ validationTrial.getPrecision(labels[k]));
-					}
-
-					if (ReportOptions[ReportOption.validation][ReportOption.recall]){
-						for (int k =0 ; k < labels.length; k++) 
-							System.out.println ("Trial " + trialIndex + " Trainer " + trainer.toString() + " validation data recall(" + labels[k] + ") = "+ validationTrial.getRecall(labels[k]));
-					}
-
-					if (ReportOptions[ReportOption.validation][ReportOption.f1]){
-						for (int k =0 ; k < labels.length; k++) 
-							System.out.println ("Trial " + trialIndex + " Trainer " + trainer.toString() + " validation data F1(" + labels[k] + ") = "+ validationTrial.getF1(labels[k]));
-					}
-					if (ReportOptions[ReportOption.validation][ReportOption.accuracy]){
-						System.out.println ("Trial " + trialIndex + " Trainer " + trainer.toString() + " validation data accuracy = "+ validationAccuracy[c][trialIndex]);
-					}
-
-					//test
-					if (ReportOptions[ReportOption.test][ReportOption.confusion]){
-						System.out.println("Trial " + trialIndex + " Trainer " + trainer.toString() + " Test Data Confusion Matrix");
-						if (ilists[1].size()>0) System.out.println (testConfusionMatrix[c][trialIndex]);
-					}
-
-					if (ReportOptions[ReportOption.test][ReportOption.precision]){
-						for (int k =0 ; k < labels.length; k++) 
-							System.out.println ("Trial " + trialIndex + " Trainer " + trainer.toString() + " test data precision(" + labels[k] + ") = "+ testTrial.getPrecision(labels[k]));
-					}
-
-					if (ReportOptions[ReportOption.test][ReportOption.recall]){
-						for (int k =0 ; k < labels.length; k++) 
-							System.out.println ("Trial " + trialIndex + " Trainer " + trainer.toString() + " test data recall(" + labels[k] + ") = "+ testTrial.getRecall(labels[k]));
-					}
-
-					if (ReportOptions[ReportOption.test][ReportOption.f1]){
-						for (int k =0 ; k < labels.length; k++) 
-							System.out.println ("Trial " + trialIndex + " Trainer " + trainer.toString() + " test data F1(" + labels[k] + ") = "+ testTrial.getF1(labels[k]));
-					}
-
-					if (ReportOptions[ReportOption.test][ReportOption.accuracy]){
-						System.out.println ("Trial " + trialIndex + " Trainer " + trainer.toString() + " test data accuracy = "+ testAccuracy[c][trialIndex]);
-					}
-
-					if (trialIndex == 0) trainerNames[c] = trainer.toString();
-
-				}  // end for each trainer
-			}  // end for each trial
+				printReports (reports, 0, output);
+			} finally {
+				if (executor != null)
+					executor.shutdownNow();
+			}
 
 			// New reporting
 			//"[train|test|validation]:[accuracy|f1|confusion|raw|precision|recall]"
 			for (int c=0; c < numTrainers; c++) {
-				System.out.println ("\n"+trainerNames[c].toString());
+				output.println ("\n"+trainerNames[c].toString());
 
 				if (ReportOptions[ReportOption.train][ReportOption.accuracy])
-					System.out.println ("Summary. train accuracy mean = "+ MatrixOps.mean (trainAccuracy[c])+
+					output.println ("Summary. train accuracy mean = "+ MatrixOps.mean (trainAccuracy[c])+
 							" stddev = "+ MatrixOps.stddev (trainAccuracy[c])+
 							" stderr = "+ MatrixOps.stderr (trainAccuracy[c]));
 				if (ReportOptions[ReportOption.train][ReportOption.precision]) {
 					for (int k =0 ; k < labels.length; k++) 
-						System.out.println ("Summary. train precision("+labels[k]+") mean = "+ MatrixOps.mean (trainPrecision[c][k])+
+						output.println ("Summary. train precision("+labels[k]+") mean = "+ MatrixOps.mean (trainPrecision[c][k])+
 								" stddev = "+ MatrixOps.stddev (trainPrecision[c][k])+
 								" stderr = "+ MatrixOps.stderr (trainPrecision[c][k]));
 				}
 				if (ReportOptions[ReportOption.train][ReportOption.recall]) {
 					for (int k =0 ; k < labels.length; k++) 
-						System.out.println ("Summary. train recall("+labels[k]+") mean = "+ MatrixOps.mean (trainRecall[c][k])+
+						output.println ("Summary. train recall("+labels[k]+") mean = "+ MatrixOps.mean (trainRecall[c][k])+
 								" stddev = "+ MatrixOps.stddev (trainRecall[c][k])+
 								" stderr = "+ MatrixOps.stderr (trainRecall[c][k]));
 				}
 				if (ReportOptions[ReportOption.train][ReportOption.f1]){
 					for (int k =0 ; k < labels.length; k++) 
-						System.out.println ("Summary. train f1("+labels[k]+") mean = "+ MatrixOps.mean (trainF1[c][k])+
+						output.println ("Summary. train f1("+labels[k]+") mean = "+ MatrixOps.mean (trainF1[c][k])+
 								" stddev = "+ MatrixOps.stddev (trainF1[c][k])+
 								" stderr = "+ MatrixOps.stderr (trainF1[c][k]));
 
 				}
 				if (ReportOptions[ReportOption.validation][ReportOption.accuracy])
-					System.out.println ("Summary. validation accuracy mean = "+ MatrixOps.mean (validationAccuracy[c])+
+					output.println ("Summary. validation accuracy mean = "+ MatrixOps.mean (validationAccuracy[c])+
 							" stddev = "+ MatrixOps.stddev (validationAccuracy[c])+
 							" stderr = "+ MatrixOps.stderr (validationAccuracy[c]));
 				if (ReportOptions[ReportOption.validation][ReportOption.precision]){
 					for (int k =0 ; k < labels.length; k++) 
-						System.out.println ("Summary. validation precision("+labels[k]+") mean = "+ MatrixOps.mean (validationPrecision[c][k])+
+						output.println ("Summary. validation precision("+labels[k]+") mean = "+ MatrixOps.mean (validationPrecision[c][k])+
 								" stddev = "+ MatrixOps.stddev (validationPrecision[c][k])+
 								" stderr = "+ MatrixOps.stderr (validationPrecision[c][k]));
 				}
 				if (ReportOptions[ReportOption.validation][ReportOption.recall]){
 					for (int k =0 ; k < labels.length; k++) 
-						System.out.println ("Summary. validation recall("+labels[k]+") mean = "+ MatrixOps.mean (validationRecall[c][k])+
+						output.println ("Summary. validation recall("+labels[k]+") mean = "+ MatrixOps.mean (validationRecall[c][k])+
 								" stddev = "+ MatrixOps.stddev (validationRecall[c][k])+
 								" stderr = "+ MatrixOps.stderr (validationRecall[c][k]));
 				}
 				if (ReportOptions[ReportOption.validation][ReportOption.f1]){
 					for (int k =0 ; k < labels.length; k++) 
-						System.out.println ("Summary. validation f1("+labels[k]+") mean = "+ MatrixOps.mean (validationF1[c][k])+
+						output.println ("Summary. validation f1("+labels[k]+") mean = "+ MatrixOps.mean (validationF1[c][k])+
 								" stddev = "+ MatrixOps.stddev (validationF1[c][k])+
 								" stderr = "+ MatrixOps.stderr (validationF1[c][k]));
 				}
 
 				if (ReportOptions[ReportOption.test][ReportOption.accuracy])
-					System.out.println ("Summary. test accuracy mean = "+ MatrixOps.mean (testAccuracy[c])+
+					output.println ("Summary. test accuracy mean = "+ MatrixOps.mean (testAccuracy[c])+
 							" stddev = "+ MatrixOps.stddev (testAccuracy[c])+
 							" stderr = "+ MatrixOps.stderr (testAccuracy[c]));
 				if (ReportOptions[ReportOption.test][ReportOption.precision]){
 					for (int k =0 ; k < labels.length; k++) 
-						System.out.println ("Summary. test precision("+labels[k]+") mean = "+ MatrixOps.mean (testPrecision[c][k])+
+						output.println ("Summary. test precision("+labels[k]+") mean = "+ MatrixOps.mean (testPrecision[c][k])+
 								" stddev = "+ MatrixOps.stddev (testPrecision[c][k])+
 								" stderr = "+ MatrixOps.stderr (testPrecision[c][k]));
 				}
 				if (ReportOptions[ReportOption.test][ReportOption.recall]){
 					for (int k =0 ; k < labels.length; k++) 
-						System.out.println ("Summary. test recall("+labels[k]+") mean = "+ MatrixOps.mean (testRecall[c][k])+
+						output.println ("Summary. test recall("+labels[k]+") mean = "+ MatrixOps.mean (testRecall[c][k])+
 								" stddev = "+ MatrixOps.stddev (testRecall[c][k])+
 								" stderr = "+ MatrixOps.stderr (testRecall[c][k]));
 				}
 				if (ReportOptions[ReportOption.test][ReportOption.f1]){
 					for (int k =0 ; k < labels.length; k++) 
-						System.out.println ("Summary. test f1("+labels[k]+") mean = "+ MatrixOps.mean (testF1[c][k])+
+						output.println ("Summary. test f1("+labels[k]+") mean = "+ MatrixOps.mean (testF1[c][k])+
 								" stddev = "+ MatrixOps.stddev (testF1[c][k])+
 								" stderr = "+ MatrixOps.stderr (testF1[c][k]));
 				}
 			}   // end for each trainer
 		}
 
-		private static void printTrialClassification(Trial trial)
+		/** Training and evaluating one trainer in one trial, reporting to <code>out</code>. */
+		private interface TrialJob {
+			void run(PrintStream out) throws Exception;
+		}
+
+		/** The number of jobs to run at once: <code>--num-threads</code>, unless fewer fit in the free heap. */
+		private static int getNumJobThreads()
+		{
+			@Var
+			int numThreads = Math.max(1, numThreadsOption.value);
+			if (jobMemoryOption.value > 0 && numThreads > 1) {
+				Runtime runtime = Runtime.getRuntime();
+				long freeMemory = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+				long numFit = freeMemory / ((long) jobMemoryOption.value << 20);
+				if (numFit < numThreads) {
+					numThreads = (int) Math.max(1, numFit);
+					logger.warning("Only " + numFit + " jobs of " + jobMemoryOption.value + " MB fit in the " +
+							(freeMemory >> 20) + " MB of free heap; running " + numThreads + " at once");
+				}
+			}
+			return numThreads;
+		}
+
+		private static void runJob(TrialJob job, PrintStream out, String jobName) throws Exception
+		{
+			long allocated = getAllocatedBytes();
+			job.run(out);
+			if (allocated >= 0) {
+				logger.info(jobName + " allocated " + ((getAllocatedBytes() - allocated) >> 20) + " MB on its thread");
+			}
+		}
+
+		/**
+		 * Print and remove the reports at the head of the queue that are done, waiting
+		 *  for the head while more than <code>maxQueued</code> reports are queued.
+		 */
+		private static void printReports(ArrayDeque<Future<String>> reports, int maxQueued, PrintStream out) throws InterruptedException
+		{
+			while (!reports.isEmpty() && (reports.size() > maxQueued || reports.peek().isDone())) {
+				try {
+					out.print(reports.poll().get());
+				} catch (ExecutionException e) {
+					throw new IllegalStateException("Trial job failed", e.getCause());
+				}
+			}
+		}
+
+		private static String collectReport(TrialJob job, String jobName) throws Exception
+		{
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			PrintStream out = new PrintStream(bytes);
+			runJob(job, out, jobName);
+			out.close();
+			return bytes.toString();
+		}
+
+		/** The bytes the current thread has allocated so far, or -1 if the JVM does not count them. */
+		private static long getAllocatedBytes()
+		{
+			java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+			if (bean instanceof com.sun.management.ThreadMXBean) {
+				com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) bean;
+				if (allocationBean.isThreadAllocatedMemorySupported() && allocationBean.isThreadAllocatedMemoryEnabled()) {
+					return allocationBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+				}
+			}
+			return -1;
+		}
+
+		/**
+		 * A copy of the list, with copies of its instances, in which the instances marked in
+		 *  <code>hidden</code> have no labels. The original instances are left alone, since
+		 *  other jobs may be reading them.
+		 */
+		private static InstanceList hideLabels(InstanceList instances, BitSet hidden)
+		{
+			// Not cloneEmpty(), since cross-validation folds are MultiInstanceLists, which cannot be added to
+			InstanceList copy = new InstanceList(instances.getPipe());
+			copy.setFeatureSelection(instances.getFeatureSelection());
+			copy.setPerLabelFeatureSelection(instances.getPerLabelFeatureSelection());
+			for (int i = 0; i < instances.size(); i++) {
+				copy.add(instances.get(i).shallowCopy(), instances.getInstanceWeight(i));
+			}
+			copy.hideSomeLabels(hidden);
+			return copy;
+		}
+
+		private static void printTrialClassification(PrintStream out, Trial trial)
 		{
 			for (Classification c : trial) {
 				Instance instance = c.getInstance();
-				System.out.print(instance.getName() + " " + instance.getTarget() + " ");
+				out.print(instance.getName() + " " + instance.getTarget() + " ");
 				Labeling labeling = c.getLabeling();
 				for (int j = 0; j < labeling.numLocations(); j++){
-					System.out.print(labeling.getLabelAtRank(j).toString() + ":" + labeling.getValueAtRank(j) + " ");
+					out.print(labeling.getLabelAtRank(j).toString() + ":" + labeling.getValueAtRank(j) + " ");
 				}
-				System.out.println();
+				out.println();
 			}
 		}
 
+		private static synchronized JShellInterpreter getInterpreter() {
+			if (interpreter == null)
+				interpreter = new JShellInterpreter();
+			return interpreter;
+		}
+
+		/**
+		 * Construct <code>new Name()</code> directly, looking for the class in
+		 *  <code>cc.mallet.classify</code> if the name is not qualified. Anything
+		 *  else is evaluated by the interpreter.
+		 */
 		private static Object createTrainer(String arg) {
+			Matcher matcher = NO_ARG_CONSTRUCTOR.matcher(arg.trim());
+			if (matcher.matches()) {
+				String className = matcher.group(1);
+				for (String name : new String[] { className, "cc.mallet.classify." + className }) {
+					try {
+						return Class.forName(name).getConstructor().newInstance();
+					} catch (ClassNotFoundException e) {
+						// Try the next name, then the interpreter
+					} catch (ReflectiveOperationException e) {
+						throw new IllegalArgumentException ("Couldn't construct " + name + ": " + e, e);
+					}
+				}
+			}
 			try {
-				return interpreter.eval (arg);
+				return getInterpreter().eval (arg);
 			} catch (Exception e) {
                 throw new IllegalArgumentException ("JShell evaluation error: " + e.getMessage(), e);
 			}
 		}
 
+		private static final Pattern NO_ARG_CONSTRUCTOR = Pattern.compile("new\\s+([\\w.]+)\\s*\\(\\s*\\)");
+
+		/** Convert a setter argument to the setter's parameter type, using the interpreter for types other than primitives and strings. */
+		private static Object parseParameter(String parameterValue, Class<?> type) throws Exception {
+			if (type == int.class || type == Integer.class)
+				return Integer.valueOf(parameterValue.trim());
+			if (type == long.class || type == Long.class)
+				return Long.valueOf(parameterValue.trim());
+			if (type == double.class || type == Double.class)
+				return Double.valueOf(parameterValue.trim());
+			if (type == float.class || type == Float.class)
+				return Float.valueOf(parameterValue.trim());
+			if (type == boolean.class || type == Boolean.class) {
+				String value = parameterValue.trim();
+				if (!value.equals("true") && !value.equals("false"))
+					throw new IllegalArgumentException("Expected true or false");
+				return Boolean.valueOf(value);
+			}
+			if (type == String.class)
+				return parameterValue;
+			return getInterpreter().eval(parameterValue);
+		}
+
 		private static ClassifierTrainer getTrainer(String arg) {
 			// parse something like Maxent,gaussianPriorVariance=10,numIterations=20
 
@@ -755,14 +960,6 @@ public abstract class Vectors2Classify
 				java.lang.String nameValuePair[] = fields[i].split("=");
 				java.lang.String parameterName  = nameValuePair[0];
 				java.lang.String parameterValue = nameValuePair[1];  //todo: check for val present!
-				java.lang.Object parameterValueObject;
-				try {
-					parameterValueObject = interpreter.eval(parameterValue);
-				} catch (Exception e) {
-                    throw new IllegalArgumentException ("JShell evaluation error on parameter '" +
-                            parameterName + "' with value '" +
-                            parameterValue + "': " + e.getMessage(), e);
-				}
 
 				@Var
 				boolean foundSetter = false;
@@ -778,6 +975,15 @@ public abstract class Vectors2Classify
 						// System.out.println("class " + k + " = " + ptypes[k].getName());
 						// }
 
+						java.lang.Object parameterValueObject;
+						try {
+							parameterValueObject = parseParameter(parameterValue, methods[j].getParameterTypes()[0]);
+						} catch (Exception e) {
+							throw new IllegalArgumentException ("Evaluation error on parameter '" +
+									parameterName + "' with value '" +
+									parameterValue + "': " + e.getMessage(), e);
+						}
+
 						try {
 							java.lang.Object[] parameterList = new java.lang.Object[]{parameterValueObject};
 							// System.out.println("Argument types:");
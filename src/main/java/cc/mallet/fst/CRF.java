@@ -1786,6 +1786,7 @@ public class CRF extends Transducer implements Serializable
 		public void addWeight (int didx, String weightName) {
 			int widx = crf.getWeightsIndex (weightName);
 			weightsIndices[didx] = ArrayUtils.append (weightsIndices[didx], widx);
+			crf.weightsStructureChanged();
 		}
 
 		public String getLabelName (int index) {
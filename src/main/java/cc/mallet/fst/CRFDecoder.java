@@ -0,0 +1,455 @@
+/* Copyright (C) 2002 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package cc.mallet.fst;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.google.errorprone.annotations.Var;
+
+import cc.mallet.types.ArraySequence;
+import cc.mallet.types.FeatureVector;
+import cc.mallet.types.FeatureVectorSequence;
+import cc.mallet.types.Sequence;
+import cc.mallet.types.SequencePairAlignment;
+import cc.mallet.types.SparseVector;
+
+/**
+ * Viterbi decoding for a trained {@link CRF}, for tagging many sequences
+ *  with the same model.
+ * <p>
+ * The decoder takes a snapshot of the CRF's weights when it is created. The
+ *  weights are stored feature-major, so that the weight of every transition
+ *  at an input position is found by visiting only the non-zero weights of
+ *  the features present there. The forward pass keeps one back pointer per
+ *  state and position in primitive arrays that each thread reuses from one
+ *  sequence to the next, so {@link #bestLabels(FeatureVectorSequence, int[])}
+ *  allocates nothing once the buffers have grown to the longest sequence.
+ * <p>
+ * A decoder is safe to share between threads. Create a new one after the
+ *  CRF's weights change. The best path matches that of
+ *  {@link MaxLatticeDefault}, up to rounding of the weights, and {@link #bestOutputAlignments(FeatureVectorSequence, int)}
+ *  finds the k best paths by keeping the k best partial paths into each
+ *  state, without an A* search.
+ */
+
+public class CRFDecoder {
+
+	final CRF crf;
+	final CRFTransitions transitions;
+	final int numStates;
+	final int numTransitions;
+
+	final double[] initialWeights;
+	final double[] finalWeights;
+	final double[] defaultWeights;       // indexed by position in transitions.usedWeights
+
+	// Non-zero weights by input feature: feature f has entries featureOffsets[f] up to featureOffsets[f+1]
+	final int[] featureOffsets;
+	final int[] entryWeights;            // position in transitions.usedWeights
+	final double[] entryValues;
+
+	final Object[] transitionLabels;     // the output produced by each transition
+
+	private final ThreadLocal<Workspace> workspaces = ThreadLocal.withInitial (Workspace::new);
+
+	/** Scratch space for one thread, grown as needed and reused across sequences. */
+	static class Workspace {
+		double[] dotProducts = new double[0];
+		double[] scores = new double[0];          // indexed by transition
+		double[] deltas = new double[0];          // two rows of numStates
+		int[] backPointers = new int[0];          // indexed by ip*numStates+j, the best transition into j
+		int[] path = new int[0];                  // indexed by ip, the transition taken
+
+		// For k-best decoding, indexed by (ip*numStates+j)*k+rank
+		double[] kDeltas = new double[0];
+		int[] kTransitions = new int[0];
+		int[] kRanks = new int[0];
+		int[] kCounts = new int[0];               // indexed by ip*numStates+j
+	}
+
+	public CRFDecoder (CRF crf) {
+		this.crf = crf;
+		transitions = CRFTransitions.get (crf, null);
+		if (transitions == null)
+			throw new IllegalArgumentException ("CRFDecoder does not support the states of "+crf.getClass().getName());
+		numStates = transitions.numStates;
+		numTransitions = transitions.numTransitions;
+
+		CRF.Factors parameters = crf.parameters;
+		initialWeights = parameters.initialWeights.clone();
+		finalWeights = parameters.finalWeights.clone();
+
+		int[] usedWeights = transitions.usedWeights;
+		defaultWeights = new double[usedWeights.length];
+		@Var
+		int numFeatures = crf.getInputAlphabet() == null ? 0 : crf.getInputAlphabet().size();
+		@Var
+		int numEntries = 0;
+		for (int u = 0; u < usedWeights.length; u++) {
+			SparseVector weights = parameters.weights[usedWeights[u]];
+			defaultWeights[u] = parameters.defaultWeights[usedWeights[u]];
+			for (int location = 0; location < weights.numLocations(); location++) {
+				if (weights.valueAtLocation(location) == 0) continue;
+				numFeatures = Math.max (numFeatures, weights.indexAtLocation(location) + 1);
+				numEntries++;
+			}
+		}
+
+		featureOffsets = new int[numFeatures + 1];
+		for (int u = 0; u < usedWeights.length; u++) {
+			SparseVector weights = parameters.weights[usedWeights[u]];
+			for (int location = 0; location < weights.numLocations(); location++)
+				if (weights.valueAtLocation(location) != 0)
+					featureOffsets[weights.indexAtLocation(location) + 1]++;
+		}
+		for (int f = 0; f < numFeatures; f++)
+			featureOffsets[f+1] += featureOffsets[f];
+
+		entryWeights = new int[numEntries];
+		entryValues = new double[numEntries];
+		int[] next = Arrays.copyOf (featureOffsets, numFeatures);
+		for (int u = 0; u < usedWeights.length; u++) {
+			SparseVector weights = parameters.weights[usedWeights[u]];
+			for (int location = 0; location < weights.numLocations(); location++) {
+				double value = weights.valueAtLocation(location);
+				if (value == 0) continue;
+				int entry = next[weights.indexAtLocation(location)]++;
+				entryWeights[entry] = u;
+				entryValues[entry] = value;
+			}
+		}
+
+		transitionLabels = new Object[numTransitions];
+		for (int t = 0; t < numTransitions; t++)
+			transitionLabels[t] = transitions.states[transitions.sources[t]].labels[transitions.destinationIndices[t]];
+	}
+
+	public CRF getCRF () { return crf; }
+
+	/** Fill <code>scores</code> with the weight of each transition on input <code>fv</code>. */
+	private void score (FeatureVector fv, double[] dotProducts, double[] scores) {
+		System.arraycopy (defaultWeights, 0, dotProducts, 0, defaultWeights.length);
+		int numFeatures = featureOffsets.length - 1;
+		for (int location = 0; location < fv.numLocations(); location++) {
+			int feature = fv.indexAtLocation(location);
+			if (feature >= numFeatures) continue;
+			double value = fv.valueAtLocation(location);
+			for (int entry = featureOffsets[feature]; entry < featureOffsets[feature+1]; entry++)
+				dotProducts[entryWeights[entry]] += entryValues[entry] * value;
+		}
+
+		int[] weightOffsets = transitions.weightOffsets;
+		int[] transitionWeights = transitions.transitionWeights;
+		for (int t = 0; t < numTransitions; t++) {
+			@Var
+			double score = 0;
+			for (int w = weightOffsets[t]; w < weightOffsets[t+1]; w++)
+				score += dotProducts[transitionWeights[w]];
+			scores[t] = score;
+		}
+	}
+
+	private Workspace workspace (int length, int k) {
+		Workspace workspace = workspaces.get();
+		if (workspace.scores.length < numTransitions) {
+			workspace.scores = new double[numTransitions];
+			workspace.dotProducts = new double[defaultWeights.length];
+			workspace.deltas = new double[2 * numStates];
+		}
+		if (workspace.backPointers.length < length * numStates)
+			workspace.backPointers = new int[length * numStates];
+		if (workspace.path.length < length)
+			workspace.path = new int[length];
+		if (k > 0 && workspace.kDeltas.length < (length + 1) * numStates * k) {
+			workspace.kDeltas = new double[(length + 1) * numStates * k];
+			workspace.kTransitions = new int[(length + 1) * numStates * k];
+			workspace.kRanks = new int[(length + 1) * numStates * k];
+		}
+		if (k > 0 && workspace.kCounts.length < (length + 1) * numStates)
+			workspace.kCounts = new int[(length + 1) * numStates];
+		return workspace;
+	}
+
+	/**
+	 * Find the best path, leaving the transition taken at each position in
+	 *  <code>workspace.path</code>. Returns its weight, or
+	 *  {@link Transducer#IMPOSSIBLE_WEIGHT} if there is no path.
+	 */
+	private double bestPath (FeatureVectorSequence input, Workspace workspace) {
+		int length = input.size();
+		int[] stateOffsets = transitions.stateOffsets;
+		int[] destinations = transitions.destinations;
+		double[] scores = workspace.scores;
+		double[] deltas = workspace.deltas;
+		int[] backPointers = workspace.backPointers;
+
+		@Var
+		int current = 0;
+		@Var
+		int next = numStates;
+		System.arraycopy (initialWeights, 0, deltas, current, numStates);
+
+		for (int ip = 0; ip < length; ip++) {
+			score (input.get(ip), workspace.dotProducts, scores);
+			Arrays.fill (deltas, next, next + numStates, Transducer.IMPOSSIBLE_WEIGHT);
+			boolean last = ip == length - 1;
+			int back = ip * numStates;
+			for (int i = 0; i < numStates; i++) {
+				double delta = deltas[current + i];
+				if (delta == Transducer.IMPOSSIBLE_WEIGHT) continue;
+				for (int t = stateOffsets[i]; t < stateOffsets[i+1]; t++) {
+					int j = destinations[t];
+					@Var
+					double weight = delta + scores[t];
+					// As in MaxLatticeDefault, the final weight is added on the last transition
+					if (last) weight += finalWeights[j];
+					if (weight > deltas[next + j]) {
+						deltas[next + j] = weight;
+						backPointers[back + j] = t;
+					}
+				}
+			}
+			current = next;
+			next = numStates - next;
+		}
+
+		@Var
+		int best = -1;
+		@Var
+		double bestWeight = Transducer.IMPOSSIBLE_WEIGHT;
+		for (int j = 0; j < numStates; j++)
+			if (deltas[current + j] > bestWeight) {
+				bestWeight = deltas[current + j];
+				best = j;
+			}
+		if (best == -1)
+			return Transducer.IMPOSSIBLE_WEIGHT;
+
+		@Var
+		int state = best;
+		for (int ip = length - 1; ip >= 0; ip--) {
+			int t = backPointers[ip * numStates + state];
+			workspace.path[ip] = t;
+			state = transitions.sources[t];
+		}
+		return bestWeight;
+	}
+
+	/**
+	 * Decode the best path without allocating, filling <code>labelIndices</code>
+	 *  with the index of each output in the CRF's output alphabet.
+	 *
+	 * @param labelIndices an array at least as long as <code>input</code>
+	 * @return the weight of the best path, including its initial and final weights,
+	 *  or {@link Transducer#IMPOSSIBLE_WEIGHT} if there is none,
+	 *  in which case <code>labelIndices</code> is unchanged
+	 */
+	public double bestLabels (FeatureVectorSequence input, int[] labelIndices) {
+		if (labelIndices.length < input.size())
+			throw new IllegalArgumentException ("Label array of length "+labelIndices.length+" is shorter than the input, "+input.size());
+		Workspace workspace = workspace (input.size(), 0);
+		double weight = bestPath (input, workspace);
+		if (weight == Transducer.IMPOSSIBLE_WEIGHT)
+			return weight;
+		for (int ip = 0; ip < input.size(); ip++)
+			labelIndices[ip] = transitions.labelIndices[workspace.path[ip]];
+		return weight;
+	}
+
+	/** Returns the outputs of the best path, as {@link Transducer#transduce(Sequence)} would, or null if there is no path. */
+	public Sequence<Object> bestOutputSequence (FeatureVectorSequence input) {
+		Workspace workspace = workspace (input.size(), 0);
+		if (bestPath (input, workspace) == Transducer.IMPOSSIBLE_WEIGHT)
+			return null;
+		Object[] outputs = new Object[input.size()];
+		for (int ip = 0; ip < outputs.length; ip++)
+			outputs[ip] = transitionLabels[workspace.path[ip]];
+		return new ArraySequence<Object> (outputs, false);
+	}
+
+	/** Decode a batch of sequences with <code>numThreads</code> threads, returning their best outputs in order. */
+	public List<Sequence<Object>> bestOutputSequences (List<FeatureVectorSequence> inputs, int numThreads) {
+		if (numThreads <= 1 || inputs.size() <= 1) {
+			ArrayList<Sequence<Object>> outputs = new ArrayList<Sequence<Object>> (inputs.size());
+			for (FeatureVectorSequence input : inputs)
+				outputs.add (bestOutputSequence (input));
+			return outputs;
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool (numThreads);
+		try {
+			return bestOutputSequences (inputs, executor, numThreads);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Decode a batch of sequences on an existing executor, split into
+	 *  <code>numTasks</code> slices. Each thread of the executor keeps its
+	 *  own buffers, so a long-running service can reuse one pool.
+	 */
+	public List<Sequence<Object>> bestOutputSequences (List<FeatureVectorSequence> inputs, ExecutorService executor, int numTasks) {
+		Object[] outputs = new Object[inputs.size()];
+		int sliceSize = Math.max (1, (inputs.size() + numTasks - 1) / numTasks);
+
+		ArrayList<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for (int start = 0; start < inputs.size(); start += sliceSize) {
+			int sliceStart = start;
+			int sliceEnd = Math.min (inputs.size(), start + sliceSize);
+			tasks.add (new Callable<Void>() {
+					public Void call() {
+						for (int i = sliceStart; i < sliceEnd; i++)
+							outputs[i] = bestOutputSequence (inputs.get(i));
+						return null;
+					}
+				});
+		}
+
+		try {
+			for (Future<Void> future : executor.invokeAll (tasks))
+				future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException ("Interrupted while decoding", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new IllegalStateException (e.getCause());
+		}
+
+		ArrayList<Sequence<Object>> results = new ArrayList<Sequence<Object>> (outputs.length);
+		for (Object output : outputs) {
+			@SuppressWarnings("unchecked")
+			Sequence<Object> sequence = (Sequence<Object>) output;
+			results.add (sequence);
+		}
+		return results;
+	}
+
+	/**
+	 * Returns up to <code>k</code> best paths, best first, as alignments of the
+	 *  input with each path's outputs and weight. Fewer are returned if
+	 *  fewer than <code>k</code> paths are possible.
+	 */
+	public List<SequencePairAlignment<Object,Object>> bestOutputAlignments (FeatureVectorSequence input, int k) {
+		ArrayList<SequencePairAlignment<Object,Object>> alignments = new ArrayList<SequencePairAlignment<Object,Object>>(k);
+		if (k < 1)
+			return alignments;
+		int length = input.size();
+		Workspace workspace = workspace (length, k);
+		int[] stateOffsets = transitions.stateOffsets;
+		int[] destinations = transitions.destinations;
+		double[] scores = workspace.scores;
+		double[] kDeltas = workspace.kDeltas;
+		int[] kTransitions = workspace.kTransitions;
+		int[] kRanks = workspace.kRanks;
+		int[] kCounts = workspace.kCounts;
+
+		Arrays.fill (kCounts, 0, (length + 1) * numStates, 0);
+		for (int i = 0; i < numStates; i++)
+			if (initialWeights[i] > Transducer.IMPOSSIBLE_WEIGHT) {
+				kDeltas[i * k] = initialWeights[i];
+				kCounts[i] = 1;
+			}
+
+		for (int ip = 0; ip < length; ip++) {
+			score (input.get(ip), workspace.dotProducts, scores);
+			boolean last = ip == length - 1;
+			int from = ip * numStates;
+			int to = from + numStates;
+			for (int i = 0; i < numStates; i++) {
+				for (int rank = 0; rank < kCounts[from + i]; rank++) {
+					double delta = kDeltas[(from + i) * k + rank];
+					for (int t = stateOffsets[i]; t < stateOffsets[i+1]; t++) {
+						int j = destinations[t];
+						@Var
+						double weight = delta + scores[t];
+						if (last) weight += finalWeights[j];
+						insert (kDeltas, kTransitions, kRanks, kCounts, to + j, k, weight, t, rank);
+					}
+				}
+			}
+		}
+
+		// Merge the k best partial paths of every state at the last position
+		int end = length * numStates;
+		double[] finalDeltas = new double[k];
+		int[] finalStates = new int[k];
+		int[] finalRanks = new int[k];
+		@Var
+		int numFinal = 0;
+		for (int j = 0; j < numStates; j++)
+			for (int rank = 0; rank < kCounts[end + j]; rank++) {
+				double weight = kDeltas[(end + j) * k + rank];
+				if (weight == Transducer.IMPOSSIBLE_WEIGHT) continue;
+				@Var
+				int position = Math.min (numFinal, k - 1);
+				if (numFinal == k && weight <= finalDeltas[k - 1]) continue;
+				while (position > 0 && weight > finalDeltas[position - 1]) {
+					finalDeltas[position] = finalDeltas[position - 1];
+					finalStates[position] = finalStates[position - 1];
+					finalRanks[position] = finalRanks[position - 1];
+					position--;
+				}
+				finalDeltas[position] = weight;
+				finalStates[position] = j;
+				finalRanks[position] = rank;
+				if (numFinal < k) numFinal++;
+			}
+
+		@SuppressWarnings("unchecked")
+		Sequence<Object> inputSequence = (Sequence) input;
+		for (int n = 0; n < numFinal; n++) {
+			Object[] outputs = new Object[length];
+			@Var
+			int state = finalStates[n];
+			@Var
+			int rank = finalRanks[n];
+			for (int ip = length - 1; ip >= 0; ip--) {
+				int cell = ((ip + 1) * numStates + state) * k + rank;
+				int t = kTransitions[cell];
+				outputs[ip] = transitionLabels[t];
+				rank = kRanks[cell];
+				state = transitions.sources[t];
+			}
+			alignments.add (new SequencePairAlignment<Object,Object> (inputSequence, new ArraySequence<Object> (outputs, false), finalDeltas[n]));
+		}
+		return alignments;
+	}
+
+	/** Insert a partial path into the sorted list of the k best for one lattice cell. */
+	private static void insert (double[] kDeltas, int[] kTransitions, int[] kRanks, int[] kCounts,
+			int cell, int k, double weight, int transition, int rank) {
+		int count = kCounts[cell];
+		int base = cell * k;
+		if (count == k && weight <= kDeltas[base + k - 1])
+			return;
+		@Var
+		int position = Math.min (count, k - 1);
+		// Ties keep the earlier path first, as the single best decoding does
+		while (position > 0 && weight > kDeltas[base + position - 1]) {
+			kDeltas[base + position] = kDeltas[base + position - 1];
+			kTransitions[base + position] = kTransitions[base + position - 1];
+			kRanks[base + position] = kRanks[base + position - 1];
+			position--;
+		}
+		kDeltas[base + position] = weight;
+		kTransitions[base + position] = transition;
+		kRanks[base + position] = rank;
+		if (count < k)
+			kCounts[cell] = count + 1;
+	}
+}
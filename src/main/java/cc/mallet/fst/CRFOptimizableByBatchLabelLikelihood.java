@@ -103,7 +103,7 @@ public class CRFOptimizableByBatchLabelLikelihood implements Optimizable.ByCombi
 			Transducer.Incrementor incrementor =
 				instanceWeight == 1.0 ? constraints.new Incrementor()
 			: constraints.new WeightedIncrementor(instanceWeight);
-				new SumLatticeDefault (this.crf, input, output, incrementor); 
+				crf.getSumLatticeFactory().newSumLattice (this.crf, input, output, incrementor); 
 		}
 		constraints.assertNotNaNOrInfinite();
 	}
@@ -130,14 +130,14 @@ public class CRFOptimizableByBatchLabelLikelihood implements Optimizable.ByCombi
 			FeatureVectorSequence input = (FeatureVectorSequence) instance.getData();
 			FeatureSequence output = (FeatureSequence) instance.getTarget();
 
-			labeledWeight = new SumLatticeDefault (this.crf, input, output, null).getTotalWeight();
+			labeledWeight = crf.getSumLatticeFactory().newSumLattice (this.crf, input, output, (Transducer.Incrementor)null).getTotalWeight();
 			if (Double.isInfinite (labeledWeight)) {
 				++numInfLabeledWeight;
 			}
 
 			Transducer.Incrementor incrementor = instanceWeight == 1.0 ? batchExpectations.new Incrementor()
 				: batchExpectations.new WeightedIncrementor (instanceWeight);
-			unlabeledWeight = new SumLatticeDefault (this.crf, input, null, incrementor).getTotalWeight();
+			unlabeledWeight = crf.getSumLatticeFactory().newSumLattice (this.crf, input, null, incrementor).getTotalWeight();
 			if (Double.isInfinite (unlabeledWeight)) {
 				++numInfUnlabeledWeight;
 			}
@@ -78,7 +78,7 @@ public class CRFOptimizableByLabelLikelihood implements Optimizable.ByGradientVa
 			double instanceWeight = ilist.getInstanceWeight(instance);
 			//System.out.println ("Constraint-gathering on instance "+i+" of "+ilist.size());
 			Transducer.Incrementor incrementor = instanceWeight == 1.0 ? constraints.new Incrementor() : constraints.new WeightedIncrementor(instanceWeight);
-			new SumLatticeDefault (this.crf, input, output, incrementor); 
+			crf.getSumLatticeFactory().newSumLattice (this.crf, input, output, incrementor); 
 		}
 //		System.out.println ("testing Value and Gradient");
 //		TestOptimizable.testValueAndGradientCurrentParameters (this);
@@ -146,7 +146,7 @@ public class CRFOptimizableByLabelLikelihood implements Optimizable.ByGradientVa
 			double instanceWeight = trainingSet.getInstanceWeight(instance);
 			FeatureVectorSequence input = (FeatureVectorSequence) instance.getData();
 			FeatureSequence output = (FeatureSequence) instance.getTarget();
-			labeledWeight = new SumLatticeDefault (this.crf, input, output, (Transducer.Incrementor)null).getTotalWeight();
+			labeledWeight = crf.getSumLatticeFactory().newSumLattice (this.crf, input, output, (Transducer.Incrementor)null).getTotalWeight();
 			String instanceName = instance.getName() == null ? "instance#"+ii : instance.getName().toString();
 			//System.out.println ("labeledWeight = "+labeledWeight);
 			if (Double.isInfinite (labeledWeight)) {
@@ -155,7 +155,7 @@ public class CRFOptimizableByLabelLikelihood implements Optimizable.ByGradientVa
 			}
 			
 			Transducer.Incrementor incrementor = instanceWeight == 1.0 ? expectations.new Incrementor() : expectations.new WeightedIncrementor (instanceWeight);
-			unlabeledWeight = new SumLatticeDefault (this.crf, input, null, incrementor).getTotalWeight();
+			unlabeledWeight = crf.getSumLatticeFactory().newSumLattice (this.crf, input, null, incrementor).getTotalWeight();
 			//System.out.println ("unlabeledWeight = "+unlabeledWeight);
 			if (Double.isInfinite (unlabeledWeight)) {
 				++numInfUnlabeledWeight;
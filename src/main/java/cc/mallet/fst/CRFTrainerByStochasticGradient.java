@@ -118,9 +118,9 @@ public class CRFTrainerByStochasticGradient extends ByInstanceIncrements {
 			FeatureVectorSequence fvs = (FeatureVectorSequence) trainingInstance
 					.getData();
 			Sequence labelSequence = (Sequence) trainingInstance.getTarget();
-			loglik += new SumLatticeDefault(crf, fvs, labelSequence, null)
+			loglik += crf.getSumLatticeFactory().newSumLattice(crf, fvs, labelSequence, (Transducer.Incrementor) null)
 					.getTotalWeight();
-			loglik -= new SumLatticeDefault(crf, fvs, null, null)
+			loglik -= crf.getSumLatticeFactory().newSumLattice(crf, fvs, null, (Transducer.Incrementor) null)
 					.getTotalWeight();
 		}
 		constraints.zero();
@@ -219,9 +219,9 @@ public class CRFTrainerByStochasticGradient extends ByInstanceIncrements {
 		FeatureVectorSequence fvs = (FeatureVectorSequence) trainingInstance
 				.getData();
 		Sequence labelSequence = (Sequence) trainingInstance.getTarget();
-		singleLoglik = new SumLatticeDefault(crf, fvs, labelSequence,
+		singleLoglik = crf.getSumLatticeFactory().newSumLattice(crf, fvs, labelSequence,
 				constraints.new Incrementor()).getTotalWeight();
-		singleLoglik -= new SumLatticeDefault(crf, fvs, null,
+		singleLoglik -= crf.getSumLatticeFactory().newSumLattice(crf, fvs, null,
 				expectations.new Incrementor()).getTotalWeight();
 		// Calculate parameter gradient given these instances: (constraints -
 		// expectations)
@@ -0,0 +1,162 @@
+/* Copyright (C) 2002 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package cc.mallet.fst;
+
+import java.util.Arrays;
+
+import com.google.errorprone.annotations.Var;
+
+import cc.mallet.types.Alphabet;
+import cc.mallet.types.FeatureVector;
+
+/**
+ * The transition structure of a {@link CRF} flattened into primitive arrays,
+ *  so that inference can score every transition at an input position
+ *  without creating <code>TransitionIterator</code> objects.
+ * <p>
+ * Transitions are numbered consecutively by source state: the transitions
+ *  out of state <code>i</code> are <code>stateOffsets[i]</code> up to
+ *  <code>stateOffsets[i+1]</code>. A table is only valid while the CRF's
+ *  weights structure is unchanged; use {@link #get(CRF, CRFTransitions)}
+ *  to reuse a cached table when it is still current.
+ */
+
+class CRFTransitions {
+
+    final CRF crf;
+    final int structureStamp;
+
+    final int numStates;
+    final int numTransitions;
+    final CRF.State[] states;
+
+    final int[] stateOffsets;         // indexed by source state, numStates+1 entries
+    final int[] sources;              // indexed by transition
+    final int[] destinations;
+    final int[] destinationIndices;   // position of the transition within its source state, as in TransitionIterator.getIndex()
+    final int[] labelIndices;         // index of the transition's label in the CRF's output alphabet
+
+    // The weights of each transition, as indices into usedWeights
+    final int[] weightOffsets;        // numTransitions+1 entries
+    final int[] transitionWeights;
+    final int[] usedWeights;          // indices into crf.parameters.weights
+
+    private CRFTransitions (CRF crf) {
+        this.crf = crf;
+        this.structureStamp = crf.getWeightsStructureChangeStamp();
+
+        numStates = crf.numStates();
+        states = new CRF.State[numStates];
+        stateOffsets = new int[numStates + 1];
+        for (int i = 0; i < numStates; i++) {
+            states[i] = (CRF.State) crf.getState(i);
+            stateOffsets[i+1] = stateOffsets[i] + states[i].numDestinations();
+        }
+        numTransitions = stateOffsets[numStates];
+
+        sources = new int[numTransitions];
+        destinations = new int[numTransitions];
+        destinationIndices = new int[numTransitions];
+        labelIndices = new int[numTransitions];
+        weightOffsets = new int[numTransitions + 1];
+
+        int numWeights = crf.parameters.weights == null ? 0 : crf.parameters.weights.length;
+        int[] weightPositions = new int[numWeights];
+        Arrays.fill(weightPositions, -1);
+        int[] used = new int[numWeights];
+        @Var
+        int numUsed = 0;
+
+        Alphabet outputAlphabet = crf.getOutputAlphabet();
+        for (int i = 0; i < numStates; i++) {
+            CRF.State state = states[i];
+            for (int k = 0; k < state.numDestinations(); k++) {
+                int t = stateOffsets[i] + k;
+                sources[t] = i;
+                destinations[t] = state.getDestinationState(k).getIndex();
+                destinationIndices[t] = k;
+                labelIndices[t] = outputAlphabet.lookupIndex(state.labels[k], false);
+                weightOffsets[t+1] = weightOffsets[t] + state.weightsIndices[k].length;
+                for (int weight: state.weightsIndices[k]) {
+                    if (weightPositions[weight] == -1) {
+                        weightPositions[weight] = numUsed;
+                        used[numUsed++] = weight;
+                    }
+                }
+            }
+        }
+
+        usedWeights = Arrays.copyOf(used, numUsed);
+        transitionWeights = new int[weightOffsets[numTransitions]];
+        for (int i = 0; i < numStates; i++) {
+            CRF.State state = states[i];
+            for (int k = 0; k < state.numDestinations(); k++) {
+                int t = stateOffsets[i] + k;
+                for (int w = 0; w < state.weightsIndices[k].length; w++) {
+                    transitionWeights[weightOffsets[t] + w] = weightPositions[state.weightsIndices[k][w]];
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns <code>cached</code> if it still describes <code>crf</code>,
+     *  otherwise a new table. Returns null if the CRF has states of a
+     *  subclass, such as those of a {@link MEMM}, that score their
+     *  transitions differently.
+     */
+    static CRFTransitions get (CRF crf, CRFTransitions cached) {
+        if (cached != null && cached.crf == crf &&
+            cached.structureStamp == crf.getWeightsStructureChangeStamp() &&
+            cached.numStates == crf.numStates()) {
+            return cached;
+        }
+
+        for (int i = 0; i < crf.numStates(); i++) {
+            if (crf.getState(i).getClass() != CRF.State.class) {
+                return null;
+            }
+        }
+        return new CRFTransitions(crf);
+    }
+
+    /** The number of distinct weights indices used by any transition. */
+    int numUsedWeights () { return usedWeights.length; }
+
+    /**
+     * Fill <code>scores[offset]</code> to <code>scores[offset+numTransitions-1]</code>
+     *  with the weight of each transition on input <code>fv</code>, as
+     *  computed by <code>CRF.TransitionIterator</code>. Transitions whose
+     *  label differs from <code>output</code> get
+     *  {@link Transducer#IMPOSSIBLE_WEIGHT}; pass null for no constraint.
+     *
+     * @param dotProducts scratch space of at least {@link #numUsedWeights()} entries
+     */
+    void score (FeatureVector fv, Object output, double[] dotProducts, double[] scores, int offset) {
+        CRF.Factors parameters = crf.parameters;
+        // Each weights vector is often shared by many transitions, so take its dot product only once
+        for (int u = 0; u < usedWeights.length; u++) {
+            int weight = usedWeights[u];
+            dotProducts[u] = parameters.weights[weight].dotProduct(fv) + parameters.defaultWeights[weight];
+        }
+
+        int outputIndex = output == null ? -1 : crf.getOutputAlphabet().lookupIndex(output, false);
+        for (int t = 0; t < numTransitions; t++) {
+            if (output != null && labelIndices[t] != outputIndex) {
+                scores[offset + t] = Transducer.IMPOSSIBLE_WEIGHT;
+                continue;
+            }
+            @Var
+            double score = 0;
+            for (int w = weightOffsets[t]; w < weightOffsets[t+1]; w++) {
+                score += dotProducts[transitionWeights[w]];
+            }
+            scores[offset + t] = score;
+        }
+    }
+}
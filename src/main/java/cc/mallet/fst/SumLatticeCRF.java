@@ -0,0 +1,442 @@
+package cc.mallet.fst;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+import com.google.errorprone.annotations.Var;
+
+import cc.mallet.fst.Transducer.State;
+import cc.mallet.types.FeatureVector;
+import cc.mallet.types.FeatureVectorSequence;
+import cc.mallet.types.LabelAlphabet;
+import cc.mallet.types.LabelVector;
+import cc.mallet.types.MatrixOps;
+import cc.mallet.types.Sequence;
+import cc.mallet.util.MalletLogger;
+
+/**
+ * Forward-Backward for {@link CRF}s over flat primitive arrays.
+ * <p>
+ * The weight of every transition at every input position is computed once,
+ *  into one contiguous buffer, and the forward and backward passes are run
+ *  with scaled probabilities rather than <code>sumLogProb</code> over
+ *  per-node objects. Each position's forward values are normalized to sum
+ *  to one, and the log of that scale is kept so that weights, alphas and
+ *  betas are reported in log space as by {@link SumLatticeDefault}. The
+ *  gammas, xis, total weight and incremented expectations match those of
+ *  {@link SumLatticeDefault}, except that a probability that underflows a
+ *  double is reported as {@link Transducer#IMPOSSIBLE_WEIGHT}.
+ * <p>
+ * The {@link Factory} keeps the flattened transition structure of the CRF
+ *  and a per-thread scratch buffer, so training over many sequences, even
+ *  from several threads, does not reallocate them. It falls back to
+ *  {@link SumLatticeDefault} for other transducers and for {@link MEMM}s.
+ * <pre>
+ * crf.setSumLatticeFactory (new SumLatticeCRF.Factory());
+ * </pre>
+ */
+public class SumLatticeCRF implements SumLattice
+{
+    private static Logger logger = MalletLogger.getLogger(SumLatticeCRF.class.getName());
+
+    CRF crf;
+    Sequence input, output;
+    int latticeLength;
+    int numStates;
+    double totalWeight;
+
+    // Scaled alphas and betas, indexed by ip*numStates+i.  The log alpha of a node is
+    // log(alphas[ip*numStates+i]) + alphaLogScales[ip], and likewise for betas.
+    double[] alphas, betas;
+    double[] alphaLogScales, betaLogScales;
+
+    // Log gammas, indexed by ip*numStates+i, and log xis, indexed by (ip*numStates+i)*numStates+j
+    // and saved only if saveXis is true.  getGammas and getXis copy them into nested arrays.
+    double[] gammas;
+    double[] xis;
+    LabelVector labelings[];               // indexed by op, created only if "outputAlphabet" is non-null in constructor
+
+    /** Scratch space that can be reused from one lattice to the next. */
+    static class Workspace {
+        double[] transitionWeights = new double[0];   // indexed by ip*numTransitions+t
+        double[] dotProducts = new double[0];
+        double[] maxWeights = new double[0];          // indexed by ip
+        double[] scales = new double[0];              // indexed by ip
+
+        void ensureCapacity (int length, int numTransitions, int numWeights) {
+            if (transitionWeights.length < length * numTransitions)
+                transitionWeights = new double[length * numTransitions];
+            if (dotProducts.length < numWeights)
+                dotProducts = new double[numWeights];
+            if (maxWeights.length < length + 1) {
+                maxWeights = new double[length + 1];
+                scales = new double[length + 1];
+            }
+        }
+    }
+
+    public SumLatticeCRF (CRF crf, Sequence input)
+    {
+        this (crf, input, null, null, false, null);
+    }
+
+    public SumLatticeCRF (CRF crf, Sequence input, Sequence output, Transducer.Incrementor incrementor)
+    {
+        this (crf, input, output, incrementor, false, null);
+    }
+
+    // If outputAlphabet is non-null, this will create a LabelVector
+    // for each position in the output sequence indicating the
+    // probability distribution over possible outputs at that time
+    // index
+    public SumLatticeCRF (CRF crf, Sequence input, Sequence output, Transducer.Incrementor incrementor, boolean saveXis, LabelAlphabet outputAlphabet)
+    {
+        this (crf, input, output, incrementor, saveXis, outputAlphabet, transitionsFor (crf), new Workspace());
+    }
+
+    private static CRFTransitions transitionsFor (CRF crf)
+    {
+        CRFTransitions transitions = CRFTransitions.get (crf, null);
+        if (transitions == null)
+            throw new IllegalArgumentException ("SumLatticeCRF does not support the states of "+crf.getClass().getName()+"; use SumLatticeDefault");
+        return transitions;
+    }
+
+    SumLatticeCRF (CRF crf, Sequence input, Sequence output, Transducer.Incrementor incrementor, boolean saveXis, LabelAlphabet outputAlphabet,
+                   CRFTransitions transitions, Workspace workspace)
+    {
+        assert (output == null || input.size() == output.size());
+        this.crf = crf;
+        this.input = input;
+        this.output = output;
+
+        FeatureVectorSequence fvs = (FeatureVectorSequence) input;
+        int length = input.size();
+        latticeLength = length + 1;
+        numStates = transitions.numStates;
+        int numTransitions = transitions.numTransitions;
+        int[] stateOffsets = transitions.stateOffsets;
+        int[] destinations = transitions.destinations;
+
+        alphas = new double[latticeLength * numStates];
+        betas = new double[latticeLength * numStates];
+        alphaLogScales = new double[latticeLength];
+        betaLogScales = new double[latticeLength];
+        gammas = new double[latticeLength * numStates];
+        Arrays.fill (gammas, Transducer.IMPOSSIBLE_WEIGHT);
+        if (saveXis) {
+            xis = new double[latticeLength * numStates * numStates];
+            Arrays.fill (xis, Transducer.IMPOSSIBLE_WEIGHT);
+        }
+        totalWeight = Transducer.IMPOSSIBLE_WEIGHT;
+
+        workspace.ensureCapacity (length, numTransitions, transitions.numUsedWeights());
+        double[] weights = workspace.transitionWeights;
+        double[] maxWeights = workspace.maxWeights;
+        double[] scales = workspace.scales;
+
+        for (int ip = 0; ip < length; ip++)
+            transitions.score (fvs.get(ip), output == null ? null : output.get(ip),
+                    workspace.dotProducts, weights, ip * numTransitions);
+
+        // Forward pass.  After each position, "weights" holds exp(weight - maxWeights[ip])
+        // for transitions out of reachable states, and zero for all others.
+        double[] initialWeights = crf.parameters.initialWeights;
+        @Var
+        double max = Transducer.IMPOSSIBLE_WEIGHT;
+        for (int i = 0; i < numStates; i++)
+            if (initialWeights[i] > max)
+                max = initialWeights[i];
+        if (max == Transducer.IMPOSSIBLE_WEIGHT) {
+            logger.warning ("There are no starting states!");
+            return;
+        }
+        for (int i = 0; i < numStates; i++)
+            alphas[i] = Math.exp (initialWeights[i] - max);
+        scales[0] = normalize (alphas, 0, numStates);
+        alphaLogScales[0] = max + Math.log (scales[0]);
+
+        for (int ip = 0; ip < length; ip++) {
+            int from = ip * numStates;
+            int to = from + numStates;
+            int offset = ip * numTransitions;
+
+            @Var
+            double maxWeight = Transducer.IMPOSSIBLE_WEIGHT;
+            for (int i = 0; i < numStates; i++) {
+                if (alphas[from+i] == 0) continue;
+                for (int t = stateOffsets[i]; t < stateOffsets[i+1]; t++)
+                    if (weights[offset+t] > maxWeight)
+                        maxWeight = weights[offset+t];
+            }
+            if (maxWeight == Transducer.IMPOSSIBLE_WEIGHT)
+                return;
+            maxWeights[ip] = maxWeight;
+
+            for (int i = 0; i < numStates; i++) {
+                double alpha = alphas[from+i];
+                if (alpha == 0) {
+                    for (int t = stateOffsets[i]; t < stateOffsets[i+1]; t++)
+                        weights[offset+t] = 0;
+                    continue;
+                }
+                for (int t = stateOffsets[i]; t < stateOffsets[i+1]; t++) {
+                    double e = Math.exp (weights[offset+t] - maxWeight);
+                    weights[offset+t] = e;
+                    alphas[to+destinations[t]] += alpha * e;
+                }
+            }
+
+            scales[ip+1] = normalize (alphas, to, numStates);
+            if (scales[ip+1] == 0)
+                return;
+            alphaLogScales[ip+1] = alphaLogScales[ip] + maxWeight + Math.log (scales[ip+1]);
+        }
+
+        // Calculate total weight of Lattice.  This is the normalizer
+        int last = length * numStates;
+        double[] finalWeights = crf.parameters.finalWeights;
+        max = Transducer.IMPOSSIBLE_WEIGHT;
+        for (int i = 0; i < numStates; i++)
+            if (alphas[last+i] > 0 && finalWeights[i] > max)
+                max = finalWeights[i];
+        if (max == Transducer.IMPOSSIBLE_WEIGHT)
+            return;
+        @Var
+        double sum = 0;
+        for (int i = 0; i < numStates; i++)
+            sum += alphas[last+i] * Math.exp (finalWeights[i] - max);
+        totalWeight = alphaLogScales[length] + max + Math.log (sum);
+
+        // Backward pass.  Betas are scaled so that alphas[n]*betas[n] is the gamma probability.
+        betaLogScales[length] = max + Math.log (sum);
+        for (int i = 0; i < numStates; i++) {
+            if (alphas[last+i] == 0) continue;
+            betas[last+i] = Math.exp (finalWeights[i] - max) / sum;
+            double p = alphas[last+i] * betas[last+i];
+            gammas[last+i] = Math.log (p);
+            if (incrementor != null) {
+                assert (p >= 0.0 && p <= 1.0+1e-6) : "p="+p+", gamma="+gammas[last+i];
+                incrementor.incrementFinalState (transitions.states[i], p);
+            }
+        }
+
+        @Var
+        double outputCounts[][] = null;
+        @Var
+        int[] outputIndices = null;   // indexed by the CRF's output alphabet
+        if (outputAlphabet != null) {
+            outputCounts = new double[latticeLength][outputAlphabet.size()];
+            outputIndices = new int[crf.getOutputAlphabet().size()];
+            for (int l = 0; l < outputIndices.length; l++)
+                outputIndices[l] = outputAlphabet.lookupIndex (crf.getOutputAlphabet().lookupObject(l), false);
+        }
+        Transition transition = incrementor == null ? null : new Transition ();
+
+        for (int ip = length-1; ip >= 0; ip--) {
+            int from = ip * numStates;
+            int to = from + numStates;
+            int offset = ip * numTransitions;
+            double inverseScale = 1.0 / scales[ip+1];
+            betaLogScales[ip] = totalWeight - alphaLogScales[ip];
+            FeatureVector fv = fvs.get(ip);
+
+            for (int i = 0; i < numStates; i++) {
+                double alpha = alphas[from+i];
+                if (alpha == 0) continue;
+                @Var
+                double beta = 0;
+                for (int t = stateOffsets[i]; t < stateOffsets[i+1]; t++) {
+                    double e = weights[offset+t];
+                    if (e == 0) continue;
+                    int j = destinations[t];
+                    double term = e * betas[to+j] * inverseScale;
+                    beta += term;
+                    double p = alpha * term;
+                    if (saveXis) xis[(from+i)*numStates+j] = Math.log (p);
+                    assert (p >= 0.0 && p <= 1.0+1e-6) : "p="+p+", xis["+ip+"]["+i+"]["+j+"]";
+                    if (incrementor != null) {
+                        transition.set (transitions.states[i], transitions.destinationIndices[t], fv,
+                                Math.log (e) + maxWeights[ip]);
+                        incrementor.incrementTransition (transition, p);
+                    }
+                    if (outputCounts != null) {
+                        int outputIndex = outputIndices[transitions.labelIndices[t]];
+                        assert (outputIndex >= 0);
+                        // xxx This assumes that "ip" == "op"!
+                        outputCounts[ip][outputIndex] += p;
+                    }
+                }
+                betas[from+i] = beta;
+                gammas[from+i] = Math.log (alpha * beta);
+            }
+        }
+
+        if (incrementor != null)
+            for (int i = 0; i < numStates; i++) {
+                double p = alphas[i] * betas[i];
+                assert (p >= 0.0 && p <= 1.0+1e-6) : "p="+p;
+                incrementor.incrementInitialState (transitions.states[i], p);
+            }
+        if (outputCounts != null) {
+            labelings = new LabelVector[latticeLength];
+            for (int ip = latticeLength-2; ip >= 0; ip--) {
+                assert (Math.abs(1.0-MatrixOps.sum (outputCounts[ip])) < 0.000001);
+                labelings[ip] = new LabelVector (outputAlphabet, outputCounts[ip]);
+            }
+        }
+    }
+
+    /** Divide <code>values[start]</code> to <code>values[start+length-1]</code> by their sum, and return the sum. */
+    private static double normalize (double[] values, int start, int length)
+    {
+        @Var
+        double sum = 0;
+        for (int i = start; i < start + length; i++)
+            sum += values[i];
+        if (sum > 0)
+            for (int i = start; i < start + length; i++)
+                values[i] /= sum;
+        return sum;
+    }
+
+    public double[][][] getXis(){
+        if (xis == null)
+            return null;
+        double[][][] nested = new double[latticeLength][numStates][];
+        for (int ip = 0; ip < latticeLength; ip++)
+            for (int i = 0; i < numStates; i++)
+                nested[ip][i] = Arrays.copyOfRange (xis, (ip * numStates + i) * numStates, (ip * numStates + i + 1) * numStates);
+        return nested;
+    }
+
+    public double[][] getGammas(){
+        double[][] nested = new double[latticeLength][];
+        for (int ip = 0; ip < latticeLength; ip++)
+            nested[ip] = Arrays.copyOfRange (gammas, ip * numStates, (ip + 1) * numStates);
+        return nested;
+    }
+
+    public double getTotalWeight () {
+        assert (!Double.isNaN(totalWeight));
+        return totalWeight; }
+
+    public double getGammaWeight(int inputPosition, State s) {
+        return gammas[inputPosition * numStates + s.getIndex()]; }
+
+    public double getGammaWeight(int inputPosition, int stateIndex) {
+        return gammas[inputPosition * numStates + stateIndex]; }
+
+    public double getGammaProbability (int inputPosition, State s) {
+        return Math.exp (gammas[inputPosition * numStates + s.getIndex()]); }
+
+    public double getGammaProbability (int inputPosition, int stateIndex) {
+        return Math.exp (gammas[inputPosition * numStates + stateIndex]); }
+
+    public double getXiProbability (int ip, State s1, State s2) {
+        if (xis == null)
+            throw new IllegalStateException ("xis were not saved.");
+        return Math.exp (xis[(ip * numStates + s1.getIndex()) * numStates + s2.getIndex()]);
+    }
+
+    public double getXiWeight(int ip, State s1, State s2)
+    {
+        if (xis == null)
+            throw new IllegalStateException ("xis were not saved.");
+        return xis[(ip * numStates + s1.getIndex()) * numStates + s2.getIndex()];
+    }
+
+    public int length () { return latticeLength; }
+
+    public Sequence getInput() {
+        return input;
+    }
+
+    public double getAlpha (int ip, State s) {
+        double alpha = alphas[ip * numStates + s.getIndex()];
+        return alpha == 0 ? Transducer.IMPOSSIBLE_WEIGHT : Math.log (alpha) + alphaLogScales[ip];
+    }
+
+    public double getBeta (int ip, State s) {
+        double beta = betas[ip * numStates + s.getIndex()];
+        return beta == 0 ? Transducer.IMPOSSIBLE_WEIGHT : Math.log (beta) + betaLogScales[ip];
+    }
+
+    public LabelVector getLabelingAtPosition (int outputPosition)    {
+        if (labelings != null)
+            return labelings[outputPosition];
+        return null;
+    }
+
+    public Transducer getTransducer ()
+    {
+        return crf;
+    }
+
+
+    /** A single transition, reused for every call to <code>incrementTransition</code>. */
+    static class Transition extends Transducer.TransitionIterator
+    {
+        CRF.State source;
+        int index;
+        FeatureVector input;
+        double weight;
+
+        void set (CRF.State source, int index, FeatureVector input, double weight) {
+            this.source = source;
+            this.index = index;
+            this.input = input;
+            this.weight = weight;
+        }
+
+        public boolean hasNext () { return false; }
+        public State nextState () { return getDestinationState(); }
+        public int getIndex () { return index; }
+        public Object getInput () { return input; }
+        public Object getOutput () { return source.labels[index]; }
+        public double getWeight () { return weight; }
+        public State getSourceState () { return source; }
+        public State getDestinationState () { return source.getDestinationState (index); }
+
+        private static final long serialVersionUID = 1;
+    }
+
+    public static class Factory extends SumLatticeFactory implements Serializable
+    {
+        private transient volatile CRFTransitions transitions;
+        private transient ThreadLocal<Workspace> workspaces = newWorkspaces ();
+
+        private static ThreadLocal<Workspace> newWorkspaces () {
+            return ThreadLocal.withInitial (Workspace::new);
+        }
+
+        public SumLattice newSumLattice (Transducer trans, Sequence input, Sequence output,
+                Transducer.Incrementor incrementor, boolean saveXis, LabelAlphabet outputAlphabet)
+        {
+            if (trans instanceof CRF && input instanceof FeatureVectorSequence) {
+                CRF crf = (CRF) trans;
+                CRFTransitions current = CRFTransitions.get (crf, transitions);
+                if (current != null) {
+                    transitions = current;
+                    return new SumLatticeCRF (crf, input, output, incrementor, saveXis, outputAlphabet, current, workspaces.get());
+                }
+            }
+            return new SumLatticeDefault (trans, input, output, incrementor, saveXis, outputAlphabet);
+        }
+
+        private static final long serialVersionUID = 1;
+        private static final int CURRENT_SERIAL_VERSION = 1;
+
+        private void writeObject(ObjectOutputStream out) throws IOException {
+            out.writeInt(CURRENT_SERIAL_VERSION);
+        }
+        private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+            in.readInt();
+            workspaces = newWorkspaces ();
+        }
+    }
+}
@@ -17,6 +17,7 @@ package cc.mallet.pipe;
 
 import java.io.*;
 import java.net.URI;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Pattern;
 
 import cc.mallet.extract.StringSpan;
@@ -37,6 +38,18 @@ import cc.mallet.util.Lexer;
 public class CharSequence2TokenSequence extends Pipe implements Serializable
 {
 	CharSequenceLexer lexer;
+
+	// The lexer each thread tokenizes with. A plain lexer is only a pattern and a
+	//  position, so the first thread uses the pipe's own lexer, and any other thread
+	//  that pipes instances concurrently gets a lexer compiled from its pattern.
+	private transient ThreadLocal<CharSequenceLexer> threadLexers = newThreadLexers ();
+
+	private ThreadLocal<CharSequenceLexer> newThreadLexers ()
+	{
+		AtomicBoolean ownLexerTaken = new AtomicBoolean ();
+		return ThreadLocal.withInitial (() ->
+				ownLexerTaken.getAndSet (true) ? new CharSequenceLexer (lexer.getPattern()) : lexer);
+	}
 	
 	public CharSequence2TokenSequence (CharSequenceLexer lexer)
 	{
@@ -58,9 +71,16 @@ public class CharSequence2TokenSequence extends Pipe implements Serializable
 		this (new CharSequenceLexer());
 	}
 
+	/** Stateless unless the lexer is a subclass of <code>CharSequenceLexer</code>, which may keep its own state. */
+	public boolean isStateless ()
+	{
+		return lexer.getClass() == CharSequenceLexer.class;
+	}
+
 	public Instance pipe (Instance carrier)
 	{
 		CharSequence string = (CharSequence) carrier.getData();
+		CharSequenceLexer lexer = isStateless() ? threadLexers.get() : this.lexer;
 		lexer.setCharSequence (string);
 		TokenSequence ts = new StringTokenization (string);
 		while (lexer.hasNext()) {
@@ -104,6 +124,7 @@ public class CharSequence2TokenSequence extends Pipe implements Serializable
 	private void readObject (ObjectInputStream in) throws IOException, ClassNotFoundException {
 		int version = in.readInt ();
 		lexer = (CharSequenceLexer) in.readObject();
+		threadLexers = newThreadLexers ();
 	}
 
 
@@ -20,6 +20,11 @@ import cc.mallet.types.TokenSequence;
 
 public class CharSequenceLowercase extends Pipe implements Serializable {
     
+    public boolean isStateless ()
+    {
+        return true;
+    }
+
     @Override public Instance pipe (Instance carrier) {
 
         if (carrier.getData() instanceof CharSequence) {
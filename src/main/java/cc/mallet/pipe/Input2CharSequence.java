@@ -38,6 +38,11 @@ public class Input2CharSequence extends Pipe implements Serializable {
         this.encoding = encoding;
     }
 
+    public boolean isStateless ()
+    {
+        return true;
+    }
+
     @Override public Instance pipe (Instance carrier) {
         try {
             if (carrier.getData() instanceof URI)
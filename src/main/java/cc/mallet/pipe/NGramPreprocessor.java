@@ -58,6 +58,11 @@ public class NGramPreprocessor extends Pipe implements Serializable {
 		return totalReplacements;
 	}
 
+	public boolean isStateless ()
+	{
+		return true;
+	}
+
 	public Instance pipe (Instance instance) {
 
 		String input = (String) instance.getData();
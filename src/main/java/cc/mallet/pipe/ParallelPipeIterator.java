@@ -0,0 +1,190 @@
+/* Copyright (C) 2002 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package cc.mallet.pipe;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import com.google.errorprone.annotations.Var;
+
+import cc.mallet.types.Instance;
+
+/**
+ * Passes instances through a pipe using several threads, producing exactly
+ *  the same instances, in the same order and with the same alphabet indices,
+ *  as {@link Pipe#newIteratorFrom(Iterator)}.
+ * <p>
+ * Instances are read from the source in batches. The pipe is broken into
+ *  its stages (nested {@link SerialPipes} are flattened), and each batch goes
+ *  through the stages in order. Runs of consecutive stages that report
+ *  {@link Pipe#isStateless()}, such as tokenization and stopword removal, are
+ *  applied to slices of the batch on worker threads. Every other stage,
+ *  in particular those that add entries to an alphabet, is applied to the
+ *  whole batch in order on the calling thread.
+ */
+
+public class ParallelPipeIterator implements Iterator<Instance> {
+
+    public static final int INSTANCES_PER_THREAD_BATCH = 256;
+
+    Iterator<Instance> source;
+    int numThreads;
+    int batchSize;
+
+    // Each segment is either a run of stateless stages or a single other stage
+    ArrayList<List<Pipe>> segments = new ArrayList<List<Pipe>>();
+    ArrayList<Boolean> segmentIsParallel = new ArrayList<Boolean>();
+
+    ExecutorService executor = null;
+    Iterator<Instance> currentBatch = null;
+
+    public ParallelPipeIterator(Pipe pipe, Iterator<Instance> source, int numThreads) {
+        this.source = source;
+        this.numThreads = numThreads;
+        this.batchSize = numThreads * INSTANCES_PER_THREAD_BATCH;
+
+        ArrayList<Pipe> stages = new ArrayList<Pipe>();
+        addStages(pipe, stages);
+
+        @Var
+        ArrayList<Pipe> run = null;
+        for (Pipe stage: stages) {
+            if (stage.isStateless()) {
+                if (run == null) {
+                    run = new ArrayList<Pipe>();
+                    segments.add(run);
+                    segmentIsParallel.add(true);
+                }
+                run.add(stage);
+            }
+            else {
+                run = null;
+                ArrayList<Pipe> single = new ArrayList<Pipe>();
+                single.add(stage);
+                segments.add(single);
+                segmentIsParallel.add(false);
+            }
+        }
+
+        if (segmentIsParallel.contains(true)) {
+            executor = Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+                    public Thread newThread(Runnable runnable) {
+                        // Don't keep the JVM alive if the iterator is abandoned
+                        Thread thread = new Thread(runnable, "pipe-worker");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        }
+    }
+
+    private static void addStages(Pipe pipe, List<Pipe> stages) {
+        if (pipe.getClass() == SerialPipes.class) {
+            for (Pipe stage: ((SerialPipes) pipe).pipes()) {
+                addStages(stage, stages);
+            }
+        }
+        else {
+            stages.add(pipe);
+        }
+    }
+
+    public boolean hasNext() {
+        while (currentBatch == null || ! currentBatch.hasNext()) {
+            if (! source.hasNext()) {
+                if (executor != null) {
+                    executor.shutdown();
+                    executor = null;
+                }
+                return false;
+            }
+            currentBatch = nextBatch().iterator();
+        }
+        return true;
+    }
+
+    public Instance next() {
+        if (! hasNext()) { throw new NoSuchElementException(); }
+        return currentBatch.next();
+    }
+
+    private List<Instance> nextBatch() {
+        @Var
+        List<Instance> batch = new ArrayList<Instance>(batchSize);
+        while (batch.size() < batchSize && source.hasNext()) {
+            batch.add(source.next());
+        }
+
+        for (int segment = 0; segment < segments.size(); segment++) {
+            if (segmentIsParallel.get(segment)) {
+                pipeInParallel(segments.get(segment), batch);
+            }
+            else {
+                // The stage may drop or add instances, so use its own iterator
+                Iterator<Instance> piped = segments.get(segment).get(0).newIteratorFrom(batch.iterator());
+                ArrayList<Instance> output = new ArrayList<Instance>(batch.size());
+                while (piped.hasNext()) {
+                    output.add(piped.next());
+                }
+                batch = output;
+            }
+        }
+
+        return batch;
+    }
+
+    /** Replace each instance in the batch with its output from a run of one-to-one stages. */
+    private void pipeInParallel(List<Pipe> stages, List<Instance> batch) {
+        int sliceSize = (batch.size() + numThreads - 1) / numThreads;
+        ArrayList<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+
+        for (int start = 0; start < batch.size(); start += sliceSize) {
+            int sliceStart = start;
+            int sliceEnd = Math.min(batch.size(), start + sliceSize);
+            tasks.add(new Callable<Void>() {
+                    public Void call() {
+                        for (int i = sliceStart; i < sliceEnd; i++) {
+                            @Var
+                            Instance instance = batch.get(i);
+                            for (Pipe stage: stages) {
+                                if (stage.precondition(instance)) {
+                                    instance = stage.pipe(instance);
+                                }
+                            }
+                            batch.set(i, instance);
+                        }
+                        return null;
+                    }
+                });
+        }
+
+        try {
+            for (Future<Void> future: executor.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while piping instances", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    @Override public void remove() { throw new IllegalStateException ("Not supported."); }
+}
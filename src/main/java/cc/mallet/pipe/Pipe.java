@@ -146,6 +146,33 @@ public abstract class Pipe implements Serializable, AlphabetCarrying
         return new SimplePipeInstanceIterator (source);
     }
     
+    /** 
+     * Return an iterator over the instances from source processed by this pipe, 
+     *  using several threads for the stages of the pipe that are stateless.
+     *  The instances and alphabet indices are identical to those from
+     *  {@link #newIteratorFrom(Iterator)}. See {@link ParallelPipeIterator}.
+     */
+    public Iterator<Instance> newIteratorFrom (Iterator<Instance> source, int numThreads)
+    {
+        if (numThreads <= 1) {
+            return newIteratorFrom (source);
+        }
+        return new ParallelPipeIterator (this, source, numThreads);
+    }
+
+    /**
+     * Returns true if this pipe maps each instance to exactly one instance
+     *  through {@link #pipe(Instance)}, its output does not depend on any other
+     *  instance, and it does not modify shared state such as alphabets.
+     *  Stateless pipes may process several instances concurrently.
+     *  The default is false; override this method only in pipes that meet
+     *  all of these conditions.
+     */
+    public boolean isStateless ()
+    {
+        return false;
+    }
+
     /** A convenience method that will pull all instances from source through this pipe,
      *  and return the results as an array.
      */
@@ -31,6 +31,11 @@ public class TokenSequenceNGrams extends Pipe implements Serializable
 		this.gramSizes = sizes;
 	}
 	
+	public boolean isStateless ()
+	{
+		return true;
+	}
+
 	public Instance pipe (Instance carrier)
 	{
 		String newTerm = null;
@@ -71,6 +71,11 @@ public class TokenSequenceRemoveStopPatterns extends Pipe implements Serializabl
 		return this;
 	}
 	
+	public boolean isStateless ()
+	{
+		return true;
+	}
+
 	public Instance pipe (Instance carrier) {
 		
 		TokenSequence originalSequence = (TokenSequence) carrier.getData();
@@ -165,6 +165,11 @@ public class TokenSequenceRemoveStopwords extends Pipe implements Serializable
 	}
 
 
+	public boolean isStateless ()
+	{
+		return true;
+	}
+
 	public Instance pipe (Instance carrier)
 	{
 		TokenSequence ts = (TokenSequence) carrier.getData();
@@ -0,0 +1,511 @@
+/* Copyright (C) 2026 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.    For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package cc.mallet.topics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import com.google.errorprone.annotations.Var;
+
+import cc.mallet.types.FeatureSequence;
+import cc.mallet.util.Randoms;
+
+/**
+ * A parallel topic model callable task that replaces the SparseLDA sampler with
+ *  Metropolis-Hastings proposals drawn from alias tables, following
+ *  Yuan, Gao, Ho, Dai, Wei, Zheng, Xing, Liu and Ma, LightLDA: Big Topic Models on
+ *  Modest Computer Clusters, WWW (2015).
+ * <p>
+ * Each token alternates between a document proposal, proportional to
+ *  n_{t|d} + alpha_t, and a word proposal, proportional to
+ *  (n_{w|t} + beta) / (n_t + |V| beta). The word proposal is stale: its alias table
+ *  is built from the counts at the time the word is first seen in an iteration,
+ *  so building it costs time linear in the number of non-zero topics for the word,
+ *  but drawing from it is constant time. The MH acceptance step corrects for the
+ *  staleness using the current counts.
+ * <p>
+ * Type/topic counts use the same packed, sorted format as {@link WorkerCallable},
+ *  so models trained with either sampler are interchangeable. Because scanning a
+ *  packed row for one topic is linear in the row length, each worker also keeps a
+ *  small hash table per type for the MH acceptance step, holding each topic's
+ *  current count and its place in the stale word proposal. In shared-counts
+ *  mode that table only sees other threads' changes when it is rebuilt at the
+ *  start of the next iteration, in the same way as the topic totals.
+ */
+
+public class AliasWorkerCallable extends WorkerCallable {
+
+    public static final int DEFAULT_MH_STEPS = 2;
+
+    int numMHSteps = DEFAULT_MH_STEPS;
+
+    // Iteration counter, used to decide whether a word's alias table is stale
+    int iteration = 0;
+    int[] aliasIteration;
+
+    // Sparse part of the word proposal, one table per type, over the topics
+    //  with non-zero counts when the table was built.
+    int[] aliasSize;
+    double[] aliasMass;
+    int[][] aliasTopics;
+    double[][] aliasWeights;
+    double[][] aliasProbs;
+    int[][] aliasIndices;
+
+    // Dense smoothing part of the word proposal, beta / (n_t + |V| beta),
+    //  and the alpha part of the document proposal, shared by all types.
+    double[] smoothingWeights;
+    double[] smoothingProbs;
+    int[] smoothingIndices;
+    double smoothingMass;
+
+    double[] alphaProbs;
+    int[] alphaIndices;
+
+    // Open-addressing hash tables from topic to current count, one per
+    //  type, rebuilt along with the word proposal. These give constant-time
+    //  count and stale proposal weight lookups without changing the packed
+    //  typeTopicCounts format. Slot i holds topic + 1 (0 if empty) at 3i,
+    //  the count at 3i + 1, and one plus the topic's position in the word
+    //  proposal (0 if it has none) at 3i + 2, so that a lookup finds all
+    //  three in adjacent ints instead of in separate arrays.
+    int[][] countTables;
+    int[] countSize;
+    static final int SLOT_WIDTH = 3;
+
+    // Scratch space for building alias tables
+    double[] scaledWeights;
+    int[] smallStack;
+    int[] largeStack;
+
+    public AliasWorkerCallable (int numTopics,
+                                double[] alpha, double alphaSum,
+                                double beta, Randoms random,
+                                ArrayList<TopicAssignment> data,
+                                int[][] typeTopicCounts,
+                                int[] tokensPerTopic,
+                                int startDoc, int numDocs) {
+        super(numTopics, alpha, alphaSum, beta, random, data,
+              typeTopicCounts, tokensPerTopic, startDoc, numDocs);
+
+        aliasIteration = new int[numTypes];
+        aliasSize = new int[numTypes];
+        aliasMass = new double[numTypes];
+        aliasTopics = new int[numTypes][];
+        aliasWeights = new double[numTypes][];
+        aliasProbs = new double[numTypes][];
+        aliasIndices = new int[numTypes][];
+        countTables = new int[numTypes][];
+        countSize = new int[numTypes];
+
+        smoothingWeights = new double[numTopics];
+        smoothingProbs = new double[numTopics];
+        smoothingIndices = new int[numTopics];
+        alphaProbs = new double[numTopics];
+        alphaIndices = new int[numTopics];
+
+        scaledWeights = new double[numTopics];
+        smallStack = new int[numTopics];
+        largeStack = new int[numTopics];
+    }
+
+    /** Set the number of (document proposal, word proposal) pairs per token. */
+    public void setNumMHSteps(int steps) {
+        this.numMHSteps = steps;
+    }
+
+    public Integer call () throws Exception {
+
+        // Invalidate all word proposals, and rebuild the proposals that
+        //  depend only on the global topic totals and on alpha, which may
+        //  have changed since the last iteration.
+        iteration++;
+
+        smoothingMass = 0.0;
+        for (int topic = 0; topic < numTopics; topic++) {
+            smoothingWeights[topic] = beta / (tokensPerTopic[topic] + betaSum);
+            smoothingMass += smoothingWeights[topic];
+        }
+        buildAliasTable(smoothingWeights, numTopics, smoothingMass, smoothingProbs, smoothingIndices);
+        buildAliasTable(alpha, numTopics, alphaSum, alphaProbs, alphaIndices);
+
+        return super.call();
+    }
+
+    /**
+     *  Fill <code>probs</code> and <code>indices</code> with Vose's alias table for
+     *   the first <code>size</code> elements of <code>weights</code>.
+     */
+    protected void buildAliasTable(double[] weights, int size, double mass,
+                                   double[] probs, int[] indices) {
+        @Var
+        int numSmall = 0;
+        @Var
+        int numLarge = 0;
+
+        for (int i = 0; i < size; i++) {
+            scaledWeights[i] = weights[i] * size / mass;
+            if (scaledWeights[i] < 1.0) { smallStack[numSmall++] = i; }
+            else { largeStack[numLarge++] = i; }
+        }
+
+        while (numSmall > 0 && numLarge > 0) {
+            int small = smallStack[--numSmall];
+            int large = largeStack[--numLarge];
+
+            probs[small] = scaledWeights[small];
+            indices[small] = large;
+
+            scaledWeights[large] = (scaledWeights[large] + scaledWeights[small]) - 1.0;
+            if (scaledWeights[large] < 1.0) { smallStack[numSmall++] = large; }
+            else { largeStack[numLarge++] = large; }
+        }
+
+        // Anything left over is 1.0 up to rounding error
+        while (numLarge > 0) {
+            int large = largeStack[--numLarge];
+            probs[large] = 1.0;
+            indices[large] = large;
+        }
+        while (numSmall > 0) {
+            int small = smallStack[--numSmall];
+            probs[small] = 1.0;
+            indices[small] = small;
+        }
+    }
+
+    /** Draw an index from an alias table of the given size. */
+    protected int sampleAliasTable(double[] probs, int[] indices, int size) {
+        double sample = random.nextUniform() * size;
+        int bin = (int) sample;
+        if (sample - bin < probs[bin]) { return bin; }
+        return indices[bin];
+    }
+
+    /** Rebuild the sparse word proposal and count lookup table for a type from its current counts. */
+    protected void buildWordProposal(int type) {
+        int[] currentTypeTopicCounts = typeTopicCounts[type];
+
+        @Var
+        int size = 0;
+        while (size < currentTypeTopicCounts.length && currentTypeTopicCounts[size] > 0) {
+            size++;
+        }
+
+        if (aliasTopics[type] == null || aliasTopics[type].length < size) {
+            int capacity = Math.max(size, 1);
+            aliasTopics[type] = new int[capacity];
+            aliasWeights[type] = new double[capacity];
+            aliasProbs[type] = new double[capacity];
+            aliasIndices[type] = new int[capacity];
+        }
+
+        // Keep the count table at most half full
+        int numSlots = Integer.highestOneBit(Math.max(size, 1)) * 4;
+        if (countTables[type] == null || countTables[type].length != SLOT_WIDTH * numSlots) {
+            countTables[type] = new int[SLOT_WIDTH * numSlots];
+        }
+        else {
+            Arrays.fill(countTables[type], 0);
+        }
+        countSize[type] = 0;
+
+        int[] topics = aliasTopics[type];
+        double[] weights = aliasWeights[type];
+
+        @Var
+        double mass = 0.0;
+        for (int i = 0; i < size; i++) {
+            int topic = currentTypeTopicCounts[i] & topicMask;
+            int count = currentTypeTopicCounts[i] >> topicBits;
+            topics[i] = topic;
+            weights[i] = count / (tokensPerTopic[topic] + betaSum);
+            mass += weights[i];
+            addCount(type, topic, count);
+            int[] table = countTables[type];
+            table[countSlot(table, topic) + 2] = i + 1;
+        }
+
+        if (size > 0) {
+            buildAliasTable(weights, size, mass, aliasProbs[type], aliasIndices[type]);
+        }
+
+        aliasSize[type] = size;
+        aliasMass[type] = mass;
+        aliasIteration[type] = iteration;
+    }
+
+    /** Draw a topic from the (possibly stale) word proposal for a type. */
+    protected int sampleWordProposal(int type) {
+        double sparseMass = aliasMass[type];
+        double sample = random.nextUniform() * (sparseMass + smoothingMass);
+
+        // Reuse the uniform draw to choose a cell in whichever table we land in
+        if (sample < sparseMass) {
+            int size = aliasSize[type];
+            double scaled = sample * size / sparseMass;
+            int bin = Math.min((int) scaled, size - 1);
+            int index = (scaled - bin < aliasProbs[type][bin]) ? bin : aliasIndices[type][bin];
+            return aliasTopics[type][index];
+        }
+
+        double scaled = (sample - sparseMass) * numTopics / smoothingMass;
+        int bin = Math.min((int) scaled, numTopics - 1);
+        return (scaled - bin < smoothingProbs[bin]) ? bin : smoothingIndices[bin];
+    }
+
+    /** The unnormalized probability of a topic under the word proposal for a type. */
+    protected double wordProposalWeight(int type, int topic) {
+        int[] table = countTables[type];
+        // An empty slot has no proposal position either
+        int proposalIndex = table[countSlot(table, topic) + 2];
+        if (proposalIndex == 0) {
+            return smoothingWeights[topic];
+        }
+        return aliasWeights[type][proposalIndex - 1] + smoothingWeights[topic];
+    }
+
+    /** Find the position of the slot for a topic in a type's count table. */
+    protected int countSlot(int[] table, int topic) {
+        int mask = (table.length / SLOT_WIDTH) - 1;
+        // Fibonacci hashing: take the high bits of the product
+        @Var
+        int slot = (topic * 0x9E3779B9) >>> Integer.numberOfLeadingZeros(mask);
+        while (table[SLOT_WIDTH * slot] != 0 && table[SLOT_WIDTH * slot] != topic + 1) {
+            slot = (slot + 1) & mask;
+        }
+        return SLOT_WIDTH * slot;
+    }
+
+    /** The current count of a topic for a type. */
+    protected int getCount(int type, int topic) {
+        int[] table = countTables[type];
+        int position = countSlot(table, topic);
+        return table[position] == 0 ? 0 : table[position + 1];
+    }
+
+    /** Change the count of a topic in a type's count table. */
+    protected void addCount(int type, int topic, int delta) {
+        @Var
+        int[] table = countTables[type];
+        @Var
+        int position = countSlot(table, topic);
+        if (table[position] != 0) {
+            table[position + 1] += delta;
+            return;
+        }
+
+        if (2 * SLOT_WIDTH * (countSize[type] + 1) > table.length) {
+            // Double the table and reinsert. Topics whose count has dropped
+            //  to zero are left behind, unless the word proposal has them.
+            int[] oldTable = table;
+            table = new int[oldTable.length * 2];
+            countSize[type] = 0;
+            for (int oldPosition = 0; oldPosition < oldTable.length; oldPosition += SLOT_WIDTH) {
+                if (oldTable[oldPosition] != 0 &&
+                    (oldTable[oldPosition + 1] != 0 || oldTable[oldPosition + 2] != 0)) {
+                    int newPosition = countSlot(table, oldTable[oldPosition] - 1);
+                    System.arraycopy(oldTable, oldPosition, table, newPosition, SLOT_WIDTH);
+                    countSize[type]++;
+                }
+            }
+            countTables[type] = table;
+            position = countSlot(table, topic);
+        }
+
+        table[position] = topic + 1;
+        table[position + 1] = delta;
+        table[position + 2] = 0;
+        countSize[type]++;
+    }
+
+    /** Remove one token of a topic from a packed row, keeping it sorted. */
+    protected void decrement(int[] currentTypeTopicCounts, int topic) {
+        @Var
+        int index = 0;
+        while ((currentTypeTopicCounts[index] & topicMask) != topic) {
+            index++;
+        }
+
+        int currentValue = (currentTypeTopicCounts[index] >> topicBits) - 1;
+        int updatedCount = currentValue == 0 ? 0 : (currentValue << topicBits) + topic;
+
+        // Shift the reduced value to the right, if necessary.
+        while (index < currentTypeTopicCounts.length - 1 &&
+               updatedCount < currentTypeTopicCounts[index + 1]) {
+            currentTypeTopicCounts[index] = currentTypeTopicCounts[index + 1];
+            index++;
+        }
+        currentTypeTopicCounts[index] = updatedCount;
+    }
+
+    /** Add one token of a topic to a packed row, keeping it sorted. */
+    protected void increment(int[] currentTypeTopicCounts, int topic) {
+        @Var
+        int index = 0;
+        while (currentTypeTopicCounts[index] > 0 &&
+               (currentTypeTopicCounts[index] & topicMask) != topic) {
+            index++;
+        }
+
+        if (currentTypeTopicCounts[index] == 0) {
+            currentTypeTopicCounts[index] = (1 << topicBits) + topic;
+        }
+        else {
+            int updatedCount = currentTypeTopicCounts[index] + (1 << topicBits);
+
+            // Bubble the increased value left, if necessary
+            while (index > 0 &&
+                   updatedCount > currentTypeTopicCounts[index - 1]) {
+                currentTypeTopicCounts[index] = currentTypeTopicCounts[index - 1];
+                index--;
+            }
+            currentTypeTopicCounts[index] = updatedCount;
+        }
+    }
+
+    @Override
+    protected int sampleTopicsForOneDoc (FeatureSequence tokenSequence,
+                                         FeatureSequence topicSequence,
+                                         boolean readjustTopicsAndStats /* currently ignored */) {
+
+        int[] oneDocTopics = topicSequence.getFeatures();
+        int docLength = tokenSequence.getLength();
+
+        // localTopicCounts is all zeros between documents
+        @Var
+        int assignedTokens = 0;
+        for (int position = 0; position < docLength; position++) {
+            if (oneDocTopics[position] == ParallelTopicModel.UNASSIGNED_TOPIC) { continue; }
+            localTopicCounts[oneDocTopics[position]]++;
+            assignedTokens++;
+        }
+
+        @Var
+        int changed = 0;
+
+        for (int position = 0; position < docLength; position++) {
+            int type = tokenSequence.getIndexAtPosition(position);
+            int oldTopic = oneDocTopics[position];
+            int[] currentTypeTopicCounts = typeTopicCounts[type];
+
+            if (typeLocks != null) {
+                typeLocks[type & lockMask].lock();
+            }
+
+            if (aliasIteration[type] != iteration) {
+                buildWordProposal(type);
+            }
+
+            @Var
+            int topic = oldTopic;
+
+            if (oldTopic != ParallelTopicModel.UNASSIGNED_TOPIC) {
+                localTopicCounts[oldTopic]--;
+                tokensPerTopic[oldTopic]--;
+                decrement(currentTypeTopicCounts, oldTopic);
+                addCount(type, oldTopic, -1);
+            }
+            else {
+                // Start the chain from the word proposal
+                topic = sampleWordProposal(type);
+            }
+
+            // The document proposal includes this token with its old topic,
+            //  so it does not change while we run the chain.
+            @Var
+            double topicWeight =
+                (localTopicCounts[topic] + alpha[topic]) * (getCount(type, topic) + beta) /
+                (tokensPerTopic[topic] + betaSum);
+
+            for (int step = 0; step < numMHSteps; step++) {
+
+                // Document proposal
+                @Var
+                int proposal;
+                if (random.nextUniform() * (assignedTokens + alphaSum) < assignedTokens) {
+                    @Var
+                    int proposalTopic;
+                    do {
+                        proposalTopic = oneDocTopics[random.nextInt(docLength)];
+                    } while (proposalTopic == ParallelTopicModel.UNASSIGNED_TOPIC);
+                    proposal = proposalTopic;
+                }
+                else {
+                    proposal = sampleAliasTable(alphaProbs, alphaIndices, numTopics);
+                }
+
+                if (proposal != topic) {
+                    double proposalWeight =
+                        (localTopicCounts[proposal] + alpha[proposal]) * (getCount(type, proposal) + beta) /
+                        (tokensPerTopic[proposal] + betaSum);
+
+                    double topicProposalProb = localTopicCounts[topic] + alpha[topic] + (topic == oldTopic ? 1 : 0);
+                    double proposalProposalProb = localTopicCounts[proposal] + alpha[proposal] + (proposal == oldTopic ? 1 : 0);
+
+                    if (random.nextUniform() * topicWeight * proposalProposalProb < proposalWeight * topicProposalProb) {
+                        topic = proposal;
+                        topicWeight = proposalWeight;
+                    }
+                }
+
+                // Word proposal
+                proposal = sampleWordProposal(type);
+
+                if (proposal != topic) {
+                    double proposalWeight =
+                        (localTopicCounts[proposal] + alpha[proposal]) * (getCount(type, proposal) + beta) /
+                        (tokensPerTopic[proposal] + betaSum);
+
+                    if (random.nextUniform() * topicWeight * wordProposalWeight(type, proposal) <
+                        proposalWeight * wordProposalWeight(type, topic)) {
+                        topic = proposal;
+                        topicWeight = proposalWeight;
+                    }
+                }
+            }
+
+            increment(currentTypeTopicCounts, topic);
+            addCount(type, topic, 1);
+
+            if (typeLocks != null) {
+                typeLocks[type & lockMask].unlock();
+            }
+
+            oneDocTopics[position] = topic;
+            localTopicCounts[topic]++;
+            tokensPerTopic[topic]++;
+            if (oldTopic == ParallelTopicModel.UNASSIGNED_TOPIC) {
+                assignedTokens++;
+            }
+
+            if (topic != oldTopic) {
+                changed++;
+            }
+        }
+
+        if (shouldSaveState) {
+            // Update the document-topic count histogram,
+            //  for dirichlet estimation
+            docLengthCounts[ docLength ]++;
+        }
+
+        // Clear the local counts, visiting each non-zero topic once
+        for (int position = 0; position < docLength; position++) {
+            int topic = oneDocTopics[position];
+            if (localTopicCounts[topic] > 0) {
+                if (shouldSaveState) {
+                    topicDocCounts[topic][ localTopicCounts[topic] ]++;
+                }
+                localTopicCounts[topic] = 0;
+            }
+        }
+
+        return changed;
+    }
+}
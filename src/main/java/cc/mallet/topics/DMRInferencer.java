@@ -54,11 +54,12 @@ public class DMRInferencer extends TopicInferencer implements Serializable {
 		random = new Randoms();
 	}
 	
-	public double[] getSampledDistribution(Instance instance, int numIterations, int thinning, int burnIn) {
+	protected void prepareScratch(Instance instance, Scratch scratch) {
 		// we can't use the standard score functions from MaxEnt,
 		//  since our features are currently in the Target.
 		FeatureVector features = (FeatureVector) instance.getTarget();
 		double[] parameters = dmrParameters.getParameters();
+		double[] alpha = scratch.alpha;
 		
 		for (int topic = 0; topic < numTopics; topic++) {
 			alpha[topic] = parameters[topic*numFeatures + defaultFeatureIndex]
@@ -66,10 +67,8 @@ public class DMRInferencer extends TopicInferencer implements Serializable {
 			
 			alpha[topic] = Math.exp(alpha[topic]);
 			
-			cachedCoefficients[topic] = alpha[topic] / (tokensPerTopic[topic] + betaSum);
+			scratch.cachedCoefficients[topic] = alpha[topic] / (tokensPerTopic[topic] + betaSum);
 		}
-		
-		return super.getSampledDistribution(instance, numIterations, thinning, burnIn);
 	}
 	
 	// Serialization
@@ -22,12 +22,16 @@ import cc.mallet.util.MalletProgressMessageLogger;
 
 import java.util.logging.*;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import java.text.NumberFormat;
 import java.text.DecimalFormat;
 
 
-public class DMROptimizable implements Optimizable.ByGradientValue {
+public class DMROptimizable implements Optimizable.ByGradientValue, Optimizable.ByCombiningBatchGradient {
 
 	private static Logger logger = MalletLogger.getLogger(DMROptimizable.class.getName());
 	private static Logger progressLogger = MalletProgressMessageLogger.getLogger(DMROptimizable.class.getName()+"-pl");
@@ -63,8 +67,25 @@ public class DMROptimizable implements Optimizable.ByGradientValue {
 	int numFeatures;
 	int defaultFeatureIndex;
 
+	// Instances are split into this many contiguous batches. If there is an
+	//  executor, the value and gradient of each batch are computed in parallel.
+	int numBatches = 1;
+	ExecutorService executor = null;
+	List<double[]> batchGradients = null;
+
 	public DMROptimizable () {}
 
+	/**
+	 *  Compute the value and gradient in <code>numBatches</code> batches of instances,
+	 *   running the batches as tasks on <code>executor</code>. The caller owns the executor.
+	 */
+	public DMROptimizable (InstanceList instances, MaxEnt initialClassifier,
+						   int numBatches, ExecutorService executor) {
+		this(instances, initialClassifier);
+		this.numBatches = Math.max(1, Math.min(numBatches, instances.size()));
+		this.executor = executor;
+	}
+
 	public DMROptimizable (InstanceList instances, MaxEnt initialClassifier) {
 
 		this.trainingList = instances;
@@ -184,21 +205,153 @@ public class DMROptimizable implements Optimizable.ByGradientValue {
 		if (! cachedValueStale) { return cachedValue; }
 
 		numGetValueCalls++;
-		cachedValue = 0;
 
-		// Incorporate likelihood of data
-		double[] scores = new double[ trainingList.getTargetAlphabet().size() ];
-		double value = 0.0;
+		double labelProbability = 0.0;
+		if (executor == null || numBatches == 1) {
+			for (int batch = 0; batch < numBatches; batch++) {
+				labelProbability += getBatchLikelihood(getBatchAssignments(batch));
+			}
+		}
+		else {
+			List<Callable<Double>> tasks = new ArrayList<Callable<Double>>(numBatches);
+			for (int batch = 0; batch < numBatches; batch++) {
+				final int[] batchAssignments = getBatchAssignments(batch);
+				tasks.add(new Callable<Double>() {
+						public Double call() {
+							return getBatchLikelihood(batchAssignments);
+						}
+					});
+			}
+			for (double batchValue: invokeAll(tasks)) {
+				labelProbability += batchValue;
+			}
+		}
+
+		double prior = getPriorValue();
+
+		cachedValue = labelProbability + prior;
+		cachedValueStale = false;
+		progressLogger.info ("Value (likelihood=" + formatter.format(labelProbability) +
+							 " prior=" + formatter.format(prior) +
+							 ") = " + formatter.format(cachedValue));
+
+		return cachedValue;
+	}
+
+	public void getValueGradient (double [] buffer) {
+
+		if (batchGradients == null) {
+			batchGradients = new ArrayList<double[]>(numBatches);
+			for (int batch = 0; batch < numBatches; batch++) {
+				batchGradients.add(new double[ parameters.length ]);
+			}
+		}
+
+		if (executor == null || numBatches == 1) {
+			for (int batch = 0; batch < numBatches; batch++) {
+				getBatchValueGradient(batchGradients.get(batch), batch, getBatchAssignments(batch));
+			}
+		}
+		else {
+			List<Callable<Double>> tasks = new ArrayList<Callable<Double>>(numBatches);
+			for (int batch = 0; batch < numBatches; batch++) {
+				final int batchIndex = batch;
+				final int[] batchAssignments = getBatchAssignments(batch);
+				tasks.add(new Callable<Double>() {
+						public Double call() {
+							getBatchValueGradient(batchGradients.get(batchIndex), batchIndex, batchAssignments);
+							return 0.0;
+						}
+					});
+			}
+			invokeAll(tasks);
+		}
+
+		numGetValueGradientCalls++;
+
+		combineGradients(batchGradients, cachedGradient);
+
+		assert (buffer != null && buffer.length == parameters.length);
+		System.arraycopy (cachedGradient, 0, buffer, 0, cachedGradient.length);
+		//System.out.println ("DCMMaxEntTrainer gradient infinity norm = "+MatrixOps.infinityNorm(cachedGradient));
+	}
+
+	/** Run value or gradient tasks on the executor and return their results in order. */
+	private double[] invokeAll (List<Callable<Double>> tasks) {
+		double[] results = new double[ tasks.size() ];
+		try {
+			List<Future<Double>> futures = executor.invokeAll(tasks);
+			for (int i = 0; i < results.length; i++) {
+				results[i] = futures.get(i).get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while computing DMR value", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("DMR value thread failed", e.getCause());
+		}
+		return results;
+	}
 
-		int instanceIndex = 0;
-		
-		for (Instance instance: trainingList) {
+	/** The first (inclusive) and last (exclusive) instance index of one batch. */
+	int[] getBatchAssignments (int batchIndex) {
+		int numInstances = trainingList.size();
+		return new int[] { (int) ((long) batchIndex * numInstances / numBatches),
+						   (int) ((long) (batchIndex + 1) * numInstances / numBatches) };
+	}
+
+	public int getNumBatches () { return numBatches; }
+
+	/**
+	 *  The log probability of the count vectors in one batch of instances,
+	 *   plus the prior if this is the last batch.
+	 */
+	public double getBatchValue (int batchIndex, int[] batchAssignments) {
+		double value = getBatchLikelihood(batchAssignments);
+		if (batchIndex == numBatches - 1) {
+			value += getPriorValue();
+		}
+		return value;
+	}
+
+	/**
+	 *  Set the buffer to the gradient of the log probability of one batch
+	 *   of instances, including the gradient of the prior if this is the last batch.
+	 */
+	public void getBatchValueGradient (double[] buffer, int batchIndex, int[] batchAssignments) {
+		Arrays.fill(buffer, 0.0);
+		addBatchGradient(buffer, batchAssignments);
+		if (batchIndex == numBatches - 1) {
+			addPriorGradient(buffer);
+		}
+	}
+
+	/** Add up the gradients of all batches. */
+	public void combineGradients (Collection<double[]> gradients, double[] buffer) {
+		Arrays.fill(buffer, 0.0);
+		for (double[] gradient: gradients) {
+			MatrixOps.plusEquals(buffer, gradient);
+		}
+
+		// A parameter may be set to -infinity by an external user.
+		// We set gradient to 0 because the parameter's value can
+		// never change anyway and it will mess up future calculations
+		// on the matrix, such as norm().
+		MatrixOps.substitute (buffer, Double.NEGATIVE_INFINITY, 0.0);
+	}
+
+	/** The log probability of the count vectors of instances <code>[start, end)</code>, without the prior. */
+	private double getBatchLikelihood (int[] batchAssignments) {
+
+		double[] scores = new double[ numLabels ];
+		double batchValue = 0.0;
+
+		for (int instanceIndex = batchAssignments[0]; instanceIndex < batchAssignments[1]; instanceIndex++) {
+			Instance instance = trainingList.get(instanceIndex);
 
 			FeatureVector multinomialValues = (FeatureVector) instance.getTarget();
 			if (multinomialValues == null) { continue; }
 
-			//System.out.println("L Now "+inputAlphabet.size()+" regular features.");
-
 			// Get the predicted probability of each class
 			//   under the current model parameters
 			this.classifier.getUnnormalizedClassificationScores(instance, scores);
@@ -212,11 +365,10 @@ public class DMROptimizable implements Optimizable.ByGradientValue {
 				sumScores += scores[i];
 			}
 
-			FeatureVector features = (FeatureVector) instance.getData();
-
 			// This is really an int, but since FeatureVectors are defined as doubles, 
 			//  avoid casting.
 			double totalLength = 0;
+			double value = 0.0;
 
 			for (int i = 0; i < multinomialValues.numLocations(); i++) {
 				int label = multinomialValues.indexAtLocation(i);
@@ -243,25 +395,20 @@ public class DMROptimizable implements Optimizable.ByGradientValue {
 
 			if (Double.isInfinite(value)) {
 				logger.warning ("Instance " + instance.getSource() + 
-								" has infinite value; skipping value and gradient");
-				cachedValue -= value;
-				cachedValueStale = false;
-				return -value;
+								" has infinite value; skipping value");
+				continue;
 			}
 
-			//System.out.println(value);
-
-			cachedValue += value;
-                
-			instanceIndex++;
+			batchValue += value;
 		}
 
-		// Incorporate prior on parameters
+		return batchValue;
+	}
 
+	/** The log of a gaussian prior is x^2 / -2sigma^2 */
+	private double getPriorValue () {
 		double prior = 0;
 
-		// The log of a gaussian prior is x^2 / -2sigma^2
-
 		for (int label = 0; label < numLabels; label++) {
 			for (int feature = 0; feature < numFeatures - 1; feature++) {
 				double param = parameters[label*numFeatures + feature];
@@ -272,26 +419,16 @@ public class DMROptimizable implements Optimizable.ByGradientValue {
 				(2 * defaultFeatureGaussianPriorVariance);
 		}
 
-		double labelProbability = cachedValue;
-		cachedValue += prior;
-		cachedValueStale = false;
-		progressLogger.info ("Value (likelihood=" + formatter.format(labelProbability) +
-							 " prior=" + formatter.format(prior) +
-							 ") = " + formatter.format(cachedValue));
-
-		return cachedValue;
+		return prior;
 	}
 
-	public void getValueGradient (double [] buffer) {
+	/** Add the likelihood gradient of instances <code>[start, end)</code> to a buffer. */
+	private void addBatchGradient (double[] gradient, int[] batchAssignments) {
 
-		MatrixOps.setAll (cachedGradient, 0.0);
+		double[] scores = new double[ numLabels ];
 
-		// Incorporate likelihood of data
-		double[] scores = new double[ trainingList.getTargetAlphabet().size() ];
-
-		int instanceIndex = 0;
-
-		for (Instance instance: trainingList) {
+		for (int instanceIndex = batchAssignments[0]; instanceIndex < batchAssignments[1]; instanceIndex++) {
+			Instance instance = trainingList.get(instanceIndex);
 
 			FeatureVector multinomialValues = (FeatureVector) instance.getTarget();
 			if (multinomialValues == null) { continue; }
@@ -332,7 +469,7 @@ public class DMROptimizable implements Optimizable.ByGradientValue {
 				//  one for all labels, the other for just the non-zero ones.
 
 				for (int label=0; label<numLabels; label++) {
-					cachedGradient[label * numFeatures + index] -=
+					gradient[label * numFeatures + index] -=
 						value * scores[label] * digammaDifferenceForSums;
 				}
 
@@ -340,80 +477,54 @@ public class DMROptimizable implements Optimizable.ByGradientValue {
 					int label = multinomialValues.indexAtLocation(labelLoc);
 					double count = multinomialValues.valueAtLocation(labelLoc);
 
-					double diff = 0.0;
-                            
-					if (count < 20) {
-						for (int i=0; i < count; i++) {
-							diff += 1 / (scores[label] + i);
-						}
-					}
-					else {
-						diff = Dirichlet.digamma(scores[label] + count) -
-							Dirichlet.digamma(scores[label]);
-					}
-
-					cachedGradient[label * numFeatures + index] +=
-						value * scores[label] * diff;
-
+					gradient[label * numFeatures + index] +=
+						value * scores[label] * countDigammaDifference(scores[label], count);
 				}
 			}
+
 			// Now add the default feature
 
 			for (int label=0; label<numLabels; label++) {
-				cachedGradient[label * numFeatures + defaultFeatureIndex] -=
+				gradient[label * numFeatures + defaultFeatureIndex] -=
 					scores[label] * digammaDifferenceForSums;
 			}
 
-
-            for(int labelLoc = 0; labelLoc <multinomialValues.numLocations(); labelLoc++) {
+			for (int labelLoc = 0; labelLoc <multinomialValues.numLocations(); labelLoc++) {
 				int label = multinomialValues.indexAtLocation(labelLoc);
-                double count = multinomialValues.valueAtLocation(labelLoc);
-				
-				double diff = 0.0;
-
-				if (count < 20) {
-					for (int i=0; i < count; i++) {
-						diff += 1 / (scores[label] + i);
-					}
-				}
-				else {
-					diff = Dirichlet.digamma(scores[label] + count) -
-						Dirichlet.digamma(scores[label]);
-				}
-
-				cachedGradient[label * numFeatures + defaultFeatureIndex] +=
-					scores[label] * diff;
-                    
+				double count = multinomialValues.valueAtLocation(labelLoc);
 
+				gradient[label * numFeatures + defaultFeatureIndex] +=
+					scores[label] * countDigammaDifference(scores[label], count);
 			}
+		}
+	}
 
+	/** digamma(score + count) - digamma(score), summed directly for small counts. */
+	private static double countDigammaDifference (double score, double count) {
+		if (count < 20) {
+			double diff = 0.0;
+			for (int i=0; i < count; i++) {
+				diff += 1 / (score + i);
+			}
+			return diff;
 		}
+		return Dirichlet.digamma(score + count) - Dirichlet.digamma(score);
+	}
 
-		numGetValueGradientCalls++;
-            
+	private void addPriorGradient (double[] gradient) {
 		for (int label = 0; label < numLabels; label++) {
 			for (int feature = 0; feature < numFeatures - 1; feature++) {
 				double param = parameters[label*numFeatures + feature];
 
-				cachedGradient[label * numFeatures + feature] -= 
+				gradient[label * numFeatures + feature] -= 
 					(param - gaussianPriorMean) / gaussianPriorVariance;
 			}
 
 			double param = parameters[label*numFeatures + defaultFeatureIndex];
                 
-			cachedGradient[label * numFeatures + defaultFeatureIndex] -= 
+			gradient[label * numFeatures + defaultFeatureIndex] -= 
 				(param - gaussianPriorMean) / defaultFeatureGaussianPriorVariance;
 		}
-
-		// A parameter may be set to -infinity by an external user.
-		// We set gradient to 0 because the parameter's value can
-		// never change anyway and it will mess up future calculations
-		// on the matrix, such as norm().
-		MatrixOps.substitute (cachedGradient, Double.NEGATIVE_INFINITY, 0.0);
-
-		assert (buffer != null && buffer.length == parameters.length);
-		System.arraycopy (cachedGradient, 0, buffer, 0, cachedGradient.length);
-		//System.out.println ("DCMMaxEntTrainer gradient infinity norm = "+MatrixOps.infinityNorm(cachedGradient));
 	}
 }
 
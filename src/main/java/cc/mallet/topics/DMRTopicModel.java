@@ -119,6 +119,11 @@ public class DMRTopicModel extends ParallelTopicModel {
         super(numberOfTopics);
     }
 
+    /** The DMR model needs every instance's features up front, so chunked files are loaded in full. */
+    public void addInstances (ChunkedInstanceReader training) {
+        addInstances(training.toInstanceList());
+    }
+
     public void addInstances (InstanceList training) {
 
         alphabet = training.getDataAlphabet();
@@ -363,7 +368,7 @@ public class DMRTopicModel extends ParallelTopicModel {
                 iteration % optimizeInterval == 0) {
 
                 // Optimize DMR parameters
-                learnParameters();
+                learnParameters(numThreads > 1 ? executor : null);
                 
                 logger.fine("[O " + (System.currentTimeMillis() - iterationStart) + "] ");
             }
@@ -418,6 +423,15 @@ public class DMRTopicModel extends ParallelTopicModel {
     
 
     public void learnParameters() {
+        learnParameters(null);
+    }
+
+    /**
+     *  Fit the DMR parameters to the current topic assignments and recompute the
+     *   document alphas. If there is an executor, the optimizer's value and gradient
+     *   and the alphas are computed in one block of documents per thread.
+     */
+    void learnParameters(ExecutorService executor) {
 
         // Create a "fake" pipe with the features in the data and 
         //  an int-int hashmap of topic counts in the target.
@@ -453,7 +467,9 @@ public class DMRTopicModel extends ParallelTopicModel {
 
         }
 
-        DMROptimizable optimizable = new DMROptimizable(parameterInstances, dmrParameters);
+        DMROptimizable optimizable = executor == null ?
+            new DMROptimizable(parameterInstances, dmrParameters) :
+            new DMROptimizable(parameterInstances, dmrParameters, numThreads, executor);
         optimizable.setRegularGaussianPriorVariance(0.5);
         optimizable.setInterceptGaussianPriorVariance(100.0);
 
@@ -474,8 +490,40 @@ public class DMRTopicModel extends ParallelTopicModel {
         }
         dmrParameters = optimizable.getClassifier();
         
-        for (int doc=0; doc < data.size(); doc++) {
-            cacheAlphas(data.get(doc).instance, doc);
+        cacheAlphas(executor);
+    }
+
+    /** Recompute the alphas of every document, in one block of documents per thread if there is an executor. */
+    void cacheAlphas(ExecutorService executor) {
+        if (executor == null || numThreads == 1) {
+            for (int doc=0; doc < data.size(); doc++) {
+                cacheAlphas(data.get(doc).instance, doc);
+            }
+            return;
+        }
+
+        List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(numThreads);
+        for (int thread = 0; thread < numThreads; thread++) {
+            final int startDoc = (int) ((long) thread * data.size() / numThreads);
+            final int endDoc = (int) ((long) (thread + 1) * data.size() / numThreads);
+            tasks.add(Executors.callable(new Runnable() {
+                    public void run() {
+                        for (int doc = startDoc; doc < endDoc; doc++) {
+                            cacheAlphas(data.get(doc).instance, doc);
+                        }
+                    }
+                }));
+        }
+
+        try {
+            for (Future<Object> future: executor.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while caching alphas", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Alpha caching thread failed", e.getCause());
         }
     }
 
@@ -3,7 +3,14 @@ package cc.mallet.topics;
 import cc.mallet.types.*;
 import cc.mallet.util.*;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.io.*;
 import java.text.NumberFormat;
 
@@ -44,6 +51,10 @@ public class HierarchicalPAM {
 	static CommandOption.Integer numSubTopicsOption = new CommandOption.Integer
 		(HierarchicalPAM.class, "num-sub-topics", "INTEGER", true, 20,
 		 "The number of sub-topics", null);
+
+	static CommandOption.Integer numThreadsOption = new CommandOption.Integer
+		(HierarchicalPAM.class, "num-threads", "INTEGER", true, 1,
+		 "The number of threads for parallel sampling", null);
 	
     public static final int NUM_LEVELS = 3;
 
@@ -82,14 +93,6 @@ public class HierarchicalPAM {
     int[][] superTopics; // indexed by <document index, sequence index>
     int[][] subTopics; // indexed by <document index, sequence index>
     
-    // Per-document state variables
-    int[][] superSubCounts; // # of words per <super, sub>
-    int[] superCounts; // # of words per <super>
-    double[] superWeights; // the component of the Gibbs update that depends on super-topics
-    double[] subWeights;   // the component of the Gibbs update that depends on sub-topics
-    double[][] superSubWeights; // unnormalized sampling distribution
-    double[] cumulativeSuperWeights; // a cache of the cumulative weight for each super-topic
-
 	// Document frequencies used for "minimal path" hierarchical Dirichlets
 	int[] superTopicDocumentFrequencies;
 	int[][] superSubTopicDocumentFrequencies;
@@ -104,12 +107,15 @@ public class HierarchicalPAM {
 	double[][] superSubTopicPriorWeights;
     
     // Per-word type state variables
-    int[][] typeTopicCounts; // indexed by <feature index, topic index>
+    SparseTypeTopicCounts typeTopicCounts; // topic counts for each feature index
     int[] tokensPerTopic; // indexed by <topic index>
 
     int[] tokensPerSuperTopic; // indexed by <topic index>
     int[][] tokensPerSuperSubTopic;
 
+	int numThreads = 1;
+	HierarchicalPAMWorkerCallable[] workers;
+
     Runtime runtime;
     NumberFormat formatter;
     
@@ -131,6 +137,15 @@ public class HierarchicalPAM {
 	
 		runtime = Runtime.getRuntime();
     }
+
+	/**
+	 * Sample with this many threads. Each thread samples a block of documents
+	 *  against its own copy of the word counts and document frequencies,
+	 *  which are merged after every iteration.
+	 */
+	public void setNumThreads (int threads) {
+		this.numThreads = threads;
+	}
     
     public void estimate (InstanceList documents, InstanceList testing,
 						  int numIterations, int showTopicsInterval,
@@ -143,17 +158,18 @@ public class HierarchicalPAM {
 		superTopics = new int[numDocs][];
 		subTopics = new int[numDocs][];
 
-		// Allocate several arrays for use within each document
-		//  to cut down memory allocation and garbage collection time
+		// The number of tokens of each type bounds the number
+		//  of topics it can be assigned to
 
-		superSubCounts = new int[numSuperTopics + 1][numSubTopics + 1];
-		superCounts = new int[numSuperTopics + 1];
-		superWeights = new double[numSuperTopics + 1];
-		subWeights = new double[numSubTopics];
-		superSubWeights = new double[numSuperTopics + 1][numSubTopics + 1];
-		cumulativeSuperWeights = new double[numSuperTopics];
+		int[] typeTotals = new int[numTypes];
+		for (int doc = 0; doc < numDocs; doc++) {
+			FeatureSequence fs = (FeatureSequence) instances.get(doc).getData();
+			for (int position = 0; position < fs.getLength(); position++) {
+				typeTotals[ fs.getIndexAtPosition(position) ]++;
+			}
+		}
 
-		typeTopicCounts = new int[numTypes][1 + numSuperTopics + numSubTopics];
+		typeTopicCounts = new SparseTypeTopicCounts(1 + numSuperTopics + numSubTopics, typeTotals);
 		tokensPerTopic = new int[1 + numSuperTopics + numSubTopics];
 
 		tokensPerSuperTopic = new int[numSuperTopics + 1];
@@ -200,7 +216,7 @@ public class HierarchicalPAM {
 				if (level == ROOT_TOPIC) {
 					superTopics[doc][position] = numSuperTopics;
 					subTopics[doc][position] = numSubTopics;
-					typeTopicCounts[ fs.getIndexAtPosition(position) ][0]++;
+					typeTopicCounts.increment( fs.getIndexAtPosition(position), 0 );
 					tokensPerTopic[0]++;
 					tokensPerSuperTopic[numSuperTopics]++;
 					tokensPerSuperSubTopic[numSuperTopics][numSubTopics]++;
@@ -215,7 +231,7 @@ public class HierarchicalPAM {
 				else if (level == SUPER_TOPIC) {
 					superTopics[doc][position] = superTopic;
 					subTopics[doc][position] = numSubTopics;
-					typeTopicCounts[ fs.getIndexAtPosition(position) ][1 + superTopic]++;
+					typeTopicCounts.increment( fs.getIndexAtPosition(position), 1 + superTopic );
 					tokensPerTopic[1 + superTopic]++;
 					tokensPerSuperTopic[superTopic]++;
 					tokensPerSuperSubTopic[superTopic][numSubTopics]++;
@@ -235,7 +251,7 @@ public class HierarchicalPAM {
 				else {
 					superTopics[doc][position] = superTopic;
 					subTopics[doc][position] = subTopic;
-					typeTopicCounts[ fs.getIndexAtPosition(position) ][ 1 + numSuperTopics + subTopic]++;
+					typeTopicCounts.increment( fs.getIndexAtPosition(position), 1 + numSuperTopics + subTopic );
 					tokensPerTopic[1 + numSuperTopics + subTopic]++;
 					tokensPerSuperTopic[superTopic]++;
 					tokensPerSuperSubTopic[superTopic][subTopic]++;
@@ -265,29 +281,197 @@ public class HierarchicalPAM {
 			cacheSuperSubTopicPrior(superTopic);
 		}
 
+		ExecutorService executor = null;
+		if (numThreads > 1 && numDocs >= numThreads) {
+			executor = Executors.newFixedThreadPool(numThreads);
+		}
+		createWorkers(executor == null ? 1 : numThreads, r);
+
 		// Finally, start the sampler!
 
-		for (int iterations = 1; iterations < numIterations; iterations++) {
-			long iterationStart = System.currentTimeMillis();
+		try {
+			for (int iterations = 1; iterations < numIterations; iterations++) {
+				long iterationStart = System.currentTimeMillis();
 
-			// Loop over every word in the corpus
-			for (int doc = 0; doc < superTopics.length; doc++) {
-				sampleTopicsForOneDoc ((FeatureSequence)instances.get(doc).getData(),
-									   superTopics[doc], subTopics[doc], r);
-			}
-			
-			if (showTopicsInterval != 0 && iterations % showTopicsInterval == 0) {
-				logger.info( printTopWords(8, false) );
-			}
+				if (executor == null) {
+					workers[0].call();
+					sumDocumentFrequencies = workers[0].getSumDocumentFrequencies();
+				}
+				else {
+					try {
+						for (Future<Integer> future : executor.invokeAll(Arrays.asList(workers))) {
+							future.get();
+						}
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new IllegalStateException("Interrupted while sampling", e);
+					} catch (ExecutionException e) {
+						throw new IllegalStateException("HierarchicalPAM sampling thread failed", e.getCause());
+					}
+					mergeWorkerCounts(executor);
+				}
+
+				if (showTopicsInterval != 0 && iterations % showTopicsInterval == 0) {
+					logger.info( printTopWords(8, false) );
+				}
 
-			logger.fine((System.currentTimeMillis() - iterationStart) + " ");
-			if (iterations % 10 == 0) {
-				logger.info ("<" + iterations + "> LL: " + formatter.format(modelLogLikelihood() / numTokens));
+				logger.fine((System.currentTimeMillis() - iterationStart) + " ");
+				if (iterations % 10 == 0) {
+					logger.info ("<" + iterations + "> LL: " + formatter.format(modelLogLikelihood() / numTokens));
+				}
+			}
+		} finally {
+			if (executor != null) {
+				executor.shutdown();
 			}
 		}
 	
     }
-    
+
+	/**
+	 * With one thread, the worker samples against the model's own counts.
+	 *  Otherwise each worker gets copies of the counts, document frequencies
+	 *  and cached priors.
+	 */
+	private void createWorkers (int threads, Randoms r) {
+		workers = new HierarchicalPAMWorkerCallable[threads];
+		int docsPerThread = superTopics.length / threads;
+
+		for (int thread = 0; thread < threads; thread++) {
+			int startDoc = thread * docsPerThread;
+			int numDocs = thread == threads - 1 ? superTopics.length - startDoc : docsPerThread;
+
+			if (threads == 1) {
+				workers[thread] = new HierarchicalPAMWorkerCallable(numSuperTopics, numSubTopics,
+						superTopicBalance, superTopicSmoothing, subTopicBalance, subTopicSmoothing,
+						beta, betaSum, r,
+						instances, superTopics, subTopics,
+						typeTopicCounts, tokensPerTopic, tokensPerSuperTopic, tokensPerSuperSubTopic,
+						superTopicDocumentFrequencies, superSubTopicDocumentFrequencies,
+						sumDocumentFrequencies, sumSuperTopicDocumentFrequencies,
+						superTopicPriorWeights, superSubTopicPriorWeights,
+						startDoc, numDocs);
+				workers[thread].makeOnlyThread();
+			}
+			else {
+				workers[thread] = new HierarchicalPAMWorkerCallable(numSuperTopics, numSubTopics,
+						superTopicBalance, superTopicSmoothing, subTopicBalance, subTopicSmoothing,
+						beta, betaSum, new Randoms(r.nextInt()),
+						instances, superTopics, subTopics,
+						new SparseTypeTopicCounts(typeTopicCounts), tokensPerTopic.clone(),
+						tokensPerSuperTopic.clone(), copy(tokensPerSuperSubTopic),
+						superTopicDocumentFrequencies.clone(), copy(superSubTopicDocumentFrequencies),
+						sumDocumentFrequencies, sumSuperTopicDocumentFrequencies.clone(),
+						superTopicPriorWeights.clone(), copy(superSubTopicPriorWeights),
+						startDoc, numDocs);
+			}
+		}
+	}
+
+	private static int[][] copy (int[][] array) {
+		int[][] result = new int[array.length][];
+		for (int i = 0; i < array.length; i++) {
+			result[i] = array[i].clone();
+		}
+		return result;
+	}
+
+	private static double[][] copy (double[][] array) {
+		double[][] result = new double[array.length][];
+		for (int i = 0; i < array.length; i++) {
+			result[i] = array[i].clone();
+		}
+		return result;
+	}
+
+	/**
+	 * Each worker has rebuilt its counts and document frequencies from its own
+	 *  documents. Sum them into the model's, splitting the word types among the
+	 *  threads, then give every worker a copy of the totals for the next iteration.
+	 */
+	private void mergeWorkerCounts (ExecutorService executor) {
+		final int threads = workers.length;
+
+		List<Callable<Object>> mergers = new ArrayList<Callable<Object>>();
+		for (int thread = 0; thread < threads; thread++) {
+			final int firstType = thread;
+			mergers.add(new Callable<Object>() {
+				public Object call() {
+					for (int type = firstType; type < numTypes; type += threads) {
+						typeTopicCounts.clearType(type);
+						for (HierarchicalPAMWorkerCallable worker : workers) {
+							typeTopicCounts.addType(worker.getTypeTopicCounts(), type);
+						}
+						for (HierarchicalPAMWorkerCallable worker : workers) {
+							worker.getTypeTopicCounts().copyType(typeTopicCounts, type);
+						}
+					}
+					return null;
+				}
+			});
+		}
+		try {
+			for (Future<Object> future : executor.invokeAll(mergers)) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while merging counts", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("HierarchicalPAM merge thread failed", e.getCause());
+		}
+
+		Arrays.fill(tokensPerTopic, 0);
+		Arrays.fill(tokensPerSuperTopic, 0);
+		Arrays.fill(superTopicDocumentFrequencies, 0);
+		Arrays.fill(sumSuperTopicDocumentFrequencies, 0);
+		sumDocumentFrequencies = 0;
+		for (int superTopic = 0; superTopic <= numSuperTopics; superTopic++) {
+			Arrays.fill(tokensPerSuperSubTopic[superTopic], 0);
+			Arrays.fill(superSubTopicDocumentFrequencies[superTopic], 0);
+		}
+
+		for (HierarchicalPAMWorkerCallable worker : workers) {
+			add(tokensPerTopic, worker.getTokensPerTopic());
+			add(tokensPerSuperTopic, worker.getTokensPerSuperTopic());
+			add(superTopicDocumentFrequencies, worker.getSuperTopicDocumentFrequencies());
+			add(sumSuperTopicDocumentFrequencies, worker.getSumSuperTopicDocumentFrequencies());
+			sumDocumentFrequencies += worker.getSumDocumentFrequencies();
+			for (int superTopic = 0; superTopic <= numSuperTopics; superTopic++) {
+				add(tokensPerSuperSubTopic[superTopic], worker.getTokensPerSuperSubTopic()[superTopic]);
+				add(superSubTopicDocumentFrequencies[superTopic],
+					worker.getSuperSubTopicDocumentFrequencies()[superTopic]);
+			}
+		}
+
+		for (HierarchicalPAMWorkerCallable worker : workers) {
+			System.arraycopy(tokensPerTopic, 0, worker.getTokensPerTopic(), 0, tokensPerTopic.length);
+			System.arraycopy(tokensPerSuperTopic, 0, worker.getTokensPerSuperTopic(), 0, tokensPerSuperTopic.length);
+			System.arraycopy(superTopicDocumentFrequencies, 0, worker.getSuperTopicDocumentFrequencies(), 0,
+							 superTopicDocumentFrequencies.length);
+			System.arraycopy(sumSuperTopicDocumentFrequencies, 0, worker.getSumSuperTopicDocumentFrequencies(), 0,
+							 numSuperTopics);
+			worker.setSumDocumentFrequencies(sumDocumentFrequencies);
+			for (int superTopic = 0; superTopic <= numSuperTopics; superTopic++) {
+				System.arraycopy(tokensPerSuperSubTopic[superTopic], 0,
+								 worker.getTokensPerSuperSubTopic()[superTopic], 0, numSubTopics + 1);
+				System.arraycopy(superSubTopicDocumentFrequencies[superTopic], 0,
+								 worker.getSuperSubTopicDocumentFrequencies()[superTopic], 0, numSubTopics + 1);
+			}
+		}
+
+		cacheSuperTopicPrior();
+		for (int superTopic = 0; superTopic < numSuperTopics; superTopic++) {
+			cacheSuperSubTopicPrior(superTopic);
+		}
+	}
+
+	private static void add (int[] totals, int[] counts) {
+		for (int i = 0; i < totals.length; i++) {
+			totals[i] += counts[i];
+		}
+	}
+
 	private void cacheSuperTopicPrior() {
 		for (int superTopic = 0; superTopic < numSuperTopics; superTopic++) {
 			superTopicPriorWeights[superTopic] = 
@@ -314,244 +498,21 @@ public class HierarchicalPAM {
 			(sumSuperTopicDocumentFrequencies[superTopic] + (numSubTopics + 1) * subTopicSmoothing);
 	}
 
-    private void sampleTopicsForOneDoc (FeatureSequence oneDocTokens,
-										int[] superTopics, // indexed by seq position
-										int[] subTopics,
-										Randoms r) {
-
-		//long startTime = System.currentTimeMillis();
-	
-		int[] currentTypeTopicCounts;
-		int[] currentSuperSubCounts;
-		double[] currentSuperSubWeights;
-
-		double[] wordWeights = new double[ 1 + numSuperTopics + numSubTopics ];
-
-		int type, subTopic, superTopic;
-		double rootWeight, currentSuperWeight, cumulativeWeight, sample;
-	    
-		int docLen = oneDocTokens.getLength();
-
-		Arrays.fill(superCounts, 0);
-		for (int t = 0; t < numSuperTopics; t++) {
-			Arrays.fill(superSubCounts[t], 0);
-		}
-	
-		// populate topic counts
-		for (int position = 0; position < docLen; position++) {
-			superSubCounts[ superTopics[position] ][ subTopics[position] ]++;
-			superCounts[ superTopics[position] ]++;
-		}
-
-		for (superTopic = 0; superTopic < numSuperTopics; superTopic++) {
-			superWeights[superTopic] =
-				((double) superCounts[superTopic] + 
-				 (superTopicBalance * superTopicPriorWeights[superTopic])) /
-				((double) superCounts[superTopic] + subTopicBalance);
-			assert(superWeights[superTopic] != 0.0);
-		}
-
-		// Iterate over the positions (words) in the document
-
-		for (int position = 0; position < docLen; position++) {
-
-			type = oneDocTokens.getIndexAtPosition(position);
-			currentTypeTopicCounts = typeTopicCounts[type];
-
-			superTopic = superTopics[position];
-			subTopic = subTopics[position];
-
-			if (superTopic == numSuperTopics) {
-				currentTypeTopicCounts[ 0 ]--;
-				tokensPerTopic[ 0 ]--;
-			}
-			else if (subTopic == numSubTopics) {
-				currentTypeTopicCounts[ 1 + superTopic ]--;
-				tokensPerTopic[ 1 + superTopic ]--;
-			}
-			else {
-				currentTypeTopicCounts[ 1 + numSuperTopics + subTopic ]--;
-				tokensPerTopic[ 1 + numSuperTopics + subTopic ]--;
-			}
-
-			// Remove this token from all counts
-			superCounts[superTopic]--;
-			superSubCounts[superTopic][subTopic]--;
-
-			if (superCounts[superTopic] == 0) {
-				// The document frequencies have changed.
-				//  Decrement and recalculate the prior weights
-				superTopicDocumentFrequencies[superTopic]--;
-				sumDocumentFrequencies--;
-				cacheSuperTopicPrior();
-			}
-			if (superTopic != numSuperTopics && 
-				superSubCounts[superTopic][subTopic] == 0) {
-				superSubTopicDocumentFrequencies[superTopic][subTopic]--;
-				sumSuperTopicDocumentFrequencies[superTopic]--;
-				cacheSuperSubTopicPrior(superTopic);
-			}
-
-			tokensPerSuperTopic[superTopic]--;
-			tokensPerSuperSubTopic[superTopic][subTopic]--;
-
-			// Update the super-topic weight for the old topic.
-			superWeights[superTopic] =
-                ((double) superCounts[superTopic] +
-                 (superTopicBalance * superTopicPriorWeights[superTopic])) /
-                ((double) superCounts[superTopic] + subTopicBalance);
-
-			// Build a distribution over super-sub topic pairs 
-			//   for this token
-
-			for (int i=0; i<wordWeights.length; i++) {
-				wordWeights[i] = 
-					(beta + currentTypeTopicCounts[i]) /
-					(betaSum + tokensPerTopic[i]);
-
-				assert(wordWeights[i] != 0);
-			}
-
-			Arrays.fill(cumulativeSuperWeights, 0.0);
-
-			// The conditional probability of each super-sub pair is proportional
-			//  to an expression with three parts, one that depends only on the 
-			//  super-topic, one that depends only on the sub-topic and the word type,
-			//  and one that depends on the super-sub pair.
-
-			cumulativeWeight = 0.0;
-
-			for (superTopic = 0; superTopic < numSuperTopics; superTopic++) {
-				currentSuperSubWeights = superSubWeights[superTopic];
-				currentSuperSubCounts = superSubCounts[superTopic];
-				currentSuperWeight = superWeights[superTopic];
-		
-				int[] documentFrequencies = superSubTopicDocumentFrequencies[superTopic];
-				double[] priorCache = superSubTopicPriorWeights[superTopic];
-				
-				for (subTopic = 0; subTopic < numSubTopics; subTopic++) {
-					currentSuperSubWeights[subTopic] =
-						currentSuperWeight *
-						wordWeights[ 1 + numSuperTopics + subTopic ] *
-						((double) currentSuperSubCounts[subTopic] + 
-						 ( subTopicBalance * priorCache[subTopic] ));
-					cumulativeWeight += currentSuperSubWeights[subTopic];
-				}
-		
-				currentSuperSubWeights[numSubTopics] = 
-					currentSuperWeight *
-					wordWeights[1 + superTopic] *
-					((double) currentSuperSubCounts[numSubTopics] +
-					 ( subTopicBalance * priorCache[numSubTopics] ));
-				cumulativeWeight += currentSuperSubWeights[numSubTopics];
-
-				cumulativeSuperWeights[superTopic] = cumulativeWeight;
-				assert(cumulativeSuperWeights[superTopic] != 0.0);
-			}
-
-			rootWeight = wordWeights[0] *
-				(superCounts[numSuperTopics] +
-				 (superTopicBalance * superTopicPriorWeights[numSuperTopics]));
-
-			// Sample a topic assignment from this distribution
-			sample = r.nextUniform() * (cumulativeWeight + rootWeight);
-
-			if (sample > cumulativeWeight) {
-				// We picked the root topic
-		
-				currentTypeTopicCounts[ 0 ]++;
-				tokensPerTopic[ 0 ] ++;
-		
-				superTopic = numSuperTopics;
-				subTopic = numSubTopics;
-			}
-			else {
-
-				// Go over the row sums to find the super-topic...
-				superTopic = 0;
-				while (sample > cumulativeSuperWeights[superTopic]) {
-					superTopic++;
-				}
-
-				// Now read across to find the sub-topic
-				currentSuperSubWeights = superSubWeights[superTopic];
-				cumulativeWeight = cumulativeSuperWeights[superTopic];
-
-				// Go over each sub-topic until the weight is LESS than
-				//  the sample. Note that we're subtracting weights
-				//  in the same order we added them...
-				subTopic = 0;
-				cumulativeWeight -=	currentSuperSubWeights[0];
-
-				while (sample < cumulativeWeight) {
-					subTopic++;
-					cumulativeWeight -= currentSuperSubWeights[subTopic];
-				}
-		
-				if (subTopic == numSubTopics) {
-					currentTypeTopicCounts[ 1 + superTopic ]++;
-					tokensPerTopic[ 1 + superTopic ]++;
-				}
-				else {
-					currentTypeTopicCounts[ 1 + numSuperTopics + subTopic ]++;
-					tokensPerTopic[ 1 + numSuperTopics + subTopic ]++;
-				}
-			}
-
-			// Save the choice into the Gibbs state
-	    
-			superTopics[position] = superTopic;
-			subTopics[position] = subTopic;
-
-			// Put the new super/sub topics into the counts
-	    
-			superSubCounts[superTopic][subTopic]++;
-			superCounts[superTopic]++;
-
-			if (superCounts[superTopic] == 1) {
-				superTopicDocumentFrequencies[superTopic]++;
-				sumDocumentFrequencies++;
-				cacheSuperTopicPrior();
-			}
-			if (superTopic != numSuperTopics && 
-				superSubCounts[superTopic][subTopic] == 1) {
-				superSubTopicDocumentFrequencies[superTopic][subTopic]++;
-				sumSuperTopicDocumentFrequencies[superTopic]++;
-				cacheSuperSubTopicPrior(superTopic);
-			}
-
-			tokensPerSuperTopic[superTopic]++;
-			tokensPerSuperSubTopic[superTopic][subTopic]++;
-
-			// Update the weight for the new super topic
-			superWeights[superTopic] =
-                ((double) superCounts[superTopic] +
-                 (superTopicBalance * superTopicPriorWeights[superTopic])) /
-                ((double) superCounts[superTopic] + subTopicBalance);
-
-		}
-
-    }
-
     public String printTopWords (int numWords, boolean useNewLines) {
 
 		StringBuilder output = new StringBuilder();
 
-		IDSorter[] sortedTypes = new IDSorter[numTypes];
+		IDSorter[][] sortedTopicTypes = typeTopicCounts.getSortedTypes();
 		IDSorter[] sortedSubTopics = new IDSorter[numSubTopics];
 		String[] topicTerms = new String[1 + numSuperTopics + numSubTopics];
 
 		int subTopic, superTopic;
 
 		for (int topic = 0; topic < topicTerms.length; topic++) {
-			for (int type = 0; type < numTypes; type++)
-				sortedTypes[type] = new IDSorter (type, 
-									   (((double) typeTopicCounts[type][topic]) /
-										tokensPerTopic[topic]));
-			Arrays.sort (sortedTypes);
+			IDSorter[] sortedTypes = sortedTopicTypes[topic];
 
 			StringBuilder terms = new StringBuilder();
-			for (int i = 0; i < numWords; i++) {
+			for (int i = 0; i < numWords && i < sortedTypes.length; i++) {
 				terms.append(instances.getDataAlphabet().lookupObject(sortedTypes[i].getID()));
 				terms.append(" ");
 			}
@@ -726,15 +687,15 @@ public class HierarchicalPAM {
         // Count the number of type-topic pairs
         int nonZeroTypeTopics = 0;
 
+        int topicBits = typeTopicCounts.getTopicBits();
+
         for (int type=0; type < numTypes; type++) {
             // reuse this array as a pointer
-            int[] topicCounts = typeTopicCounts[type];
+            int[] topicCounts = typeTopicCounts.getPackedCounts(type);
 
-            for (int topic=0; topic < numSuperTopics + numSubTopics + 1; topic++) {
-                if (topicCounts[topic] > 0) {
-                    nonZeroTypeTopics++;
-                    logLikelihood += Dirichlet.logGamma(beta + topicCounts[topic]);
-                }
+            for (int i=0; i < topicCounts.length && topicCounts[i] > 0; i++) {
+                nonZeroTypeTopics++;
+                logLikelihood += Dirichlet.logGamma(beta + (topicCounts[i] >> topicBits));
             }
         }
 
@@ -760,6 +721,7 @@ public class HierarchicalPAM {
 
         HierarchicalPAM pam = new HierarchicalPAM (numSuperTopicsOption.value, numSubTopicsOption.value,
 												   superTopicBalanceOption.value, subTopicBalanceOption.value);
+		pam.setNumThreads(numThreadsOption.value);
         pam.estimate (instances, testing, 1000, 100, 0, 250, null, new Randoms());
 		if (stateFile.wasInvoked()) {
 			pam.printState(new File(stateFile.value));
@@ -0,0 +1,605 @@
+/* Copyright (C) 2005 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package cc.mallet.topics;
+
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+
+import com.google.errorprone.annotations.Var;
+
+import cc.mallet.types.FeatureSequence;
+import cc.mallet.types.InstanceList;
+import cc.mallet.util.Randoms;
+
+/**
+ * A callable task that samples one block of documents for {@link HierarchicalPAM}.
+ * <p>
+ * Word distributions are indexed as in the model: 0 is the root topic,
+ *  <code>1 + s</code> is super-topic <code>s</code>, and
+ *  <code>1 + numSuperTopics + z</code> is sub-topic <code>z</code>. A token's
+ *  weight for a super/sub pair is split into the same three buckets as in
+ *  {@link PAMWorkerCallable}: pairs used in the document, topics with tokens
+ *  of the current word type, and smoothing only, which is cached as one sum
+ *  per super-topic. The root topic adds one term to each bucket.
+ * <p>
+ * With several threads, each worker holds private copies of the word counts
+ *  and the document frequencies behind the super- and sub-topic priors, which
+ *  the model merges after each iteration.
+ */
+
+public class HierarchicalPAMWorkerCallable implements Callable<Integer> {
+
+    InstanceList instances;
+    int[][] superTopics; // indexed by <document index, sequence index>
+    int[][] subTopics;
+    int startDoc, numDocs;
+
+    protected int numSuperTopics;
+    protected int numSubTopics;
+    protected int numTopics; // 1 + numSuperTopics + numSubTopics
+
+    protected double superTopicBalance;
+    protected double superTopicSmoothing;
+    protected double subTopicBalance;
+    protected double subTopicSmoothing;
+    protected double beta;
+    protected double betaSum;
+
+    protected SparseTypeTopicCounts typeTopicCounts;
+    protected int[] tokensPerTopic;
+    protected int[] tokensPerSuperTopic;
+    protected int[][] tokensPerSuperSubTopic;
+
+    protected int[] superTopicDocumentFrequencies;
+    protected int[][] superSubTopicDocumentFrequencies;
+    protected int sumDocumentFrequencies;
+    protected int[] sumSuperTopicDocumentFrequencies;
+
+    protected double[] superTopicPriorWeights;
+    protected double[][] superSubTopicPriorWeights;
+
+    protected Randoms random;
+    protected boolean shouldBuildLocalCounts = true;
+
+    // Per-document state. Index numSuperTopics is the root,
+    //  and index numSubTopics is the super-topic itself.
+    protected int[][] superSubCounts;
+    protected int[] superCounts;
+    protected double[] superWeights;
+
+    // The (super-topic, sub-topic or super-topic only) pairs with non-zero counts
+    //  in the current document, encoded as super * (numSubTopics + 1) + sub
+    protected int[] docPairs;
+    protected int numDocPairs;
+    protected int[] docPairPositions;
+    protected double[] docPairScores;
+
+    // Cached values: 1 / (n(t) + betaSum) for each topic, and for each super-topic
+    //  the smoothing-only mass of all its sub-topics and itself
+    protected double[] topicCoefficients;
+    protected double[] superSmoothing;
+
+    // Reusable working arrays for the current word type
+    protected int[] currentTypeCounts;
+    protected double[] topicWordScores;
+
+    public HierarchicalPAMWorkerCallable (int numSuperTopics, int numSubTopics,
+                                          double superTopicBalance, double superTopicSmoothing,
+                                          double subTopicBalance, double subTopicSmoothing,
+                                          double beta, double betaSum,
+                                          Randoms random,
+                                          InstanceList instances, int[][] superTopics, int[][] subTopics,
+                                          SparseTypeTopicCounts typeTopicCounts, int[] tokensPerTopic,
+                                          int[] tokensPerSuperTopic, int[][] tokensPerSuperSubTopic,
+                                          int[] superTopicDocumentFrequencies,
+                                          int[][] superSubTopicDocumentFrequencies,
+                                          int sumDocumentFrequencies,
+                                          int[] sumSuperTopicDocumentFrequencies,
+                                          double[] superTopicPriorWeights,
+                                          double[][] superSubTopicPriorWeights,
+                                          int startDoc, int numDocs) {
+
+        this.numSuperTopics = numSuperTopics;
+        this.numSubTopics = numSubTopics;
+        this.numTopics = 1 + numSuperTopics + numSubTopics;
+
+        this.superTopicBalance = superTopicBalance;
+        this.superTopicSmoothing = superTopicSmoothing;
+        this.subTopicBalance = subTopicBalance;
+        this.subTopicSmoothing = subTopicSmoothing;
+        this.beta = beta;
+        this.betaSum = betaSum;
+        this.random = random;
+
+        this.instances = instances;
+        this.superTopics = superTopics;
+        this.subTopics = subTopics;
+
+        this.typeTopicCounts = typeTopicCounts;
+        this.tokensPerTopic = tokensPerTopic;
+        this.tokensPerSuperTopic = tokensPerSuperTopic;
+        this.tokensPerSuperSubTopic = tokensPerSuperSubTopic;
+
+        this.superTopicDocumentFrequencies = superTopicDocumentFrequencies;
+        this.superSubTopicDocumentFrequencies = superSubTopicDocumentFrequencies;
+        this.sumDocumentFrequencies = sumDocumentFrequencies;
+        this.sumSuperTopicDocumentFrequencies = sumSuperTopicDocumentFrequencies;
+        this.superTopicPriorWeights = superTopicPriorWeights;
+        this.superSubTopicPriorWeights = superSubTopicPriorWeights;
+
+        this.startDoc = startDoc;
+        this.numDocs = numDocs;
+
+        superSubCounts = new int[numSuperTopics + 1][numSubTopics + 1];
+        superCounts = new int[numSuperTopics + 1];
+        superWeights = new double[numSuperTopics + 1];
+
+        docPairs = new int[16];
+        docPairPositions = new int[numSuperTopics * (numSubTopics + 1)];
+        docPairScores = new double[16];
+
+        topicCoefficients = new double[numTopics];
+        superSmoothing = new double[numSuperTopics];
+
+        currentTypeCounts = new int[numTopics];
+        topicWordScores = new double[numTopics];
+    }
+
+    /** The only worker shares the model's counts, so it never needs to rebuild them. */
+    public void makeOnlyThread() {
+        shouldBuildLocalCounts = false;
+    }
+
+    public SparseTypeTopicCounts getTypeTopicCounts() { return typeTopicCounts; }
+    public int[] getTokensPerTopic() { return tokensPerTopic; }
+    public int[] getTokensPerSuperTopic() { return tokensPerSuperTopic; }
+    public int[][] getTokensPerSuperSubTopic() { return tokensPerSuperSubTopic; }
+    public int[] getSuperTopicDocumentFrequencies() { return superTopicDocumentFrequencies; }
+    public int[][] getSuperSubTopicDocumentFrequencies() { return superSubTopicDocumentFrequencies; }
+    public int getSumDocumentFrequencies() { return sumDocumentFrequencies; }
+    public int[] getSumSuperTopicDocumentFrequencies() { return sumSuperTopicDocumentFrequencies; }
+
+    public void setSumDocumentFrequencies(int sum) {
+        this.sumDocumentFrequencies = sum;
+    }
+
+    public Integer call () {
+        cacheSuperTopicPrior();
+        for (int superTopic = 0; superTopic < numSuperTopics; superTopic++) {
+            cacheSuperSubTopicPrior(superTopic);
+        }
+        initializeSmoothing();
+
+        @Var
+        int tokens = 0;
+        for (int doc = startDoc; doc < superTopics.length && doc < startDoc + numDocs; doc++) {
+            tokens += sampleTopicsForOneDoc((FeatureSequence) instances.get(doc).getData(),
+                                            superTopics[doc], subTopics[doc]);
+        }
+
+        if (shouldBuildLocalCounts) {
+            buildLocalCounts();
+        }
+        return tokens;
+    }
+
+    protected void cacheSuperTopicPrior() {
+        for (int superTopic = 0; superTopic <= numSuperTopics; superTopic++) {
+            superTopicPriorWeights[superTopic] =
+                (superTopicDocumentFrequencies[superTopic] + superTopicSmoothing) /
+                (sumDocumentFrequencies + (numSuperTopics + 1) * superTopicSmoothing);
+        }
+    }
+
+    protected void cacheSuperSubTopicPrior(int superTopic) {
+        int[] documentFrequencies = superSubTopicDocumentFrequencies[superTopic];
+        double[] priorWeights = superSubTopicPriorWeights[superTopic];
+
+        for (int subTopic = 0; subTopic <= numSubTopics; subTopic++) {
+            priorWeights[subTopic] =
+                (documentFrequencies[subTopic] + subTopicSmoothing) /
+                (sumSuperTopicDocumentFrequencies[superTopic] + (numSubTopics + 1) * subTopicSmoothing);
+        }
+    }
+
+    /** The index of the word distribution for a super/sub pair. */
+    protected int topicIndex (int superTopic, int subTopic) {
+        if (superTopic == numSuperTopics) {
+            return 0;
+        }
+        else if (subTopic == numSubTopics) {
+            return 1 + superTopic;
+        }
+        return 1 + numSuperTopics + subTopic;
+    }
+
+    protected void initializeSmoothing () {
+        for (int topic = 0; topic < numTopics; topic++) {
+            topicCoefficients[topic] = 1.0 / (tokensPerTopic[topic] + betaSum);
+        }
+        for (int superTopic = 0; superTopic < numSuperTopics; superTopic++) {
+            updateSuperSmoothing(superTopic);
+        }
+    }
+
+    /** Recalculate the smoothing-only mass for one super-topic, after its prior changes. */
+    protected void updateSuperSmoothing (int superTopic) {
+        double[] priorWeights = superSubTopicPriorWeights[superTopic];
+        @Var
+        double sum = priorWeights[numSubTopics] * topicCoefficients[1 + superTopic];
+        for (int subTopic = 0; subTopic < numSubTopics; subTopic++) {
+            sum += priorWeights[subTopic] * topicCoefficients[1 + numSuperTopics + subTopic];
+        }
+        superSmoothing[superTopic] = beta * subTopicBalance * sum;
+    }
+
+    /** Change the total for one word distribution, updating the cached coefficients. */
+    protected void changeTopicTotal (int topic, int change) {
+        tokensPerTopic[topic] += change;
+        double oldCoefficient = topicCoefficients[topic];
+        topicCoefficients[topic] = 1.0 / (tokensPerTopic[topic] + betaSum);
+        double difference = beta * subTopicBalance * (topicCoefficients[topic] - oldCoefficient);
+
+        if (topic == 0) {
+            return;
+        }
+        else if (topic <= numSuperTopics) {
+            int superTopic = topic - 1;
+            superSmoothing[superTopic] += superSubTopicPriorWeights[superTopic][numSubTopics] * difference;
+        }
+        else {
+            int subTopic = topic - 1 - numSuperTopics;
+            for (int superTopic = 0; superTopic < numSuperTopics; superTopic++) {
+                superSmoothing[superTopic] += superSubTopicPriorWeights[superTopic][subTopic] * difference;
+            }
+        }
+    }
+
+    protected void updateSuperWeight (int superTopic) {
+        superWeights[superTopic] =
+            ((double) superCounts[superTopic] +
+             (superTopicBalance * superTopicPriorWeights[superTopic])) /
+            ((double) superCounts[superTopic] + subTopicBalance);
+    }
+
+    protected void addToDocument (int superTopic, int subTopic) {
+        superCounts[superTopic]++;
+        superSubCounts[superTopic][subTopic]++;
+        if (superTopic != numSuperTopics && superSubCounts[superTopic][subTopic] == 1) {
+            if (numDocPairs == docPairs.length) {
+                docPairs = Arrays.copyOf(docPairs, 2 * docPairs.length);
+                docPairScores = new double[docPairs.length];
+            }
+            int pair = superTopic * (numSubTopics + 1) + subTopic;
+            docPairs[numDocPairs] = pair;
+            docPairPositions[pair] = numDocPairs;
+            numDocPairs++;
+        }
+    }
+
+    protected void removeFromDocument (int superTopic, int subTopic) {
+        superCounts[superTopic]--;
+        superSubCounts[superTopic][subTopic]--;
+        if (superTopic != numSuperTopics && superSubCounts[superTopic][subTopic] == 0) {
+            int pair = superTopic * (numSubTopics + 1) + subTopic;
+            int position = docPairPositions[pair];
+            numDocPairs--;
+            docPairs[position] = docPairs[numDocPairs];
+            docPairPositions[ docPairs[position] ] = position;
+        }
+    }
+
+    /** @return the number of tokens sampled */
+    protected int sampleTopicsForOneDoc (FeatureSequence oneDocTokens,
+                                         int[] docSuperTopics, int[] docSubTopics) {
+
+        int docLength = oneDocTokens.getLength();
+        int pairWidth = numSubTopics + 1;
+
+        for (int position = 0; position < docLength; position++) {
+            addToDocument(docSuperTopics[position], docSubTopics[position]);
+        }
+        for (int superTopic = 0; superTopic < numSuperTopics; superTopic++) {
+            updateSuperWeight(superTopic);
+        }
+
+        int topicMask = typeTopicCounts.getTopicMask();
+        int topicBits = typeTopicCounts.getTopicBits();
+
+        for (int position = 0; position < docLength; position++) {
+
+            int type = oneDocTokens.getIndexAtPosition(position);
+            @Var
+            int superTopic = docSuperTopics[position];
+            @Var
+            int subTopic = docSubTopics[position];
+
+            // Remove this token from all counts
+            @Var
+            int topic = topicIndex(superTopic, subTopic);
+            typeTopicCounts.decrement(type, topic);
+            changeTopicTotal(topic, -1);
+
+            removeFromDocument(superTopic, subTopic);
+
+            if (superCounts[superTopic] == 0) {
+                // The document frequencies have changed.
+                //  Decrement and recalculate the prior weights
+                superTopicDocumentFrequencies[superTopic]--;
+                sumDocumentFrequencies--;
+                cacheSuperTopicPrior();
+            }
+            if (superTopic != numSuperTopics &&
+                superSubCounts[superTopic][subTopic] == 0) {
+                superSubTopicDocumentFrequencies[superTopic][subTopic]--;
+                sumSuperTopicDocumentFrequencies[superTopic]--;
+                cacheSuperSubTopicPrior(superTopic);
+                updateSuperSmoothing(superTopic);
+            }
+
+            tokensPerSuperTopic[superTopic]--;
+            tokensPerSuperSubTopic[superTopic][subTopic]--;
+
+            // Update the super-topic weight for the old topic.
+            updateSuperWeight(superTopic);
+
+            double rootPrior = superTopicBalance * superTopicPriorWeights[numSuperTopics];
+            int[] packedCounts = typeTopicCounts.getPackedCounts(type);
+
+            // Topic-word bucket
+            @Var
+            double topicWordMass = 0.0;
+            @Var
+            int numTypeTopics = 0;
+            while (numTypeTopics < packedCounts.length && packedCounts[numTypeTopics] > 0) {
+                int currentTopic = packedCounts[numTypeTopics] & topicMask;
+                int count = packedCounts[numTypeTopics] >> topicBits;
+                currentTypeCounts[currentTopic] = count;
+
+                @Var
+                double prior;
+                if (currentTopic == 0) {
+                    prior = rootPrior;
+                }
+                else if (currentTopic <= numSuperTopics) {
+                    int s = currentTopic - 1;
+                    prior = superWeights[s] * subTopicBalance * superSubTopicPriorWeights[s][numSubTopics];
+                }
+                else {
+                    int z = currentTopic - 1 - numSuperTopics;
+                    prior = 0.0;
+                    for (int s = 0; s < numSuperTopics; s++) {
+                        prior += superWeights[s] * superSubTopicPriorWeights[s][z];
+                    }
+                    prior *= subTopicBalance;
+                }
+
+                double score = count * topicCoefficients[currentTopic] * prior;
+                topicWordScores[numTypeTopics] = score;
+                topicWordMass += score;
+                numTypeTopics++;
+            }
+
+            // Document bucket, with the root last
+            @Var
+            double documentMass = 0.0;
+            for (int i = 0; i < numDocPairs; i++) {
+                int s = docPairs[i] / pairWidth;
+                int z = docPairs[i] - s * pairWidth;
+                int currentTopic = z == numSubTopics ? 1 + s : 1 + numSuperTopics + z;
+                double score = superWeights[s] * superSubCounts[s][z] *
+                    (beta + currentTypeCounts[currentTopic]) * topicCoefficients[currentTopic];
+                docPairScores[i] = score;
+                documentMass += score;
+            }
+            double rootDocumentScore = superCounts[numSuperTopics] *
+                (beta + currentTypeCounts[0]) * topicCoefficients[0];
+            documentMass += rootDocumentScore;
+
+            // Smoothing-only bucket, with the root first
+            double rootSmoothing = beta * topicCoefficients[0] * rootPrior;
+            @Var
+            double smoothingMass = rootSmoothing;
+            for (int s = 0; s < numSuperTopics; s++) {
+                smoothingMass += superWeights[s] * superSmoothing[s];
+            }
+
+            @Var
+            double sample = random.nextUniform() * (documentMass + topicWordMass + smoothingMass);
+
+            if (sample < documentMass) {
+                if (sample >= documentMass - rootDocumentScore) {
+                    superTopic = numSuperTopics;
+                    subTopic = numSubTopics;
+                }
+                else {
+                    @Var
+                    int i = 0;
+                    sample -= docPairScores[i];
+                    while (sample > 0.0 && i < numDocPairs - 1) {
+                        i++;
+                        sample -= docPairScores[i];
+                    }
+                    superTopic = docPairs[i] / pairWidth;
+                    subTopic = docPairs[i] - superTopic * pairWidth;
+                }
+            }
+            else if (sample < documentMass + topicWordMass) {
+                sample -= documentMass;
+
+                @Var
+                int i = 0;
+                sample -= topicWordScores[i];
+                while (sample > 0.0 && i < numTypeTopics - 1) {
+                    i++;
+                    sample -= topicWordScores[i];
+                }
+                int newTopic = packedCounts[i] & topicMask;
+
+                if (newTopic == 0) {
+                    superTopic = numSuperTopics;
+                    subTopic = numSubTopics;
+                }
+                else if (newTopic <= numSuperTopics) {
+                    superTopic = newTopic - 1;
+                    subTopic = numSubTopics;
+                }
+                else {
+                    // Choose the super-topic in proportion to its weight on this sub-topic
+                    subTopic = newTopic - 1 - numSuperTopics;
+                    @Var
+                    double prior = 0.0;
+                    for (int s = 0; s < numSuperTopics; s++) {
+                        prior += superWeights[s] * superSubTopicPriorWeights[s][subTopic];
+                    }
+                    @Var
+                    double superSample = random.nextUniform() * prior;
+                    superTopic = 0;
+                    superSample -= superWeights[superTopic] * superSubTopicPriorWeights[superTopic][subTopic];
+                    while (superSample > 0.0 && superTopic < numSuperTopics - 1) {
+                        superTopic++;
+                        superSample -= superWeights[superTopic] * superSubTopicPriorWeights[superTopic][subTopic];
+                    }
+                }
+            }
+            else {
+                sample -= documentMass + topicWordMass;
+
+                if (sample < rootSmoothing) {
+                    superTopic = numSuperTopics;
+                    subTopic = numSubTopics;
+                }
+                else {
+                    sample -= rootSmoothing;
+
+                    superTopic = 0;
+                    sample -= superWeights[superTopic] * superSmoothing[superTopic];
+                    while (sample > 0.0 && superTopic < numSuperTopics - 1) {
+                        superTopic++;
+                        sample -= superWeights[superTopic] * superSmoothing[superTopic];
+                    }
+
+                    // Choose among the sub-topics and the super-topic itself
+                    double[] priorWeights = superSubTopicPriorWeights[superTopic];
+                    @Var
+                    double subSample = random.nextUniform() * superSmoothing[superTopic] / (beta * subTopicBalance);
+                    subTopic = 0;
+                    subSample -= priorWeights[subTopic] * topicCoefficients[1 + numSuperTopics + subTopic];
+                    while (subSample > 0.0 && subTopic < numSubTopics) {
+                        subTopic++;
+                        if (subTopic == numSubTopics) {
+                            subSample -= priorWeights[numSubTopics] * topicCoefficients[1 + superTopic];
+                        }
+                        else {
+                            subSample -= priorWeights[subTopic] * topicCoefficients[1 + numSuperTopics + subTopic];
+                        }
+                    }
+                }
+            }
+
+            // Clear the dense copy of this type's counts
+            for (int i = 0; i < numTypeTopics; i++) {
+                currentTypeCounts[ packedCounts[i] & topicMask ] = 0;
+            }
+
+            // Save the choice into the Gibbs state
+            docSuperTopics[position] = superTopic;
+            docSubTopics[position] = subTopic;
+
+            // Put the new super/sub topics into the counts
+            topic = topicIndex(superTopic, subTopic);
+            typeTopicCounts.increment(type, topic);
+            changeTopicTotal(topic, 1);
+
+            addToDocument(superTopic, subTopic);
+
+            if (superCounts[superTopic] == 1) {
+                superTopicDocumentFrequencies[superTopic]++;
+                sumDocumentFrequencies++;
+                cacheSuperTopicPrior();
+            }
+            if (superTopic != numSuperTopics &&
+                superSubCounts[superTopic][subTopic] == 1) {
+                superSubTopicDocumentFrequencies[superTopic][subTopic]++;
+                sumSuperTopicDocumentFrequencies[superTopic]++;
+                cacheSuperSubTopicPrior(superTopic);
+                updateSuperSmoothing(superTopic);
+            }
+
+            tokensPerSuperTopic[superTopic]++;
+            tokensPerSuperSubTopic[superTopic][subTopic]++;
+
+            // Update the weight for the new super topic
+            updateSuperWeight(superTopic);
+        }
+
+        // Clear the document counts
+        for (int i = 0; i < numDocPairs; i++) {
+            int s = docPairs[i] / pairWidth;
+            superSubCounts[s][ docPairs[i] - s * pairWidth ] = 0;
+        }
+        numDocPairs = 0;
+        superSubCounts[numSuperTopics][numSubTopics] = 0;
+        Arrays.fill(superCounts, 0);
+
+        return docLength;
+    }
+
+    /**
+     *  Once the model has merged every worker's counts, trash this worker's
+     *   copy and rebuild it, and the document frequencies, from the topic
+     *   assignments of its own documents.
+     */
+    public void buildLocalCounts () {
+        typeTopicCounts.clear();
+        Arrays.fill(tokensPerTopic, 0);
+        Arrays.fill(tokensPerSuperTopic, 0);
+        for (int[] counts: tokensPerSuperSubTopic) {
+            Arrays.fill(counts, 0);
+        }
+        Arrays.fill(superTopicDocumentFrequencies, 0);
+        for (int[] frequencies: superSubTopicDocumentFrequencies) {
+            Arrays.fill(frequencies, 0);
+        }
+        sumDocumentFrequencies = 0;
+        Arrays.fill(sumSuperTopicDocumentFrequencies, 0);
+
+        for (int doc = startDoc; doc < superTopics.length && doc < startDoc + numDocs; doc++) {
+            FeatureSequence tokens = (FeatureSequence) instances.get(doc).getData();
+            int[] docSuperTopics = superTopics[doc];
+            int[] docSubTopics = subTopics[doc];
+
+            for (int position = 0; position < docSuperTopics.length; position++) {
+                int superTopic = docSuperTopics[position];
+                int subTopic = docSubTopics[position];
+                int topic = topicIndex(superTopic, subTopic);
+
+                typeTopicCounts.increment(tokens.getIndexAtPosition(position), topic);
+                tokensPerTopic[topic]++;
+                tokensPerSuperTopic[superTopic]++;
+                tokensPerSuperSubTopic[superTopic][subTopic]++;
+
+                superCounts[superTopic]++;
+                if (superCounts[superTopic] == 1) {
+                    superTopicDocumentFrequencies[superTopic]++;
+                    sumDocumentFrequencies++;
+                }
+                superSubCounts[superTopic][subTopic]++;
+                if (superTopic != numSuperTopics && superSubCounts[superTopic][subTopic] == 1) {
+                    superSubTopicDocumentFrequencies[superTopic][subTopic]++;
+                    sumSuperTopicDocumentFrequencies[superTopic]++;
+                }
+            }
+
+            for (int position = 0; position < docSuperTopics.length; position++) {
+                superCounts[ docSuperTopics[position] ] = 0;
+                superSubCounts[ docSuperTopics[position] ][ docSubTopics[position] ] = 0;
+            }
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package cc.mallet.topics;
 
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.logging.*;
 import java.util.zip.*;
 
@@ -129,6 +130,10 @@ public class LabeledLDA implements Serializable {
 		new CommandOption.Integer(LabeledLDA.class, "num-iterations", "INTEGER", true, 1000,
 		 "The number of iterations of Gibbs sampling.", null);
 
+	static CommandOption.Integer numThreadsOption =
+		new CommandOption.Integer(LabeledLDA.class, "num-threads", "INTEGER", true, 1,
+		 "The number of threads for parallel training.", null);
+
 	static CommandOption.Boolean noInference =
 		new CommandOption.Boolean(LabeledLDA.class, "no-inference", "true|false", false, false,
 		 "Do not perform inference, just load a saved model and create a report. Equivalent to --num-iterations 0.", null);
@@ -188,6 +193,8 @@ public class LabeledLDA implements Serializable {
 	
 	protected Randoms random;
 	protected boolean printLogLikelihood = false;
+
+	protected int numThreads = 1;
 	
 	public LabeledLDA (double alpha, double beta) {
 		this.data = new ArrayList<TopicAssignment>();
@@ -216,6 +223,14 @@ public class LabeledLDA implements Serializable {
 		this.numIterations = numIterations;
 	}
 
+	/**
+	 *  Sample with several threads, each with its own block of documents
+	 *   and its own copy of the type/topic counts.
+	 */
+	public void setNumThreads(int threads) {
+		this.numThreads = threads;
+	}
+
 	public int[][] getTypeTopicCounts() { return typeTopicCounts; }
 	public int[] getTopicTotals() { return tokensPerTopic; }
 
@@ -308,6 +323,11 @@ public class LabeledLDA implements Serializable {
 
 	public void estimate() throws IOException {
 
+		if (numThreads > 1 && data.size() >= numThreads) {
+			estimateInParallel();
+			return;
+		}
+
 		for (int iteration = 1; iteration <= numIterations; iteration++) {
 
 			long iterationStart = System.currentTimeMillis();
@@ -335,6 +355,135 @@ public class LabeledLDA implements Serializable {
 		}
 	}
 	
+	/**
+	 *  Sample with <code>numThreads</code> workers. Each worker samples a contiguous block
+	 *   of documents against its own copy of the packed type/topic counts, then rebuilds
+	 *   those counts from its own documents. After every iteration the model sums the
+	 *   workers' counts and copies the totals back to every worker.
+	 */
+	protected void estimateInParallel() throws IOException {
+
+		int[] typeTotals = new int[numTypes];
+		for (TopicAssignment document : data) {
+			FeatureSequence tokens = (FeatureSequence) document.instance.getData();
+			for (int position = 0; position < tokens.getLength(); position++) {
+				typeTotals[ tokens.getIndexAtPosition(position) ]++;
+			}
+		}
+
+		SparseTypeTopicCounts sparseTypeTopicCounts = new SparseTypeTopicCounts(numTopics, typeTotals);
+		for (int type = 0; type < numTypes; type++) {
+			for (int topic = 0; topic < numTopics; topic++) {
+				if (typeTopicCounts[type][topic] > 0) {
+					sparseTypeTopicCounts.add(type, topic, typeTopicCounts[type][topic]);
+				}
+			}
+		}
+
+		LabeledWorkerCallable[] workers = new LabeledWorkerCallable[numThreads];
+		int docsPerThread = data.size() / numThreads;
+		int offset = 0;
+
+		for (int thread = 0; thread < numThreads; thread++) {
+			int numDocs = thread == numThreads - 1 ? data.size() - offset : docsPerThread;
+			workers[thread] = new LabeledWorkerCallable(numTopics, alpha, beta, betaSum,
+														new Randoms(random.nextInt()), data,
+														new SparseTypeTopicCounts(sparseTypeTopicCounts),
+														tokensPerTopic.clone(),
+														offset, numDocs);
+			offset += numDocs;
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+
+		try {
+			for (int iteration = 1; iteration <= numIterations; iteration++) {
+
+				long iterationStart = System.currentTimeMillis();
+
+				for (Future<Integer> future : executor.invokeAll(Arrays.asList(workers))) {
+					future.get();
+				}
+				mergeWorkerCounts(workers, sparseTypeTopicCounts, executor);
+
+				long elapsedMillis = System.currentTimeMillis() - iterationStart;
+				logger.info(iteration + "\t" + elapsedMillis + "ms\t");
+
+				// Occasionally print more information
+				if (showTopicsInterval != 0 && iteration % showTopicsInterval == 0) {
+					logger.info("<" + iteration + "> Log Likelihood: " + modelLogLikelihood() + "\n" +
+								topWords (wordsPerTopic));
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while sampling");
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Sampling thread failed", e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 *  Sum the counts that each worker rebuilt from its own documents into
+	 *   <code>sparseTypeTopicCounts</code>, and copy the totals back to every worker.
+	 *   Only the non-zero entries of the model's dense rows are updated.
+	 *   Word types are divided among the threads by their index modulo <code>numThreads</code>.
+	 */
+	private void mergeWorkerCounts(final LabeledWorkerCallable[] workers,
+								   final SparseTypeTopicCounts sparseTypeTopicCounts,
+								   ExecutorService executor)
+		throws InterruptedException, ExecutionException {
+
+		final int topicMask = sparseTypeTopicCounts.getTopicMask();
+		final int topicBits = sparseTypeTopicCounts.getTopicBits();
+
+		List<Callable<Integer>> merges = new ArrayList<Callable<Integer>>(numThreads);
+		for (int thread = 0; thread < numThreads; thread++) {
+			final int firstType = thread;
+			merges.add(new Callable<Integer>() {
+				public Integer call() {
+					for (int type = firstType; type < numTypes; type += numThreads) {
+						int[] counts = typeTopicCounts[type];
+						int[] packedCounts = sparseTypeTopicCounts.getPackedCounts(type);
+						for (int i = 0; i < packedCounts.length && packedCounts[i] > 0; i++) {
+							counts[ packedCounts[i] & topicMask ] = 0;
+						}
+
+						sparseTypeTopicCounts.clearType(type);
+						for (LabeledWorkerCallable worker : workers) {
+							sparseTypeTopicCounts.addType(worker.getTypeTopicCounts(), type);
+						}
+						for (LabeledWorkerCallable worker : workers) {
+							worker.getTypeTopicCounts().copyType(sparseTypeTopicCounts, type);
+						}
+
+						for (int i = 0; i < packedCounts.length && packedCounts[i] > 0; i++) {
+							counts[ packedCounts[i] & topicMask ] = packedCounts[i] >> topicBits;
+						}
+					}
+					return firstType;
+				}
+			});
+		}
+
+		for (Future<Integer> future : executor.invokeAll(merges)) {
+			future.get();
+		}
+
+		Arrays.fill(tokensPerTopic, 0);
+		for (LabeledWorkerCallable worker : workers) {
+			int[] workerTokens = worker.getTokensPerTopic();
+			for (int topic = 0; topic < numTopics; topic++) {
+				tokensPerTopic[topic] += workerTokens[topic];
+			}
+		}
+		for (LabeledWorkerCallable worker : workers) {
+			System.arraycopy(tokensPerTopic, 0, worker.getTokensPerTopic(), 0, numTopics);
+		}
+	}
+
 	protected void sampleTopicsForOneDoc (FeatureSequence tokenSequence,
 										  FeatureVector labels,
 										  FeatureSequence topicSequence) {
@@ -513,6 +662,38 @@ public class LabeledLDA implements Serializable {
 		return logLikelihood;
 	}
 
+	/**
+	 *  Build a {@link ParallelTopicModel} with one topic per label that shares this
+	 *   model's documents and topic assignments, for reports and inference.
+	 */
+	public ParallelTopicModel toParallelTopicModel() {
+		// I don't want to directly inherit from ParallelTopicModel 
+		//  because the two implementations treat the type-topic counts differently.
+		// Instead, simulate a standard Parallel Topic Model by copying over 
+		//  the appropriate data structures.
+		ParallelTopicModel topicModel = new ParallelTopicModel(topicAlphabet, alpha * numTopics, beta);
+		topicModel.data = data;
+		topicModel.alphabet = alphabet;
+		topicModel.numTypes = numTypes;
+		topicModel.betaSum = betaSum;
+		topicModel.buildInitialTypeTopicCounts();
+		return topicModel;
+	}
+
+	/**
+	 *  Return a tool for estimating the label distribution of new documents.
+	 *   Inference is not restricted to any label set, so topic <code>i</code>
+	 *   of the result is label <code>i</code> of the training data.
+	 */
+	public TopicInferencer getInferencer() {
+		return toParallelTopicModel().getInferencer();
+	}
+
+	/** Return a tool for evaluating the marginal probability of new documents under this model */
+	public MarginalProbEstimator getProbEstimator() {
+		return toParallelTopicModel().getProbEstimator();
+	}
+
 	// 
 	// Methods for displaying and saving results
 	//
@@ -684,6 +865,7 @@ public class LabeledLDA implements Serializable {
 		labeledLDA.setTopicDisplay(showTopicsIntervalOption.value, numTopWords.value);
 
 		labeledLDA.setNumIterations(numIterationsOption.value);
+		labeledLDA.setNumThreads(numThreadsOption.value);
 		
 		if (! noInference.value()) {
 			labeledLDA.estimate();
@@ -709,16 +891,7 @@ public class LabeledLDA implements Serializable {
 			}
 		}
 		
-		// I don't want to directly inherit from ParallelTopicModel 
-		//  because the two implementations treat the type-topic counts differently.
-		// Instead, simulate a standard Parallel Topic Model by copying over 
-		//  the appropriate data structures.
-		ParallelTopicModel topicModel = new ParallelTopicModel(labeledLDA.topicAlphabet, labeledLDA.alpha * labeledLDA.numTopics, labeledLDA.beta);
-		topicModel.data = labeledLDA.data;
-		topicModel.alphabet = labeledLDA.alphabet;
-		topicModel.numTypes = labeledLDA.numTypes;
-		topicModel.betaSum = labeledLDA.betaSum;
-		topicModel.buildInitialTypeTopicCounts();
+		ParallelTopicModel topicModel = labeledLDA.toParallelTopicModel();
 		
 		if (diagnosticsFile.value != null) {
 			PrintWriter out = new PrintWriter(diagnosticsFile.value);
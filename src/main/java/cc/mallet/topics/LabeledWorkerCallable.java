@@ -0,0 +1,196 @@
+/* Copyright (C) 2005 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.    For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package cc.mallet.topics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+
+import com.google.errorprone.annotations.Var;
+
+import cc.mallet.types.FeatureSequence;
+import cc.mallet.types.FeatureVector;
+import cc.mallet.util.Randoms;
+
+/**
+ * A callable task that samples one block of documents for {@link LabeledLDA}.
+ *  Each worker holds its own copy of the packed type/topic counts. After sampling
+ *  it rebuilds its counts from its own documents, and the model sums them and
+ *  copies the totals back, as {@link ParallelTopicModel} does with {@link WorkerCallable}.
+ */
+
+public class LabeledWorkerCallable implements Callable<Integer> {
+
+    ArrayList<TopicAssignment> data;
+    int startDoc, numDocs;
+
+    protected int numTopics;
+
+    protected double alpha;
+    protected double beta;
+    protected double betaSum;
+
+    protected SparseTypeTopicCounts typeTopicCounts;
+    protected int topicMask;
+    protected int topicBits;
+    protected int[] tokensPerTopic; // indexed by <topic index>
+
+    protected Randoms random;
+
+    // Reusable working arrays for sampling
+    protected int[] localTopicCounts;
+    protected int[] currentTypeCounts; // the counts of one type, indexed by <topic index>
+    protected double[] topicTermScores;
+
+    public LabeledWorkerCallable (int numTopics,
+                                  double alpha, double beta, double betaSum,
+                                  Randoms random,
+                                  ArrayList<TopicAssignment> data,
+                                  SparseTypeTopicCounts typeTopicCounts,
+                                  int[] tokensPerTopic,
+                                  int startDoc, int numDocs) {
+
+        this.data = data;
+        this.numTopics = numTopics;
+
+        this.alpha = alpha;
+        this.beta = beta;
+        this.betaSum = betaSum;
+        this.random = random;
+
+        this.typeTopicCounts = typeTopicCounts;
+        this.topicMask = typeTopicCounts.getTopicMask();
+        this.topicBits = typeTopicCounts.getTopicBits();
+        this.tokensPerTopic = tokensPerTopic;
+
+        this.startDoc = startDoc;
+        this.numDocs = numDocs;
+
+        localTopicCounts = new int[numTopics];
+        currentTypeCounts = new int[numTopics];
+        topicTermScores = new double[0];
+    }
+
+    public int[] getTokensPerTopic() { return tokensPerTopic; }
+    public SparseTypeTopicCounts getTypeTopicCounts() { return typeTopicCounts; }
+
+    public Integer call () {
+        @Var
+        int tokens = 0;
+        for (int doc = startDoc; doc < data.size() && doc < startDoc + numDocs; doc++) {
+            TopicAssignment document = data.get(doc);
+            tokens += sampleTopicsForOneDoc((FeatureSequence) document.instance.getData(),
+                                            (FeatureVector) document.instance.getTarget(),
+                                            document.topicSequence.getFeatures());
+        }
+        buildLocalCounts();
+        return tokens;
+    }
+
+    /** Rebuild this worker's counts from its own documents, so that the model can sum them. */
+    public void buildLocalCounts () {
+        typeTopicCounts.clear();
+        Arrays.fill(tokensPerTopic, 0);
+
+        for (int doc = startDoc; doc < data.size() && doc < startDoc + numDocs; doc++) {
+            FeatureSequence tokens = (FeatureSequence) data.get(doc).instance.getData();
+            int[] topics = data.get(doc).topicSequence.getFeatures();
+            for (int position = 0; position < topics.length; position++) {
+                typeTopicCounts.increment(tokens.getIndexAtPosition(position), topics[position]);
+                tokensPerTopic[topics[position]]++;
+            }
+        }
+    }
+
+    /**
+     *  Resample every token in one document, choosing only among the
+     *   topics that correspond to the document's labels.
+     *
+     *  @return the number of tokens sampled
+     */
+    protected int sampleTopicsForOneDoc (FeatureSequence tokenSequence,
+                                         FeatureVector labels,
+                                         int[] oneDocTopics) {
+
+        int[] possibleTopics = labels.getIndices();
+        int numLabels = labels.numLocations();
+        int docLength = tokenSequence.getLength();
+
+        if (topicTermScores.length < numLabels) {
+            topicTermScores = new double[numLabels];
+        }
+
+        // populate topic counts
+        for (int position = 0; position < docLength; position++) {
+            localTopicCounts[oneDocTopics[position]]++;
+        }
+
+        for (int position = 0; position < docLength; position++) {
+            int type = tokenSequence.getIndexAtPosition(position);
+            int oldTopic = oneDocTopics[position];
+
+            // Remove this token from all counts
+            localTopicCounts[oldTopic]--;
+            tokensPerTopic[oldTopic]--;
+            typeTopicCounts.decrement(type, oldTopic);
+
+            // Spread out this type's counts by topic, so that each label's count is one lookup
+            int[] packedCounts = typeTopicCounts.getPackedCounts(type);
+            @Var
+            int numNonZero = 0;
+            while (numNonZero < packedCounts.length && packedCounts[numNonZero] > 0) {
+                currentTypeCounts[ packedCounts[numNonZero] & topicMask ] = packedCounts[numNonZero] >> topicBits;
+                numNonZero++;
+            }
+
+            @Var
+            double sum = 0.0;
+            for (int labelPosition = 0; labelPosition < numLabels; labelPosition++) {
+                int topic = possibleTopics[labelPosition];
+                double score =
+                    (alpha + localTopicCounts[topic]) *
+                    ((beta + currentTypeCounts[topic]) /
+                     (betaSum + tokensPerTopic[topic]));
+                sum += score;
+                topicTermScores[labelPosition] = score;
+            }
+
+            for (int i = 0; i < numNonZero; i++) {
+                currentTypeCounts[ packedCounts[i] & topicMask ] = 0;
+            }
+
+            @Var
+            double sample = random.nextUniform() * sum;
+
+            @Var
+            int labelPosition = -1;
+            while (sample > 0.0) {
+                labelPosition++;
+                sample -= topicTermScores[labelPosition];
+            }
+
+            if (labelPosition == -1) {
+                throw new IllegalStateException ("LabeledLDA: New topic not sampled.");
+            }
+
+            int newTopic = possibleTopics[labelPosition];
+
+            oneDocTopics[position] = newTopic;
+            localTopicCounts[newTopic]++;
+            tokensPerTopic[newTopic]++;
+            typeTopicCounts.increment(type, newTopic);
+        }
+
+        // Only the document's own labels can be non-zero, so clear those
+        for (int labelPosition = 0; labelPosition < numLabels; labelPosition++) {
+            localTopicCounts[possibleTopics[labelPosition]] = 0;
+        }
+
+        return docLength;
+    }
+}
@@ -0,0 +1,341 @@
+/* Copyright (C) 2026 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.    For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package cc.mallet.topics;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import com.google.errorprone.annotations.Var;
+
+import cc.mallet.types.Alphabet;
+import cc.mallet.util.Randoms;
+
+/**
+ * A read-only topic inferencer backed by a memory-mapped file.
+ * <p>
+ * The file holds the same statistics as a {@link TopicInferencer}, but the
+ *  packed type/topic counts are stored in compressed sparse row form (one
+ *  offset per type into a single array of non-zero count/topic ints) and the
+ *  vocabulary is stored as UTF-8 bytes with a lexicographically sorted index.
+ *  Loading maps the file with {@link FileChannel#map} rather than deserializing
+ *  millions of small arrays and a hash map, so it takes milliseconds, uses
+ *  almost no heap, and lets several processes on one machine share the same
+ *  pages through the operating system's cache.
+ * <p>
+ * Sampling is the same SparseLDA inference as {@link TopicInferencer}, which
+ *  reads each type's counts through {@link #getTypeRow}. The batch and
+ *  multi-threaded methods of that class are inherited unchanged.
+ *  Instances must use the training vocabulary's indices; use
+ *  {@link #lookupIndex(String)} to map words from another source.
+ *  A single file is limited to 2GB.
+ */
+
+public class MappedTopicInferencer extends TopicInferencer {
+
+    public static final int MAGIC = 0x4d4c544d; // "MLTM"
+    public static final int CURRENT_FORMAT_VERSION = 1;
+
+    // Header: magic, version, numTopics, numTypes, topicMask, topicBits,
+    //  number of non-zero counts, vocabulary byte length, then beta and betaSum.
+    static final int HEADER_BYTES = 8 * 4 + 2 * 8;
+
+    protected IntBuffer typeOffsets;   // numTypes + 1 offsets into typeTopicValues
+    protected IntBuffer typeTopicValues; // packed count/topic pairs, sorted by count within each type
+    protected IntBuffer sortedTypes;   // type indices in lexicographic order of their strings
+    protected IntBuffer stringOffsets; // numTypes + 1 offsets into vocabulary
+    protected ByteBuffer vocabulary;   // UTF-8 bytes of every type, in index order
+
+    protected MappedTopicInferencer() {}
+
+    /** Write the statistics of an inferencer in the memory-mapped format. */
+    public static void write(TopicInferencer inferencer, File file) throws IOException {
+        write(inferencer.typeTopicCounts, inferencer.tokensPerTopic, inferencer.alphabet,
+              inferencer.alpha, inferencer.beta, inferencer.betaSum, file);
+    }
+
+    /** Write a trained topic model in the memory-mapped format. */
+    public static void write(ParallelTopicModel model, File file) throws IOException {
+        write(model.typeTopicCounts, model.tokensPerTopic, model.alphabet,
+              model.alpha, model.beta, model.betaSum, file);
+    }
+
+    public static void write(int[][] typeTopicCounts, int[] tokensPerTopic, Alphabet alphabet,
+                             double[] alpha, double beta, double betaSum, File file) throws IOException {
+
+        int numTopics = tokensPerTopic.length;
+        int numTypes = typeTopicCounts.length;
+
+        @Var
+        long nonZero = 0;
+        for (int type = 0; type < numTypes; type++) {
+            int[] topicCounts = typeTopicCounts[type];
+            @Var
+            int index = 0;
+            while (index < topicCounts.length && topicCounts[index] > 0) { index++; }
+            nonZero += index;
+        }
+
+        byte[][] words = new byte[numTypes][];
+        @Var
+        long vocabularyBytes = 0;
+        for (int type = 0; type < numTypes; type++) {
+            words[type] = alphabet.lookupObject(type).toString().getBytes(StandardCharsets.UTF_8);
+            vocabularyBytes += words[type].length;
+        }
+
+        long totalBytes = HEADER_BYTES + 8L * numTopics + 4L * numTopics +
+            4L * (numTypes + 1) + 4L * nonZero + 4L * numTypes + 4L * (numTypes + 1) + vocabularyBytes;
+        if (totalBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Model is too large for a single mapped file: " + totalBytes + " bytes");
+        }
+
+        Integer[] order = new Integer[numTypes];
+        for (int type = 0; type < numTypes; type++) { order[type] = type; }
+        Arrays.sort(order, new Comparator<Integer>() {
+                public int compare(Integer a, Integer b) {
+                    return compareBytes(words[a], words[b]);
+                }
+            });
+
+        @Var
+        int topicMask;
+        if (Integer.bitCount(numTopics) == 1) {
+            // exact power of 2
+            topicMask = numTopics - 1;
+        }
+        else {
+            // otherwise add an extra bit
+            topicMask = Integer.highestOneBit(numTopics) * 2 - 1;
+        }
+
+        // DataOutputStream is big-endian, which is also the default for mapped buffers
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+
+        out.writeInt(MAGIC);
+        out.writeInt(CURRENT_FORMAT_VERSION);
+        out.writeInt(numTopics);
+        out.writeInt(numTypes);
+        out.writeInt(topicMask);
+        out.writeInt(Integer.bitCount(topicMask));
+        out.writeInt((int) nonZero);
+        out.writeInt((int) vocabularyBytes);
+        out.writeDouble(beta);
+        out.writeDouble(betaSum);
+
+        for (int topic = 0; topic < numTopics; topic++) { out.writeDouble(alpha[topic]); }
+        for (int topic = 0; topic < numTopics; topic++) { out.writeInt(tokensPerTopic[topic]); }
+
+        @Var
+        int offset = 0;
+        out.writeInt(offset);
+        for (int type = 0; type < numTypes; type++) {
+            int[] topicCounts = typeTopicCounts[type];
+            @Var
+            int index = 0;
+            while (index < topicCounts.length && topicCounts[index] > 0) { index++; }
+            offset += index;
+            out.writeInt(offset);
+        }
+
+        for (int type = 0; type < numTypes; type++) {
+            int[] topicCounts = typeTopicCounts[type];
+            @Var
+            int index = 0;
+            while (index < topicCounts.length && topicCounts[index] > 0) {
+                out.writeInt(topicCounts[index]);
+                index++;
+            }
+        }
+
+        for (int i = 0; i < numTypes; i++) { out.writeInt(order[i]); }
+
+        offset = 0;
+        out.writeInt(offset);
+        for (int type = 0; type < numTypes; type++) {
+            offset += words[type].length;
+            out.writeInt(offset);
+        }
+        for (int type = 0; type < numTypes; type++) { out.write(words[type]); }
+
+        out.close();
+    }
+
+    /** Returns true if the file starts with the magic number of this format. */
+    public static boolean isMappedFile(File file) throws IOException {
+        if (file.length() < HEADER_BYTES) { return false; }
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            return in.readInt() == MAGIC;
+        }
+    }
+
+    /** Map a file written by {@link #write}. The file must not be modified while it is in use. */
+    public static MappedTopicInferencer read(File file) throws IOException {
+
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        FileChannel channel = raf.getChannel();
+        // The mapping stays valid after the channel is closed
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        channel.close();
+        raf.close();
+
+        buffer.order(ByteOrder.BIG_ENDIAN);
+
+        if (buffer.getInt(0) != MAGIC) {
+            throw new IOException(file + " is not a mapped topic model");
+        }
+        if (buffer.getInt(4) != CURRENT_FORMAT_VERSION) {
+            throw new IOException("Unsupported mapped topic model version " + buffer.getInt(4));
+        }
+
+        MappedTopicInferencer inferencer = new MappedTopicInferencer();
+        inferencer.numTopics = buffer.getInt(8);
+        inferencer.numTypes = buffer.getInt(12);
+        inferencer.topicMask = buffer.getInt(16);
+        inferencer.topicBits = buffer.getInt(20);
+        int nonZero = buffer.getInt(24);
+        int vocabularyBytes = buffer.getInt(28);
+        inferencer.beta = buffer.getDouble(32);
+        inferencer.betaSum = buffer.getDouble(40);
+
+        int numTopics = inferencer.numTopics;
+        int numTypes = inferencer.numTypes;
+
+        @Var
+        int position = HEADER_BYTES;
+        inferencer.alpha = new double[numTopics];
+        for (int topic = 0; topic < numTopics; topic++) {
+            inferencer.alpha[topic] = buffer.getDouble(position);
+            position += 8;
+        }
+        inferencer.tokensPerTopic = new int[numTopics];
+        for (int topic = 0; topic < numTopics; topic++) {
+            inferencer.tokensPerTopic[topic] = buffer.getInt(position);
+            position += 4;
+        }
+
+        inferencer.typeOffsets = slice(buffer, position, 4 * (numTypes + 1)).asIntBuffer();
+        position += 4 * (numTypes + 1);
+        inferencer.typeTopicValues = slice(buffer, position, 4 * nonZero).asIntBuffer();
+        position += 4 * nonZero;
+        inferencer.sortedTypes = slice(buffer, position, 4 * numTypes).asIntBuffer();
+        position += 4 * numTypes;
+        inferencer.stringOffsets = slice(buffer, position, 4 * (numTypes + 1)).asIntBuffer();
+        position += 4 * (numTypes + 1);
+        inferencer.vocabulary = slice(buffer, position, vocabularyBytes);
+
+        inferencer.cachedCoefficients = new double[numTopics];
+        for (int topic = 0; topic < numTopics; topic++) {
+            inferencer.smoothingOnlyMass += inferencer.alpha[topic] * inferencer.beta /
+                (inferencer.tokensPerTopic[topic] + inferencer.betaSum);
+            inferencer.cachedCoefficients[topic] = inferencer.alpha[topic] /
+                (inferencer.tokensPerTopic[topic] + inferencer.betaSum);
+        }
+
+        inferencer.random = new Randoms();
+
+        return inferencer;
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int position, int length) {
+        ByteBuffer duplicate = buffer.duplicate();
+        duplicate.position(position);
+        duplicate.limit(position + length);
+        return duplicate.slice();
+    }
+
+    private static int compareBytes(byte[] a, byte[] b) {
+        int length = Math.min(a.length, b.length);
+        for (int i = 0; i < length; i++) {
+            int difference = (a[i] & 0xff) - (b[i] & 0xff);
+            if (difference != 0) { return difference; }
+        }
+        return a.length - b.length;
+    }
+
+    public int getNumTypes() { return numTypes; }
+
+    /** The word for a type index. */
+    public String lookupObject(int type) {
+        int start = stringOffsets.get(type);
+        byte[] bytes = new byte[stringOffsets.get(type + 1) - start];
+        ByteBuffer word = vocabulary.duplicate();
+        word.position(start);
+        word.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** The type index of a word, by binary search over the sorted vocabulary, or -1 if it is not in the model. */
+    public int lookupIndex(String entry) {
+        byte[] target = entry.getBytes(StandardCharsets.UTF_8);
+
+        @Var
+        int low = 0;
+        @Var
+        int high = numTypes - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int type = sortedTypes.get(middle);
+            int comparison = compareToType(type, target);
+            if (comparison < 0) { low = middle + 1; }
+            else if (comparison > 0) { high = middle - 1; }
+            else { return type; }
+        }
+        return -1;
+    }
+
+    /** Compare the stored bytes of a type to a target, without copying them. */
+    private int compareToType(int type, byte[] target) {
+        int start = stringOffsets.get(type);
+        int length = stringOffsets.get(type + 1) - start;
+        int shared = Math.min(length, target.length);
+        for (int i = 0; i < shared; i++) {
+            int difference = (vocabulary.get(start + i) & 0xff) - (target[i] & 0xff);
+            if (difference != 0) { return difference; }
+        }
+        return length - target.length;
+    }
+
+    /** Copy the row of a type out of the mapped file into the scratch space. */
+    @Override
+    protected int[] getTypeRow(int type, Scratch scratch) {
+        if (type >= numTypes) { return null; }
+        int rowStart = typeOffsets.get(type);
+        int rowLength = typeOffsets.get(type + 1) - rowStart;
+        // Types that never occurred in training are ignored
+        if (rowLength == 0) { return null; }
+
+        int[] row = scratch.typeRow;
+        typeTopicValues.get(rowStart, row, 0, rowLength);
+        row[rowLength] = 0;
+        return row;
+    }
+
+    // Serialization
+
+    private static final long serialVersionUID = 1;
+
+    /** Mapped inferencers are written with {@link #write}, not Java serialization. */
+    private void writeObject (ObjectOutputStream out) throws IOException {
+        throw new java.io.NotSerializableException("Use MappedTopicInferencer.write()");
+    }
+}
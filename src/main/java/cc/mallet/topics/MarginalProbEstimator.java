@@ -9,6 +9,13 @@ package cc.mallet.topics;
 
 import java.util.Arrays;
 import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import java.util.zip.*;
 
@@ -48,6 +55,8 @@ public class MarginalProbEstimator implements Serializable {
 	protected Randoms random;
 	
 	protected boolean printWordProbabilities = false;
+
+	public static final int DOCS_PER_THREAD_BATCH = 256;
 	
 	public MarginalProbEstimator (int numTopics,
 								  double[] alpha, double alphaSum,
@@ -118,48 +127,206 @@ public class MarginalProbEstimator implements Serializable {
 
 	public double evaluateLeftToRight (InstanceList testing, int numParticles, boolean usingResampling,
 									   PrintStream docProbabilityStream) {
+		return evaluateLeftToRight(testing.iterator(), numParticles, usingResampling, docProbabilityStream, 1);
+	}
 
-		double logNumParticles = Math.log(numParticles);
-		double totalLogLikelihood = 0;
-		for (Instance instance : testing) {
-			
-			FeatureSequence tokenSequence = (FeatureSequence) instance.getData();
+	/**
+	 *  Estimate the log probability of a stream of documents, writing each document's
+	 *   log probability to <code>docProbabilityStream</code> (if not null) in input order
+	 *   as soon as it is known.
+	 *  <p>
+	 *  With more than one thread, documents are read in batches of
+	 *   <code>numThreads * DOCS_PER_THREAD_BATCH</code> and the threads take turns
+	 *   within each batch, each with its own {@link Scratch} space. Every document then
+	 *   gets its own random number generator, seeded from one draw from this estimator's
+	 *   generator and the document's position in the stream, so for a fixed seed the
+	 *   result does not depend on the number of threads. A single thread uses this
+	 *   estimator's generator directly, as before.
+	 */
+	public double evaluateLeftToRight (Iterator<Instance> instances, int numParticles, boolean usingResampling,
+									   PrintStream docProbabilityStream, int numThreads) {
 
-			double docLogLikelihood = 0;
+		double totalLogLikelihood = 0;
 
-			double[][] particleProbabilities = new double[ numParticles ][];
-			for (int particle = 0; particle < numParticles; particle++) {
-				particleProbabilities[particle] =
-					leftToRight(tokenSequence, usingResampling);
+		if (numThreads <= 1) {
+			Scratch scratch = new Scratch(random, cachedCoefficients);
+			while (instances.hasNext()) {
+				double docLogLikelihood = evaluateDocument(instances.next(), numParticles, usingResampling, scratch);
+				printDocument(docLogLikelihood, scratch.wordOutput, docProbabilityStream);
+				totalLogLikelihood += docLogLikelihood;
 			}
+			return totalLogLikelihood;
+		}
+
+		int seed = random.nextInt();
+		int batchSize = numThreads * DOCS_PER_THREAD_BATCH;
+		Instance[] batch = new Instance[batchSize];
+		double[] docLogLikelihoods = new double[batchSize];
+		String[] wordLines = new String[batchSize];
+
+		List<EvaluationCallable> tasks = new ArrayList<EvaluationCallable>();
+		for (int thread = 0; thread < numThreads; thread++) {
+			tasks.add(new EvaluationCallable(new Scratch(null, cachedCoefficients.clone()), batch, docLogLikelihoods, wordLines,
+											 thread, numThreads, numParticles, usingResampling, seed));
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+		try {
+			int firstDoc = 0;
+			while (instances.hasNext()) {
+				int batchDocs = 0;
+				while (batchDocs < batchSize && instances.hasNext()) {
+					batch[batchDocs] = instances.next();
+					batchDocs++;
+				}
 
-			for (int position = 0; position < particleProbabilities[0].length; position++) {
-				double sum = 0;
-				for (int particle = 0; particle < numParticles; particle++) {
-					sum += particleProbabilities[particle][position];
+				for (EvaluationCallable task: tasks) {
+					task.setBatch(firstDoc, batchDocs);
 				}
 
-				if (sum > 0.0) {
-					double logProb = Math.log(sum) - logNumParticles;
-					docLogLikelihood += logProb;
+				for (Future<Integer> future: executor.invokeAll(tasks)) {
+					future.get();
+				}
+
+				for (int i = 0; i < batchDocs; i++) {
+					printDocument(docLogLikelihoods[i], wordLines[i], docProbabilityStream);
+					totalLogLikelihood += docLogLikelihoods[i];
+					batch[i] = null;
+					wordLines[i] = null;
+				}
+				firstDoc += batchDocs;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while evaluating documents", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Evaluation thread failed", e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+
+		return totalLogLikelihood;
+	}
+
+	private void printDocument (double docLogLikelihood, CharSequence wordOutput, PrintStream docProbabilityStream) {
+		if (printWordProbabilities) {
+			System.out.print(wordOutput);
+		}
+		if (docProbabilityStream != null) {
+			docProbabilityStream.println(docLogLikelihood);
+		}
+	}
+
+	/**
+	 *  Average the particles' probabilities for each token of one document and return the
+	 *   document's log probability. If word probabilities are being printed, the lines are
+	 *   left in the scratch space's <code>wordOutput</code>.
+	 */
+	protected double evaluateDocument (Instance instance, int numParticles, boolean usingResampling, Scratch scratch) {
+		double logNumParticles = Math.log(numParticles);
+		FeatureSequence tokenSequence = (FeatureSequence) instance.getData();
+
+		double docLogLikelihood = 0;
+		scratch.wordOutput.setLength(0);
+
+		double[][] particleProbabilities = new double[ numParticles ][];
+		for (int particle = 0; particle < numParticles; particle++) {
+			particleProbabilities[particle] =
+				leftToRight(tokenSequence, usingResampling, scratch);
+		}
+
+		for (int position = 0; position < particleProbabilities[0].length; position++) {
+			double sum = 0;
+			for (int particle = 0; particle < numParticles; particle++) {
+				sum += particleProbabilities[particle][position];
+			}
+
+			if (sum > 0.0) {
+				double logProb = Math.log(sum) - logNumParticles;
+				docLogLikelihood += logProb;
 					
-	                if (printWordProbabilities) {
-						Object word = instance.getDataAlphabet().lookupObject(tokenSequence.getIndexAtPosition(position));
-                    	System.out.printf("%s\t%f\n", word, logProb);
-	                }
+				if (printWordProbabilities) {
+					Object word = instance.getDataAlphabet().lookupObject(tokenSequence.getIndexAtPosition(position));
+					scratch.wordOutput.append(String.format("%s\t%f\n", word, logProb));
 				}
 			}
+		}
+
+		return docLogLikelihood;
+	}
+
+	/**
+	 *  The state that changes while sampling one document. The estimator's own counts are
+	 *   only read, so each thread that evaluates documents concurrently needs its own
+	 *   <code>Scratch</code>, with its own copy of the cached coefficients.
+	 */
+	protected static class Scratch {
+		protected Randoms random;
+		protected double[] cachedCoefficients;
+		protected StringBuilder wordOutput = new StringBuilder();
+
+		protected Scratch (Randoms random, double[] cachedCoefficients) {
+			this.random = random;
+			this.cachedCoefficients = cachedCoefficients;
+		}
+	}
+
+	/** Evaluates every <code>numThreads</code>-th document of the current batch. */
+	protected class EvaluationCallable implements Callable<Integer> {
+		Scratch scratch;
+		Instance[] batch;
+		double[] docLogLikelihoods;
+		String[] wordLines;
+		int threadID, numThreads;
+		int numParticles;
+		boolean usingResampling;
+		int seed;
+		int firstDoc, batchDocs;
+
+		EvaluationCallable (Scratch scratch, Instance[] batch, double[] docLogLikelihoods, String[] wordLines,
+							int threadID, int numThreads, int numParticles, boolean usingResampling, int seed) {
+			this.scratch = scratch;
+			this.batch = batch;
+			this.docLogLikelihoods = docLogLikelihoods;
+			this.wordLines = wordLines;
+			this.threadID = threadID;
+			this.numThreads = numThreads;
+			this.numParticles = numParticles;
+			this.usingResampling = usingResampling;
+			this.seed = seed;
+		}
 
-			if (docProbabilityStream != null) {
-				docProbabilityStream.println(docLogLikelihood);
+		void setBatch (int firstDoc, int batchDocs) {
+			this.firstDoc = firstDoc;
+			this.batchDocs = batchDocs;
+		}
+
+		public Integer call () {
+			for (int i = threadID; i < batchDocs; i += numThreads) {
+				scratch.random = new Randoms(documentSeed(seed, firstDoc + i));
+				docLogLikelihoods[i] = evaluateDocument(batch[i], numParticles, usingResampling, scratch);
+				if (printWordProbabilities) {
+					wordLines[i] = scratch.wordOutput.toString();
+				}
 			}
-			totalLogLikelihood += docLogLikelihood;
+			return batchDocs;
 		}
+	}
 
-		return totalLogLikelihood;
+	/** Mix a document's position into the seed, so that neighboring documents get unrelated streams. */
+	static int documentSeed (int seed, int doc) {
+		long mixed = (seed + doc * 0x9E3779B97F4A7C15L) * 0xBF58476D1CE4E5B9L;
+		return (int) (mixed ^ (mixed >>> 31));
 	}
-	
+
 	protected double[] leftToRight (FeatureSequence tokenSequence, boolean usingResampling) {
+		return leftToRight(tokenSequence, usingResampling, new Scratch(random, cachedCoefficients));
+	}
+
+	protected double[] leftToRight (FeatureSequence tokenSequence, boolean usingResampling, Scratch scratch) {
+
+		Randoms random = scratch.random;
+		double[] cachedCoefficients = scratch.cachedCoefficients;
 
 		int[] oneDocTopics = new int[tokenSequence.getLength()];
 		double[] wordProbabilities = new double[tokenSequence.getLength()];
@@ -0,0 +1,342 @@
+/* Copyright (C) 2005 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package cc.mallet.topics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+
+import com.google.errorprone.annotations.Var;
+
+import cc.mallet.types.FeatureSequence;
+import cc.mallet.types.LabelSequence;
+import cc.mallet.util.Randoms;
+
+/**
+ * A callable task that samples one block of documents for {@link ParallelNPTopicModel}.
+ * <p>
+ * With <code>m(k)</code> documents using topic <code>k</code> out of <code>M</code>
+ *  document/topic pairs, the weight of an existing topic for a token of type
+ *  <code>w</code> is <code>(n(k|d) + alpha m(k) / (M + gamma)) (n(w,k) + beta) / (n(k) + V beta)</code>,
+ *  and the weight of a new topic is <code>alpha gamma / ((M + gamma) V)</code>.
+ *  As in {@link WorkerCallable}, the existing topics split into three buckets:
+ * <ul>
+ *  <li>a smoothing-only bucket, <code>alpha / (M + gamma)</code> times a cached sum over topics,</li>
+ *  <li>a document bucket over the topics used in the document, and</li>
+ *  <li>a topic-word bucket over the topics with tokens of <code>w</code>,</li>
+ * </ul>
+ *  so a token costs time proportional to the number of topics of its type and document.
+ * <p>
+ * New topics take their IDs from a reserve of unused IDs that the model hands
+ *  to each worker before every iteration. When several workers sample at once,
+ *  a topic created by one of them is only visible to the others after the model
+ *  merges the counts at the end of the iteration, and a worker that uses up its
+ *  reserve creates no more topics until then.
+ */
+
+public class NPWorkerCallable implements Callable<Integer> {
+
+    ArrayList<TopicAssignment> data;
+    int startDoc, numDocs;
+
+    protected int maxTopics;
+    protected int numTypes;
+    protected int topicMask;
+    protected int topicBits;
+
+    protected double alpha;
+    protected double gamma;
+    protected double beta;
+    protected double betaSum;
+
+    protected SparseTypeTopicCounts typeTopicCounts;
+    protected int[] tokensPerTopic;
+    protected int[] docsPerTopic;
+    protected int totalDocTopics;
+
+    // Unused topic IDs this worker may assign to new topics
+    protected int[] newTopics;
+    protected int numNewTopics;
+
+    protected Randoms random;
+    protected boolean shouldBuildLocalCounts = true;
+
+    // Per-document state: topic counts and the list of topics with non-zero counts
+    protected int[] localTopicCounts;
+    protected int[] localTopicIndex;
+    protected int nonZeroTopics;
+
+    // Cached values: 1 / (n(k) + V beta), and sum_k m(k) beta / (n(k) + V beta)
+    protected double[] cachedCoefficients;
+    protected double smoothingSum;
+
+    protected double[] topicTermScores;
+
+    public NPWorkerCallable (int maxTopics, double alpha, double gamma, double beta,
+                             Randoms random, ArrayList<TopicAssignment> data,
+                             SparseTypeTopicCounts typeTopicCounts,
+                             int[] tokensPerTopic, int[] docsPerTopic, int totalDocTopics,
+                             int startDoc, int numDocs) {
+        this.maxTopics = maxTopics;
+        this.numTypes = typeTopicCounts.getNumTypes();
+        this.topicMask = typeTopicCounts.getTopicMask();
+        this.topicBits = typeTopicCounts.getTopicBits();
+
+        this.alpha = alpha;
+        this.gamma = gamma;
+        this.beta = beta;
+        this.betaSum = beta * numTypes;
+        this.random = random;
+
+        this.data = data;
+        this.typeTopicCounts = typeTopicCounts;
+        this.tokensPerTopic = tokensPerTopic;
+        this.docsPerTopic = docsPerTopic;
+        this.totalDocTopics = totalDocTopics;
+
+        this.startDoc = startDoc;
+        this.numDocs = numDocs;
+
+        newTopics = new int[maxTopics];
+
+        localTopicCounts = new int[maxTopics];
+        localTopicIndex = new int[maxTopics];
+        cachedCoefficients = new double[maxTopics];
+        topicTermScores = new double[maxTopics];
+    }
+
+    /** The only worker shares the model's counts, so it never needs to rebuild them. */
+    public void makeOnlyThread() {
+        shouldBuildLocalCounts = false;
+    }
+
+    public SparseTypeTopicCounts getTypeTopicCounts() { return typeTopicCounts; }
+    public int[] getTokensPerTopic() { return tokensPerTopic; }
+    public int[] getDocsPerTopic() { return docsPerTopic; }
+    public int getTotalDocTopics() { return totalDocTopics; }
+
+    public void setTotalDocTopics(int totalDocTopics) {
+        this.totalDocTopics = totalDocTopics;
+    }
+
+    /** Replace this worker's reserve of IDs for new topics. */
+    public void setNewTopics(int[] topics, int start, int length) {
+        System.arraycopy(topics, start, newTopics, 0, length);
+        numNewTopics = length;
+    }
+
+    public Integer call() {
+        initializeSmoothing();
+
+        @Var
+        int changed = 0;
+        for (int doc = startDoc; doc < data.size() && doc < startDoc + numDocs; doc++) {
+            FeatureSequence tokenSequence = (FeatureSequence) data.get(doc).instance.getData();
+            LabelSequence topicSequence = data.get(doc).topicSequence;
+            changed += sampleTopicsForOneDoc(tokenSequence, topicSequence);
+        }
+
+        if (shouldBuildLocalCounts) {
+            buildLocalCounts();
+        }
+        return changed;
+    }
+
+    void initializeSmoothing() {
+        smoothingSum = 0.0;
+        for (int topic = 0; topic < maxTopics; topic++) {
+            cachedCoefficients[topic] = 1.0 / (tokensPerTopic[topic] + betaSum);
+            smoothingSum += docsPerTopic[topic] * beta * cachedCoefficients[topic];
+        }
+    }
+
+    /** Rebuild this worker's counts from its own documents, so that the model can sum them. */
+    public void buildLocalCounts() {
+        typeTopicCounts.clear();
+        Arrays.fill(tokensPerTopic, 0);
+        Arrays.fill(docsPerTopic, 0);
+        totalDocTopics = 0;
+
+        for (int doc = startDoc; doc < data.size() && doc < startDoc + numDocs; doc++) {
+            FeatureSequence tokens = (FeatureSequence) data.get(doc).instance.getData();
+            int[] topics = data.get(doc).topicSequence.getFeatures();
+
+            for (int position = 0; position < topics.length; position++) {
+                int topic = topics[position];
+                typeTopicCounts.increment(tokens.getIndexAtPosition(position), topic);
+                tokensPerTopic[topic]++;
+                if (localTopicCounts[topic] == 0) {
+                    docsPerTopic[topic]++;
+                    totalDocTopics++;
+                }
+                localTopicCounts[topic]++;
+            }
+            for (int topic: topics) {
+                localTopicCounts[topic] = 0;
+            }
+        }
+    }
+
+    /** Add or remove one token of a topic from the topic totals, updating the cached sums. */
+    private double changeTopicTotals(int topic, int delta, double docSmoothing) {
+        double coefficient = cachedCoefficients[topic];
+        smoothingSum -= docsPerTopic[topic] * beta * coefficient;
+        @Var
+        double updatedDocSmoothing = docSmoothing - localTopicCounts[topic] * beta * coefficient;
+
+        localTopicCounts[topic] += delta;
+        tokensPerTopic[topic] += delta;
+
+        if (delta > 0 && localTopicCounts[topic] == 1) {
+            docsPerTopic[topic]++;
+            totalDocTopics++;
+            localTopicIndex[nonZeroTopics] = topic;
+            nonZeroTopics++;
+        }
+        else if (delta < 0 && localTopicCounts[topic] == 0) {
+            docsPerTopic[topic]--;
+            totalDocTopics--;
+
+            @Var
+            int i = 0;
+            while (localTopicIndex[i] != topic) {
+                i++;
+            }
+            nonZeroTopics--;
+            localTopicIndex[i] = localTopicIndex[nonZeroTopics];
+        }
+
+        cachedCoefficients[topic] = 1.0 / (tokensPerTopic[topic] + betaSum);
+        smoothingSum += docsPerTopic[topic] * beta * cachedCoefficients[topic];
+        updatedDocSmoothing += localTopicCounts[topic] * beta * cachedCoefficients[topic];
+        return updatedDocSmoothing;
+    }
+
+    protected int sampleTopicsForOneDoc(FeatureSequence tokenSequence, LabelSequence topicSequence) {
+
+        int[] oneDocTopics = topicSequence.getFeatures();
+        int docLength = tokenSequence.getLength();
+
+        nonZeroTopics = 0;
+        for (int position = 0; position < docLength; position++) {
+            int topic = oneDocTopics[position];
+            if (localTopicCounts[topic] == 0) {
+                localTopicIndex[nonZeroTopics] = topic;
+                nonZeroTopics++;
+            }
+            localTopicCounts[topic]++;
+        }
+
+        @Var
+        double docSmoothing = 0.0;
+        for (int i = 0; i < nonZeroTopics; i++) {
+            int topic = localTopicIndex[i];
+            docSmoothing += localTopicCounts[topic] * beta * cachedCoefficients[topic];
+        }
+
+        @Var
+        int changed = 0;
+
+        for (int position = 0; position < docLength; position++) {
+            int type = tokenSequence.getIndexAtPosition(position);
+            int oldTopic = oneDocTopics[position];
+
+            // Remove this token from all counts
+            docSmoothing = changeTopicTotals(oldTopic, -1, docSmoothing);
+            typeTopicCounts.decrement(type, oldTopic);
+
+            double priorScale = alpha / (totalDocTopics + gamma);
+
+            // The topic-word bucket
+            int[] currentTypeTopicCounts = typeTopicCounts.getPackedCounts(type);
+            @Var
+            double topicTermMass = 0.0;
+            @Var
+            int index = 0;
+            while (index < currentTypeTopicCounts.length && currentTypeTopicCounts[index] > 0) {
+                int topic = currentTypeTopicCounts[index] & topicMask;
+                int count = currentTypeTopicCounts[index] >> topicBits;
+                double score = (priorScale * docsPerTopic[topic] + localTopicCounts[topic]) *
+                    count * cachedCoefficients[topic];
+                topicTermMass += score;
+                topicTermScores[index] = score;
+                index++;
+            }
+
+            double smoothingOnlyMass = priorScale * smoothingSum;
+            double newTopicMass = numNewTopics > 0 ? priorScale * gamma / numTypes : 0.0;
+
+            @Var
+            double sample = random.nextUniform() *
+                (topicTermMass + docSmoothing + smoothingOnlyMass + newTopicMass);
+
+            @Var
+            int newTopic = -1;
+
+            if (sample < topicTermMass) {
+                @Var
+                int i = -1;
+                while (sample > 0 && i < index - 1) {
+                    i++;
+                    sample -= topicTermScores[i];
+                }
+                newTopic = currentTypeTopicCounts[Math.max(i, 0)] & topicMask;
+            }
+            else {
+                sample -= topicTermMass;
+
+                if (sample < docSmoothing) {
+                    for (int i = 0; i < nonZeroTopics; i++) {
+                        newTopic = localTopicIndex[i];
+                        sample -= localTopicCounts[newTopic] * beta * cachedCoefficients[newTopic];
+                        if (sample <= 0.0) { break; }
+                    }
+                }
+                else {
+                    sample -= docSmoothing;
+
+                    if (sample < smoothingOnlyMass) {
+                        sample /= priorScale;
+                        for (int topic = 0; topic < maxTopics; topic++) {
+                            if (docsPerTopic[topic] == 0) { continue; }
+                            newTopic = topic;
+                            sample -= docsPerTopic[topic] * beta * cachedCoefficients[topic];
+                            if (sample <= 0.0) { break; }
+                        }
+                    }
+                }
+
+                // Rounding error can leave a bucket with weight but no topics
+                if (newTopic == -1) {
+                    if (numNewTopics > 0) {
+                        numNewTopics--;
+                        newTopic = newTopics[numNewTopics];
+                    }
+                    else {
+                        newTopic = oldTopic;
+                    }
+                }
+            }
+
+            // Put the token back into the counts
+            docSmoothing = changeTopicTotals(newTopic, 1, docSmoothing);
+            typeTopicCounts.increment(type, newTopic);
+
+            if (newTopic != oldTopic) {
+                changed++;
+            }
+            oneDocTopics[position] = newTopic;
+        }
+
+        for (int i = 0; i < nonZeroTopics; i++) {
+            localTopicCounts[ localTopicIndex[i] ] = 0;
+        }
+
+        return changed;
+    }
+}
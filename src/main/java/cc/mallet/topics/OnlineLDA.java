@@ -0,0 +1,726 @@
+/* Copyright (C) 2005 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package cc.mallet.topics;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.PrintStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+import com.google.errorprone.annotations.Var;
+
+import cc.mallet.types.Alphabet;
+import cc.mallet.types.ChunkedInstanceReader;
+import cc.mallet.types.Dirichlet;
+import cc.mallet.types.FeatureSequence;
+import cc.mallet.types.IDSorter;
+import cc.mallet.types.Instance;
+import cc.mallet.types.InstanceList;
+import cc.mallet.util.CommandOption;
+import cc.mallet.util.MalletLogger;
+import cc.mallet.util.Randoms;
+
+/**
+ * Online LDA by stochastic variational inference (Hoffman, Blei and Bach, 2010).
+ * <p>
+ * Documents are read from an iterator in mini-batches and never stored. For each batch,
+ *  the per-document topic proportions are fit by coordinate ascent against the current
+ *  topics, and the topic-word parameters <code>lambda</code> move toward the estimate
+ *  implied by that batch alone, with step size <code>(tau0 + t)^-kappa</code> after
+ *  <code>t</code> batches. Memory depends on the vocabulary and the number of topics, not
+ *  on the number of documents.
+ * <p>
+ * Each batch decays every <code>lambda</code> value toward the prior. Rather than touch
+ *  the whole vocabulary, <code>lambda</code> is kept as <code>scale * weights + offset</code>,
+ *  so a batch only updates the rows of the words it contains. New words get rows as the
+ *  alphabet grows.
+ * <p>
+ * {@link #getInferencer()} converts the current topics to a {@link TopicInferencer}, with
+ *  expected counts rounded to integers, so the snapshot can be used like one from a
+ *  {@link ParallelTopicModel}. {@link #setInferencerOutput(int, String)} writes one
+ *  periodically during training.
+ */
+
+public class OnlineLDA implements Serializable {
+
+    private static Logger logger = MalletLogger.getLogger(OnlineLDA.class.getName());
+
+    public static final double DEFAULT_TAU0 = 1024.0;
+    public static final double DEFAULT_KAPPA = 0.7;
+    public static final int DEFAULT_BATCH_SIZE = 256;
+
+    // The maximum number of coordinate ascent iterations for one document,
+    //  and the mean change in its topic parameters that counts as convergence
+    public static final int MAX_DOCUMENT_ITERATIONS = 100;
+    public static final double DOCUMENT_CONVERGENCE = 0.001;
+
+    protected int numTopics;
+    protected Alphabet alphabet;
+
+    protected double[] alpha; // Dirichlet prior on each document's topic proportions
+    protected double alphaSum;
+    protected double eta;     // Dirichlet prior on each topic's word distribution
+
+    protected double tau0 = DEFAULT_TAU0;
+    protected double kappa = DEFAULT_KAPPA;
+    protected int batchSize = DEFAULT_BATCH_SIZE;
+    protected long corpusSize = 0; // 0: use the number of documents seen so far
+
+    // lambda[type][topic] = scale * typeTopicWeights[type][topic] + offset,
+    //  for every type with a row. Types without a row have not been seen.
+    protected double[][] typeTopicWeights;
+    protected double[] topicWeightSums; // the sum of typeTopicWeights over types, for each topic
+    protected int numTypesSeen = 0;
+    protected double scale = 1.0;
+    protected double offset = 0.0;
+
+    protected long numUpdates = 0;
+    protected long numDocumentsSeen = 0;
+
+    protected int numThreads = 1;
+    protected Randoms random;
+
+    protected int inferencerInterval = 0;
+    protected String inferencerFilename = null;
+
+    public OnlineLDA (int numTopics, double alphaSum, double eta) {
+        this(numTopics, alphaSum, eta, new Randoms());
+    }
+
+    public OnlineLDA (int numTopics, double alphaSum, double eta, Randoms random) {
+        this.numTopics = numTopics;
+        this.alphaSum = alphaSum;
+        this.alpha = new double[numTopics];
+        Arrays.fill(alpha, alphaSum / numTopics);
+        this.eta = eta;
+        this.random = random;
+
+        typeTopicWeights = new double[0][];
+        topicWeightSums = new double[numTopics];
+    }
+
+    public int getNumTopics() { return numTopics; }
+    public Alphabet getAlphabet() { return alphabet; }
+    public long getNumUpdates() { return numUpdates; }
+    public long getNumDocumentsSeen() { return numDocumentsSeen; }
+
+    public void setRandomSeed(int seed) {
+        random = new Randoms(seed);
+    }
+
+    /** Fit the topic proportions of the documents in each batch with this many threads. */
+    public void setNumThreads(int threads) {
+        this.numThreads = threads;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     *  Set the learning rate <code>(tau0 + t)^-kappa</code> for the <code>t</code>th batch.
+     *   <code>tau0</code> slows down early updates, and <code>kappa</code>, between 0.5 and 1,
+     *   controls how quickly old batches are forgotten.
+     */
+    public void setLearningRate(double tau0, double kappa) {
+        this.tau0 = tau0;
+        this.kappa = kappa;
+    }
+
+    /**
+     *  Set the number of documents that the topics should represent. Each batch is
+     *   weighted as if the corpus were this many copies of it. By default this is the
+     *   number of documents seen so far.
+     */
+    public void setCorpusSize(long corpusSize) {
+        this.corpusSize = corpusSize;
+    }
+
+    /**
+     *  Write a serialized {@link TopicInferencer} every <code>interval</code> batches,
+     *   to <code>filename</code> with the number of batches as a suffix.
+     */
+    public void setInferencerOutput(int interval, String filename) {
+        this.inferencerInterval = interval;
+        this.inferencerFilename = filename;
+    }
+
+    /**
+     *  Update the topics with every document from an iterator, one batch at a time.
+     *   Documents must be {@link FeatureSequence}s sharing one alphabet.
+     */
+    public void train(Iterator<Instance> instances) throws IOException {
+
+        ExecutorService executor = numThreads > 1 ? Executors.newFixedThreadPool(numThreads) : null;
+        List<Instance> batch = new ArrayList<Instance>(batchSize);
+
+        try {
+            while (instances.hasNext()) {
+                batch.add(instances.next());
+                if (batch.size() == batchSize || ! instances.hasNext()) {
+                    update(batch, executor);
+                    batch.clear();
+                }
+            }
+        } finally {
+            if (executor != null) {
+                executor.shutdown();
+            }
+        }
+    }
+
+    /** Update the topics with one batch of documents. */
+    public void update(List<Instance> batch) throws IOException {
+        ExecutorService executor = numThreads > 1 ? Executors.newFixedThreadPool(numThreads) : null;
+        try {
+            update(batch, executor);
+        } finally {
+            if (executor != null) {
+                executor.shutdown();
+            }
+        }
+    }
+
+    protected void update(List<Instance> batch, ExecutorService executor) throws IOException {
+        if (batch.isEmpty()) { return; }
+
+        long batchStart = System.currentTimeMillis();
+
+        if (alphabet == null) {
+            alphabet = batch.get(0).getDataAlphabet();
+        }
+        numDocumentsSeen += batch.size();
+
+        // Give each word type in the batch a local index
+        int[] localTypes = new int[alphabet.size()];
+        Arrays.fill(localTypes, -1);
+        @Var
+        int numLocalTypes = 0;
+        int[][] documentTypes = new int[batch.size()][];
+        int[][] documentCounts = new int[batch.size()][];
+
+        int[] typeCounts = new int[alphabet.size()];
+        int[] docTypes = new int[alphabet.size()];
+
+        for (int doc = 0; doc < batch.size(); doc++) {
+            FeatureSequence tokens = (FeatureSequence) batch.get(doc).getData();
+            @Var
+            int numDocTypes = 0;
+            for (int position = 0; position < tokens.getLength(); position++) {
+                int type = tokens.getIndexAtPosition(position);
+                if (type >= localTypes.length) {
+                    // The alphabet grew while the batch was being read
+                    int size = Math.max(type + 1, 2 * localTypes.length);
+                    int oldLength = localTypes.length;
+                    localTypes = Arrays.copyOf(localTypes, size);
+                    Arrays.fill(localTypes, oldLength, size, -1);
+                    typeCounts = Arrays.copyOf(typeCounts, size);
+                    docTypes = Arrays.copyOf(docTypes, size);
+                }
+                if (localTypes[type] == -1) {
+                    localTypes[type] = numLocalTypes;
+                    numLocalTypes++;
+                }
+                if (typeCounts[type] == 0) {
+                    docTypes[numDocTypes] = type;
+                    numDocTypes++;
+                }
+                typeCounts[type]++;
+            }
+
+            documentTypes[doc] = new int[numDocTypes];
+            documentCounts[doc] = new int[numDocTypes];
+            for (int i = 0; i < numDocTypes; i++) {
+                int type = docTypes[i];
+                documentTypes[doc][i] = localTypes[type];
+                documentCounts[doc][i] = typeCounts[type];
+                typeCounts[type] = 0;
+            }
+        }
+
+        int[] batchTypes = new int[numLocalTypes];
+        for (int type = 0; type < localTypes.length; type++) {
+            if (localTypes[type] != -1) {
+                batchTypes[ localTypes[type] ] = type;
+            }
+        }
+        ensureTypes(batchTypes);
+
+        // E[log beta] for the batch's words, exponentiated
+        double[][] expElogBeta = new double[numLocalTypes][numTopics];
+        double[] digammaSums = new double[numTopics];
+        for (int topic = 0; topic < numTopics; topic++) {
+            digammaSums[topic] = Dirichlet.digamma(scale * topicWeightSums[topic] + offset * numTypesSeen);
+        }
+        for (int local = 0; local < numLocalTypes; local++) {
+            double[] weights = typeTopicWeights[ batchTypes[local] ];
+            for (int topic = 0; topic < numTopics; topic++) {
+                expElogBeta[local][topic] =
+                    Math.exp(Dirichlet.digamma(scale * weights[topic] + offset) - digammaSums[topic]);
+            }
+        }
+
+        // Fit each document's topic proportions, collecting sufficient statistics
+        @Var
+        double[][] sufficientStatistics;
+        if (executor == null || batch.size() < numThreads) {
+            DocumentFitter fitter = new DocumentFitter(documentTypes, documentCounts, expElogBeta,
+                                                       0, batch.size(), random);
+            fitter.call();
+            sufficientStatistics = fitter.sufficientStatistics;
+        }
+        else {
+            List<DocumentFitter> fitters = new ArrayList<DocumentFitter>(numThreads);
+            int docsPerThread = batch.size() / numThreads;
+            for (int thread = 0; thread < numThreads; thread++) {
+                int startDoc = thread * docsPerThread;
+                int endDoc = thread == numThreads - 1 ? batch.size() : startDoc + docsPerThread;
+                fitters.add(new DocumentFitter(documentTypes, documentCounts, expElogBeta,
+                                               startDoc, endDoc, new Randoms(random.nextInt())));
+            }
+            try {
+                for (Future<Integer> future: executor.invokeAll(fitters)) {
+                    future.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while fitting documents", e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Document fitting thread failed", e.getCause());
+            }
+
+            sufficientStatistics = fitters.get(0).sufficientStatistics;
+            for (int thread = 1; thread < numThreads; thread++) {
+                double[][] statistics = fitters.get(thread).sufficientStatistics;
+                for (int local = 0; local < numLocalTypes; local++) {
+                    for (int topic = 0; topic < numTopics; topic++) {
+                        sufficientStatistics[local][topic] += statistics[local][topic];
+                    }
+                }
+            }
+        }
+
+        // lambda = (1 - rho) lambda + rho (eta + D / |batch| * expElogBeta * statistics).
+        //  Decaying every row is a change to the scale and offset; only the
+        //  rows of words in the batch need the new statistics.
+        double rho = Math.min(1.0, Math.pow(tau0 + numUpdates, -kappa));
+        double documentsPerBatchDocument = (corpusSize > 0 ? corpusSize : numDocumentsSeen) / (double) batch.size();
+
+        if (scale * (1.0 - rho) < 1e-100) {
+            // The scale would underflow (or reach 0 when rho is 1), so decay the stored weights instead
+            rescale();
+        }
+        scale *= 1.0 - rho;
+        offset = (1.0 - rho) * offset + rho * eta;
+        if (scale == 0.0) {
+            // Every lambda is now exactly eta; the batch's statistics are added to that
+            rescale();
+        }
+
+        for (int local = 0; local < numLocalTypes; local++) {
+            double[] weights = typeTopicWeights[ batchTypes[local] ];
+            for (int topic = 0; topic < numTopics; topic++) {
+                double change = rho * documentsPerBatchDocument *
+                    sufficientStatistics[local][topic] * expElogBeta[local][topic] / scale;
+                weights[topic] += change;
+                topicWeightSums[topic] += change;
+            }
+        }
+
+        numUpdates++;
+
+        logger.fine("batch " + numUpdates + ": " + batch.size() + " documents, " + numLocalTypes +
+                    " word types, rho " + rho + ", " + (System.currentTimeMillis() - batchStart) + "ms");
+
+        if (inferencerInterval != 0 && numUpdates % inferencerInterval == 0) {
+            writeInferencer(new File(inferencerFilename + "." + numUpdates));
+        }
+    }
+
+    /** Make sure every type has a row, initializing new rows at random near the current prior. */
+    protected void ensureTypes(int[] types) {
+        @Var
+        int maxType = typeTopicWeights.length - 1;
+        for (int type: types) {
+            if (type > maxType) { maxType = type; }
+        }
+        if (maxType >= typeTopicWeights.length) {
+            typeTopicWeights = Arrays.copyOf(typeTopicWeights, Math.max(maxType + 1, 2 * typeTopicWeights.length));
+        }
+
+        for (int type: types) {
+            if (typeTopicWeights[type] != null) { continue; }
+
+            double[] weights = new double[numTopics];
+            for (int topic = 0; topic < numTopics; topic++) {
+                // lambda starts at a draw from Gamma(100, 0.01), as in the batch algorithm
+                weights[topic] = random.nextGamma(100.0, 0.01) / scale;
+                topicWeightSums[topic] += weights[topic];
+            }
+            typeTopicWeights[type] = weights;
+            numTypesSeen++;
+        }
+    }
+
+    /** Fold the scale and offset into the stored weights before the scale underflows. */
+    protected void rescale() {
+        Arrays.fill(topicWeightSums, 0.0);
+        for (double[] weights: typeTopicWeights) {
+            if (weights == null) { continue; }
+            for (int topic = 0; topic < numTopics; topic++) {
+                weights[topic] = scale * weights[topic] + offset;
+                topicWeightSums[topic] += weights[topic];
+            }
+        }
+        scale = 1.0;
+        offset = 0.0;
+    }
+
+    /** Return <code>lambda</code> for one type and topic, which is 0 for types not yet seen. */
+    public double getTopicWordWeight(int topic, int type) {
+        if (type >= typeTopicWeights.length || typeTopicWeights[type] == null) {
+            return 0.0;
+        }
+        return scale * typeTopicWeights[type][topic] + offset;
+    }
+
+    /**
+     *  Fits the topic proportions of a range of documents in a batch and sums
+     *   <code>exp(E[log theta]) * count / normalizer</code> for every word and topic.
+     */
+    protected class DocumentFitter implements Callable<Integer> {
+
+        int[][] documentTypes;
+        int[][] documentCounts;
+        double[][] expElogBeta;
+        int startDoc, endDoc;
+        Randoms random;
+
+        double[][] sufficientStatistics;
+
+        double[] gamma;
+        double[] lastGamma;
+        double[] expElogTheta;
+        double[] normalizers;
+
+        DocumentFitter(int[][] documentTypes, int[][] documentCounts, double[][] expElogBeta,
+                       int startDoc, int endDoc, Randoms random) {
+            this.documentTypes = documentTypes;
+            this.documentCounts = documentCounts;
+            this.expElogBeta = expElogBeta;
+            this.startDoc = startDoc;
+            this.endDoc = endDoc;
+            this.random = random;
+
+            sufficientStatistics = new double[expElogBeta.length][numTopics];
+            gamma = new double[numTopics];
+            lastGamma = new double[numTopics];
+            expElogTheta = new double[numTopics];
+            normalizers = new double[0];
+        }
+
+        public Integer call() {
+            for (int doc = startDoc; doc < endDoc; doc++) {
+                fitDocument(documentTypes[doc], documentCounts[doc]);
+            }
+            return endDoc - startDoc;
+        }
+
+        void fitDocument(int[] types, int[] counts) {
+            if (normalizers.length < types.length) {
+                normalizers = new double[types.length];
+            }
+
+            for (int topic = 0; topic < numTopics; topic++) {
+                gamma[topic] = random.nextGamma(100.0, 0.01);
+            }
+            computeExpectations(types);
+
+            for (int iteration = 0; iteration < MAX_DOCUMENT_ITERATIONS; iteration++) {
+                System.arraycopy(gamma, 0, lastGamma, 0, numTopics);
+
+                System.arraycopy(alpha, 0, gamma, 0, numTopics);
+                for (int i = 0; i < types.length; i++) {
+                    double[] typeExpElogBeta = expElogBeta[ types[i] ];
+                    double ratio = counts[i] / normalizers[i];
+                    for (int topic = 0; topic < numTopics; topic++) {
+                        gamma[topic] += expElogTheta[topic] * ratio * typeExpElogBeta[topic];
+                    }
+                }
+
+                computeExpectations(types);
+
+                @Var
+                double meanChange = 0.0;
+                for (int topic = 0; topic < numTopics; topic++) {
+                    meanChange += Math.abs(gamma[topic] - lastGamma[topic]);
+                }
+                if (meanChange / numTopics < DOCUMENT_CONVERGENCE) {
+                    break;
+                }
+            }
+
+            for (int i = 0; i < types.length; i++) {
+                double[] statistics = sufficientStatistics[ types[i] ];
+                double ratio = counts[i] / normalizers[i];
+                for (int topic = 0; topic < numTopics; topic++) {
+                    statistics[topic] += expElogTheta[topic] * ratio;
+                }
+            }
+        }
+
+        /** Update exp(E[log theta]) from gamma, and the per-word normalizers from both. */
+        void computeExpectations(int[] types) {
+            @Var
+            double gammaSum = 0.0;
+            for (int topic = 0; topic < numTopics; topic++) {
+                gammaSum += gamma[topic];
+            }
+            double digammaSum = Dirichlet.digamma(gammaSum);
+            for (int topic = 0; topic < numTopics; topic++) {
+                expElogTheta[topic] = Math.exp(Dirichlet.digamma(gamma[topic]) - digammaSum);
+            }
+
+            for (int i = 0; i < types.length; i++) {
+                double[] typeExpElogBeta = expElogBeta[ types[i] ];
+                @Var
+                double normalizer = 1e-100;
+                for (int topic = 0; topic < numTopics; topic++) {
+                    normalizer += expElogTheta[topic] * typeExpElogBeta[topic];
+                }
+                normalizers[i] = normalizer;
+            }
+        }
+    }
+
+    /**
+     *  Return a topic inferencer for the current topics. The expected number of tokens of
+     *   each type in each topic, <code>lambda - eta</code>, is rounded to an integer, and
+     *   scaled down if needed so that the largest count fits the inferencer's packed format.
+     */
+    public TopicInferencer getInferencer() {
+        int numTypes = alphabet.size();
+
+        @Var
+        int topicMask;
+        if (Integer.bitCount(numTopics) == 1) {
+            topicMask = numTopics - 1;
+        }
+        else {
+            topicMask = Integer.highestOneBit(numTopics) * 2 - 1;
+        }
+        int topicBits = Integer.bitCount(topicMask);
+        double maxCount = (1 << (31 - topicBits)) - 1;
+
+        @Var
+        double largest = 0.0;
+        for (int type = 0; type < numTypes; type++) {
+            for (int topic = 0; topic < numTopics; topic++) {
+                largest = Math.max(largest, getTopicWordWeight(topic, type) - eta);
+            }
+        }
+        double countScale = largest > maxCount ? maxCount / largest : 1.0;
+
+        int[][] typeTopicCounts = new int[numTypes][];
+        int[] tokensPerTopic = new int[numTopics];
+        int[] packed = new int[numTopics];
+
+        for (int type = 0; type < numTypes; type++) {
+            @Var
+            int size = 0;
+            for (int topic = 0; topic < numTopics; topic++) {
+                int count = (int) Math.round(countScale * (getTopicWordWeight(topic, type) - eta));
+                if (count > 0) {
+                    packed[size] = (count << topicBits) + topic;
+                    tokensPerTopic[topic] += count;
+                    size++;
+                }
+            }
+
+            // Sort descending by count, as the sampler expects
+            Arrays.sort(packed, 0, size);
+            int[] counts = new int[size];
+            for (int i = 0; i < size; i++) {
+                counts[i] = packed[size - 1 - i];
+            }
+            typeTopicCounts[type] = counts;
+        }
+
+        return new TopicInferencer(typeTopicCounts, tokensPerTopic, alphabet,
+                                   alpha.clone(), eta, eta * numTypes);
+    }
+
+    public void writeInferencer(File file) throws IOException {
+        ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(file));
+        oos.writeObject(getInferencer());
+        oos.close();
+    }
+
+    public String displayTopWords (int numWords) {
+        StringBuilder out = new StringBuilder();
+        int numTypes = Math.min(alphabet.size(), typeTopicWeights.length);
+
+        for (int topic = 0; topic < numTopics; topic++) {
+            IDSorter[] sortedTypes = new IDSorter[numTypes];
+            for (int type = 0; type < numTypes; type++) {
+                sortedTypes[type] = new IDSorter(type, getTopicWordWeight(topic, type));
+            }
+            Arrays.sort(sortedTypes);
+
+            out.append(topic + "\t" + alpha[topic] + "\t");
+            for (int i = 0; i < numWords && i < numTypes; i++) {
+                out.append(alphabet.lookupObject(sortedTypes[i].getID()) + " ");
+            }
+            out.append("\n");
+        }
+        return out.toString();
+    }
+
+    public void printTopWords (PrintStream out, int numWords) {
+        out.print(displayTopWords(numWords));
+    }
+
+    // Serialization
+
+    private static final long serialVersionUID = 1;
+
+    public void write (File f) throws IOException {
+        ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(f));
+        oos.writeObject(this);
+        oos.close();
+    }
+
+    public static OnlineLDA read (File f) throws Exception {
+        ObjectInputStream ois = new ObjectInputStream(new java.io.FileInputStream(f));
+        OnlineLDA model = (OnlineLDA) ois.readObject();
+        ois.close();
+        return model;
+    }
+
+    // Command-line interface
+
+    static CommandOption.String inputFile = new CommandOption.String(OnlineLDA.class, "input", "FILENAME", true, null,
+        "The instance file to read, either an ordinary instance list or a chunked file from --output-chunk-size. " +
+        "Chunked files are read one chunk at a time.", null);
+
+    static CommandOption.String inputModelFilename = new CommandOption.String(OnlineLDA.class, "input-model", "FILENAME", true, null,
+        "Continue training a model written by --output-model.", null);
+
+    static CommandOption.String outputModelFilename = new CommandOption.String(OnlineLDA.class, "output-model", "FILENAME", true, null,
+        "The filename in which to write the model after reading the input.", null);
+
+    static CommandOption.String inferencerFilenameOption = new CommandOption.String(OnlineLDA.class, "inferencer-filename", "FILENAME", true, null,
+        "The filename in which to write a topic inferencer after reading the input.", null);
+
+    static CommandOption.Integer inferencerIntervalOption = new CommandOption.Integer(OnlineLDA.class, "inferencer-interval", "INTEGER", true, 0,
+        "The number of batches between writing inferencer snapshots, with the batch number appended to --inferencer-filename.", null);
+
+    static CommandOption.String topicKeysFile = new CommandOption.String(OnlineLDA.class, "output-topic-keys", "FILENAME", true, null,
+        "The filename in which to write the top words for each topic.", null);
+
+    static CommandOption.Integer numTopWords = new CommandOption.Integer(OnlineLDA.class, "num-top-words", "INTEGER", true, 20,
+        "The number of most probable words to print for each topic.", null);
+
+    static CommandOption.Integer numTopicsOption = new CommandOption.Integer(OnlineLDA.class, "num-topics", "INTEGER", true, 10,
+        "The number of topics to fit.", null);
+
+    static CommandOption.Double alphaOption = new CommandOption.Double(OnlineLDA.class, "alpha", "DECIMAL", true, 5.0,
+        "SumAlpha parameter: sum over topics of smoothing over doc-topic distributions.", null);
+
+    static CommandOption.Double etaOption = new CommandOption.Double(OnlineLDA.class, "eta", "DECIMAL", true, 0.01,
+        "Smoothing over topic-word distributions.", null);
+
+    static CommandOption.Integer batchSizeOption = new CommandOption.Integer(OnlineLDA.class, "batch-size", "INTEGER", true, DEFAULT_BATCH_SIZE,
+        "The number of documents in each update.", null);
+
+    static CommandOption.Double tau0Option = new CommandOption.Double(OnlineLDA.class, "tau0", "DECIMAL", true, DEFAULT_TAU0,
+        "The learning rate after t batches is (tau0 + t)^-kappa.", null);
+
+    static CommandOption.Double kappaOption = new CommandOption.Double(OnlineLDA.class, "kappa", "DECIMAL", true, DEFAULT_KAPPA,
+        "The learning rate after t batches is (tau0 + t)^-kappa.", null);
+
+    static CommandOption.Integer corpusSizeOption = new CommandOption.Integer(OnlineLDA.class, "corpus-size", "INTEGER", true, 0,
+        "The number of documents the topics represent. Default is 0, which uses the number of documents seen so far.", null);
+
+    static CommandOption.Integer numThreadsOption = new CommandOption.Integer(OnlineLDA.class, "num-threads", "INTEGER", true, 1,
+        "The number of threads for fitting the documents in each batch.", null);
+
+    static CommandOption.Integer randomSeedOption = new CommandOption.Integer(OnlineLDA.class, "random-seed", "INTEGER", true, 0,
+        "The random seed. Default is 0, which will use the clock.", null);
+
+    public static void main (String[] args) throws Exception {
+        CommandOption.setSummary(OnlineLDA.class, "Online LDA by stochastic variational inference over a stream of documents");
+        try {
+            CommandOption.process(OnlineLDA.class, args);
+            if (inferencerIntervalOption.value != 0 && inferencerFilenameOption.value == null) {
+                throw new IllegalArgumentException("--inferencer-interval requires --inferencer-filename.");
+            }
+        } catch (IllegalArgumentException e) {
+            logger.warning("");
+            logger.warning(e.getMessage());
+            System.exit(0);
+        }
+
+        @Var
+        OnlineLDA model;
+        if (inputModelFilename.value != null) {
+            model = OnlineLDA.read(new File(inputModelFilename.value));
+        }
+        else {
+            model = new OnlineLDA(numTopicsOption.value, alphaOption.value, etaOption.value);
+        }
+
+        if (randomSeedOption.value != 0) {
+            model.setRandomSeed(randomSeedOption.value);
+        }
+        model.setBatchSize(batchSizeOption.value);
+        model.setLearningRate(tau0Option.value, kappaOption.value);
+        model.setCorpusSize(corpusSizeOption.value);
+        model.setNumThreads(numThreadsOption.value);
+        if (inferencerIntervalOption.value != 0) {
+            model.setInferencerOutput(inferencerIntervalOption.value, inferencerFilenameOption.value);
+        }
+
+        if (inputFile.value != null) {
+            File file = new File(inputFile.value);
+            if (ChunkedInstanceReader.isChunkedFile(file)) {
+                model.train(new ChunkedInstanceReader(file).iterator());
+            }
+            else {
+                model.train(InstanceList.load(file).iterator());
+            }
+        }
+
+        if (topicKeysFile.value != null) {
+            PrintStream out = new PrintStream(new File(topicKeysFile.value));
+            model.printTopWords(out, numTopWords.value);
+            out.close();
+        }
+
+        if (outputModelFilename.value != null) {
+            model.write(new File(outputModelFilename.value));
+        }
+
+        if (inferencerFilenameOption.value != null) {
+            model.writeInferencer(new File(inferencerFilenameOption.value));
+        }
+    }
+}
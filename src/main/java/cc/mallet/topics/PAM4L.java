@@ -10,7 +10,14 @@ information, see the file `LICENSE' included with this distribution. */
 
 import cc.mallet.types.*;
 import cc.mallet.util.Randoms;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.io.*;
 import java.text.NumberFormat;
 
@@ -43,16 +50,8 @@ public class PAM4L {
 	int[][] superTopics; // indexed by <document index, sequence index>
 	int[][] subTopics; // indexed by <document index, sequence index>
 
-	// Per-document state variables
-	int[][] superSubCounts; // # of words per <super, sub>
-	int[] superCounts; // # of words per <super>
-	double[] superWeights; // the component of the Gibbs update that depends on super-topics
-	double[] subWeights;   // the component of the Gibbs update that depends on sub-topics
-	double[][] superSubWeights; // unnormalized sampling distribution
-	double[] cumulativeSuperWeights; // a cache of the cumulative weight for each super-topic
-
 	// Per-word type state variables
-	int[][] typeSubTopicCounts; // indexed by <feature index, topic index>
+	SparseTypeTopicCounts typeSubTopicCounts; // sub-topic counts for each feature index
 	int[] tokensPerSubTopic; // indexed by <topic index>
 
 	// [for debugging purposes]
@@ -62,7 +61,11 @@ public class PAM4L {
 	// Histograms for MLE
 	int[][] superTopicHistograms; // histogram of # of words per supertopic in documents
 	//  eg, [17][4] is # of docs with 4 words in sT 17...
-	int[][][] subTopicHistograms; // for each supertopic, histogram of # of words per subtopic
+	int[][][] subTopicHistograms; // for each supertopic, histogram of # of words per subtopic,
+	//  each only as long as the largest count seen
+
+	int numThreads = 1;
+	PAMWorkerCallable[] workers;
 
 	Runtime runtime;
 	NumberFormat formatter;
@@ -97,6 +100,14 @@ public class PAM4L {
 		runtime = Runtime.getRuntime();
 	}
 
+	/**
+	 * Sample with this many threads. Each thread samples a block of documents
+	 *  against its own copy of the word counts, which are merged after every iteration.
+	 */
+	public void setNumThreads (int threads) {
+		this.numThreads = threads;
+	}
+
 	public void estimate (InstanceList documents, int numIterations, int optimizeInterval, 
 	                      int showTopicsInterval,
 	                      int outputModelInterval, String outputModelFilename,
@@ -108,17 +119,18 @@ public class PAM4L {
 		superTopics = new int[numDocs][];
 		subTopics = new int[numDocs][];
 
-		//		Allocate several arrays for use within each document
-		//		to cut down memory allocation and garbage collection time
+		//		The number of tokens of each type bounds the number of
+		//		sub-topics it can be assigned to
 
-		superSubCounts = new int[numSuperTopics][numSubTopics];
-		superCounts = new int[numSuperTopics];
-		superWeights = new double[numSuperTopics];
-		subWeights = new double[numSubTopics];
-		superSubWeights = new double[numSuperTopics][numSubTopics];
-		cumulativeSuperWeights = new double[numSuperTopics];
+		int[] typeTotals = new int[numTypes];
+		for (int di = 0; di < numDocs; di++) {
+			FeatureSequence fs = (FeatureSequence) ilist.get(di).getData();
+			for (int si = 0; si < fs.getLength(); si++) {
+				typeTotals[ fs.getIndexAtPosition(si) ]++;
+			}
+		}
 
-		typeSubTopicCounts = new int[numTypes][numSubTopics];
+		typeSubTopicCounts = new SparseTypeTopicCounts(numSubTopics, typeTotals);
 		tokensPerSubTopic = new int[numSubTopics];
 		tokensPerSuperTopic = new int[numSuperTopics];
 		tokensPerSuperSubTopic = new int[numSuperTopics][numSubTopics];
@@ -159,7 +171,7 @@ public class PAM4L {
 
 				// For the sub-topic, we also need to update the 
 				//  word type statistics
-				typeSubTopicCounts[ fs.getIndexAtPosition(si) ][subTopic]++;
+				typeSubTopicCounts.increment( fs.getIndexAtPosition(si), subTopic );
 				tokensPerSubTopic[subTopic]++;
 
 				tokensPerSuperSubTopic[superTopic][subTopic]++;
@@ -168,57 +180,82 @@ public class PAM4L {
 
 		System.out.println("max tokens: " + maxTokens);
 
-		//		These will be initialized at the first call to 
-		//		clearHistograms() in the loop below.
+		//		These are cleared by the workers at the start of each iteration.
 
 		superTopicHistograms = new int[numSuperTopics][maxTokens + 1];
-		subTopicHistograms = new int[numSuperTopics][numSubTopics][maxTokens + 1];
-
-		//		Finally, start the sampler!
+		subTopicHistograms = newSubTopicHistograms();
 
-		for (int iterations = 0; iterations < numIterations; iterations++) {
-			long iterationStart = System.currentTimeMillis();
+		ExecutorService executor = null;
+		if (numThreads > 1 && numDocs >= numThreads) {
+			executor = Executors.newFixedThreadPool(numThreads);
+		}
+		createWorkers(executor == null ? 1 : numThreads, r);
 
-			clearHistograms();
-			sampleTopicsForAllDocs (r);
+		//		Finally, start the sampler!
 
-			// There are a few things we do on round-numbered iterations
-			//  that don't make sense if this is the first iteration.
+		try {
+			for (int iterations = 0; iterations < numIterations; iterations++) {
+				long iterationStart = System.currentTimeMillis();
 
-			if (iterations > 0) {
-				if (showTopicsInterval != 0 && iterations % showTopicsInterval == 0) {
-					System.out.println ();
-					printTopWords (5, false);
+				if (executor == null) {
+					workers[0].call();
 				}
-				if (outputModelInterval != 0 && iterations % outputModelInterval == 0) {
-					//this.write (new File(outputModelFilename+'.'+iterations));
+				else {
+					try {
+						for (Future<Integer> future : executor.invokeAll(Arrays.asList(workers))) {
+							future.get();
+						}
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new IllegalStateException("Interrupted while sampling", e);
+					} catch (ExecutionException e) {
+						throw new IllegalStateException("PAM4L sampling thread failed", e.getCause());
+					}
+					mergeWorkerCounts(executor);
 				}
-				if (optimizeInterval != 0 && iterations % optimizeInterval == 0) {
-					long optimizeTime = System.currentTimeMillis();
-					for (superTopic = 0; superTopic < numSuperTopics; superTopic++) {
-						learnParameters(subAlphas[superTopic],
-								subTopicHistograms[superTopic],
-								superTopicHistograms[superTopic]);
-						subAlphaSums[superTopic] = 0.0;
-						for (subTopic = 0; subTopic < numSubTopics; subTopic++) {
-							subAlphaSums[superTopic] += subAlphas[superTopic][subTopic];
+
+				// There are a few things we do on round-numbered iterations
+				//  that don't make sense if this is the first iteration.
+
+				if (iterations > 0) {
+					if (showTopicsInterval != 0 && iterations % showTopicsInterval == 0) {
+						System.out.println ();
+						printTopWords (5, false);
+					}
+					if (outputModelInterval != 0 && iterations % outputModelInterval == 0) {
+						//this.write (new File(outputModelFilename+'.'+iterations));
+					}
+					if (optimizeInterval != 0 && iterations % optimizeInterval == 0) {
+						long optimizeTime = System.currentTimeMillis();
+						for (superTopic = 0; superTopic < numSuperTopics; superTopic++) {
+							learnParameters(subAlphas[superTopic],
+									subTopicHistograms[superTopic],
+									superTopicHistograms[superTopic]);
+							subAlphaSums[superTopic] = 0.0;
+							for (subTopic = 0; subTopic < numSubTopics; subTopic++) {
+								subAlphaSums[superTopic] += subAlphas[superTopic][subTopic];
+							}
 						}
+						System.out.print("[o:" + (System.currentTimeMillis() - optimizeTime) + "]");
 					}
-					System.out.print("[o:" + (System.currentTimeMillis() - optimizeTime) + "]");
 				}
-			}
 
-			if (iterations > 1107) {
-				printWordCounts();
-			}
+				if (iterations > 1107) {
+					printWordCounts();
+				}
 
-			if (iterations % 10 == 0)
-				System.out.println ("<" + iterations + "> ");
+				if (iterations % 10 == 0)
+					System.out.println ("<" + iterations + "> ");
 
-			System.out.print((System.currentTimeMillis() - iterationStart) + " ");
+				System.out.print((System.currentTimeMillis() - iterationStart) + " ");
 
-			//else System.out.print (".");
-			System.out.flush();
+				//else System.out.print (".");
+				System.out.flush();
+			}
+		} finally {
+			if (executor != null) {
+				executor.shutdown();
+			}
 		}
 
 		long seconds = Math.round((System.currentTimeMillis() - startTime)/1000.0);
@@ -238,13 +275,142 @@ public class PAM4L {
 
 	}
 
-	private void clearHistograms() {
+	private int[][][] newSubTopicHistograms() {
+		int[][][] histograms = new int[numSuperTopics][numSubTopics][];
 		for (int superTopic = 0; superTopic < numSuperTopics; superTopic++) {
+			for (int subTopic = 0; subTopic < numSubTopics; subTopic++) {
+				histograms[superTopic][subTopic] = new int[1];
+			}
+		}
+		return histograms;
+	}
+
+	/**
+	 * With one thread, the worker samples against the model's own counts.
+	 *  Otherwise each worker gets a copy of the counts and its own histograms.
+	 */
+	private void createWorkers (int threads, Randoms r) {
+		workers = new PAMWorkerCallable[threads];
+		int docsPerThread = superTopics.length / threads;
+
+		for (int thread = 0; thread < threads; thread++) {
+			int startDoc = thread * docsPerThread;
+			int numDocs = thread == threads - 1 ? superTopics.length - startDoc : docsPerThread;
+
+			if (threads == 1) {
+				workers[thread] = new PAMWorkerCallable(numSuperTopics, numSubTopics,
+						alpha, subAlphas, subAlphaSums, beta, vBeta, r,
+						ilist, superTopics, subTopics,
+						typeSubTopicCounts, tokensPerSubTopic, tokensPerSuperTopic, tokensPerSuperSubTopic,
+						superTopicHistograms, subTopicHistograms,
+						startDoc, numDocs);
+				workers[thread].makeOnlyThread();
+			}
+			else {
+				int[][] superSubCopy = new int[numSuperTopics][];
+				for (int superTopic = 0; superTopic < numSuperTopics; superTopic++) {
+					superSubCopy[superTopic] = tokensPerSuperSubTopic[superTopic].clone();
+				}
+				workers[thread] = new PAMWorkerCallable(numSuperTopics, numSubTopics,
+						alpha, subAlphas, subAlphaSums, beta, vBeta, new Randoms(r.nextInt()),
+						ilist, superTopics, subTopics,
+						new SparseTypeTopicCounts(typeSubTopicCounts),
+						tokensPerSubTopic.clone(), tokensPerSuperTopic.clone(), superSubCopy,
+						new int[numSuperTopics][superTopicHistograms[0].length], newSubTopicHistograms(),
+						startDoc, numDocs);
+			}
+		}
+	}
+
+	/**
+	 * Each worker has rebuilt its counts from its own documents. Sum them
+	 *  into the model's counts, splitting the word types among the threads,
+	 *  then give every worker a copy of the totals for the next iteration.
+	 */
+	private void mergeWorkerCounts (ExecutorService executor) {
+		final int threads = workers.length;
+
+		List<Callable<Object>> mergers = new ArrayList<Callable<Object>>();
+		for (int thread = 0; thread < threads; thread++) {
+			final int firstType = thread;
+			mergers.add(new Callable<Object>() {
+				public Object call() {
+					for (int type = firstType; type < numTypes; type += threads) {
+						typeSubTopicCounts.clearType(type);
+						for (PAMWorkerCallable worker : workers) {
+							typeSubTopicCounts.addType(worker.getTypeSubTopicCounts(), type);
+						}
+						for (PAMWorkerCallable worker : workers) {
+							worker.getTypeSubTopicCounts().copyType(typeSubTopicCounts, type);
+						}
+					}
+					return null;
+				}
+			});
+		}
+		try {
+			for (Future<Object> future : executor.invokeAll(mergers)) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while merging counts", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("PAM4L merge thread failed", e.getCause());
+		}
+
+		Arrays.fill(tokensPerSubTopic, 0);
+		Arrays.fill(tokensPerSuperTopic, 0);
+		for (int superTopic = 0; superTopic < numSuperTopics; superTopic++) {
+			Arrays.fill(tokensPerSuperSubTopic[superTopic], 0);
 			Arrays.fill(superTopicHistograms[superTopic], 0);
 			for (int subTopic = 0; subTopic < numSubTopics; subTopic++) {
 				Arrays.fill(subTopicHistograms[superTopic][subTopic], 0);
 			}
 		}
+
+		for (PAMWorkerCallable worker : workers) {
+			int[] workerSubTotals = worker.getTokensPerSubTopic();
+			for (int subTopic = 0; subTopic < numSubTopics; subTopic++) {
+				tokensPerSubTopic[subTopic] += workerSubTotals[subTopic];
+			}
+			int[] workerSuperTotals = worker.getTokensPerSuperTopic();
+			int[][] workerSuperSubTotals = worker.getTokensPerSuperSubTopic();
+			int[][] workerSuperHistograms = worker.getSuperTopicHistograms();
+			int[][][] workerSubHistograms = worker.getSubTopicHistograms();
+
+			for (int superTopic = 0; superTopic < numSuperTopics; superTopic++) {
+				tokensPerSuperTopic[superTopic] += workerSuperTotals[superTopic];
+				for (int subTopic = 0; subTopic < numSubTopics; subTopic++) {
+					tokensPerSuperSubTopic[superTopic][subTopic] += workerSuperSubTotals[superTopic][subTopic];
+				}
+
+				int[] superHistogram = workerSuperHistograms[superTopic];
+				for (int count = 0; count < superHistogram.length; count++) {
+					superTopicHistograms[superTopic][count] += superHistogram[count];
+				}
+
+				for (int subTopic = 0; subTopic < numSubTopics; subTopic++) {
+					int[] histogram = workerSubHistograms[superTopic][subTopic];
+					if (histogram.length > subTopicHistograms[superTopic][subTopic].length) {
+						subTopicHistograms[superTopic][subTopic] =
+							Arrays.copyOf(subTopicHistograms[superTopic][subTopic], histogram.length);
+					}
+					for (int count = 0; count < histogram.length; count++) {
+						subTopicHistograms[superTopic][subTopic][count] += histogram[count];
+					}
+				}
+			}
+		}
+
+		for (PAMWorkerCallable worker : workers) {
+			System.arraycopy(tokensPerSubTopic, 0, worker.getTokensPerSubTopic(), 0, numSubTopics);
+			System.arraycopy(tokensPerSuperTopic, 0, worker.getTokensPerSuperTopic(), 0, numSuperTopics);
+			for (int superTopic = 0; superTopic < numSuperTopics; superTopic++) {
+				System.arraycopy(tokensPerSuperSubTopic[superTopic], 0,
+								 worker.getTokensPerSuperSubTopic()[superTopic], 0, numSubTopics);
+			}
+		}
 	}
 
 	/** Use the fixed point iteration described by Tom Minka. */
@@ -351,169 +517,6 @@ public class PAM4L {
 		}
 	}
 
-	/* One iteration of Gibbs sampling, across all documents. */
-	private void sampleTopicsForAllDocs (Randoms r)
-	{
-//		Loop over every word in the corpus
-		for (int di = 0; di < superTopics.length; di++) {
-
-			sampleTopicsForOneDoc ((FeatureSequence)ilist.get(di).getData(),
-					superTopics[di], subTopics[di], r);
-		}
-	}
-
-	private void sampleTopicsForOneDoc (FeatureSequence oneDocTokens,
-	                                    int[] superTopics, // indexed by seq position
-	                                    int[] subTopics,
-	                                    Randoms r) {
-
-//		long startTime = System.currentTimeMillis();
-
-		int[] currentTypeSubTopicCounts;
-		int[] currentSuperSubCounts;
-		double[] currentSuperSubWeights;
-		double[] currentSubAlpha;
-
-		int type, subTopic, superTopic;
-		double currentSuperWeight, cumulativeWeight, sample;
-
-		int docLen = oneDocTokens.getLength();
-
-		for (int t = 0; t < numSuperTopics; t++) {
-			Arrays.fill(superSubCounts[t], 0);
-		}
-
-		Arrays.fill(superCounts, 0);
-
-
-//		populate topic counts
-		for (int si = 0; si < docLen; si++) {
-			superSubCounts[ superTopics[si] ][ subTopics[si] ]++;
-			superCounts[ superTopics[si] ]++;
-		}
-
-//		Iterate over the positions (words) in the document
-
-		for (int si = 0; si < docLen; si++) {
-
-			type = oneDocTokens.getIndexAtPosition(si);
-			superTopic = superTopics[si];
-			subTopic = subTopics[si];
-
-			// Remove this token from all counts
-			superSubCounts[superTopic][subTopic]--;
-			superCounts[superTopic]--;
-			typeSubTopicCounts[type][subTopic]--;
-			tokensPerSuperTopic[superTopic]--;
-			tokensPerSubTopic[subTopic]--;
-			tokensPerSuperSubTopic[superTopic][subTopic]--;
-
-			// Build a distribution over super-sub topic pairs 
-			//   for this token
-
-			// Clear the data structures
-			for (int t = 0; t < numSuperTopics; t++) {
-				Arrays.fill(superSubWeights[t], 0.0);
-			}
-			Arrays.fill(superWeights, 0.0);
-			Arrays.fill(subWeights, 0.0);
-			Arrays.fill(cumulativeSuperWeights, 0.0);
-
-			// Avoid two layer (ie [][]) array accesses
-			currentTypeSubTopicCounts = typeSubTopicCounts[type];
-
-			// The conditional probability of each super-sub pair is proportional
-			//  to an expression with three parts, one that depends only on the 
-			//  super-topic, one that depends only on the sub-topic and the word type,
-			//  and one that depends on the super-sub pair.
-
-			// Calculate each of the super-only factors first
-
-			for (superTopic = 0; superTopic < numSuperTopics; superTopic++) {
-				superWeights[superTopic] = ((double) superCounts[superTopic] + alpha[superTopic]) /
-				((double) superCounts[superTopic] + subAlphaSums[superTopic]);
-			}
-
-			// Next calculate the sub-only factors
-
-			for (subTopic = 0; subTopic < numSubTopics; subTopic++) {
-				subWeights[subTopic] = ((double) currentTypeSubTopicCounts[subTopic] + beta) / 
-				((double) tokensPerSubTopic[subTopic] + vBeta);
-			}
-
-			// Finally, put them together
-
-			cumulativeWeight = 0.0;
-
-			for (superTopic = 0; superTopic < numSuperTopics; superTopic++) {
-				currentSuperSubWeights = superSubWeights[superTopic];
-				currentSuperSubCounts = superSubCounts[superTopic];
-				currentSubAlpha = subAlphas[superTopic];
-				currentSuperWeight = superWeights[superTopic];
-
-				for (subTopic = 0; subTopic < numSubTopics; subTopic++) {
-					currentSuperSubWeights[subTopic] =
-						currentSuperWeight *
-						subWeights[subTopic] * 
-						((double) currentSuperSubCounts[subTopic] + currentSubAlpha[subTopic]);
-					cumulativeWeight += currentSuperSubWeights[subTopic];
-				}
-
-				cumulativeSuperWeights[superTopic] = cumulativeWeight;
-			}
-
-			// Sample a topic assignment from this distribution
-			sample = r.nextUniform() * cumulativeWeight;
-
-			// Go over the row sums to find the super-topic...
-			superTopic = 0;
-			while (sample > cumulativeSuperWeights[superTopic]) {
-				superTopic++;
-			}
-
-			// Now read across to find the sub-topic
-			currentSuperSubWeights = superSubWeights[superTopic];
-			cumulativeWeight = cumulativeSuperWeights[superTopic] -
-			currentSuperSubWeights[0];
-
-			// Go over each sub-topic until the weight is LESS than
-			//  the sample. Note that we're subtracting weights
-			//  in the same order we added them...
-			subTopic = 0;
-			while (sample < cumulativeWeight) {
-				subTopic++;
-				cumulativeWeight -= currentSuperSubWeights[subTopic];
-			}
-
-			// Save the choice into the Gibbs state
-
-			superTopics[si] = superTopic;
-			subTopics[si] = subTopic;
-
-			// Put the new super/sub topics into the counts
-
-			superSubCounts[superTopic][subTopic]++;
-			superCounts[superTopic]++;
-			typeSubTopicCounts[type][subTopic]++;
-			tokensPerSuperTopic[superTopic]++;
-			tokensPerSubTopic[subTopic]++;
-			tokensPerSuperSubTopic[superTopic][subTopic]++;
-		}
-
-		//		Update the topic count histograms
-		//		for dirichlet estimation
-
-		for (superTopic = 0; superTopic < numSuperTopics; superTopic++) {
-
-			superTopicHistograms[superTopic][ superCounts[superTopic] ]++;
-			currentSuperSubCounts = superSubCounts[superTopic];
-
-			for (subTopic = 0; subTopic < numSubTopics; subTopic++) {
-				subTopicHistograms[superTopic][subTopic][ currentSuperSubCounts[subTopic] ]++;
-			}
-		}
-	}
-
 	public void printWordCounts () {
 		int subTopic, superTopic;
 
@@ -532,30 +535,28 @@ public class PAM4L {
 
 	public void printTopWords (int numWords, boolean useNewLines) {
 
-		IDSorter[] wp = new IDSorter[numTypes];
-		IDSorter[] sortedSubTopics = new IDSorter[numSubTopics];
+		IDSorter[][] sortedWords = typeSubTopicCounts.getSortedTypes();
+		SubTopicSorter[] sortedSubTopics = new SubTopicSorter[numSubTopics];
 		String[] subTopicTerms = new String[numSubTopics];
 
 		int subTopic, superTopic;
 
 		for (subTopic = 0; subTopic < numSubTopics; subTopic++) {
-			for (int wi = 0; wi < numTypes; wi++)
-				wp[wi] = new IDSorter (wi, (((double) typeSubTopicCounts[wi][subTopic]) /
-						tokensPerSubTopic[subTopic]));
-			Arrays.sort (wp);
+			IDSorter[] wp = sortedWords[subTopic];
+			int limit = Math.min(numWords, wp.length);
 
 			StringBuffer topicTerms = new StringBuffer();
-			for (int i = 0; i < numWords; i++) {
-				topicTerms.append(ilist.getDataAlphabet().lookupObject(wp[i].wi));
+			for (int i = 0; i < limit; i++) {
+				topicTerms.append(ilist.getDataAlphabet().lookupObject(wp[i].getID()));
 				topicTerms.append(" ");
 			}
 			subTopicTerms[subTopic] = topicTerms.toString();
 
 			if (useNewLines) {
 				System.out.println ("\nTopic " + subTopic);
-				for (int i = 0; i < numWords; i++)
-					System.out.println (ilist.getDataAlphabet().lookupObject(wp[i].wi).toString() +
-							"\t" + formatter.format(wp[i].p));
+				for (int i = 0; i < limit; i++)
+					System.out.println (ilist.getDataAlphabet().lookupObject(wp[i].getID()).toString() +
+							"\t" + formatter.format(wp[i].getWeight() / tokensPerSubTopic[subTopic]));
 			} else {
 				System.out.println ("Topic "+ subTopic +":\t[" + tokensPerSubTopic[subTopic] + "]\t" +
 						subTopicTerms[subTopic]);
@@ -567,7 +568,7 @@ public class PAM4L {
 
 		for (superTopic = 0; superTopic < numSuperTopics; superTopic++) {
 			for (subTopic = 0; subTopic < numSubTopics; subTopic++) {
-				sortedSubTopics[subTopic] = new IDSorter(subTopic, subAlphas[superTopic][subTopic]);
+				sortedSubTopics[subTopic] = new SubTopicSorter(subTopic, subAlphas[superTopic][subTopic]);
 			}
 
 			Arrays.sort(sortedSubTopics);
@@ -747,20 +748,22 @@ for (int ti = 0; ti < numTopics; ti++)
 		int numTopWords = args.length > 2 ? Integer.parseInt(args[2]) : 20;
 		int numSuperTopics = args.length > 3 ? Integer.parseInt(args[3]) : 10;
 		int numSubTopics = args.length > 4 ? Integer.parseInt(args[4]) : 10;
+		int numThreads = args.length > 5 ? Integer.parseInt(args[5]) : 1;
 		System.out.println ("Data loaded.");
 		PAM4L pam = new PAM4L (numSuperTopics, numSubTopics);
+		pam.setNumThreads (numThreads);
 		pam.estimate (ilist, numIterations, 50, 0, 50, null, new Randoms());  // should be 1100
 		pam.printTopWords (numTopWords, true);
 //		pam.printDocumentTopics (new File(args[0]+".pam"));
 	}
 
-	class IDSorter implements Comparable {
+	class SubTopicSorter implements Comparable {
 		int wi; double p;
-		public IDSorter (int wi, double p) { this.wi = wi; this.p = p; }
+		public SubTopicSorter (int wi, double p) { this.wi = wi; this.p = p; }
 		public final int compareTo (Object o2) {
-			if (p > ((IDSorter) o2).p)
+			if (p > ((SubTopicSorter) o2).p)
 				return -1;
-			else if (p == ((IDSorter) o2).p)
+			else if (p == ((SubTopicSorter) o2).p)
 				return 0;
 			else return 1;
 		}
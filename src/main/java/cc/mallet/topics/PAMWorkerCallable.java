@@ -0,0 +1,436 @@
+/* Copyright (C) 2005 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package cc.mallet.topics;
+
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+
+import com.google.errorprone.annotations.Var;
+
+import cc.mallet.types.FeatureSequence;
+import cc.mallet.types.InstanceList;
+import cc.mallet.util.Randoms;
+
+/**
+ * A callable task that samples one block of documents for {@link PAM4L}.
+ * <p>
+ * The weight of a super/sub-topic pair for a token of type <code>w</code> is
+ *  <code>W(s) (n(s,z|d) + alpha(s,z)) (n(w,z) + beta) / (n(z) + V beta)</code>,
+ *  where <code>W(s)</code> depends only on the document's super-topic counts.
+ *  As in {@link WorkerCallable}, this splits into three buckets:
+ * <ul>
+ *  <li>a document bucket over the super/sub pairs used in the document,</li>
+ *  <li>a topic-word bucket over the sub-topics with tokens of <code>w</code>, and</li>
+ *  <li>a smoothing-only bucket, kept as one cached sum per super-topic.</li>
+ * </ul>
+ *  so a token costs time proportional to the number of super-topics times the
+ *  number of sub-topics of its type, rather than to all super/sub pairs.
+ * <p>
+ * When the model runs several threads, each worker holds private copies of the
+ *  word and topic counts, which the model merges after each iteration.
+ */
+
+public class PAMWorkerCallable implements Callable<Integer> {
+
+    InstanceList instances;
+    int[][] superTopics; // indexed by <document index, sequence index>
+    int[][] subTopics;
+    int startDoc, numDocs;
+
+    protected int numSuperTopics;
+    protected int numSubTopics;
+
+    protected double[] alpha;
+    protected double[][] subAlphas;
+    protected double[] subAlphaSums;
+    protected double beta;
+    protected double vBeta;
+
+    protected SparseTypeTopicCounts typeSubTopicCounts;
+    protected int[] tokensPerSubTopic;
+    protected int[] tokensPerSuperTopic;
+    protected int[][] tokensPerSuperSubTopic;
+
+    // Histograms for the Dirichlet parameter updates. The sub-topic
+    //  histograms grow as needed, since most pairs have small counts.
+    protected int[][] superTopicHistograms;
+    protected int[][][] subTopicHistograms;
+
+    protected Randoms random;
+    protected boolean shouldBuildLocalCounts = true;
+
+    // Per-document state
+    protected int[][] superSubCounts;
+    protected int[] superCounts;
+    protected double[] superWeights;
+
+    // The super/sub pairs with non-zero counts in the current document,
+    //  encoded as super * numSubTopics + sub, and the position of each pair in that list
+    protected int[] docPairs;
+    protected int numDocPairs;
+    protected int[] docPairPositions;
+    protected double[] docPairScores;
+
+    // Cached values: 1 / (n(z) + V beta), and for each super-topic
+    //  the smoothing-only mass sum_z alpha(s,z) beta / (n(z) + V beta)
+    protected double[] subCoefficients;
+    protected double[] superSmoothing;
+
+    // Reusable working arrays for the current word type
+    protected int[] currentTypeCounts;
+    protected double[] topicWordScores;
+
+    public PAMWorkerCallable (int numSuperTopics, int numSubTopics,
+                              double[] alpha, double[][] subAlphas, double[] subAlphaSums,
+                              double beta, double vBeta,
+                              Randoms random,
+                              InstanceList instances, int[][] superTopics, int[][] subTopics,
+                              SparseTypeTopicCounts typeSubTopicCounts,
+                              int[] tokensPerSubTopic, int[] tokensPerSuperTopic, int[][] tokensPerSuperSubTopic,
+                              int[][] superTopicHistograms, int[][][] subTopicHistograms,
+                              int startDoc, int numDocs) {
+
+        this.numSuperTopics = numSuperTopics;
+        this.numSubTopics = numSubTopics;
+
+        this.alpha = alpha;
+        this.subAlphas = subAlphas;
+        this.subAlphaSums = subAlphaSums;
+        this.beta = beta;
+        this.vBeta = vBeta;
+        this.random = random;
+
+        this.instances = instances;
+        this.superTopics = superTopics;
+        this.subTopics = subTopics;
+
+        this.typeSubTopicCounts = typeSubTopicCounts;
+        this.tokensPerSubTopic = tokensPerSubTopic;
+        this.tokensPerSuperTopic = tokensPerSuperTopic;
+        this.tokensPerSuperSubTopic = tokensPerSuperSubTopic;
+
+        this.superTopicHistograms = superTopicHistograms;
+        this.subTopicHistograms = subTopicHistograms;
+
+        this.startDoc = startDoc;
+        this.numDocs = numDocs;
+
+        superSubCounts = new int[numSuperTopics][numSubTopics];
+        superCounts = new int[numSuperTopics];
+        superWeights = new double[numSuperTopics];
+
+        docPairs = new int[16];
+        docPairPositions = new int[numSuperTopics * numSubTopics];
+        docPairScores = new double[16];
+
+        subCoefficients = new double[numSubTopics];
+        superSmoothing = new double[numSuperTopics];
+
+        currentTypeCounts = new int[numSubTopics];
+        topicWordScores = new double[numSubTopics];
+    }
+
+    /** The only worker shares the model's counts, so it never needs to rebuild them. */
+    public void makeOnlyThread() {
+        shouldBuildLocalCounts = false;
+    }
+
+    public SparseTypeTopicCounts getTypeSubTopicCounts() { return typeSubTopicCounts; }
+    public int[] getTokensPerSubTopic() { return tokensPerSubTopic; }
+    public int[] getTokensPerSuperTopic() { return tokensPerSuperTopic; }
+    public int[][] getTokensPerSuperSubTopic() { return tokensPerSuperSubTopic; }
+    public int[][] getSuperTopicHistograms() { return superTopicHistograms; }
+    public int[][][] getSubTopicHistograms() { return subTopicHistograms; }
+
+    public Integer call () {
+        clearHistograms();
+        initializeSmoothing();
+
+        @Var
+        int tokens = 0;
+        for (int doc = startDoc; doc < superTopics.length && doc < startDoc + numDocs; doc++) {
+            tokens += sampleTopicsForOneDoc((FeatureSequence) instances.get(doc).getData(),
+                                            superTopics[doc], subTopics[doc]);
+        }
+
+        if (shouldBuildLocalCounts) {
+            buildLocalCounts();
+        }
+        return tokens;
+    }
+
+    protected void clearHistograms () {
+        for (int superTopic = 0; superTopic < numSuperTopics; superTopic++) {
+            Arrays.fill(superTopicHistograms[superTopic], 0);
+            for (int subTopic = 0; subTopic < numSubTopics; subTopic++) {
+                Arrays.fill(subTopicHistograms[superTopic][subTopic], 0);
+            }
+        }
+    }
+
+    /** Recalculate the cached coefficients from the current counts and parameters. */
+    protected void initializeSmoothing () {
+        for (int subTopic = 0; subTopic < numSubTopics; subTopic++) {
+            subCoefficients[subTopic] = 1.0 / (tokensPerSubTopic[subTopic] + vBeta);
+        }
+        for (int superTopic = 0; superTopic < numSuperTopics; superTopic++) {
+            double[] currentSubAlpha = subAlphas[superTopic];
+            @Var
+            double sum = 0.0;
+            for (int subTopic = 0; subTopic < numSubTopics; subTopic++) {
+                sum += currentSubAlpha[subTopic] * subCoefficients[subTopic];
+            }
+            superSmoothing[superTopic] = beta * sum;
+        }
+    }
+
+    /** Change the total for one sub-topic, updating the cached coefficients. */
+    protected void changeSubTopicTotal (int subTopic, int change) {
+        tokensPerSubTopic[subTopic] += change;
+        double oldCoefficient = subCoefficients[subTopic];
+        subCoefficients[subTopic] = 1.0 / (tokensPerSubTopic[subTopic] + vBeta);
+        double difference = beta * (subCoefficients[subTopic] - oldCoefficient);
+        for (int superTopic = 0; superTopic < numSuperTopics; superTopic++) {
+            superSmoothing[superTopic] += subAlphas[superTopic][subTopic] * difference;
+        }
+    }
+
+    protected void updateSuperWeight (int superTopic) {
+        superWeights[superTopic] = (superCounts[superTopic] + alpha[superTopic]) /
+            (superCounts[superTopic] + subAlphaSums[superTopic]);
+    }
+
+    protected void addToDocument (int superTopic, int subTopic) {
+        superCounts[superTopic]++;
+        superSubCounts[superTopic][subTopic]++;
+        if (superSubCounts[superTopic][subTopic] == 1) {
+            if (numDocPairs == docPairs.length) {
+                docPairs = Arrays.copyOf(docPairs, 2 * docPairs.length);
+                docPairScores = new double[docPairs.length];
+            }
+            int pair = superTopic * numSubTopics + subTopic;
+            docPairs[numDocPairs] = pair;
+            docPairPositions[pair] = numDocPairs;
+            numDocPairs++;
+        }
+    }
+
+    protected void removeFromDocument (int superTopic, int subTopic) {
+        superCounts[superTopic]--;
+        superSubCounts[superTopic][subTopic]--;
+        if (superSubCounts[superTopic][subTopic] == 0) {
+            int pair = superTopic * numSubTopics + subTopic;
+            int position = docPairPositions[pair];
+            numDocPairs--;
+            docPairs[position] = docPairs[numDocPairs];
+            docPairPositions[ docPairs[position] ] = position;
+        }
+    }
+
+    /** @return the number of tokens sampled */
+    protected int sampleTopicsForOneDoc (FeatureSequence oneDocTokens,
+                                         int[] docSuperTopics, int[] docSubTopics) {
+
+        int docLength = oneDocTokens.getLength();
+
+        for (int position = 0; position < docLength; position++) {
+            addToDocument(docSuperTopics[position], docSubTopics[position]);
+        }
+        for (int superTopic = 0; superTopic < numSuperTopics; superTopic++) {
+            updateSuperWeight(superTopic);
+        }
+
+        for (int position = 0; position < docLength; position++) {
+
+            int type = oneDocTokens.getIndexAtPosition(position);
+            @Var
+            int superTopic = docSuperTopics[position];
+            @Var
+            int subTopic = docSubTopics[position];
+
+            // Remove this token from all counts
+            removeFromDocument(superTopic, subTopic);
+            updateSuperWeight(superTopic);
+            typeSubTopicCounts.decrement(type, subTopic);
+            changeSubTopicTotal(subTopic, -1);
+            tokensPerSuperTopic[superTopic]--;
+            tokensPerSuperSubTopic[superTopic][subTopic]--;
+
+            int[] packedCounts = typeSubTopicCounts.getPackedCounts(type);
+            int topicMask = typeSubTopicCounts.getTopicMask();
+            int topicBits = typeSubTopicCounts.getTopicBits();
+
+            // Topic-word bucket: sub-topics with tokens of this type,
+            //  with every super-topic's prior on that sub-topic
+            @Var
+            double topicWordMass = 0.0;
+            @Var
+            int numTypeTopics = 0;
+            while (numTypeTopics < packedCounts.length && packedCounts[numTypeTopics] > 0) {
+                int topic = packedCounts[numTypeTopics] & topicMask;
+                int count = packedCounts[numTypeTopics] >> topicBits;
+                currentTypeCounts[topic] = count;
+
+                @Var
+                double prior = 0.0;
+                for (int s = 0; s < numSuperTopics; s++) {
+                    prior += superWeights[s] * subAlphas[s][topic];
+                }
+                double score = count * subCoefficients[topic] * prior;
+                topicWordScores[numTypeTopics] = score;
+                topicWordMass += score;
+                numTypeTopics++;
+            }
+
+            // Document bucket: pairs used in this document
+            @Var
+            double documentMass = 0.0;
+            for (int i = 0; i < numDocPairs; i++) {
+                int pair = docPairs[i];
+                int s = pair / numSubTopics;
+                int z = pair - s * numSubTopics;
+                double score = superWeights[s] * superSubCounts[s][z] *
+                    (beta + currentTypeCounts[z]) * subCoefficients[z];
+                docPairScores[i] = score;
+                documentMass += score;
+            }
+
+            // Smoothing-only bucket
+            @Var
+            double smoothingMass = 0.0;
+            for (int s = 0; s < numSuperTopics; s++) {
+                smoothingMass += superWeights[s] * superSmoothing[s];
+            }
+
+            @Var
+            double sample = random.nextUniform() * (documentMass + topicWordMass + smoothingMass);
+
+            if (sample < documentMass) {
+                @Var
+                int i = 0;
+                sample -= docPairScores[i];
+                while (sample > 0.0 && i < numDocPairs - 1) {
+                    i++;
+                    sample -= docPairScores[i];
+                }
+                superTopic = docPairs[i] / numSubTopics;
+                subTopic = docPairs[i] - superTopic * numSubTopics;
+            }
+            else if (sample < documentMass + topicWordMass) {
+                sample -= documentMass;
+
+                @Var
+                int i = 0;
+                sample -= topicWordScores[i];
+                while (sample > 0.0 && i < numTypeTopics - 1) {
+                    i++;
+                    sample -= topicWordScores[i];
+                }
+                subTopic = packedCounts[i] & topicMask;
+
+                // Choose the super-topic in proportion to its weight on this sub-topic
+                @Var
+                double prior = 0.0;
+                for (int s = 0; s < numSuperTopics; s++) {
+                    prior += superWeights[s] * subAlphas[s][subTopic];
+                }
+                @Var
+                double superSample = random.nextUniform() * prior;
+                superTopic = 0;
+                superSample -= superWeights[superTopic] * subAlphas[superTopic][subTopic];
+                while (superSample > 0.0 && superTopic < numSuperTopics - 1) {
+                    superTopic++;
+                    superSample -= superWeights[superTopic] * subAlphas[superTopic][subTopic];
+                }
+            }
+            else {
+                sample -= documentMass + topicWordMass;
+
+                superTopic = 0;
+                sample -= superWeights[superTopic] * superSmoothing[superTopic];
+                while (sample > 0.0 && superTopic < numSuperTopics - 1) {
+                    superTopic++;
+                    sample -= superWeights[superTopic] * superSmoothing[superTopic];
+                }
+
+                double[] currentSubAlpha = subAlphas[superTopic];
+                @Var
+                double subSample = random.nextUniform() * superSmoothing[superTopic];
+                subTopic = 0;
+                subSample -= beta * currentSubAlpha[subTopic] * subCoefficients[subTopic];
+                while (subSample > 0.0 && subTopic < numSubTopics - 1) {
+                    subTopic++;
+                    subSample -= beta * currentSubAlpha[subTopic] * subCoefficients[subTopic];
+                }
+            }
+
+            // Clear the dense copy of this type's counts
+            for (int i = 0; i < numTypeTopics; i++) {
+                currentTypeCounts[ packedCounts[i] & topicMask ] = 0;
+            }
+
+            // Save the choice into the Gibbs state
+            docSuperTopics[position] = superTopic;
+            docSubTopics[position] = subTopic;
+
+            // Put the new super/sub topics into the counts
+            addToDocument(superTopic, subTopic);
+            updateSuperWeight(superTopic);
+            typeSubTopicCounts.increment(type, subTopic);
+            changeSubTopicTotal(subTopic, 1);
+            tokensPerSuperTopic[superTopic]++;
+            tokensPerSuperSubTopic[superTopic][subTopic]++;
+        }
+
+        // Update the topic count histograms for Dirichlet estimation,
+        //  and clear the document counts
+        for (int superTopic = 0; superTopic < numSuperTopics; superTopic++) {
+            superTopicHistograms[superTopic][ superCounts[superTopic] ]++;
+            superCounts[superTopic] = 0;
+        }
+        for (int i = 0; i < numDocPairs; i++) {
+            int pair = docPairs[i];
+            int s = pair / numSubTopics;
+            int z = pair - s * numSubTopics;
+            int count = superSubCounts[s][z];
+            if (count >= subTopicHistograms[s][z].length) {
+                subTopicHistograms[s][z] = Arrays.copyOf(subTopicHistograms[s][z], count + 1);
+            }
+            subTopicHistograms[s][z][count]++;
+            superSubCounts[s][z] = 0;
+        }
+        numDocPairs = 0;
+
+        return docLength;
+    }
+
+    /**
+     *  Once the model has merged every worker's counts, trash this worker's
+     *   copy and rebuild it from the topic assignments of its own documents.
+     */
+    public void buildLocalCounts () {
+        typeSubTopicCounts.clear();
+        Arrays.fill(tokensPerSubTopic, 0);
+        Arrays.fill(tokensPerSuperTopic, 0);
+        for (int[] counts: tokensPerSuperSubTopic) {
+            Arrays.fill(counts, 0);
+        }
+
+        for (int doc = startDoc; doc < superTopics.length && doc < startDoc + numDocs; doc++) {
+            FeatureSequence tokens = (FeatureSequence) instances.get(doc).getData();
+            int[] docSuperTopics = superTopics[doc];
+            int[] docSubTopics = subTopics[doc];
+            for (int position = 0; position < docSuperTopics.length; position++) {
+                typeSubTopicCounts.increment(tokens.getIndexAtPosition(position), docSubTopics[position]);
+                tokensPerSubTopic[ docSubTopics[position] ]++;
+                tokensPerSuperTopic[ docSuperTopics[position] ]++;
+                tokensPerSuperSubTopic[ docSuperTopics[position] ][ docSubTopics[position] ]++;
+            }
+        }
+    }
+}
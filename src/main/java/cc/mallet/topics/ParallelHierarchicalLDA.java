@@ -0,0 +1,1030 @@
+/* Copyright (C) 2005 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package cc.mallet.topics;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.PrintWriter;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.carrotsearch.hppc.IntIntHashMap;
+import com.carrotsearch.hppc.cursors.IntIntCursor;
+import com.google.errorprone.annotations.Var;
+
+import cc.mallet.types.Alphabet;
+import cc.mallet.types.Dirichlet;
+import cc.mallet.types.FeatureSequence;
+import cc.mallet.types.IDSorter;
+import cc.mallet.types.InstanceList;
+import cc.mallet.util.Randoms;
+
+/**
+ * Hierarchical LDA with a nested Chinese restaurant process prior, for large trees.
+ *  This samples the same model as {@link HierarchicalLDA}, with a different engine:
+ * <ul>
+ * <li>Tree nodes are integer indices into parallel arrays rather than objects, and
+ *  each node's word counts are a sparse primitive hash map rather than an array
+ *  the size of the vocabulary.</li>
+ * <li>The log normalizer <code>logGamma(eta * numTypes + totalTokens)</code> of every
+ *  node is cached, so scoring a node against a document only computes logs for the
+ *  document's words that the node has already seen.</li>
+ * <li>With more than one thread, new paths for all documents are sampled in parallel
+ *  against the tree as it was at the start of the iteration, with each document's own
+ *  counts subtracted on the fly. The tree is then updated with every new path at once.
+ *  Two documents that both choose a new branch under the same node get separate
+ *  branches, which a sequential sampler would probably have merged.</li>
+ * </ul>
+ * With one thread, paths are sampled and applied one document at a time, as in
+ *  {@link HierarchicalLDA}. Level assignments are always sampled on one thread.
+ * <p>
+ * The weight of a path includes the likelihood of the document's words at every
+ *  node along it. {@link HierarchicalLDA#calculateWordLikelihood} scores each node
+ *  with the words at its own level only, dropping those of its ancestors, so the two
+ *  samplers do not give identical path distributions.
+ */
+
+public class ParallelHierarchicalLDA implements Serializable {
+
+    InstanceList instances;
+    InstanceList testing;
+
+    int numLevels;
+    int numDocuments;
+    int numTypes;
+
+    double alpha; // smoothing on topic distributions
+    double gamma; // "imaginary" customers at the next, as yet unused table
+    double eta;   // smoothing on word distributions
+    double etaSum;
+
+    int[][] levels; // indexed < doc, token >
+    int[] documentLeaves; // currently selected path (ie leaf node) through the NCRP tree
+
+    // The tree. Nodes are indices into these arrays; removed nodes are
+    //  kept on a free list and reused.
+    static final int NO_NODE = -1;
+    static final int ROOT = 0;
+
+    int numNodes = 0; // the number of allocated node slots, including free ones
+    int[] nodeParent;
+    int[] nodeFirstChild;
+    int[] nodeNextSibling;
+    int[] nodeLevel; // -1 for a node on the free list
+    int[] nodeCustomers;
+    int[] nodeTotalTokens;
+    int[] freeNodes;
+    int numFreeNodes = 0;
+
+    // Word counts and cached log normalizers are rebuilt after deserialization
+    transient IntIntHashMap[] nodeTypeCounts;
+    transient double[] nodeLogNormalizers; // logGamma(etaSum + nodeTotalTokens[node])
+
+    String stateFile = "hlda.state";
+
+    Randoms random;
+
+    boolean showProgress = true;
+
+    int displayTopicsInterval = 50;
+    int numWordsToDisplay = 10;
+
+    int numThreads = 1;
+
+    public ParallelHierarchicalLDA () {
+        alpha = 10.0;
+        gamma = 1.0;
+        eta = 0.1;
+    }
+
+    public void setAlpha(double alpha) {
+        this.alpha = alpha;
+    }
+
+    public void setGamma(double gamma) {
+        this.gamma = gamma;
+    }
+
+    public void setEta(double eta) {
+        this.eta = eta;
+    }
+
+    public void setStateFile(String stateFile) {
+        this.stateFile = stateFile;
+    }
+
+    public void setTopicDisplay(int interval, int words) {
+        displayTopicsInterval = interval;
+        numWordsToDisplay = words;
+    }
+
+    /**
+     *  This parameter determines whether the sampler outputs
+     *   shows progress by outputting a character after every iteration.
+     */
+    public void setProgressDisplay(boolean showProgress) {
+        this.showProgress = showProgress;
+    }
+
+    /** Sample document paths with this many threads. */
+    public void setNumThreads(int numThreads) {
+        this.numThreads = numThreads;
+    }
+
+    public int getNumLevels() { return numLevels; }
+    public int[][] getLevels() { return levels; }
+
+    /** Return the leaf node of every document's path. */
+    public int[] getDocumentLeaves() { return documentLeaves; }
+
+    /** Return the parent of a node, or -1 for the root. */
+    public int getParent(int node) { return nodeParent[node]; }
+    public int getCustomers(int node) { return nodeCustomers[node]; }
+    public int getTotalTokens(int node) { return nodeTotalTokens[node]; }
+    public int getTypeCount(int node, int type) { return nodeTypeCounts[node].get(type); }
+
+    /** Return the number of nodes currently in the tree. */
+    public int getNumNodes() { return numNodes - numFreeNodes; }
+
+    public void initialize(InstanceList instances, InstanceList testing,
+                           int numLevels, Randoms random) {
+        this.instances = instances;
+        this.testing = testing;
+        this.numLevels = numLevels;
+        this.random = random;
+
+        if (! (instances.get(0).getData() instanceof FeatureSequence)) {
+            throw new IllegalArgumentException("Input must be a FeatureSequence, using the --feature-sequence option when impoting data, for example");
+        }
+
+        numDocuments = instances.size();
+        numTypes = instances.getDataAlphabet().size();
+
+        etaSum = eta * numTypes;
+
+        int capacity = 64;
+        nodeParent = new int[capacity];
+        nodeFirstChild = new int[capacity];
+        nodeNextSibling = new int[capacity];
+        nodeLevel = new int[capacity];
+        nodeCustomers = new int[capacity];
+        nodeTotalTokens = new int[capacity];
+        freeNodes = new int[capacity];
+        nodeTypeCounts = new IntIntHashMap[capacity];
+        nodeLogNormalizers = new double[capacity];
+        numNodes = 0;
+        numFreeNodes = 0;
+
+        newNode(NO_NODE);
+
+        levels = new int[numDocuments][];
+        documentLeaves = new int[numDocuments];
+
+        int[] path = new int[numLevels];
+
+        // Draw a path for every document from the NCRP prior,
+        //  and a random level for every token.
+        for (int doc=0; doc < numDocuments; doc++) {
+            FeatureSequence fs = (FeatureSequence) instances.get(doc).getData();
+            int seqLen = fs.getLength();
+
+            path[0] = ROOT;
+            nodeCustomers[ROOT]++;
+            for (int level = 1; level < numLevels; level++) {
+                path[level] = selectChild(path[level-1]);
+                nodeCustomers[ path[level] ]++;
+            }
+
+            levels[doc] = new int[seqLen];
+            documentLeaves[doc] = path[numLevels - 1];
+
+            for (int token=0; token < seqLen; token++) {
+                int type = fs.getIndexAtPosition(token);
+                levels[doc][token] = random.nextInt(numLevels);
+                int node = path[ levels[doc][token] ];
+                nodeTotalTokens[node]++;
+                nodeTypeCounts[node].addTo(type, 1);
+            }
+        }
+    }
+
+    public void estimate(int numIterations) {
+
+        PathSampler[] samplers = null;
+        ExecutorService executor = null;
+        int[] sampledNodes = null;
+
+        if (numThreads > 1 && numDocuments >= numThreads) {
+            sampledNodes = new int[numDocuments];
+            samplers = new PathSampler[numThreads];
+            int docsPerThread = numDocuments / numThreads;
+            for (int thread = 0; thread < numThreads; thread++) {
+                int startDoc = thread * docsPerThread;
+                int endDoc = thread == numThreads - 1 ? numDocuments : startDoc + docsPerThread;
+                samplers[thread] = new PathSampler(new Randoms(random.nextInt()), startDoc, endDoc, sampledNodes);
+            }
+            executor = Executors.newFixedThreadPool(numThreads);
+        }
+
+        PathSampler sampler = new PathSampler(random, 0, numDocuments, null);
+
+        try {
+            for (int iteration = 1; iteration <= numIterations; iteration++) {
+
+                refreshLogNormalizers();
+
+                if (samplers == null) {
+                    for (int doc=0; doc < numDocuments; doc++) {
+                        samplePath(sampler, doc);
+                    }
+                }
+                else {
+                    for (Future<Integer> future: executor.invokeAll(Arrays.asList(samplers))) {
+                        future.get();
+                    }
+                    applySampledPaths(sampledNodes);
+                }
+
+                for (int doc=0; doc < numDocuments; doc++) {
+                    sampleTopics(doc);
+                }
+
+                if (showProgress) {
+                    System.out.print(".");
+                    if (iteration % 50 == 0) {
+                        System.out.println(" " + iteration);
+                    }
+                }
+
+                if (displayTopicsInterval != 0 && iteration % displayTopicsInterval == 0) {
+                    printNodes();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while sampling paths", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Path sampling thread failed", e.getCause());
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    /** Resample the path of one document and update the tree immediately. */
+    public void samplePath(int doc) {
+        refreshLogNormalizers();
+        samplePath(new PathSampler(random, doc, doc + 1, null), doc);
+    }
+
+    void samplePath(PathSampler sampler, int doc) {
+        sampler.collectLevelCounts(doc);
+
+        // Take the document out of the tree, then score every node without it
+        int oldLeaf = documentLeaves[doc];
+        moveCounts(sampler, oldLeaf, -1);
+        dropPath(oldLeaf);
+
+        int node = sampler.sampleNode(null);
+        int leaf = addPath(node);
+        documentLeaves[doc] = leaf;
+        moveCounts(sampler, leaf, 1);
+    }
+
+    /**
+     *  Apply the paths chosen by the parallel samplers. New paths are added before
+     *   old ones are dropped, so that no node chosen by one document is removed
+     *   because another document left it in the same iteration.
+     */
+    void applySampledPaths(int[] sampledNodes) {
+        PathSampler counter = new PathSampler(random, 0, 0, null);
+        int[] oldLeaves = documentLeaves.clone();
+
+        for (int doc=0; doc < numDocuments; doc++) {
+            if (sampledNodes[doc] == oldLeaves[doc]) { continue; }
+            counter.collectLevelCounts(doc);
+            int leaf = addPath(sampledNodes[doc]);
+            documentLeaves[doc] = leaf;
+            moveCounts(counter, leaf, 1);
+        }
+
+        for (int doc=0; doc < numDocuments; doc++) {
+            if (sampledNodes[doc] == oldLeaves[doc]) { continue; }
+            counter.collectLevelCounts(doc);
+            moveCounts(counter, oldLeaves[doc], -1);
+            dropPath(oldLeaves[doc]);
+        }
+    }
+
+    /** Add (sign 1) or remove (sign -1) the word counts collected by a sampler along the path ending at a leaf. */
+    void moveCounts(PathSampler sampler, int leaf, int sign) {
+        @Var
+        int node = leaf;
+        for (int level = numLevels - 1; level >= 0; level--) {
+            IntIntHashMap typeCounts = nodeTypeCounts[node];
+            int[] types = sampler.levelTypes[level];
+            int[] counts = sampler.levelTypeCounts[level];
+            for (int i = 0; i < sampler.levelSizes[level]; i++) {
+                int updated = typeCounts.addTo(types[i], sign * counts[i]);
+                assert(updated >= 0);
+                if (updated == 0) {
+                    typeCounts.remove(types[i]);
+                }
+            }
+            nodeTotalTokens[node] += sign * sampler.levelTotals[level];
+            nodeLogNormalizers[node] = Dirichlet.logGamma(etaSum + nodeTotalTokens[node]);
+            node = nodeParent[node];
+        }
+    }
+
+    public void sampleTopics(int doc) {
+        FeatureSequence fs = (FeatureSequence) instances.get(doc).getData();
+        int seqLen = fs.getLength();
+        int[] docLevels = levels[doc];
+        int[] path = new int[numLevels];
+        IntIntHashMap[] pathTypeCounts = new IntIntHashMap[numLevels];
+        int[] levelCounts = new int[numLevels];
+        double[] levelWeights = new double[numLevels];
+
+        // Get the leaf
+        @Var
+        int node = documentLeaves[doc];
+        for (int level = numLevels - 1; level >= 0; level--) {
+            path[level] = node;
+            pathTypeCounts[level] = nodeTypeCounts[node];
+            node = nodeParent[node];
+        }
+
+        // Initialize level counts
+        for (int token = 0; token < seqLen; token++) {
+            levelCounts[ docLevels[token] ]++;
+        }
+
+        for (int token = 0; token < seqLen; token++) {
+            int type = fs.getIndexAtPosition(token);
+            int oldLevel = docLevels[token];
+
+            levelCounts[oldLevel]--;
+            pathTypeCounts[oldLevel].addTo(type, -1);
+            nodeTotalTokens[ path[oldLevel] ]--;
+
+            @Var
+            double sum = 0.0;
+            for (int level=0; level < numLevels; level++) {
+                levelWeights[level] =
+                    (alpha + levelCounts[level]) *
+                    (eta + pathTypeCounts[level].get(type)) /
+                    (etaSum + nodeTotalTokens[ path[level] ]);
+                sum += levelWeights[level];
+            }
+
+            @Var
+            double sample = random.nextUniform() * sum;
+            @Var
+            int newLevel = -1;
+            while (sample > 0.0 && newLevel < numLevels - 1) {
+                newLevel++;
+                sample -= levelWeights[newLevel];
+            }
+            if (newLevel == -1) { newLevel = 0; }
+
+            if (newLevel != oldLevel && pathTypeCounts[oldLevel].get(type) == 0) {
+                pathTypeCounts[oldLevel].remove(type);
+            }
+
+            docLevels[token] = newLevel;
+            levelCounts[newLevel]++;
+            pathTypeCounts[newLevel].addTo(type, 1);
+            nodeTotalTokens[ path[newLevel] ]++;
+        }
+    }
+
+    //
+    // Tree operations
+    //
+
+    /** Allocate a node, reusing a removed one if possible, and attach it to a parent. */
+    int newNode(int parent) {
+        @Var
+        int node;
+        if (numFreeNodes > 0) {
+            numFreeNodes--;
+            node = freeNodes[numFreeNodes];
+        }
+        else {
+            if (numNodes == nodeParent.length) {
+                growNodes(2 * numNodes);
+            }
+            node = numNodes;
+            numNodes++;
+        }
+
+        nodeParent[node] = parent;
+        nodeFirstChild[node] = NO_NODE;
+        nodeCustomers[node] = 0;
+        nodeTotalTokens[node] = 0;
+        nodeLogNormalizers[node] = Dirichlet.logGamma(etaSum);
+        if (nodeTypeCounts[node] == null) {
+            nodeTypeCounts[node] = new IntIntHashMap();
+        }
+        else {
+            nodeTypeCounts[node].clear();
+        }
+
+        if (parent == NO_NODE) {
+            nodeLevel[node] = 0;
+            nodeNextSibling[node] = NO_NODE;
+        }
+        else {
+            nodeLevel[node] = nodeLevel[parent] + 1;
+            nodeNextSibling[node] = nodeFirstChild[parent];
+            nodeFirstChild[parent] = node;
+        }
+        return node;
+    }
+
+    void growNodes(int capacity) {
+        nodeParent = Arrays.copyOf(nodeParent, capacity);
+        nodeFirstChild = Arrays.copyOf(nodeFirstChild, capacity);
+        nodeNextSibling = Arrays.copyOf(nodeNextSibling, capacity);
+        nodeLevel = Arrays.copyOf(nodeLevel, capacity);
+        nodeCustomers = Arrays.copyOf(nodeCustomers, capacity);
+        nodeTotalTokens = Arrays.copyOf(nodeTotalTokens, capacity);
+        freeNodes = Arrays.copyOf(freeNodes, capacity);
+        nodeTypeCounts = Arrays.copyOf(nodeTypeCounts, capacity);
+        nodeLogNormalizers = Arrays.copyOf(nodeLogNormalizers, capacity);
+    }
+
+    /** Detach a node with no customers from its parent and put it on the free list. */
+    void removeNode(int node) {
+        int parent = nodeParent[node];
+        if (nodeFirstChild[parent] == node) {
+            nodeFirstChild[parent] = nodeNextSibling[node];
+        }
+        else {
+            @Var
+            int sibling = nodeFirstChild[parent];
+            while (nodeNextSibling[sibling] != node) {
+                sibling = nodeNextSibling[sibling];
+            }
+            nodeNextSibling[sibling] = nodeNextSibling[node];
+        }
+        nodeLevel[node] = -1;
+        freeNodes[numFreeNodes] = node;
+        numFreeNodes++;
+    }
+
+    /** Remove one customer from every node on the path ending at a leaf, removing empty nodes. */
+    void dropPath(int leaf) {
+        @Var
+        int node = leaf;
+        while (node != NO_NODE) {
+            int parent = nodeParent[node];
+            nodeCustomers[node]--;
+            if (nodeCustomers[node] == 0 && parent != NO_NODE) {
+                removeNode(node);
+            }
+            node = parent;
+        }
+    }
+
+    /**
+     *  Add one customer to every node on the path through a node. If the node is
+     *   not a leaf, a new branch is grown below it.
+     *  @return the leaf of the new path
+     */
+    int addPath(int node) {
+        @Var
+        int leaf = node;
+        while (nodeLevel[leaf] < numLevels - 1) {
+            leaf = newNode(leaf);
+        }
+
+        @Var
+        int current = leaf;
+        while (current != NO_NODE) {
+            nodeCustomers[current]++;
+            current = nodeParent[current];
+        }
+        return leaf;
+    }
+
+    /** Choose a child of a node from the CRP prior, possibly a new one. */
+    int selectChild(int parent) {
+        @Var
+        double sample = random.nextUniform() * (gamma + nodeCustomers[parent]);
+        sample -= gamma;
+        if (sample <= 0.0) {
+            return newNode(parent);
+        }
+        for (int child = nodeFirstChild[parent]; child != NO_NODE; child = nodeNextSibling[child]) {
+            sample -= nodeCustomers[child];
+            if (sample <= 0.0) {
+                return child;
+            }
+        }
+        return newNode(parent);
+    }
+
+    /** Choose an existing child of a node in proportion to its customers. */
+    int selectExistingChild(int parent, Randoms random) {
+        @Var
+        int total = 0;
+        for (int child = nodeFirstChild[parent]; child != NO_NODE; child = nodeNextSibling[child]) {
+            total += nodeCustomers[child];
+        }
+        @Var
+        double sample = random.nextUniform() * total;
+        @Var
+        int chosen = nodeFirstChild[parent];
+        for (int child = nodeFirstChild[parent]; child != NO_NODE; child = nodeNextSibling[child]) {
+            chosen = child;
+            sample -= nodeCustomers[child];
+            if (sample <= 0.0) {
+                break;
+            }
+        }
+        return chosen;
+    }
+
+    void refreshLogNormalizers() {
+        for (int node = 0; node < numNodes; node++) {
+            if (nodeLevel[node] >= 0) {
+                nodeLogNormalizers[node] = Dirichlet.logGamma(etaSum + nodeTotalTokens[node]);
+            }
+        }
+    }
+
+    /** <code>logGamma(z + n) - logGamma(z)</code>, without the gamma functions for the common case n = 1. */
+    static double logGammaRatio(double z, int n) {
+        if (n == 1) {
+            return Math.log(z);
+        }
+        return Dirichlet.logGamma(z + n) - Dirichlet.logGamma(z);
+    }
+
+    /**
+     *  Samples new paths for a block of documents. Each sampler has its own
+     *   random stream and scratch space, and only reads the tree.
+     */
+    class PathSampler implements Callable<Integer> {
+
+        Randoms random;
+        int startDoc, endDoc;
+        int[] sampledNodes;
+
+        // The distinct word types of the current document at each level, with their counts
+        int[][] levelTypes;
+        int[][] levelTypeCounts;
+        int[] levelSizes;
+        int[] levelTotals;
+        double[][] levelZeroTerms; // logGammaRatio(eta, count) for each type
+        int[] typeSlots; // indexed by type, 0 if the type has not been seen at the current level
+
+        // Scratch space for the tree walk and candidate nodes
+        int[] stack;
+        double[] stackPriors;
+        double[] stackWords;
+        int[] candidates;
+        double[] candidateWeights;
+
+        double[] newTopicWeights; // the word weight of a new node at each level
+        double[] newBranchWeights; // the sum of newTopicWeights below each level
+        int[] currentPath;
+
+        PathSampler(Randoms random, int startDoc, int endDoc, int[] sampledNodes) {
+            this.random = random;
+            this.startDoc = startDoc;
+            this.endDoc = endDoc;
+            this.sampledNodes = sampledNodes;
+
+            levelTypes = new int[numLevels][16];
+            levelTypeCounts = new int[numLevels][16];
+            levelZeroTerms = new double[numLevels][16];
+            levelSizes = new int[numLevels];
+            levelTotals = new int[numLevels];
+            typeSlots = new int[numTypes];
+
+            stack = new int[64];
+            stackPriors = new double[64];
+            stackWords = new double[64];
+            candidates = new int[64];
+            candidateWeights = new double[64];
+
+            newTopicWeights = new double[numLevels];
+            newBranchWeights = new double[numLevels];
+            currentPath = new int[numLevels];
+        }
+
+        public Integer call() {
+            for (int doc = startDoc; doc < endDoc; doc++) {
+                collectLevelCounts(doc);
+
+                @Var
+                int node = documentLeaves[doc];
+                for (int level = numLevels - 1; level >= 0; level--) {
+                    currentPath[level] = node;
+                    node = nodeParent[node];
+                }
+
+                sampledNodes[doc] = sampleNode(currentPath);
+            }
+            return endDoc - startDoc;
+        }
+
+        /** Gather the distinct word types of a document at each level, with their counts. */
+        void collectLevelCounts(int doc) {
+            FeatureSequence fs = (FeatureSequence) instances.get(doc).getData();
+            int[] docLevels = levels[doc];
+
+            Arrays.fill(levelSizes, 0);
+            Arrays.fill(levelTotals, 0);
+
+            for (int level = 0; level < numLevels; level++) {
+                @Var
+                int size = 0;
+                for (int token = 0; token < docLevels.length; token++) {
+                    if (docLevels[token] != level) { continue; }
+                    int type = fs.getIndexAtPosition(token);
+                    if (typeSlots[type] == 0) {
+                        if (size == levelTypes[level].length) {
+                            levelTypes[level] = Arrays.copyOf(levelTypes[level], 2 * size);
+                            levelTypeCounts[level] = Arrays.copyOf(levelTypeCounts[level], 2 * size);
+                            levelZeroTerms[level] = Arrays.copyOf(levelZeroTerms[level], 2 * size);
+                        }
+                        levelTypes[level][size] = type;
+                        levelTypeCounts[level][size] = 0;
+                        size++;
+                        typeSlots[type] = size;
+                    }
+                    levelTypeCounts[level][ typeSlots[type] - 1 ]++;
+                    levelTotals[level]++;
+                }
+
+                for (int i = 0; i < size; i++) {
+                    typeSlots[ levelTypes[level][i] ] = 0;
+                }
+                levelSizes[level] = size;
+            }
+        }
+
+        /**
+         *  Score every node of the tree for the current document and sample one.
+         *   If <code>excludedPath</code> is not null, the document is still in the
+         *   tree on that path, and its customer and word counts are subtracted
+         *   from those nodes.
+         */
+        int sampleNode(int[] excludedPath) {
+
+            // The word weight for a new node at each level, and for a new branch below each level
+            double logGammaEtaSum = Dirichlet.logGamma(etaSum);
+            for (int level = 0; level < numLevels; level++) {
+                @Var
+                double zeroTotal = 0.0;
+                for (int i = 0; i < levelSizes[level]; i++) {
+                    levelZeroTerms[level][i] = logGammaRatio(eta, levelTypeCounts[level][i]);
+                    zeroTotal += levelZeroTerms[level][i];
+                }
+                newTopicWeights[level] = zeroTotal -
+                    (Dirichlet.logGamma(etaSum + levelTotals[level]) - logGammaEtaSum);
+            }
+            @Var
+            double below = 0.0;
+            for (int level = numLevels - 1; level >= 0; level--) {
+                newBranchWeights[level] = below;
+                below += newTopicWeights[level];
+            }
+
+            @Var
+            int numCandidates = 0;
+            @Var
+            int stackSize = 0;
+
+            stack[0] = ROOT;
+            stackPriors[0] = 0.0;
+            stackWords[0] = 0.0;
+            stackSize++;
+
+            while (stackSize > 0) {
+                stackSize--;
+                int node = stack[stackSize];
+                double prior = stackPriors[stackSize];
+                double words = stackWords[stackSize] + wordWeight(node, excludedPath);
+                int level = nodeLevel[node];
+                int customers = customers(node, excludedPath);
+
+                if (numCandidates == candidates.length) {
+                    candidates = Arrays.copyOf(candidates, 2 * numCandidates);
+                    candidateWeights = Arrays.copyOf(candidateWeights, 2 * numCandidates);
+                }
+                candidates[numCandidates] = node;
+                candidateWeights[numCandidates] = prior + Math.log(gamma / (customers + gamma)) +
+                    words + newBranchWeights[level];
+                numCandidates++;
+
+                for (int child = nodeFirstChild[node]; child != NO_NODE; child = nodeNextSibling[child]) {
+                    int childCustomers = customers(child, excludedPath);
+                    if (childCustomers == 0) { continue; }
+
+                    if (stackSize == stack.length) {
+                        stack = Arrays.copyOf(stack, 2 * stackSize);
+                        stackPriors = Arrays.copyOf(stackPriors, 2 * stackSize);
+                        stackWords = Arrays.copyOf(stackWords, 2 * stackSize);
+                    }
+                    stack[stackSize] = child;
+                    stackPriors[stackSize] = prior + Math.log((double) childCustomers / (customers + gamma));
+                    stackWords[stackSize] = words;
+                    stackSize++;
+                }
+            }
+
+            // To avoid underflow, normalize so that the largest weight is 1
+            @Var
+            double max = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < numCandidates; i++) {
+                if (candidateWeights[i] > max) { max = candidateWeights[i]; }
+            }
+            @Var
+            double sum = 0.0;
+            for (int i = 0; i < numCandidates; i++) {
+                candidateWeights[i] = Math.exp(candidateWeights[i] - max);
+                sum += candidateWeights[i];
+            }
+
+            @Var
+            double sample = random.nextUniform() * sum;
+            for (int i = 0; i < numCandidates; i++) {
+                sample -= candidateWeights[i];
+                if (sample <= 0.0) {
+                    return candidates[i];
+                }
+            }
+            return candidates[numCandidates - 1];
+        }
+
+        int customers(int node, int[] excludedPath) {
+            if (excludedPath != null && excludedPath[ nodeLevel[node] ] == node) {
+                return nodeCustomers[node] - 1;
+            }
+            return nodeCustomers[node];
+        }
+
+        /** The log probability of the document's words at this node's level, given the node's other words. */
+        double wordWeight(int node, int[] excludedPath) {
+            int level = nodeLevel[node];
+            int size = levelSizes[level];
+            if (size == 0) { return 0.0; }
+
+            boolean excluded = excludedPath != null && excludedPath[level] == node;
+            IntIntHashMap typeCounts = nodeTypeCounts[node];
+            int[] types = levelTypes[level];
+            int[] counts = levelTypeCounts[level];
+            double[] zeroTerms = levelZeroTerms[level];
+
+            @Var
+            double weight = 0.0;
+            for (int i = 0; i < size; i++) {
+                @Var
+                int count = typeCounts.get(types[i]);
+                if (excluded) { count -= counts[i]; }
+                weight += count == 0 ? zeroTerms[i] : logGammaRatio(eta + count, counts[i]);
+            }
+
+            if (excluded) {
+                double total = etaSum + nodeTotalTokens[node] - levelTotals[level];
+                return weight - (Dirichlet.logGamma(total + levelTotals[level]) - Dirichlet.logGamma(total));
+            }
+            return weight -
+                (Dirichlet.logGamma(etaSum + nodeTotalTokens[node] + levelTotals[level]) - nodeLogNormalizers[node]);
+        }
+    }
+
+    /**
+     *  Writes the current sampling state to the file specified in <code>stateFile</code>.
+     */
+    public void printState() throws IOException, FileNotFoundException {
+        PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(stateFile)));
+        printState(out);
+        out.close();
+    }
+
+    /**
+     *  Write a text file describing the current sampling state, in the format
+     *   of {@link HierarchicalLDA#printState(PrintWriter)}.
+     */
+    public void printState(PrintWriter out) throws IOException {
+        Alphabet alphabet = instances.getDataAlphabet();
+
+        for (int doc = 0; doc < numDocuments; doc++) {
+            FeatureSequence fs = (FeatureSequence) instances.get(doc).getData();
+            int[] docLevels = levels[doc];
+
+            StringBuilder path = new StringBuilder();
+
+            // Start with the leaf, and build a string describing the path for this doc
+            @Var
+            int node = documentLeaves[doc];
+            for (int level = numLevels - 1; level >= 0; level--) {
+                path.append(node + " ");
+                node = nodeParent[node];
+            }
+
+            for (int token = 0; token < fs.getLength(); token++) {
+                int type = fs.getIndexAtPosition(token);
+                out.println(path + "" + type + " " + alphabet.lookupObject(type) + " " + docLevels[token] + " ");
+            }
+        }
+        out.flush();
+    }
+
+    public void printNodes() {
+        printNode(ROOT, 0, false);
+    }
+
+    public void printNodes(boolean withWeight) {
+        printNode(ROOT, 0, withWeight);
+    }
+
+    public void printNode(int node, int indent, boolean withWeight) {
+        StringBuilder out = new StringBuilder();
+        for (int i=0; i<indent; i++) {
+            out.append("  ");
+        }
+
+        out.append(nodeTotalTokens[node] + "/" + nodeCustomers[node] + " ");
+        out.append(getTopWords(node, numWordsToDisplay, withWeight));
+        System.out.println(out);
+
+        for (int child = nodeFirstChild[node]; child != NO_NODE; child = nodeNextSibling[child]) {
+            printNode(child, indent + 1, withWeight);
+        }
+    }
+
+    public String getTopWords(int node, int numWords, boolean withWeight) {
+        IntIntHashMap typeCounts = nodeTypeCounts[node];
+        IDSorter[] sortedTypes = new IDSorter[typeCounts.size()];
+        @Var
+        int i = 0;
+        for (IntIntCursor keyVal: typeCounts) {
+            sortedTypes[i] = new IDSorter(keyVal.key, keyVal.value);
+            i++;
+        }
+        Arrays.sort(sortedTypes);
+
+        Alphabet alphabet = instances.getDataAlphabet();
+        StringBuilder out = new StringBuilder();
+        for (int rank = 0; rank < numWords && rank < i; rank++) {
+            out.append(alphabet.lookupObject(sortedTypes[rank].getID()));
+            if (withWeight) {
+                out.append(":" + sortedTypes[rank].getWeight());
+            }
+            out.append(" ");
+        }
+        return out.toString();
+    }
+
+    /** For use with empirical likelihood evaluation:
+     *   sample a path through the tree, then sample a multinomial over
+     *   topics in that path, then return a weighted sum of words.
+     */
+    public double empiricalLikelihood(int numSamples, InstanceList testing)  {
+        int[] path = new int[numLevels];
+        path[0] = ROOT;
+
+        Dirichlet dirichlet = new Dirichlet(numLevels, alpha);
+        double[] multinomial = new double[numTypes];
+
+        double[][] likelihoods = new double[ testing.size() ][ numSamples ];
+
+        for (int sample = 0; sample < numSamples; sample++) {
+
+            for (int level = 1; level < numLevels; level++) {
+                path[level] = selectExistingChild(path[level-1], random);
+            }
+
+            double[] levelWeights = dirichlet.nextDistribution();
+
+            // Every word gets the smoothing mass, then the words each node has seen get their counts
+            @Var
+            double smoothing = 0.0;
+            for (int level = 0; level < numLevels; level++) {
+                smoothing += levelWeights[level] * eta / (etaSum + nodeTotalTokens[ path[level] ]);
+            }
+            Arrays.fill(multinomial, smoothing);
+
+            for (int level = 0; level < numLevels; level++) {
+                int node = path[level];
+                double scale = levelWeights[level] / (etaSum + nodeTotalTokens[node]);
+                IntIntHashMap typeCounts = nodeTypeCounts[node];
+                for (IntIntCursor keyVal: typeCounts) {
+                    multinomial[keyVal.key] += scale * keyVal.value;
+                }
+            }
+
+            for (int type = 0; type < numTypes; type++) {
+                multinomial[type] = Math.log(multinomial[type]);
+            }
+
+            for (int doc=0; doc<testing.size(); doc++) {
+                FeatureSequence fs = (FeatureSequence) testing.get(doc).getData();
+                for (int token = 0; token < fs.getLength(); token++) {
+                    likelihoods[doc][sample] += multinomial[ fs.getIndexAtPosition(token) ];
+                }
+            }
+        }
+
+        @Var
+        double averageLogLikelihood = 0.0;
+        double logNumSamples = Math.log(numSamples);
+        for (int doc=0; doc<testing.size(); doc++) {
+            @Var
+            double max = Double.NEGATIVE_INFINITY;
+            for (int sample = 0; sample < numSamples; sample++) {
+                if (likelihoods[doc][sample] > max) {
+                    max = likelihoods[doc][sample];
+                }
+            }
+
+            @Var
+            double sum = 0.0;
+            for (int sample = 0; sample < numSamples; sample++) {
+                sum += Math.exp(likelihoods[doc][sample] - max);
+            }
+
+            averageLogLikelihood += Math.log(sum) + max - logNumSamples;
+        }
+
+        return averageLogLikelihood;
+    }
+
+    /** Rebuild the word counts of every node from the documents' paths and levels. */
+    void buildTypeCounts() {
+        nodeTypeCounts = new IntIntHashMap[nodeParent.length];
+        nodeLogNormalizers = new double[nodeParent.length];
+        for (int node = 0; node < numNodes; node++) {
+            nodeTypeCounts[node] = new IntIntHashMap();
+        }
+
+        int[] path = new int[numLevels];
+        for (int doc = 0; doc < numDocuments; doc++) {
+            @Var
+            int node = documentLeaves[doc];
+            for (int level = numLevels - 1; level >= 0; level--) {
+                path[level] = node;
+                node = nodeParent[node];
+            }
+
+            FeatureSequence fs = (FeatureSequence) instances.get(doc).getData();
+            for (int token = 0; token < fs.getLength(); token++) {
+                nodeTypeCounts[ path[ levels[doc][token] ] ].addTo(fs.getIndexAtPosition(token), 1);
+            }
+        }
+
+        refreshLogNormalizers();
+    }
+
+    // Serialization
+
+    private static final long serialVersionUID = 1;
+
+    private void readObject (ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        buildTypeCounts();
+    }
+
+    public void write (File serializedModelFile) {
+        try {
+            ObjectOutputStream oos = new ObjectOutputStream (new FileOutputStream(serializedModelFile));
+            oos.writeObject(this);
+            oos.close();
+        } catch (IOException e) {
+            System.err.println("Problem serializing ParallelHierarchicalLDA to file " +
+                               serializedModelFile + ": " + e);
+        }
+    }
+
+    public static ParallelHierarchicalLDA read (File f) throws Exception {
+        ObjectInputStream ois = new ObjectInputStream (new FileInputStream(f));
+        ParallelHierarchicalLDA topicModel = (ParallelHierarchicalLDA) ois.readObject();
+        ois.close();
+        return topicModel;
+    }
+}
@@ -0,0 +1,557 @@
+/* Copyright (C) 2005 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package cc.mallet.topics;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.PrintStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+
+import com.google.errorprone.annotations.Var;
+
+import cc.mallet.types.Alphabet;
+import cc.mallet.types.AlphabetFactory;
+import cc.mallet.types.FeatureSequence;
+import cc.mallet.types.IDSorter;
+import cc.mallet.types.Instance;
+import cc.mallet.types.InstanceList;
+import cc.mallet.types.LabelAlphabet;
+import cc.mallet.types.LabelSequence;
+import cc.mallet.util.CommandOption;
+import cc.mallet.util.MalletLogger;
+import cc.mallet.util.Randoms;
+
+/**
+ * The non-parametric topic model of {@link NPTopicModel}, with the "minimal path"
+ *  approximation to the hierarchical Dirichlet process, for large corpora:
+ * <ul>
+ * <li>Word/topic counts are stored in the packed sparse format of
+ *  {@link ParallelTopicModel}, and each token is sampled with the bucketed sampler
+ *  described in {@link NPWorkerCallable}, so its cost depends on the topics of its
+ *  word type and document rather than on the total number of topics.</li>
+ * <li>Topics are integer IDs below a fixed maximum, {@link #setMaxTopics(int)}. IDs of
+ *  topics that lose their last token are reused for new topics.</li>
+ * <li>With several threads, each thread samples a block of documents against its own
+ *  copy of the counts. The copies are merged after every iteration, which is also when
+ *  new topics created by one thread become visible to the others.</li>
+ * </ul>
+ * {@link #getInferencer()} renumbers the current topics from 0 and returns a standard
+ *  {@link TopicInferencer}.
+ */
+
+public class ParallelNPTopicModel implements Serializable {
+
+    private static Logger logger = MalletLogger.getLogger(ParallelNPTopicModel.class.getName());
+
+    public static final int DEFAULT_MAX_TOPICS = 1024;
+
+    // the training instances and their topic assignments
+    protected ArrayList<TopicAssignment> data;
+    protected Alphabet alphabet;
+    protected LabelAlphabet topicAlphabet;
+
+    protected int maxTopics = DEFAULT_MAX_TOPICS;
+    protected int numTypes;
+    protected int totalTokens;
+
+    // Prior parameters
+    protected double alpha;
+    protected double gamma;
+    protected double beta;
+    protected double betaSum;
+
+    protected SparseTypeTopicCounts typeTopicCounts;
+    protected int[] tokensPerTopic;
+
+    // The number of documents that contain at least one token with a given topic
+    protected int[] docsPerTopic;
+    protected int totalDocTopics;
+
+    protected int numThreads = 1;
+    protected transient NPWorkerCallable[] workers;
+
+    public int showTopicsInterval = 50;
+    public int wordsPerTopic = 10;
+
+    protected Randoms random;
+
+    /** @param alpha this parameter balances the local document topic counts with
+     *                the global distribution over topics.
+     *  @param gamma this parameter is the weight on a completely new, never-before-seen topic
+     *                in the global distribution.
+     *  @param beta  this parameter controls the variability of the topic-word distributions
+     */
+    public ParallelNPTopicModel (double alpha, double gamma, double beta) {
+        this.data = new ArrayList<TopicAssignment>();
+        this.alpha = alpha;
+        this.gamma = gamma;
+        this.beta = beta;
+        this.random = new Randoms();
+    }
+
+    /**
+     *  Set the largest number of topics that can exist at once. Word/topic counts
+     *   are packed into ints with the topic in the low bits, so a larger maximum
+     *   leaves fewer bits for the counts. This must be called before {@link #addInstances}.
+     */
+    public void setMaxTopics(int maxTopics) {
+        this.maxTopics = maxTopics;
+    }
+
+    public void setNumThreads(int threads) {
+        this.numThreads = threads;
+    }
+
+    public void setTopicDisplay(int interval, int n) {
+        this.showTopicsInterval = interval;
+        this.wordsPerTopic = n;
+    }
+
+    public void setRandomSeed(int seed) {
+        random = new Randoms(seed);
+    }
+
+    public ArrayList<TopicAssignment> getData() { return data; }
+    public Alphabet getAlphabet() { return alphabet; }
+    public int getMaxTopics() { return maxTopics; }
+    public int[] getTokensPerTopic() { return tokensPerTopic; }
+    public int[] getDocsPerTopic() { return docsPerTopic; }
+    public SparseTypeTopicCounts getTypeTopicCounts() { return typeTopicCounts; }
+
+    /** Return the number of topics with at least one token. */
+    public int getNumTopics() {
+        @Var
+        int numTopics = 0;
+        for (int topic = 0; topic < maxTopics; topic++) {
+            if (tokensPerTopic[topic] > 0) {
+                numTopics++;
+            }
+        }
+        return numTopics;
+    }
+
+    /** Add documents, assigning each token to one of <code>initialTopics</code> topics at random. */
+    public void addInstances (InstanceList training, int initialTopics) {
+        if (initialTopics > maxTopics) {
+            throw new IllegalArgumentException("Initial topics " + initialTopics + " exceed the maximum of " + maxTopics);
+        }
+
+        alphabet = training.getDataAlphabet();
+        numTypes = alphabet.size();
+        betaSum = beta * numTypes;
+        topicAlphabet = AlphabetFactory.labelAlphabetOfSize(maxTopics);
+
+        int[] typeTotals = new int[numTypes];
+        for (Instance instance : training) {
+            FeatureSequence tokens = (FeatureSequence) instance.getData();
+            for (int position = 0; position < tokens.getLength(); position++) {
+                typeTotals[ tokens.getIndexAtPosition(position) ]++;
+            }
+        }
+
+        typeTopicCounts = new SparseTypeTopicCounts(maxTopics, typeTotals);
+        tokensPerTopic = new int[maxTopics];
+        docsPerTopic = new int[maxTopics];
+        totalDocTopics = 0;
+        totalTokens = 0;
+
+        int[] localTopicCounts = new int[maxTopics];
+
+        for (Instance instance : training) {
+            FeatureSequence tokens = (FeatureSequence) instance.getData();
+            LabelSequence topicSequence =
+                new LabelSequence(topicAlphabet, new int[ tokens.size() ]);
+
+            int[] topics = topicSequence.getFeatures();
+            for (int position = 0; position < topics.length; position++) {
+                int topic = random.nextInt(initialTopics);
+                topics[position] = topic;
+
+                typeTopicCounts.increment(tokens.getIndexAtPosition(position), topic);
+                tokensPerTopic[topic]++;
+                if (localTopicCounts[topic] == 0) {
+                    docsPerTopic[topic]++;
+                    totalDocTopics++;
+                }
+                localTopicCounts[topic]++;
+            }
+            for (int topic: topics) {
+                localTopicCounts[topic] = 0;
+            }
+
+            totalTokens += topics.length;
+            data.add(new TopicAssignment(instance, topicSequence));
+        }
+    }
+
+    public void sample (int iterations) throws IOException {
+
+        ExecutorService executor = null;
+        if (numThreads > 1 && data.size() >= numThreads) {
+            executor = Executors.newFixedThreadPool(numThreads);
+        }
+        createWorkers(executor == null ? 1 : numThreads);
+
+        try {
+            for (int iteration = 1; iteration <= iterations; iteration++) {
+                long iterationStart = System.currentTimeMillis();
+
+                distributeNewTopics();
+
+                if (executor == null) {
+                    workers[0].call();
+                    totalDocTopics = workers[0].getTotalDocTopics();
+                }
+                else {
+                    try {
+                        for (Future<Integer> future : executor.invokeAll(Arrays.asList(workers))) {
+                            future.get();
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IllegalStateException("Interrupted while sampling", e);
+                    } catch (ExecutionException e) {
+                        throw new IllegalStateException("Sampling thread failed", e.getCause());
+                    }
+                    mergeWorkerCounts(executor);
+                }
+
+                long elapsedMillis = System.currentTimeMillis() - iterationStart;
+                logger.fine(iteration + "\t" + elapsedMillis + "ms\t" + getNumTopics());
+
+                if (showTopicsInterval != 0 && iteration % showTopicsInterval == 0) {
+                    logger.info("<" + iteration + "> #Topics: " + getNumTopics() + "\n" +
+                                topWords(wordsPerTopic));
+                }
+            }
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * With one thread, the worker samples against the model's own counts.
+     *  Otherwise each worker gets a copy of the counts.
+     */
+    private void createWorkers (int threads) {
+        workers = new NPWorkerCallable[threads];
+        int docsPerThread = data.size() / threads;
+
+        for (int thread = 0; thread < threads; thread++) {
+            int startDoc = thread * docsPerThread;
+            int numDocs = thread == threads - 1 ? data.size() - startDoc : docsPerThread;
+
+            if (threads == 1) {
+                workers[thread] = new NPWorkerCallable(maxTopics, alpha, gamma, beta, random, data,
+                                                       typeTopicCounts, tokensPerTopic, docsPerTopic, totalDocTopics,
+                                                       startDoc, numDocs);
+                workers[thread].makeOnlyThread();
+            }
+            else {
+                workers[thread] = new NPWorkerCallable(maxTopics, alpha, gamma, beta, new Randoms(random.nextInt()), data,
+                                                       new SparseTypeTopicCounts(typeTopicCounts),
+                                                       tokensPerTopic.clone(), docsPerTopic.clone(), totalDocTopics,
+                                                       startDoc, numDocs);
+            }
+        }
+    }
+
+    /**
+     *  Split the unused topic IDs evenly among the workers. These are the
+     *   only IDs a worker can give to new topics in the next iteration.
+     */
+    private void distributeNewTopics() {
+        int[] unused = new int[maxTopics];
+        @Var
+        int numUnused = 0;
+        for (int topic = 0; topic < maxTopics; topic++) {
+            if (tokensPerTopic[topic] == 0) {
+                unused[numUnused] = topic;
+                numUnused++;
+            }
+        }
+
+        if (numUnused == 0) {
+            logger.warning("All " + maxTopics + " topics are in use; no new topics can be created");
+        }
+
+        for (int thread = 0; thread < workers.length; thread++) {
+            int start = (int) ((long) thread * numUnused / workers.length);
+            int end = (int) ((long) (thread + 1) * numUnused / workers.length);
+            workers[thread].setNewTopics(unused, start, end - start);
+        }
+    }
+
+    /**
+     * Each worker has rebuilt its counts from its own documents. Sum them
+     *  into the model's counts, splitting the word types among the threads,
+     *  then give every worker a copy of the totals for the next iteration.
+     */
+    private void mergeWorkerCounts (ExecutorService executor) {
+        final int threads = workers.length;
+
+        List<Callable<Object>> mergers = new ArrayList<Callable<Object>>();
+        for (int thread = 0; thread < threads; thread++) {
+            final int firstType = thread;
+            mergers.add(new Callable<Object>() {
+                public Object call() {
+                    for (int type = firstType; type < numTypes; type += threads) {
+                        typeTopicCounts.clearType(type);
+                        for (NPWorkerCallable worker : workers) {
+                            typeTopicCounts.addType(worker.getTypeTopicCounts(), type);
+                        }
+                        for (NPWorkerCallable worker : workers) {
+                            worker.getTypeTopicCounts().copyType(typeTopicCounts, type);
+                        }
+                    }
+                    return null;
+                }
+            });
+        }
+        try {
+            for (Future<Object> future : executor.invokeAll(mergers)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while merging counts", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Merge thread failed", e.getCause());
+        }
+
+        Arrays.fill(tokensPerTopic, 0);
+        Arrays.fill(docsPerTopic, 0);
+        totalDocTopics = 0;
+        for (NPWorkerCallable worker : workers) {
+            int[] workerTokens = worker.getTokensPerTopic();
+            int[] workerDocs = worker.getDocsPerTopic();
+            for (int topic = 0; topic < maxTopics; topic++) {
+                tokensPerTopic[topic] += workerTokens[topic];
+                docsPerTopic[topic] += workerDocs[topic];
+            }
+            totalDocTopics += worker.getTotalDocTopics();
+        }
+
+        for (NPWorkerCallable worker : workers) {
+            System.arraycopy(tokensPerTopic, 0, worker.getTokensPerTopic(), 0, maxTopics);
+            System.arraycopy(docsPerTopic, 0, worker.getDocsPerTopic(), 0, maxTopics);
+            worker.setTotalDocTopics(totalDocTopics);
+        }
+    }
+
+    /**
+     *  Return a topic inferencer for the current topics, numbered from 0 in order
+     *   of their IDs. The prior on topic <code>k</code> is the global topic weight
+     *   <code>alpha m(k) / (M + gamma)</code>, without the mass reserved for new topics.
+     */
+    public TopicInferencer getInferencer() {
+        int[] topicIndex = new int[maxTopics];
+        @Var
+        int numTopics = 0;
+        for (int topic = 0; topic < maxTopics; topic++) {
+            if (tokensPerTopic[topic] > 0) {
+                topicIndex[topic] = numTopics;
+                numTopics++;
+            }
+        }
+
+        @Var
+        int inferencerMask;
+        if (Integer.bitCount(numTopics) == 1) {
+            inferencerMask = numTopics - 1;
+        }
+        else {
+            inferencerMask = Integer.highestOneBit(numTopics) * 2 - 1;
+        }
+        int inferencerBits = Integer.bitCount(inferencerMask);
+
+        int topicMask = typeTopicCounts.getTopicMask();
+        int topicBits = typeTopicCounts.getTopicBits();
+
+        // Renumbering topics does not change the order of the counts
+        int[][] inferencerCounts = new int[numTypes][];
+        for (int type = 0; type < numTypes; type++) {
+            int[] packed = typeTopicCounts.getPackedCounts(type);
+            @Var
+            int size = 0;
+            while (size < packed.length && packed[size] > 0) {
+                size++;
+            }
+            inferencerCounts[type] = new int[size];
+            for (int i = 0; i < size; i++) {
+                inferencerCounts[type][i] = ((packed[i] >> topicBits) << inferencerBits) +
+                    topicIndex[ packed[i] & topicMask ];
+            }
+        }
+
+        int[] inferencerTotals = new int[numTopics];
+        double[] inferencerAlpha = new double[numTopics];
+        for (int topic = 0; topic < maxTopics; topic++) {
+            if (tokensPerTopic[topic] > 0) {
+                inferencerTotals[ topicIndex[topic] ] = tokensPerTopic[topic];
+                inferencerAlpha[ topicIndex[topic] ] = alpha * docsPerTopic[topic] / (totalDocTopics + gamma);
+            }
+        }
+
+        return new TopicInferencer(inferencerCounts, inferencerTotals, alphabet,
+                                   inferencerAlpha, beta, betaSum);
+    }
+
+    public void writeInferencer(File file) throws IOException {
+        ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(file));
+        oos.writeObject(getInferencer());
+        oos.close();
+    }
+
+    //
+    // Methods for displaying and saving results
+    //
+
+    public String topWords (int numWords) {
+        StringBuilder output = new StringBuilder();
+        IDSorter[][] sortedTypes = typeTopicCounts.getSortedTypes();
+
+        for (int topic = 0; topic < maxTopics; topic++) {
+            if (tokensPerTopic[topic] == 0) { continue; }
+
+            output.append(topic + "\t" + tokensPerTopic[topic] + "\t");
+            for (int i = 0; i < numWords && i < sortedTypes[topic].length; i++) {
+                output.append(alphabet.lookupObject(sortedTypes[topic][i].getID()) + " ");
+            }
+            output.append("\n");
+        }
+
+        return output.toString();
+    }
+
+    public void printState (File f) throws IOException {
+        PrintStream out =
+            new PrintStream(new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(f))));
+        printState(out);
+        out.close();
+    }
+
+    public void printState (PrintStream out) {
+        out.println ("#doc source pos typeindex type topic");
+
+        for (int doc = 0; doc < data.size(); doc++) {
+            FeatureSequence tokenSequence = (FeatureSequence) data.get(doc).instance.getData();
+            LabelSequence topicSequence = data.get(doc).topicSequence;
+
+            @Var
+            String source = "NA";
+            if (data.get(doc).instance.getSource() != null) {
+                source = data.get(doc).instance.getSource().toString();
+            }
+
+            for (int position = 0; position < topicSequence.getLength(); position++) {
+                int type = tokenSequence.getIndexAtPosition(position);
+                int topic = topicSequence.getIndexAtPosition(position);
+                out.print(doc); out.print(' ');
+                out.print(source); out.print(' ');
+                out.print(position); out.print(' ');
+                out.print(type); out.print(' ');
+                out.print(alphabet.lookupObject(type)); out.print(' ');
+                out.print(topic); out.println();
+            }
+        }
+    }
+
+    private static final long serialVersionUID = 1;
+
+    // Command-line interface
+
+    static CommandOption.String inputFile = new CommandOption.String(ParallelNPTopicModel.class, "input", "FILENAME", true, null,
+        "The filename from which to read the list of training instances.", null);
+
+    static CommandOption.String stateFile = new CommandOption.String(ParallelNPTopicModel.class, "output-state", "FILENAME", true, null,
+        "The filename in which to write the Gibbs sampling state after the iterations.", null);
+
+    static CommandOption.String inferencerFilenameOption = new CommandOption.String(ParallelNPTopicModel.class, "inferencer-filename", "FILENAME", true, null,
+        "The filename in which to write a topic inferencer for the final topics.", null);
+
+    static CommandOption.String topicKeysFile = new CommandOption.String(ParallelNPTopicModel.class, "output-topic-keys", "FILENAME", true, null,
+        "The filename in which to write the top words for each topic.", null);
+
+    static CommandOption.Integer numTopWords = new CommandOption.Integer(ParallelNPTopicModel.class, "num-top-words", "INTEGER", true, 20,
+        "The number of most probable words to print for each topic.", null);
+
+    static CommandOption.Integer numTopicsOption = new CommandOption.Integer(ParallelNPTopicModel.class, "num-topics", "INTEGER", true, 20,
+        "The number of topics to start with.", null);
+
+    static CommandOption.Integer maxTopicsOption = new CommandOption.Integer(ParallelNPTopicModel.class, "max-topics", "INTEGER", true, DEFAULT_MAX_TOPICS,
+        "The largest number of topics that can exist at once.", null);
+
+    static CommandOption.Double alphaOption = new CommandOption.Double(ParallelNPTopicModel.class, "alpha", "DECIMAL", true, 5.0,
+        "The weight of the global topic distribution against each document's topic counts.", null);
+
+    static CommandOption.Double gammaOption = new CommandOption.Double(ParallelNPTopicModel.class, "gamma", "DECIMAL", true, 10.0,
+        "The weight of a new topic in the global topic distribution.", null);
+
+    static CommandOption.Double betaOption = new CommandOption.Double(ParallelNPTopicModel.class, "beta", "DECIMAL", true, 0.1,
+        "Smoothing over topic-word distributions.", null);
+
+    static CommandOption.Integer numIterationsOption = new CommandOption.Integer(ParallelNPTopicModel.class, "num-iterations", "INTEGER", true, 1000,
+        "The number of iterations of Gibbs sampling.", null);
+
+    static CommandOption.Integer showTopicsIntervalOption = new CommandOption.Integer(ParallelNPTopicModel.class, "show-topics-interval", "INTEGER", true, 50,
+        "The number of iterations between printing a brief summary of the topics so far.", null);
+
+    static CommandOption.Integer numThreadsOption = new CommandOption.Integer(ParallelNPTopicModel.class, "num-threads", "INTEGER", true, 1,
+        "The number of threads for sampling.", null);
+
+    static CommandOption.Integer randomSeedOption = new CommandOption.Integer(ParallelNPTopicModel.class, "random-seed", "INTEGER", true, 0,
+        "The random seed. Default is 0, which will use the clock.", null);
+
+    public static void main (String[] args) throws IOException {
+        CommandOption.setSummary(ParallelNPTopicModel.class, "A non-parametric topic model with sparse counts and multiple threads");
+        CommandOption.process(ParallelNPTopicModel.class, args);
+
+        if (inputFile.value == null) {
+            throw new IllegalArgumentException("--input is required");
+        }
+
+        ParallelNPTopicModel model = new ParallelNPTopicModel(alphaOption.value, gammaOption.value, betaOption.value);
+        if (randomSeedOption.value != 0) {
+            model.setRandomSeed(randomSeedOption.value);
+        }
+        model.setMaxTopics(maxTopicsOption.value);
+        model.setNumThreads(numThreadsOption.value);
+        model.setTopicDisplay(showTopicsIntervalOption.value, numTopWords.value);
+
+        model.addInstances(InstanceList.load(new File(inputFile.value)), numTopicsOption.value);
+        model.sample(numIterationsOption.value);
+
+        if (stateFile.value != null) {
+            model.printState(new File(stateFile.value));
+        }
+        if (topicKeysFile.value != null) {
+            PrintStream out = new PrintStream(new File(topicKeysFile.value));
+            out.print(model.topWords(numTopWords.value));
+            out.close();
+        }
+        if (inferencerFilenameOption.value != null) {
+            model.writeInferencer(new File(inferencerFilenameOption.value));
+        }
+    }
+}
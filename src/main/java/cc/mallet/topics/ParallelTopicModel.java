@@ -33,6 +33,8 @@ import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Logger;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
@@ -42,6 +44,7 @@ import com.google.errorprone.annotations.Var;
 
 import cc.mallet.types.Alphabet;
 import cc.mallet.types.AugmentableFeatureVector;
+import cc.mallet.types.ChunkedInstanceReader;
 import cc.mallet.types.Dirichlet;
 import cc.mallet.types.FeatureSequence;
 import cc.mallet.types.FeatureSequenceWithBigrams;
@@ -91,6 +94,19 @@ public class ParallelTopicModel implements Serializable {
 
     public boolean usingSymmetricAlpha = false;
 
+    // If true, threads sample against a single shared type/topic table
+    //  instead of private copies that are merged after every iteration.
+    public boolean usingSharedCounts = false;
+    public static final int DEFAULT_RECONCILE_INTERVAL = 100;
+    public int sharedCountsReconcileInterval = DEFAULT_RECONCILE_INTERVAL;
+    public static final int SHARED_COUNTS_LOCK_STRIPES = 1024;
+
+    // Which per-token sampler the worker threads use
+    public static final String SPARSE_SAMPLER = "sparse";
+    public static final String ALIAS_SAMPLER = "alias";
+    public String sampler = SPARSE_SAMPLER;
+    public int numMHSteps = AliasWorkerCallable.DEFAULT_MH_STEPS;
+
     public static final double DEFAULT_BETA = 0.01;
     
     public int[][] typeTopicCounts; // indexed by <feature index, topic index>
@@ -114,6 +130,13 @@ public class ParallelTopicModel implements Serializable {
 
     public int saveModelInterval = 0;
     public String modelFilename = null;
+
+    public int saveCheckpointInterval = 0;
+    public String checkpointPrefix = null;
+
+    // The number of iterations already completed, when resuming from a checkpoint.
+    //  The next call to estimate() starts after this iteration.
+    int startIteration = 0;
     
     public int randomSeed = -1;
     public NumberFormat formatter;
@@ -229,6 +252,65 @@ public class ParallelTopicModel implements Serializable {
         this.numThreads = threads;
     }
 
+    /** Use a single type/topic count table shared by all threads, rather than
+     *   giving each thread its own copy and merging the copies after every
+     *   iteration. Rows of the table are protected by striped locks, and
+     *   topic totals are reconciled between threads periodically.
+     *   This saves one copy of the count table per thread and removes the
+     *   merge step, at the cost of some lock contention on frequent words.
+     *   Has no effect with a single thread.
+     *
+     * @param b Whether to share counts between threads
+     */
+    public void setSharedCounts(boolean b) {
+        usingSharedCounts = b;
+    }
+
+    /** Choose the per-token sampling algorithm.
+     *
+     * @param sampler Either <code>SPARSE_SAMPLER</code>, the exact SparseLDA sampler
+     *  (the default), or <code>ALIAS_SAMPLER</code>, a Metropolis-Hastings sampler using
+     *  stale per-word alias tables, whose cost per token does not grow with
+     *  the number of topics.
+     */
+    public void setSampler(String sampler) {
+        if (! sampler.equals(SPARSE_SAMPLER) && ! sampler.equals(ALIAS_SAMPLER)) {
+            throw new IllegalArgumentException("Unknown sampler: " + sampler);
+        }
+        this.sampler = sampler;
+    }
+
+    /** For the alias sampler, the number of document/word proposal pairs per token. */
+    public void setNumMHSteps(int steps) {
+        this.numMHSteps = steps;
+    }
+
+    /** Create a sampling task for one thread, using the current choice of sampler. */
+    protected WorkerCallable newWorkerCallable(Randoms random, int[][] callableCounts, int[] callableTotals,
+                                               int startDoc, int numDocs) {
+        if (sampler.equals(ALIAS_SAMPLER)) {
+            AliasWorkerCallable callable = new AliasWorkerCallable(numTopics,
+                                                                   alpha, alphaSum, beta,
+                                                                   random, data,
+                                                                   callableCounts, callableTotals,
+                                                                   startDoc, numDocs);
+            callable.setNumMHSteps(numMHSteps);
+            return callable;
+        }
+        return new WorkerCallable(numTopics,
+                                  alpha, alphaSum, beta,
+                                  random, data,
+                                  callableCounts, callableTotals,
+                                  startDoc, numDocs);
+    }
+
+    /** In shared-counts mode, the number of documents each thread samples
+     *   between pushing its changes to topic totals to the other threads.
+     */
+    public void setSharedCountsReconcileInterval(int interval) {
+        sharedCountsReconcileInterval = interval;
+    }
+
     /** Define how often and where to save a text representation of the current state.
      *  Files are GZipped.
      *
@@ -250,9 +332,33 @@ public class ParallelTopicModel implements Serializable {
         this.modelFilename = filename;
     }
 
+    /** Define how often and where to save a binary checkpoint of the sampling state,
+     *   from which training can be resumed with {@link #initializeFromCheckpoint(File)}.
+     *
+     * @param interval Save a checkpoint every <code>interval</code> iterations.
+     * @param prefix Save each checkpoint to a directory with this name, with the iteration number as a suffix
+     */
+    public void setSaveCheckpoint(int interval, String prefix) {
+        this.saveCheckpointInterval = interval;
+        this.checkpointPrefix = prefix;
+    }
+
     public void addInstances (InstanceList training) {
+        addInstances(training, training.getDataAlphabet());
+    }
+
+    /**
+     *  Add instances as they are read from a chunked instance file, without
+     *   first loading them into an <code>InstanceList</code>. The model still
+     *   keeps every instance, so this does not reduce the memory it needs.
+     */
+    public void addInstances (ChunkedInstanceReader training) {
+        addInstances(training, training.getDataAlphabet());
+    }
+
+    protected void addInstances (Iterable<Instance> training, Alphabet dataAlphabet) {
 
-        alphabet = training.getDataAlphabet();
+        alphabet = dataAlphabet;
         numTypes = alphabet.size();
         
         betaSum = beta * numTypes;
@@ -346,6 +452,47 @@ public class ParallelTopicModel implements Serializable {
         initializeHistograms();
     }
 
+    /** Write the topic assignments and hyperparameters to a {@link TopicCheckpoint}
+     *   directory, using one thread per shard.
+     *
+     * @param iteration The number of sampling iterations completed so far
+     */
+    public void writeCheckpoint(File directory, int iteration) throws IOException {
+        TopicCheckpoint.write(this, iteration, directory, numThreads);
+    }
+
+    /** Restore the topic assignments and hyperparameters from a checkpoint
+     *   written by {@link #writeCheckpoint(File, int)}. The instances must
+     *   already have been added, in the same order. The next call to
+     *   {@link #estimate()} continues from the iteration after the checkpoint,
+     *   so burn-in, optimization and reporting intervals line up with the
+     *   original run.
+     *
+     * @return The number of iterations completed when the checkpoint was written
+     */
+    public int initializeFromCheckpoint(File directory) throws IOException {
+        TopicCheckpoint checkpoint = TopicCheckpoint.read(directory);
+
+        if (checkpoint.getNumTopics() != numTopics) {
+            setNumTopics(checkpoint.getNumTopics());
+        }
+        System.arraycopy(checkpoint.getAlpha(), 0, alpha, 0, numTopics);
+        alphaSum = 0.0;
+        for (int topic = 0; topic < numTopics; topic++) {
+            alphaSum += alpha[topic];
+        }
+        beta = checkpoint.getBeta();
+        betaSum = beta * numTypes;
+
+        checkpoint.restoreTopics(data, directory, numThreads);
+        startIteration = checkpoint.getIteration();
+
+        buildInitialTypeTopicCounts();
+        initializeHistograms();
+
+        return startIteration;
+    }
+
     public void buildInitialTypeTopicCounts () {
         
         typeTopicCounts = new int[numTypes][];
@@ -651,7 +798,46 @@ public class ParallelTopicModel implements Serializable {
         @Var
         int offset = 0;
 
-        if (numThreads > 1) {
+        // Only used in shared-counts mode
+        @Var
+        AtomicIntegerArray sharedTokensPerTopic = null;
+
+        if (numThreads > 1 && usingSharedCounts) {
+
+            // Every thread samples against the global typeTopicCounts,
+            //  but keeps its own (periodically reconciled) topic totals.
+            sharedTokensPerTopic = new AtomicIntegerArray(tokensPerTopic);
+            ReentrantLock[] typeLocks = new ReentrantLock[SHARED_COUNTS_LOCK_STRIPES];
+            for (int i = 0; i < typeLocks.length; i++) {
+                typeLocks[i] = new ReentrantLock();
+            }
+
+            for (int thread = 0; thread < numThreads; thread++) {
+                int[] callableTotals = new int[numTopics];
+                
+                // some docs may be missing at the end due to integer division
+                if (thread == numThreads - 1) {
+                    docsPerThread = data.size() - offset;
+                }
+                
+                Randoms random;
+                if (randomSeed == -1) {
+                    random = new Randoms();
+                }
+                else {
+                    random = new Randoms(randomSeed);
+                }
+
+                callables[thread] = newWorkerCallable(random, typeTopicCounts, callableTotals, offset, docsPerThread);
+                
+                callables[thread].initializeAlphaStatistics(docLengthCounts.length);
+                callables[thread].shareCounts(typeLocks, sharedTokensPerTopic,
+                                              sharedCountsReconcileInterval);
+                
+                offset += docsPerThread;
+            }
+        }
+        else if (numThreads > 1) {
         
             for (int thread = 0; thread < numThreads; thread++) {
                 int[] callableTotals = new int[numTopics];
@@ -677,11 +863,7 @@ public class ParallelTopicModel implements Serializable {
                     random = new Randoms(randomSeed);
                 }
 
-                callables[thread] = new WorkerCallable(numTopics,
-                                                       alpha, alphaSum, beta,
-                                                       random, data,
-                                                       callableCounts, callableTotals,
-                                                       offset, docsPerThread);
+                callables[thread] = newWorkerCallable(random, callableCounts, callableTotals, offset, docsPerThread);
                 
                 callables[thread].initializeAlphaStatistics(docLengthCounts.length);
                 
@@ -702,11 +884,7 @@ public class ParallelTopicModel implements Serializable {
                 random = new Randoms(randomSeed);
             }
 
-            callables[0] = new WorkerCallable(numTopics,
-                                              alpha, alphaSum, beta,
-                                              random, data,
-                                              typeTopicCounts, tokensPerTopic,
-                                              offset, docsPerThread);
+            callables[0] = newWorkerCallable(random, typeTopicCounts, tokensPerTopic, offset, docsPerThread);
 
             callables[0].initializeAlphaStatistics(docLengthCounts.length);
 
@@ -719,7 +897,7 @@ public class ParallelTopicModel implements Serializable {
 
         ExecutorService executor = Executors.newFixedThreadPool(numThreads);
     
-        for (int iteration = 1; iteration <= numIterations; iteration++) {
+        for (int iteration = startIteration + 1; iteration <= numIterations; iteration++) {
 
             long iterationStart = System.currentTimeMillis();
 
@@ -735,7 +913,30 @@ public class ParallelTopicModel implements Serializable {
                 this.write(new File(modelFilename + '.' + iteration));
             }
 
-            if (numThreads > 1) {
+            if (numThreads > 1 && usingSharedCounts) {
+
+                if (iteration > burninPeriod && optimizeInterval != 0 && iteration % saveSampleInterval == 0) {
+                    for (int thread = 0; thread < numThreads; thread++) {
+                        callables[thread].collectAlphaStatistics();
+                    }
+                }
+
+                // Threads update typeTopicCounts in place, so there is nothing
+                //  to merge: only the topic totals need to be published.
+                try {
+                    List<Future<Integer>> futures = executor.invokeAll(Arrays.asList(callables));
+                    for (Future<Integer> future: futures) {
+                        future.get();
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+
+                for (int topic = 0; topic < numTopics; topic++) {
+                    tokensPerTopic[topic] = sharedTokensPerTopic.get(topic);
+                }
+            }
+            else if (numThreads > 1) {
             
                 // If this is a hyperparameter-optimizing iteration, ask the threads
                 //  to save the information we need to make that calculation.
@@ -841,6 +1042,10 @@ public class ParallelTopicModel implements Serializable {
                 
                 logger.fine("[O " + (System.currentTimeMillis() - iterationStart) + "] ");
             }
+
+            if (saveCheckpointInterval != 0 && iteration % saveCheckpointInterval == 0) {
+                writeCheckpoint(new File(checkpointPrefix + '.' + iteration), iteration);
+            }
             
             if (iteration % 10 == 0) {
                 if (printLogLikelihood) {
@@ -854,6 +1059,9 @@ public class ParallelTopicModel implements Serializable {
 
         executor.shutdownNow();
 
+        // A checkpoint only determines where the first call after it starts
+        startIteration = 0;
+
         @Var
         long seconds = Math.round((System.currentTimeMillis() - startTime)/1000.0);
         @Var
@@ -1960,7 +2168,7 @@ public class ParallelTopicModel implements Serializable {
     // Serialization
 
     private static final long serialVersionUID = 1;
-    private static final int CURRENT_SERIAL_VERSION = 0;
+    private static final int CURRENT_SERIAL_VERSION = 2;
     private static final int NULL_INTEGER = -1;
 
     private void writeObject (ObjectOutputStream out) throws IOException {
@@ -2006,6 +2214,12 @@ public class ParallelTopicModel implements Serializable {
         out.writeBoolean(printLogLikelihood);
 
         out.writeInt(numThreads);
+
+        out.writeObject(sampler);
+        out.writeInt(numMHSteps);
+
+        out.writeBoolean(usingSharedCounts);
+        out.writeInt(sharedCountsReconcileInterval);
     }
 
     private void readObject (ObjectInputStream in) throws IOException, ClassNotFoundException {
@@ -2052,6 +2266,26 @@ public class ParallelTopicModel implements Serializable {
         printLogLikelihood = in.readBoolean();
 
         numThreads = in.readInt();
+
+        // Fields are not initialized on deserialization, so models
+        //  written before these were saved get the defaults here.
+        if (version >= 1) {
+            sampler = (String) in.readObject();
+            numMHSteps = in.readInt();
+        }
+        else {
+            sampler = SPARSE_SAMPLER;
+            numMHSteps = AliasWorkerCallable.DEFAULT_MH_STEPS;
+        }
+
+        if (version >= 2) {
+            usingSharedCounts = in.readBoolean();
+            sharedCountsReconcileInterval = in.readInt();
+        }
+        else {
+            usingSharedCounts = false;
+            sharedCountsReconcileInterval = DEFAULT_RECONCILE_INTERVAL;
+        }
     }
 
     public void write (File serializedModelFile) {
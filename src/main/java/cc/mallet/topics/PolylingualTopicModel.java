@@ -8,6 +8,7 @@
 package cc.mallet.topics;
 
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.zip.*;
 
 import java.io.*;
@@ -85,6 +86,9 @@ public class PolylingualTopicModel implements Serializable {
     static CommandOption.Integer randomSeedOption = new CommandOption.Integer(PolylingualTopicModel.class, "random-seed", "INTEGER", true, 0,
          "The random seed for the Gibbs sampler.  Default is 0, which will use the clock.", null);
 
+    static CommandOption.Integer numThreadsOption = new CommandOption.Integer(PolylingualTopicModel.class, "num-threads", "INTEGER", true, 1,
+         "The number of threads for parallel training.", null);
+
     static CommandOption.Integer topWordsOption = new CommandOption.Integer(PolylingualTopicModel.class, "num-top-words", "INTEGER", true, 20,
          "The number of most probable words to print for each topic after model estimation.", null);
 
@@ -162,6 +166,8 @@ public class PolylingualTopicModel implements Serializable {
                                       // position index>
 
     protected int iterationsSoFar = 1;
+    protected int numThreads = 1;
+    private transient SamplingWorker modelWorker = null;
     public int numIterations = 1000;
     public int burninPeriod = 5;
     public int saveSampleInterval = 5; // was 10;
@@ -287,6 +293,17 @@ public class PolylingualTopicModel implements Serializable {
         this.stateFilename = filename;
     }
 
+    /**
+     * Sample with several threads. Documents are divided among the threads, which
+     * share the type/topic counts from the start of each iteration and merge their
+     * changes at the end of it.
+     *
+     * @param threads The number of sampling threads
+     */
+    public void setNumThreads(final int threads) {
+        this.numThreads = threads;
+    }
+
     public void addInstances(final InstanceList[] training) {
 
         numLanguages = training.length;
@@ -524,6 +541,22 @@ public class PolylingualTopicModel implements Serializable {
 
         long totalTime = 0;
 
+        SamplingWorker[] workers = null;
+        ExecutorService executor = null;
+
+        if (numThreads > 1 && data.size() >= numThreads) {
+            // Give each thread a contiguous block of documents and its own random stream
+            workers = new SamplingWorker[numThreads];
+            final int docsPerThread = data.size() / numThreads;
+            int startDoc = 0;
+            for (int thread = 0; thread < numThreads; thread++) {
+                final int endDoc = thread == numThreads - 1 ? data.size() : startDoc + docsPerThread;
+                workers[thread] = new SamplingWorker(startDoc, endDoc, new Randoms(random.nextInt()));
+                startDoc = endDoc;
+            }
+            executor = Executors.newFixedThreadPool(numThreads);
+        }
+
         for (; iterationsSoFar <= maxIteration; iterationsSoFar++) {
             final long iterationStart = System.currentTimeMillis();
 
@@ -556,10 +589,32 @@ public class PolylingualTopicModel implements Serializable {
             // Loop over every document in the corpus
             topicTermCount = betaTopicCount = smoothingOnlyCount = 0;
 
-            for (int doc = 0; doc < data.size(); doc++) {
+            final boolean shouldSaveState = iterationsSoFar >= burninPeriod && iterationsSoFar % saveSampleInterval == 0;
+
+            if (workers == null) {
+                for (int doc = 0; doc < data.size(); doc++) {
+                    sampleTopicsForOneDoc(data.get(doc), shouldSaveState);
+                }
+            } else {
+                for (final SamplingWorker worker : workers) {
+                    worker.shouldSaveState = shouldSaveState;
+                }
 
-                sampleTopicsForOneDoc(data.get(doc),
-                        (iterationsSoFar >= burninPeriod && iterationsSoFar % saveSampleInterval == 0));
+                try {
+                    for (final Future<Integer> future : executor.invokeAll(Arrays.asList(workers))) {
+                        future.get();
+                    }
+                    mergeWorkerCounts(workers, executor, shouldSaveState);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    executor.shutdownNow();
+                    throw new InterruptedIOException("Interrupted while sampling");
+                } catch (final ExecutionException e) {
+                    executor.shutdownNow();
+                    throw new IllegalStateException("Sampling thread failed", e.getCause());
+                }
+
+                cacheValues();
             }
 
             final long elapsedMillis = System.currentTimeMillis() - iterationStart;
@@ -574,6 +629,10 @@ public class PolylingualTopicModel implements Serializable {
             }
         }
 
+        if (executor != null) {
+            executor.shutdown();
+        }
+
         /*
          * long seconds = Math.round((System.currentTimeMillis() - startTime)/1000.0);
          * long minutes = seconds / 60; seconds %= 60; long hours = minutes / 60;
@@ -586,6 +645,97 @@ public class PolylingualTopicModel implements Serializable {
          */
     }
 
+    /**
+     * Replace the model's counts with the sum of the workers' counts. The
+     * type/topic counts are merged in parallel, with each thread taking the
+     * word types of every language that are equal to its index modulo the
+     * number of threads.
+     */
+    private void mergeWorkerCounts(final SamplingWorker[] workers, final ExecutorService executor,
+            final boolean shouldSaveState) throws InterruptedException, ExecutionException {
+
+        for (int language = 0; language < numLanguages; language++) {
+            final int[] tokensPerTopic = languageTokensPerTopic[language];
+            Arrays.fill(tokensPerTopic, 0);
+            for (final SamplingWorker worker : workers) {
+                final int[] workerTokensPerTopic = worker.languageTokensPerTopic[language];
+                for (int topic = 0; topic < numTopics; topic++) {
+                    tokensPerTopic[topic] += workerTokensPerTopic[topic];
+                }
+            }
+        }
+
+        if (shouldSaveState) {
+            for (final SamplingWorker worker : workers) {
+                for (int length = 0; length < docLengthCounts.length; length++) {
+                    docLengthCounts[length] += worker.docLengthCounts[length];
+                    worker.docLengthCounts[length] = 0;
+                }
+                for (int topic = 0; topic < numTopics; topic++) {
+                    final int[] histogram = topicDocCounts[topic];
+                    final int[] workerHistogram = worker.topicDocCounts[topic];
+                    for (int count = 0; count < histogram.length; count++) {
+                        histogram[count] += workerHistogram[count];
+                        workerHistogram[count] = 0;
+                    }
+                }
+            }
+        }
+
+        final List<Callable<Integer>> merges = new ArrayList<Callable<Integer>>(numThreads);
+        for (int thread = 0; thread < numThreads; thread++) {
+            final int offset = thread;
+            merges.add(new Callable<Integer>() {
+                public Integer call() {
+                    for (int language = 0; language < numLanguages; language++) {
+                        final int[][] typeTopicCounts = languageTypeTopicCounts[language];
+                        for (int type = offset; type < typeTopicCounts.length; type += numThreads) {
+                            final int[] counts = typeTopicCounts[type];
+                            Arrays.fill(counts, 0);
+
+                            for (final SamplingWorker worker : workers) {
+                                final int[] workerCounts = worker.languageTypeTopicCounts[language][type];
+                                int index = 0;
+                                while (index < workerCounts.length && workerCounts[index] > 0) {
+                                    addCount(counts, workerCounts[index] & topicMask,
+                                            workerCounts[index] >> topicBits);
+                                    index++;
+                                }
+                            }
+                        }
+                    }
+                    return offset;
+                }
+            });
+        }
+
+        for (final Future<Integer> future : executor.invokeAll(merges)) {
+            future.get();
+        }
+    }
+
+    /**
+     * Add <code>amount</code> to the count for <code>topic</code> in one word
+     * type's packed topic counts, keeping the array sorted by descending count.
+     */
+    private void addCount(final int[] counts, final int topic, final int amount) {
+        int index = 0;
+        while (index < counts.length && counts[index] > 0 && (counts[index] & topicMask) != topic) {
+            index++;
+        }
+
+        final int currentValue = counts[index] >> topicBits;
+        counts[index] = ((currentValue + amount) << topicBits) + topic;
+
+        // Bubble the new value up to keep the array sorted
+        while (index > 0 && counts[index] > counts[index - 1]) {
+            final int temp = counts[index];
+            counts[index] = counts[index - 1];
+            counts[index - 1] = temp;
+            index--;
+        }
+    }
+
     public void optimizeBetas() {
 
         for (int language = 0; language < numLanguages; language++) {
@@ -633,7 +783,38 @@ public class PolylingualTopicModel implements Serializable {
         }
     }
 
+    /**
+     * Sample topics for one document using the model's counts and random
+     * stream.
+     */
     protected void sampleTopicsForOneDoc(final TopicAssignment topicAssignment, final boolean shouldSaveState) {
+        sampleTopicsForOneDoc(topicAssignment, shouldSaveState, getModelWorker());
+    }
+
+    /**
+     * The worker that samples with the model's own counts, created again only
+     * if the model's count arrays have been replaced since it was created.
+     */
+    private SamplingWorker getModelWorker() {
+        if (modelWorker == null || !modelWorker.usesModelCounts()) {
+            modelWorker = new SamplingWorker();
+        }
+        return modelWorker;
+    }
+
+    /** Sample topics for one document using the worker's counts and random stream. */
+    protected void sampleTopicsForOneDoc(final TopicAssignment topicAssignment, final boolean shouldSaveState,
+            final SamplingWorker worker) {
+
+        // These locals shadow the model's fields of the same name, so that
+        // the code below reads and updates the worker's counts.
+        final Randoms random = worker.random;
+        final int[][][] languageTypeTopicCounts = worker.languageTypeTopicCounts;
+        final int[][] languageTokensPerTopic = worker.languageTokensPerTopic;
+        final double[] languageSmoothingOnlyMasses = worker.languageSmoothingOnlyMasses;
+        final double[][] languageCachedCoefficients = worker.languageCachedCoefficients;
+        final int[] docLengthCounts = worker.docLengthCounts;
+        final int[][] topicDocCounts = worker.topicDocCounts;
 
         int[] currentTypeTopicCounts;
         int type, oldTopic, newTopic;
@@ -998,6 +1179,142 @@ public class PolylingualTopicModel implements Serializable {
 
     }
 
+    /**
+     * Samples topics for a contiguous range of documents. With one thread
+     * the worker uses the model's own counts. With several threads each worker
+     * samples against a private copy of every language's type/topic counts,
+     * taken at the start of the iteration, and the copies are merged back into
+     * the model afterwards, as in {@link ParallelTopicModel}.
+     */
+    protected class SamplingWorker implements Callable<Integer> {
+
+        // The counts and random stream that the sampling code reads and updates
+        protected Randoms random;
+        protected int[][][] languageTypeTopicCounts;
+        protected int[][] languageTokensPerTopic;
+        protected double[] languageSmoothingOnlyMasses;
+        protected double[][] languageCachedCoefficients;
+        protected int[] docLengthCounts;
+        protected int[][] topicDocCounts;
+
+        protected final int startDoc;
+        protected final int endDoc;
+        protected final boolean isOnlyThread;
+        protected boolean shouldSaveState = false;
+
+        /** A worker for every document that uses the model's counts directly. */
+        protected SamplingWorker() {
+            this.startDoc = 0;
+            this.endDoc = data.size();
+            this.isOnlyThread = true;
+
+            this.random = PolylingualTopicModel.this.random;
+            this.languageTypeTopicCounts = PolylingualTopicModel.this.languageTypeTopicCounts;
+            this.languageTokensPerTopic = PolylingualTopicModel.this.languageTokensPerTopic;
+            this.languageSmoothingOnlyMasses = PolylingualTopicModel.this.languageSmoothingOnlyMasses;
+            this.languageCachedCoefficients = PolylingualTopicModel.this.languageCachedCoefficients;
+            this.docLengthCounts = PolylingualTopicModel.this.docLengthCounts;
+            this.topicDocCounts = PolylingualTopicModel.this.topicDocCounts;
+        }
+
+        /** Whether this worker's counts are still the model's own arrays. */
+        protected boolean usesModelCounts() {
+            return isOnlyThread
+                    && random == PolylingualTopicModel.this.random
+                    && languageTypeTopicCounts == PolylingualTopicModel.this.languageTypeTopicCounts
+                    && languageTokensPerTopic == PolylingualTopicModel.this.languageTokensPerTopic
+                    && languageSmoothingOnlyMasses == PolylingualTopicModel.this.languageSmoothingOnlyMasses
+                    && languageCachedCoefficients == PolylingualTopicModel.this.languageCachedCoefficients
+                    && docLengthCounts == PolylingualTopicModel.this.docLengthCounts
+                    && topicDocCounts == PolylingualTopicModel.this.topicDocCounts;
+        }
+
+        /** A worker for documents <code>startDoc</code> to <code>endDoc - 1</code> with private counts. */
+        protected SamplingWorker(final int startDoc, final int endDoc, final Randoms random) {
+            this.startDoc = startDoc;
+            this.endDoc = endDoc;
+            this.isOnlyThread = false;
+            this.random = random;
+
+            languageTypeTopicCounts = new int[numLanguages][][];
+            languageTokensPerTopic = new int[numLanguages][numTopics];
+            for (int language = 0; language < numLanguages; language++) {
+                final int[][] typeTopicCounts = PolylingualTopicModel.this.languageTypeTopicCounts[language];
+                languageTypeTopicCounts[language] = new int[typeTopicCounts.length][];
+                for (int type = 0; type < typeTopicCounts.length; type++) {
+                    languageTypeTopicCounts[language][type] = new int[typeTopicCounts[type].length];
+                }
+            }
+            languageSmoothingOnlyMasses = new double[numLanguages];
+            languageCachedCoefficients = new double[numLanguages][numTopics];
+            docLengthCounts = new int[PolylingualTopicModel.this.docLengthCounts.length];
+            topicDocCounts = new int[numTopics][docLengthCounts.length];
+        }
+
+        public Integer call() {
+            if (!isOnlyThread) {
+                copyModelCounts();
+            }
+
+            for (int doc = startDoc; doc < endDoc; doc++) {
+                sampleTopicsForOneDoc(data.get(doc), shouldSaveState, this);
+            }
+
+            if (!isOnlyThread) {
+                buildLocalCounts();
+            }
+            return endDoc - startDoc;
+        }
+
+        /** Replace this worker's counts with the model's current counts. */
+        protected void copyModelCounts() {
+            for (int language = 0; language < numLanguages; language++) {
+                final int[][] source = PolylingualTopicModel.this.languageTypeTopicCounts[language];
+                final int[][] target = languageTypeTopicCounts[language];
+                for (int type = 0; type < source.length; type++) {
+                    System.arraycopy(source[type], 0, target[type], 0, source[type].length);
+                }
+                System.arraycopy(PolylingualTopicModel.this.languageTokensPerTopic[language], 0,
+                        languageTokensPerTopic[language], 0, numTopics);
+
+                languageSmoothingOnlyMasses[language] = 0.0;
+                for (int topic = 0; topic < numTopics; topic++) {
+                    languageSmoothingOnlyMasses[language] += alpha[topic] * betas[language]
+                            / (languageTokensPerTopic[language][topic] + betaSums[language]);
+                    languageCachedCoefficients[language][topic] = alpha[topic]
+                            / (languageTokensPerTopic[language][topic] + betaSums[language]);
+                }
+            }
+        }
+
+        /**
+         * Once sampling is finished, replace this worker's counts with the counts of
+         * its own documents only, ready to be summed into the model.
+         */
+        protected void buildLocalCounts() {
+            for (int language = 0; language < numLanguages; language++) {
+                final int[][] typeTopicCounts = languageTypeTopicCounts[language];
+                for (int type = 0; type < typeTopicCounts.length; type++) {
+                    Arrays.fill(typeTopicCounts[type], 0);
+                }
+                Arrays.fill(languageTokensPerTopic[language], 0);
+            }
+
+            for (int doc = startDoc; doc < endDoc; doc++) {
+                final TopicAssignment document = data.get(doc);
+                for (int language = 0; language < numLanguages; language++) {
+                    final FeatureSequence tokens = (FeatureSequence) document.instances[language].getData();
+                    final int[] topics = document.topicSequences[language].getFeatures();
+                    for (int position = 0; position < tokens.getLength(); position++) {
+                        final int topic = topics[position];
+                        languageTokensPerTopic[language][topic]++;
+                        addCount(languageTypeTopicCounts[language][tokens.getIndexAtPosition(position)], topic, 1);
+                    }
+                }
+            }
+        }
+    }
+
     public void printTopWords(final File file, final int numWords, final boolean useNewLines) throws IOException {
         final PrintStream out = new PrintStream(file);
         printTopWords(out, numWords, useNewLines);
@@ -1481,6 +1798,7 @@ public class PolylingualTopicModel implements Serializable {
         topicModel.setNumIterations(numIterationsOption.value);
         topicModel.setOptimizeInterval(optimizeIntervalOption.value);
         topicModel.setBurninPeriod(optimizeBurnInOption.value);
+        topicModel.setNumThreads(numThreadsOption.value);
 
         if (outputStateIntervalOption.value != 0) {
             topicModel.setSaveState(outputStateIntervalOption.value, stateFile.value);
@@ -0,0 +1,102 @@
+/* Copyright (C) 2026 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package cc.mallet.topics;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.google.errorprone.annotations.Var;
+
+/**
+ * Helpers shared by {@link TopicCheckpoint} and {@link WordDocumentIndex}, which
+ *  process documents in contiguous blocks, one task per block, and store
+ *  integers on disk as unsigned varints.
+ */
+
+final class ShardUtils {
+
+    private ShardUtils() {}
+
+    /** Write a non-negative int in 7-bit groups, least significant first. */
+    static void writeVarInt(OutputStream out, @Var int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    static int readVarInt(InputStream in) throws IOException {
+        @Var
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.read();
+            if (b == -1) {
+                throw new EOFException();
+            }
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    /**
+     * Run the tasks on up to <code>numThreads</code> threads, or in this thread if there
+     *  is only one, and return their results in order. An <code>IOException</code> or
+     *  unchecked exception thrown by a task is rethrown as it is.
+     */
+    static <T> List<T> runAll(List<Callable<T>> tasks, int numThreads) throws IOException {
+        List<T> results = new ArrayList<T>();
+
+        if (tasks.size() == 1 || numThreads <= 1) {
+            for (Callable<T> task: tasks) {
+                try {
+                    results.add(task.call());
+                } catch (IOException | RuntimeException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new IOException(e);
+                }
+            }
+            return results;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(numThreads, tasks.size()));
+        try {
+            for (Future<T> future: executor.invokeAll(tasks)) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            InterruptedIOException interrupted = new InterruptedIOException("Interrupted while waiting for tasks");
+            interrupted.initCause(e);
+            throw interrupted;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) { throw (IOException) cause; }
+            if (cause instanceof RuntimeException) { throw (RuntimeException) cause; }
+            if (cause instanceof Error) { throw (Error) cause; }
+            throw new IOException(cause);
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,203 @@
+/* Copyright (C) 2005 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package cc.mallet.topics;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+import com.google.errorprone.annotations.Var;
+
+import cc.mallet.types.IDSorter;
+
+/**
+ * Word type/topic counts in the packed format used by {@link ParallelTopicModel}:
+ *  each type has an array of ints holding <code>(count &lt;&lt; topicBits) + topic</code>,
+ *  sorted by count in descending order and followed by zeros. A type's array holds at
+ *  most as many topics as the type has tokens, so memory grows with the number of
+ *  distinct type/topic pairs rather than with types times topics.
+ */
+
+public class SparseTypeTopicCounts implements Serializable {
+
+    protected int numTopics;
+    protected int topicMask;
+    protected int topicBits;
+
+    protected int[][] counts; // indexed by <feature index, position>
+
+    /**
+     *  @param typeTotals the number of tokens of each type in the corpus,
+     *   which bounds the number of topics a type can be assigned to
+     */
+    public SparseTypeTopicCounts (int numTopics, int[] typeTotals) {
+        this.numTopics = numTopics;
+
+        if (Integer.bitCount(numTopics) == 1) {
+            topicMask = numTopics - 1;
+        }
+        else {
+            topicMask = Integer.highestOneBit(numTopics) * 2 - 1;
+        }
+        topicBits = Integer.bitCount(topicMask);
+
+        counts = new int[typeTotals.length][];
+        for (int type = 0; type < typeTotals.length; type++) {
+            counts[type] = new int[ Math.min(numTopics, typeTotals[type]) ];
+        }
+    }
+
+    /** Make an independent copy with the same counts. */
+    public SparseTypeTopicCounts (SparseTypeTopicCounts other) {
+        this.numTopics = other.numTopics;
+        this.topicMask = other.topicMask;
+        this.topicBits = other.topicBits;
+
+        counts = new int[other.counts.length][];
+        for (int type = 0; type < counts.length; type++) {
+            counts[type] = other.counts[type].clone();
+        }
+    }
+
+    public int getNumTypes() { return counts.length; }
+    public int getNumTopics() { return numTopics; }
+    public int getTopicMask() { return topicMask; }
+    public int getTopicBits() { return topicBits; }
+
+    /**
+     *  Return the packed counts for one type. Entries are sorted by count, descending;
+     *   the first zero entry, if any, ends the list.
+     */
+    public int[] getPackedCounts (int type) {
+        return counts[type];
+    }
+
+    public int getCount (int type, int topic) {
+        for (int packed: counts[type]) {
+            if (packed == 0) { break; }
+            if ((packed & topicMask) == topic) {
+                return packed >> topicBits;
+            }
+        }
+        return 0;
+    }
+
+    public void increment (int type, int topic) {
+        add(type, topic, 1);
+    }
+
+    /** Add a positive amount to the count of one type and topic, keeping the array sorted. */
+    public void add (int type, int topic, int amount) {
+        int[] currentTypeTopicCounts = counts[type];
+
+        @Var
+        int index = 0;
+        while (index < currentTypeTopicCounts.length &&
+               currentTypeTopicCounts[index] > 0 &&
+               (currentTypeTopicCounts[index] & topicMask) != topic) {
+            index++;
+        }
+        if (index == currentTypeTopicCounts.length) {
+            throw new IllegalStateException("No room for topic " + topic + " in the counts for type " + type);
+        }
+
+        int currentValue = currentTypeTopicCounts[index] >> topicBits;
+        int updatedCount = ((currentValue + amount) << topicBits) + topic;
+
+        // Bubble the increased value left, if necessary
+        while (index > 0 && updatedCount > currentTypeTopicCounts[index - 1]) {
+            currentTypeTopicCounts[index] = currentTypeTopicCounts[index - 1];
+            index--;
+        }
+        currentTypeTopicCounts[index] = updatedCount;
+    }
+
+    public void decrement (int type, int topic) {
+        int[] currentTypeTopicCounts = counts[type];
+
+        @Var
+        int index = 0;
+        while (index < currentTypeTopicCounts.length &&
+               currentTypeTopicCounts[index] > 0 &&
+               (currentTypeTopicCounts[index] & topicMask) != topic) {
+            index++;
+        }
+        if (index == currentTypeTopicCounts.length || currentTypeTopicCounts[index] == 0) {
+            throw new IllegalStateException("Type " + type + " has no tokens in topic " + topic);
+        }
+
+        int currentValue = (currentTypeTopicCounts[index] >> topicBits) - 1;
+        int updatedCount = currentValue == 0 ? 0 : (currentValue << topicBits) + topic;
+
+        // Shift the reduced value to the right, if necessary
+        while (index < currentTypeTopicCounts.length - 1 &&
+               updatedCount < currentTypeTopicCounts[index + 1]) {
+            currentTypeTopicCounts[index] = currentTypeTopicCounts[index + 1];
+            index++;
+        }
+        currentTypeTopicCounts[index] = updatedCount;
+    }
+
+    /** Add every count for one type from another set of counts with the same types. */
+    public void addType (SparseTypeTopicCounts other, int type) {
+        for (int packed: other.counts[type]) {
+            if (packed == 0) { break; }
+            add(type, packed & topicMask, packed >> topicBits);
+        }
+    }
+
+    /** Replace the counts for one type with those from another set of counts with the same types. */
+    public void copyType (SparseTypeTopicCounts other, int type) {
+        System.arraycopy(other.counts[type], 0, counts[type], 0, counts[type].length);
+    }
+
+    public void clearType (int type) {
+        Arrays.fill(counts[type], 0);
+    }
+
+    public void clear () {
+        for (int[] topicCounts: counts) {
+            Arrays.fill(topicCounts, 0);
+        }
+    }
+
+    /**
+     *  For each topic, return the types with non-zero counts in that topic,
+     *   sorted by count in descending order.
+     */
+    public IDSorter[][] getSortedTypes () {
+        int[] numTopicTypes = new int[numTopics];
+        for (int[] topicCounts: counts) {
+            for (int packed: topicCounts) {
+                if (packed == 0) { break; }
+                numTopicTypes[packed & topicMask]++;
+            }
+        }
+
+        IDSorter[][] sortedTypes = new IDSorter[numTopics][];
+        for (int topic = 0; topic < numTopics; topic++) {
+            sortedTypes[topic] = new IDSorter[ numTopicTypes[topic] ];
+        }
+        Arrays.fill(numTopicTypes, 0);
+
+        for (int type = 0; type < counts.length; type++) {
+            for (int packed: counts[type]) {
+                if (packed == 0) { break; }
+                int topic = packed & topicMask;
+                sortedTypes[topic][ numTopicTypes[topic] ] = new IDSorter(type, packed >> topicBits);
+                numTopicTypes[topic]++;
+            }
+        }
+
+        for (IDSorter[] types: sortedTypes) {
+            Arrays.sort(types);
+        }
+        return sortedTypes;
+    }
+
+    private static final long serialVersionUID = 1;
+}
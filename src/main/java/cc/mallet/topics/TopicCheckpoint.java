@@ -0,0 +1,342 @@
+/* Copyright (C) 2026 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package cc.mallet.topics;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import com.google.errorprone.annotations.Var;
+
+import cc.mallet.types.FeatureSequence;
+
+/**
+ * A compact binary snapshot of the Gibbs sampling state of a
+ *  {@link ParallelTopicModel}, for resuming long training runs.
+ * <p>
+ * A checkpoint is a directory. The documents are split into contiguous
+ *  shards, each written to its own file by its own thread: for each document,
+ *  the number of tokens as a varint followed by the topic of every token,
+ *  bit-packed using just enough bits for the number of topics. The header
+ *  file <code>checkpoint</code> holds the iteration number, the Dirichlet
+ *  hyperparameters and, for each shard, its documents, its number of tokens
+ *  and a hash of its word types, so that restoring against different data
+ *  fails rather than silently producing nonsense. The header is written
+ *  last, so a checkpoint interrupted part way is never mistaken for a
+ *  complete one.
+ * <p>
+ * Words are not stored: like the text state written by
+ *  {@link ParallelTopicModel#printState(File)}, a checkpoint can only be
+ *  restored into a model holding the same instances.
+ */
+
+public class TopicCheckpoint {
+
+    public static final int MAGIC = 0x4d4c434b; // "MLCK"
+    public static final int CURRENT_FORMAT_VERSION = 1;
+
+    public static final String HEADER_FILENAME = "checkpoint";
+
+    int iteration;
+    int numTopics;
+    int numTypes;
+    int numDocs;
+    double[] alpha;
+    double beta;
+
+    int[] shardStarts; // numShards + 1 document offsets
+    long[] shardTokens;
+    long[] shardTypeHashes;
+
+    private TopicCheckpoint() {}
+
+    /** The number of sampling iterations completed when the checkpoint was written. */
+    public int getIteration() { return iteration; }
+
+    public int getNumTopics() { return numTopics; }
+
+    public double[] getAlpha() { return alpha; }
+
+    public double getBeta() { return beta; }
+
+    /** Returns true if <code>directory</code> contains a complete checkpoint. */
+    public static boolean isCheckpoint(File directory) {
+        return new File(directory, HEADER_FILENAME).isFile();
+    }
+
+    /**
+     * Write the current topic assignments and hyperparameters of a model.
+     *
+     * @param iteration The number of sampling iterations completed so far
+     * @param numThreads The number of shards, each written by its own thread
+     */
+    public static void write(ParallelTopicModel model, int iteration, File directory, int numThreads) throws IOException {
+        if (! directory.isDirectory() && ! directory.mkdirs()) {
+            throw new IOException("Couldn't create checkpoint directory " + directory);
+        }
+
+        // Remove any previous header first, so the directory is incomplete until we finish
+        File headerFile = new File(directory, HEADER_FILENAME);
+        if (headerFile.exists() && ! headerFile.delete()) {
+            throw new IOException("Couldn't replace checkpoint " + headerFile);
+        }
+
+        List<TopicAssignment> data = model.getData();
+        int numShards = Math.max(1, Math.min(numThreads, data.size()));
+        int bits = bitsPerTopic(model.numTopics);
+
+        TopicCheckpoint checkpoint = new TopicCheckpoint();
+        checkpoint.iteration = iteration;
+        checkpoint.numTopics = model.numTopics;
+        checkpoint.numTypes = model.numTypes;
+        checkpoint.numDocs = data.size();
+        checkpoint.alpha = model.alpha.clone();
+        checkpoint.beta = model.beta;
+        checkpoint.shardStarts = new int[numShards + 1];
+        checkpoint.shardTokens = new long[numShards];
+        checkpoint.shardTypeHashes = new long[numShards];
+        for (int shard = 0; shard <= numShards; shard++) {
+            checkpoint.shardStarts[shard] = (int) ((long) data.size() * shard / numShards);
+        }
+
+        List<Callable<long[]>> tasks = new ArrayList<Callable<long[]>>();
+        for (int shard = 0; shard < numShards; shard++) {
+            int startDoc = checkpoint.shardStarts[shard];
+            int endDoc = checkpoint.shardStarts[shard + 1];
+            File shardFile = shardFile(directory, shard);
+            tasks.add(() -> writeShard(data, startDoc, endDoc, bits, shardFile));
+        }
+
+        List<long[]> results = ShardUtils.runAll(tasks, tasks.size());
+        for (int shard = 0; shard < numShards; shard++) {
+            checkpoint.shardTokens[shard] = results.get(shard)[0];
+            checkpoint.shardTypeHashes[shard] = results.get(shard)[1];
+        }
+
+        checkpoint.writeHeader(headerFile);
+    }
+
+    /** Read the header of a checkpoint, without its topic assignments. */
+    public static TopicCheckpoint read(File directory) throws IOException {
+        File headerFile = new File(directory, HEADER_FILENAME);
+        if (! headerFile.isFile()) {
+            throw new IOException(directory + " is not a complete topic model checkpoint");
+        }
+
+        TopicCheckpoint checkpoint = new TopicCheckpoint();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(headerFile)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(headerFile + " is not a topic model checkpoint");
+            }
+            int version = in.readInt();
+            if (version != CURRENT_FORMAT_VERSION) {
+                throw new IOException("Unsupported checkpoint version " + version + " in " + headerFile);
+            }
+
+            checkpoint.iteration = in.readInt();
+            checkpoint.numTopics = in.readInt();
+            checkpoint.numTypes = in.readInt();
+            checkpoint.numDocs = in.readInt();
+            checkpoint.beta = in.readDouble();
+            checkpoint.alpha = new double[checkpoint.numTopics];
+            for (int topic = 0; topic < checkpoint.numTopics; topic++) {
+                checkpoint.alpha[topic] = in.readDouble();
+            }
+
+            int numShards = in.readInt();
+            checkpoint.shardStarts = new int[numShards + 1];
+            checkpoint.shardTokens = new long[numShards];
+            checkpoint.shardTypeHashes = new long[numShards];
+            for (int shard = 0; shard <= numShards; shard++) {
+                checkpoint.shardStarts[shard] = in.readInt();
+            }
+            for (int shard = 0; shard < numShards; shard++) {
+                checkpoint.shardTokens[shard] = in.readLong();
+                checkpoint.shardTypeHashes[shard] = in.readLong();
+            }
+        }
+        return checkpoint;
+    }
+
+    /**
+     * Copy the topic assignments of this checkpoint into the topic sequences of
+     *  <code>data</code>, reading the shards with up to <code>numThreads</code> threads.
+     *  Type/topic counts are not updated.
+     *
+     * @throws IllegalStateException if the documents do not match those checkpointed
+     */
+    public void restoreTopics(List<TopicAssignment> data, File directory, int numThreads) throws IOException {
+        if (data.size() != numDocs) {
+            throw new IllegalStateException("The checkpoint has " + numDocs + " documents, but the model has " + data.size());
+        }
+
+        int bits = bitsPerTopic(numTopics);
+        List<Callable<long[]>> tasks = new ArrayList<Callable<long[]>>();
+        for (int shard = 0; shard < shardTokens.length; shard++) {
+            int startDoc = shardStarts[shard];
+            int endDoc = shardStarts[shard + 1];
+            File shardFile = shardFile(directory, shard);
+            tasks.add(() -> readShard(data, startDoc, endDoc, bits, shardFile));
+        }
+
+        List<long[]> results = ShardUtils.runAll(tasks, numThreads);
+        for (int shard = 0; shard < shardTokens.length; shard++) {
+            if (results.get(shard)[0] != shardTokens[shard] ||
+                results.get(shard)[1] != shardTypeHashes[shard]) {
+                throw new IllegalStateException("instance list and checkpoint do not match in documents " +
+                                                shardStarts[shard] + " to " + (shardStarts[shard + 1] - 1));
+            }
+        }
+    }
+
+    private void writeHeader(File headerFile) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(headerFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(CURRENT_FORMAT_VERSION);
+            out.writeInt(iteration);
+            out.writeInt(numTopics);
+            out.writeInt(numTypes);
+            out.writeInt(numDocs);
+            out.writeDouble(beta);
+            for (int topic = 0; topic < numTopics; topic++) {
+                out.writeDouble(alpha[topic]);
+            }
+
+            out.writeInt(shardTokens.length);
+            for (int shard = 0; shard < shardStarts.length; shard++) {
+                out.writeInt(shardStarts[shard]);
+            }
+            for (int shard = 0; shard < shardTokens.length; shard++) {
+                out.writeLong(shardTokens[shard]);
+                out.writeLong(shardTypeHashes[shard]);
+            }
+        }
+    }
+
+    /** Returns the number of tokens written and a hash of their word types. */
+    private static long[] writeShard(List<TopicAssignment> data, int startDoc, int endDoc,
+                                     int bits, File file) throws IOException {
+        @Var
+        long numTokens = 0;
+        @Var
+        long typeHash = 0;
+        @Var
+        byte[] packed = new byte[0];
+
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1 << 16)) {
+            for (int doc = startDoc; doc < endDoc; doc++) {
+                FeatureSequence tokens = (FeatureSequence) data.get(doc).instance.getData();
+                int[] topics = data.get(doc).topicSequence.getFeatures();
+                int length = tokens.getLength();
+
+                ShardUtils.writeVarInt(out, length);
+
+                int numBytes = (int) (((long) length * bits + 7) / 8);
+                if (packed.length < numBytes) {
+                    packed = new byte[Math.max(numBytes, 2 * packed.length)];
+                }
+
+                // Accumulate bits in a long and emit whole bytes as they fill up.
+                //  Topics are shifted by one so that unassigned tokens fit.
+                @Var
+                long buffer = 0;
+                @Var
+                int bufferBits = 0;
+                @Var
+                int numWritten = 0;
+                for (int position = 0; position < length; position++) {
+                    buffer |= (long) (topics[position] + 1) << bufferBits;
+                    bufferBits += bits;
+                    while (bufferBits >= 8) {
+                        packed[numWritten++] = (byte) buffer;
+                        buffer >>>= 8;
+                        bufferBits -= 8;
+                    }
+                    typeHash = 31 * typeHash + tokens.getIndexAtPosition(position);
+                }
+                if (bufferBits > 0) {
+                    packed[numWritten++] = (byte) buffer;
+                }
+                out.write(packed, 0, numWritten);
+
+                numTokens += length;
+            }
+        }
+
+        return new long[] { numTokens, typeHash };
+    }
+
+    /** Returns the number of tokens read and a hash of the word types they are assigned to. */
+    private static long[] readShard(List<TopicAssignment> data, int startDoc, int endDoc,
+                                    int bits, File file) throws IOException {
+        @Var
+        long numTokens = 0;
+        @Var
+        long typeHash = 0;
+        @Var
+        byte[] packed = new byte[0];
+        long mask = (1L << bits) - 1;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            for (int doc = startDoc; doc < endDoc; doc++) {
+                FeatureSequence tokens = (FeatureSequence) data.get(doc).instance.getData();
+                int[] topics = data.get(doc).topicSequence.getFeatures();
+                int length = ShardUtils.readVarInt(in);
+                if (length != tokens.getLength()) {
+                    throw new IllegalStateException("instance list and checkpoint do not match: document " + doc +
+                                                    " has " + tokens.getLength() + " tokens, but " + length + " in the checkpoint");
+                }
+
+                int numBytes = (int) (((long) length * bits + 7) / 8);
+                if (packed.length < numBytes) {
+                    packed = new byte[Math.max(numBytes, 2 * packed.length)];
+                }
+                in.readFully(packed, 0, numBytes);
+
+                @Var
+                long buffer = 0;
+                @Var
+                int bufferBits = 0;
+                @Var
+                int numRead = 0;
+                for (int position = 0; position < length; position++) {
+                    while (bufferBits < bits) {
+                        buffer |= (long) (packed[numRead++] & 0xff) << bufferBits;
+                        bufferBits += 8;
+                    }
+                    topics[position] = (int) (buffer & mask) - 1;
+                    buffer >>>= bits;
+                    bufferBits -= bits;
+                    typeHash = 31 * typeHash + tokens.getIndexAtPosition(position);
+                }
+
+                numTokens += length;
+            }
+        }
+
+        return new long[] { numTokens, typeHash };
+    }
+
+    /** The number of bits needed for a topic plus one, so that -1 (unassigned) is zero. */
+    static int bitsPerTopic(int numTopics) {
+        return 32 - Integer.numberOfLeadingZeros(numTopics);
+    }
+
+    static File shardFile(File directory, int shard) {
+        return new File(directory, String.format("shard-%05d", shard));
+    }
+}
@@ -4,6 +4,13 @@ import cc.mallet.types.*;
 import cc.mallet.util.*;
 
 import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.io.*;
 
 public class TopicInferencer implements Serializable {
@@ -30,6 +37,51 @@ public class TopicInferencer implements Serializable {
     
     protected double smoothingOnlyMass = 0.0;
     protected double[] cachedCoefficients;
+
+    // Working memory for the single-threaded methods, which shares
+    //  random, alpha and cachedCoefficients with this object.
+    protected transient Scratch defaultScratch = null;
+
+    // Documents sampled by each thread per batch in the multi-threaded writer
+    public static final int DOCS_PER_THREAD_BATCH = 256;
+
+    /**
+     *  Working memory for sampling topic distributions for one document at a time.
+     *   Arrays are allocated once and reused for every document, so each
+     *   thread that samples concurrently needs its own <code>Scratch</code>,
+     *   created with {@link TopicInferencer#newScratch(Randoms)}.
+     */
+    public static class Scratch {
+        protected Randoms random;
+        protected double[] alpha;
+        protected double smoothingOnlyMass;
+        protected double[] cachedCoefficients;
+        protected int[] topics;
+        protected int[] localTopicCounts;
+        protected int[] localTopicIndex;
+        protected double[] topicTermScores;
+        protected int[] typeRow;
+        protected IDSorter[] sortedTopics;
+        protected StringBuilder builder = new StringBuilder();
+
+        protected Scratch(int numTopics, Randoms random, double[] alpha,
+                          double smoothingOnlyMass, double[] cachedCoefficients) {
+            this.random = random;
+            this.alpha = alpha;
+            this.smoothingOnlyMass = smoothingOnlyMass;
+            this.cachedCoefficients = cachedCoefficients;
+            topics = new int[64];
+            localTopicCounts = new int[numTopics];
+            localTopicIndex = new int[numTopics];
+            topicTermScores = new double[numTopics];
+            typeRow = new int[numTopics + 1];
+            sortedTopics = new IDSorter[numTopics];
+            for (int topic = 0; topic < numTopics; topic++) {
+                // Initialize the sorters with dummy values
+                sortedTopics[topic] = new IDSorter(topic, topic);
+            }
+        }
+    }
     
     public TopicInferencer (int[][] typeTopicCounts, int[] tokensPerTopic, Alphabet alphabet,
                             double[] alpha, double beta, double betaSum) {
@@ -73,22 +125,90 @@ public class TopicInferencer implements Serializable {
         random = new Randoms(seed);
     }
 
+    /**
+     *  Create working memory for one sampling thread, with its own random
+     *   number generator and its own copies of alpha and the cached coefficients.
+     */
+    public Scratch newScratch(Randoms random) {
+        return new Scratch(numTopics, random, alpha.clone(), smoothingOnlyMass, cachedCoefficients.clone());
+    }
+
+    /**
+     *  Set up any per-document state in the scratch space before sampling.
+     *   Subclasses with document-specific priors override this method.
+     */
+    protected void prepareScratch(Instance instance, Scratch scratch) {}
+
     /** 
      *  Use Gibbs sampling to infer a topic distribution.
      *  Topics are initialized to the (or a) most probable topic
      *   for each token. Using zero iterations returns exactly this
      *   initial topic distribution.<p/>
      *  This code does not adjust type-topic counts: P(w|t) is clamped.
+     *  This method is not thread-safe: use the version that takes a
+     *   {@link Scratch} to sample from several threads.
      */
     public double[] getSampledDistribution(Instance instance, int numIterations,
                                            int thinning, int burnIn) {
+        return getSampledDistribution(instance, numIterations, thinning, burnIn,
+                                      getDefaultScratch(), new double[numTopics]);
+    }
+
+    /**
+     *  The packed count/topic values of a type, sorted by count and ending at the first
+     *   zero or at the end of the array, or null if the type is not in the model.
+     *   Subclasses that store the counts in another form may copy the row into
+     *   the <code>typeRow</code> of the scratch space and return that.
+     */
+    protected int[] getTypeRow(int type, Scratch scratch) {
+        if (type >= numTypes || typeTopicCounts[type].length == 0) { return null; }
+        return typeTopicCounts[type];
+    }
+
+    /** The working memory used by the single-threaded methods. */
+    protected Scratch getDefaultScratch() {
+        if (defaultScratch == null) {
+            defaultScratch = new Scratch(numTopics, random, alpha, smoothingOnlyMass, cachedCoefficients);
+        }
+
+        // These fields may have been replaced since the scratch space was created
+        defaultScratch.random = random;
+        defaultScratch.alpha = alpha;
+        defaultScratch.smoothingOnlyMass = smoothingOnlyMass;
+        defaultScratch.cachedCoefficients = cachedCoefficients;
+
+        return defaultScratch;
+    }
+
+    /** 
+     *  Use Gibbs sampling to infer a topic distribution, using the
+     *   provided working memory and writing the result into
+     *   <code>result</code>, which is also returned. No memory is allocated
+     *   unless the document is longer than any seen before with this scratch space.
+     */
+    public double[] getSampledDistribution(Instance instance, int numIterations,
+                                           int thinning, int burnIn,
+                                           Scratch scratch, double[] result) {
+
+        prepareScratch(instance, scratch);
 
         FeatureSequence tokens = (FeatureSequence) instance.getData();
         int docLength = tokens.size();
-        int[] topics = new int[docLength];
-
-        int[] localTopicCounts = new int[numTopics];
-        int[] localTopicIndex = new int[numTopics];
+        if (scratch.topics.length < docLength) {
+            scratch.topics = new int[Math.max(docLength, 2 * scratch.topics.length)];
+        }
+        int[] topics = scratch.topics;
+        Arrays.fill(topics, 0, docLength, 0);
+
+        int[] localTopicCounts = scratch.localTopicCounts;
+        int[] localTopicIndex = scratch.localTopicIndex;
+        Arrays.fill(localTopicCounts, 0);
+
+        // Per-thread state that shadows the fields of the same name
+        Randoms random = scratch.random;
+        double[] alpha = scratch.alpha;
+        double smoothingOnlyMass = scratch.smoothingOnlyMass;
+        double[] cachedCoefficients = scratch.cachedCoefficients;
         
         int type;
         int[] currentTypeTopicCounts;
@@ -98,11 +218,10 @@ public class TopicInferencer implements Serializable {
 
         for (int position = 0; position < docLength; position++) {
             type = tokens.getIndexAtPosition(position);
+            currentTypeTopicCounts = getTypeRow(type, scratch);
 
             // Ignore out of vocabulary terms
-            if (type < numTypes && typeTopicCounts[type].length != 0) { 
-
-                currentTypeTopicCounts = typeTopicCounts[type];
+            if (currentTypeTopicCounts != null) { 
 
                 // This value should be a topic such that
                 //  no other topic has more tokens of this type 
@@ -146,7 +265,7 @@ public class TopicInferencer implements Serializable {
         }
 
         double topicTermMass = 0.0;
-        double[] topicTermScores = new double[numTopics];
+        double[] topicTermScores = scratch.topicTermScores;
         int[] topicTermIndices;
         int[] topicTermValues;
         int i;
@@ -154,7 +273,7 @@ public class TopicInferencer implements Serializable {
 
         int oldTopic, newTopic;
 
-        double[] result = new double[numTopics];
+        Arrays.fill(result, 0.0);
         double sum = 0.0;
 
         for (int iteration = 1; iteration <= numIterations; iteration++) {
@@ -162,12 +281,12 @@ public class TopicInferencer implements Serializable {
             //  Iterate over the positions (words) in the document
             for (int position = 0; position < docLength; position++) {
                 type = tokens.getIndexAtPosition(position);
+                currentTypeTopicCounts = getTypeRow(type, scratch);
                 
                 // ignore out-of-vocabulary terms
-                if (type >= numTypes || typeTopicCounts[type].length == 0) { continue; }
+                if (currentTypeTopicCounts == null) { continue; }
 
                 oldTopic = topics[position];
-                currentTypeTopicCounts = typeTopicCounts[type];
 
                 // Prepare to sample by adjusting existing counts.
                 // Note that we do not need to change the smoothing-only
@@ -287,23 +406,9 @@ public class TopicInferencer implements Serializable {
                         sample -= alpha[newTopic] /
                             (tokensPerTopic[newTopic] + betaSum);
                         
-                        while (sample > 0.0) {
+                        // Stop at the last topic in case of rounding error
+                        while (sample > 0.0 && newTopic < numTopics - 1) {
                             newTopic++;
-
-                            if (newTopic >= numTopics) {
-                                index = 0;
-                                
-                                while (index < currentTypeTopicCounts.length &&
-                                       currentTypeTopicCounts[index] > 0) {
-                                    currentTopic = currentTypeTopicCounts[index] & topicMask;
-                                    currentValue = currentTypeTopicCounts[index] >> topicBits;
-                                    
-                                    System.out.println(currentTopic + "\t" + currentValue + "\t" + topicTermScores[index] +
-                                                       "\t" + cachedCoefficients[currentTopic]);
-                                    index++;
-                                }
-                            }
-
                             sample -= alpha[newTopic] /
                                 (tokensPerTopic[newTopic] + betaSum);
                         }
@@ -312,6 +417,11 @@ public class TopicInferencer implements Serializable {
                     
                 }
 
+                if (newTopic == -1) {
+                    // Rounding error in the beta bucket: take the last non-zero topic
+                    newTopic = localTopicIndex[nonZeroTopics - 1];
+                }
+
                 topics[position] = newTopic;
 
                 topicBetaMass -= beta * localTopicCounts[newTopic] /
@@ -402,63 +512,192 @@ public class TopicInferencer implements Serializable {
                                            File distributionsFile,
                                            int numIterations, int thinning, int burnIn,
                                            double threshold, int max) throws IOException {
+        writeInferredDistributions(instances, distributionsFile,
+                                   numIterations, thinning, burnIn, threshold, max, 1);
+    }
+
+    /**
+     *  Infer topics for the provided instances using several threads and
+     *   write distributions to the provided file, in input order.
+     *
+     *  @param numThreads    The number of sampling threads
+     */
+    public void writeInferredDistributions(InstanceList instances, 
+                                           File distributionsFile,
+                                           int numIterations, int thinning, int burnIn,
+                                           double threshold, int max, int numThreads) throws IOException {
+
+        PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(distributionsFile)));
+        writeInferredDistributions(instances.iterator(), out,
+                                   numIterations, thinning, burnIn, threshold, max, numThreads);
+        out.close();
+    }
+
+    /**
+     *  Infer topics for a stream of instances and write distributions
+     *   to <code>out</code> in input order. With more than one thread, instances are
+     *   read in batches of <code>numThreads * DOCS_PER_THREAD_BATCH</code>, so memory
+     *   use does not depend on the number of instances. Each thread has its own
+     *   {@link Scratch} space and a random number generator seeded from this
+     *   inferencer's, so output is reproducible for a fixed seed and thread count.
+     */
+    public void writeInferredDistributions(Iterator<Instance> instances, 
+                                           PrintWriter out,
+                                           int numIterations, int thinning, int burnIn,
+                                           double threshold, int initialMax, int numThreads) {
 
-        PrintWriter out = new PrintWriter(distributionsFile);
-        
         out.print ("#doc name topic proportion ...\n");
 
-        IDSorter[] sortedTopics = new IDSorter[ numTopics ];
-        for (int topic = 0; topic < numTopics; topic++) {
-            // Initialize the sorters with dummy values
-            sortedTopics[topic] = new IDSorter(topic, topic);
+        int max = (initialMax < 0 || initialMax > numTopics) ? numTopics : initialMax;
+
+        if (numThreads <= 1) {
+            Scratch scratch = getDefaultScratch();
+            double[] topicDistribution = new double[numTopics];
+
+            int doc = 0;
+            while (instances.hasNext()) {
+                Instance instance = instances.next();
+                getSampledDistribution(instance, numIterations, thinning, burnIn,
+                                       scratch, topicDistribution);
+                out.println(formatDistribution(doc, instance, topicDistribution,
+                                               threshold, max, scratch));
+                doc++;
+            }
+            return;
         }
 
-        if (max < 0 || max > numTopics) {
-            max = numTopics;
+        int batchSize = numThreads * DOCS_PER_THREAD_BATCH;
+        Instance[] batch = new Instance[batchSize];
+        String[] lines = new String[batchSize];
+
+        List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+        for (int thread = 0; thread < numThreads; thread++) {
+            Scratch scratch = newScratch(new Randoms(random.nextInt()));
+            tasks.add(new InferenceCallable(scratch, batch, lines, thread, numThreads,
+                                            numIterations, thinning, burnIn, threshold, max));
         }
 
-        int doc = 0;
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try {
+            int firstDoc = 0;
+            while (instances.hasNext()) {
+                int batchDocs = 0;
+                while (batchDocs < batchSize && instances.hasNext()) {
+                    batch[batchDocs] = instances.next();
+                    batchDocs++;
+                }
 
-        for (Instance instance: instances) {
-            
-            StringBuilder builder = new StringBuilder();
+                for (Callable<Integer> task: tasks) {
+                    ((InferenceCallable) task).setBatch(firstDoc, batchDocs);
+                }
 
-            double[] topicDistribution =
-                getSampledDistribution(instance, numIterations,
-                                       thinning, burnIn);
-            builder.append(doc);
-            builder.append("\t");
+                for (Future<Integer> future: executor.invokeAll(tasks)) {
+                    future.get();
+                }
 
-            if (instance.getName() != null) {
-                builder.append(instance.getName()); 
-            }
-            else {
-                builder.append("no-name");
+                for (int i = 0; i < batchDocs; i++) {
+                    out.println(lines[i]);
+                    batch[i] = null;
+                    lines[i] = null;
+                }
+                firstDoc += batchDocs;
             }
+        } catch (Exception e) {
+            throw new IllegalStateException("Topic inference failed", e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
 
-            if (threshold > 0.0) {
-                for (int topic = 0; topic < numTopics; topic++) {
-                    sortedTopics[topic].set(topic, topicDistribution[topic]);
-                }
-                Arrays.sort(sortedTopics);
+    /**
+     *  Format one line of output: the document number, name, and either all
+     *   topic proportions or the largest <code>max</code> proportions above
+     *   <code>threshold</code> as topic/proportion pairs.
+     */
+    protected String formatDistribution(int doc, Instance instance, double[] topicDistribution,
+                                        double threshold, int max, Scratch scratch) {
+        StringBuilder builder = scratch.builder;
+        builder.setLength(0);
+
+        builder.append(doc);
+        builder.append('\t');
+
+        if (instance.getName() != null) {
+            builder.append(instance.getName()); 
+        }
+        else {
+            builder.append("no-name");
+        }
+
+        if (threshold > 0.0) {
+            IDSorter[] sortedTopics = scratch.sortedTopics;
+            for (int topic = 0; topic < numTopics; topic++) {
+                sortedTopics[topic].set(topic, topicDistribution[topic]);
+            }
+            Arrays.sort(sortedTopics);
+            
+            for (int i = 0; i < max; i++) {
+                if (sortedTopics[i].getWeight() < threshold) { break; }
                 
-                for (int i = 0; i < max; i++) {
-                    if (sortedTopics[i].getWeight() < threshold) { break; }
-                    
-                    builder.append("\t" + sortedTopics[i].getID() +
-                                   "\t" + sortedTopics[i].getWeight());
-                }
+                builder.append('\t').append(sortedTopics[i].getID());
+                builder.append('\t').append(sortedTopics[i].getWeight());
             }
-            else {
-                for (int topic = 0; topic < numTopics; topic++) {
-                    builder.append("\t" + topicDistribution[topic]);
-                }
+        }
+        else {
+            for (int topic = 0; topic < numTopics; topic++) {
+                builder.append('\t').append(topicDistribution[topic]);
             }
-            out.println(builder);
-            doc++;
         }
 
-        out.close();
+        return builder.toString();
+    }
+
+    /**
+     *  Samples every <code>numThreads</code>'th document of the current batch,
+     *   starting at <code>threadID</code>, and formats the output lines.
+     */
+    protected class InferenceCallable implements Callable<Integer> {
+        Scratch scratch;
+        Instance[] batch;
+        String[] lines;
+        double[] topicDistribution;
+        int threadID, numThreads;
+        int numIterations, thinning, burnIn;
+        double threshold;
+        int max;
+        int firstDoc, batchDocs;
+
+        InferenceCallable(Scratch scratch, Instance[] batch, String[] lines,
+                          int threadID, int numThreads,
+                          int numIterations, int thinning, int burnIn,
+                          double threshold, int max) {
+            this.scratch = scratch;
+            this.batch = batch;
+            this.lines = lines;
+            this.threadID = threadID;
+            this.numThreads = numThreads;
+            this.numIterations = numIterations;
+            this.thinning = thinning;
+            this.burnIn = burnIn;
+            this.threshold = threshold;
+            this.max = max;
+            topicDistribution = new double[numTopics];
+        }
+
+        void setBatch(int firstDoc, int batchDocs) {
+            this.firstDoc = firstDoc;
+            this.batchDocs = batchDocs;
+        }
+
+        public Integer call() {
+            for (int i = threadID; i < batchDocs; i += numThreads) {
+                getSampledDistribution(batch[i], numIterations, thinning, burnIn,
+                                       scratch, topicDistribution);
+                lines[i] = formatDistribution(firstDoc + i, batch[i], topicDistribution,
+                                              threshold, max, scratch);
+            }
+            return batchDocs;
+        }
     }
 
     // Serialization
@@ -3,11 +3,17 @@ package cc.mallet.topics;
 import java.io.*;
 import java.util.*;
 import java.text.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import cc.mallet.types.*;
 import cc.mallet.util.*;
 
-import com.carrotsearch.hppc.IntHashSet;
+import com.carrotsearch.hppc.IntArrayList;
+import com.carrotsearch.hppc.IntIntHashMap;
 
 public class TopicModelDiagnostics {
 
@@ -39,9 +45,21 @@ public class TopicModelDiagnostics {
 	double[] sumCountTimesLogCount;
 
 	int[] wordTypeCounts;
-	int numTokens = 0;
+	long numTokens = 0;
+
+	WordDocumentIndex wordDocumentIndex;
 
 	public TopicModelDiagnostics (ParallelTopicModel model, int numTopWords) {
+		this(model, numTopWords, 1, null);
+	}
+
+	/**
+	 *  @param numThreads The number of threads used to sweep the documents and
+	 *   to count co-occurring top words
+	 *  @param wordDocumentIndex An index of the model's documents, or null. If present,
+	 *   a coherence score based on document counts over the whole corpus is added.
+	 */
+	public TopicModelDiagnostics (ParallelTopicModel model, int numTopWords, int numThreads, WordDocumentIndex wordDocumentIndex) {
 		numTopics = model.getNumTopics();
 		this.numTopWords = numTopWords;
 
@@ -50,6 +68,14 @@ public class TopicModelDiagnostics {
 		alphabet = model.getAlphabet();
 		topicSortedWords = model.getSortedWords();
 
+		if (wordDocumentIndex != null &&
+			(wordDocumentIndex.getNumDocs() != model.getData().size() || wordDocumentIndex.getNumTypes() != alphabet.size())) {
+			throw new IllegalArgumentException("The word/document index has " + wordDocumentIndex.getNumDocs() + " documents and " +
+											   wordDocumentIndex.getNumTypes() + " word types, but the model has " +
+											   model.getData().size() + " and " + alphabet.size());
+		}
+		this.wordDocumentIndex = wordDocumentIndex;
+
 		topicTopWords = new String[numTopics][numTopWords];
 
 		numRank1Documents = new int[numTopics];
@@ -77,126 +103,243 @@ public class TopicModelDiagnostics {
 
 		}
 
-		collectDocumentStatistics();
+		ExecutorService executor = null;
+		if (numThreads > 1) {
+			executor = Executors.newFixedThreadPool(numThreads);
+		}
+
+		try {
+			collectDocumentStatistics(executor, numThreads);
 		
-		diagnostics.add(getTokensPerTopic(model.tokensPerTopic));
-		diagnostics.add(getDocumentEntropy(model.tokensPerTopic));
-		diagnostics.add(getWordLengthScores());
-		diagnostics.add(getCoherence());
-		diagnostics.add(getDistanceFromUniform());
-		diagnostics.add(getDistanceFromCorpus());
-		diagnostics.add(getEffectiveNumberOfWords());
-		diagnostics.add(getTokenDocumentDiscrepancies());
-		diagnostics.add(getRank1Percent());
-		diagnostics.add(getDocumentPercentRatio(FIFTY_PERCENT_INDEX, TWO_PERCENT_INDEX));
-		diagnostics.add(getDocumentPercent(5));
-		diagnostics.add(getExclusivity());
+			diagnostics.add(getTokensPerTopic(model.tokensPerTopic));
+			diagnostics.add(getDocumentEntropy(model.tokensPerTopic));
+			diagnostics.add(getWordLengthScores());
+			diagnostics.add(getCoherence());
+			if (wordDocumentIndex != null) {
+				diagnostics.add(getCorpusCoherence(executor));
+			}
+			diagnostics.add(getDistanceFromUniform());
+			diagnostics.add(getDistanceFromCorpus());
+			diagnostics.add(getEffectiveNumberOfWords());
+			diagnostics.add(getTokenDocumentDiscrepancies());
+			diagnostics.add(getRank1Percent());
+			diagnostics.add(getDocumentPercentRatio(FIFTY_PERCENT_INDEX, TWO_PERCENT_INDEX));
+			diagnostics.add(getDocumentPercent(5));
+			diagnostics.add(getExclusivity());
+		} finally {
+			if (executor != null) {
+				executor.shutdown();
+			}
+		}
 	}
 
 	public void collectDocumentStatistics () {
+		collectDocumentStatistics(null, 1);
+	}
+
+	/**
+	 *  Sweep the documents once, in contiguous blocks that can run in parallel. Each block
+	 *   records, for every topic and top word, the sorted list of documents in which that word
+	 *   is assigned to the topic. The blocks' lists are joined in order, and the co-document
+	 *   counts of each topic are then the sizes of the pairwise intersections of its lists,
+	 *   counted one topic per task. This replaces a per-document loop over every pair of
+	 *   top words in every topic present in the document.
+	 */
+	void collectDocumentStatistics (ExecutorService executor, int numBlocks) {
 
 		topicCodocumentMatrices = new int[numTopics][numTopWords][numTopWords];
 		wordTypeCounts = new int[alphabet.size()];
 		numTokens = 0;
 
-		// This is an array of hash sets containing the words-of-interest for each topic,
-		//  used for checking if the word at some position is one of those words.
-		IntHashSet[] topicTopWordIndices = new IntHashSet[numTopics];
-		
-		// The same as the topic top words, but with int indices instead of strings,
-		//  used for iterating over positions.
-		int[][] topicWordIndicesInOrder = new int[numTopics][numTopWords];
-
-		// This is an array of hash sets that will hold the words-of-interest present in a document,
-		//  which will be cleared after every document.
-		IntHashSet[] docTopicWordIndices = new IntHashSet[numTopics];
-		
-		int numDocs = model.getData().size();
-
-		// The count of each topic, again cleared after every document.
-		int[] topicCounts = new int[numTopics];
+		// For each topic, a map from each top word to its rank, used for checking
+		//  if the word at some position is one of the words of interest.
+		IntIntHashMap[] topicTopWordRanks = new IntIntHashMap[numTopics];
 
 		for (int topic = 0; topic < numTopics; topic++) {
-			IntHashSet wordIndices = new IntHashSet();
+			IntIntHashMap wordRanks = new IntIntHashMap();
 
 			for (int i = 0; i < numTopWords; i++) {
 				if (topicTopWords[topic][i] != null) {
-					int type = alphabet.lookupIndex(topicTopWords[topic][i]);
-					topicWordIndicesInOrder[topic][i] = type;
-					wordIndices.add(type);
+					wordRanks.put(alphabet.lookupIndex(topicTopWords[topic][i]), i);
 				}
 			}
 			
-			topicTopWordIndices[topic] = wordIndices;
-			docTopicWordIndices[topic] = new IntHashSet();
+			topicTopWordRanks[topic] = wordRanks;
+		}
+
+		int numDocs = model.getData().size();
+		int numTasks = Math.max(1, Math.min(numBlocks, numDocs));
+		
+		List<Callable<DocumentStatistics>> blockTasks = new ArrayList<Callable<DocumentStatistics>>();
+		for (int block = 0; block < numTasks; block++) {
+			blockTasks.add(new DocumentStatistics(topicTopWordRanks,
+												  (int) ((long) numDocs * block / numTasks),
+												  (int) ((long) numDocs * (block + 1) / numTasks)));
 		}
 
-		int doc = 0;
+		List<DocumentStatistics> blocks = invokeAll(executor, blockTasks);
 
-		for (TopicAssignment document: model.getData()) {
+		for (DocumentStatistics block: blocks) {
+			numTokens += block.numTokens;
+			for (int type = 0; type < wordTypeCounts.length; type++) {
+				wordTypeCounts[type] += block.wordTypeCounts[type];
+			}
+			for (int topic = 0; topic < numTopics; topic++) {
+				numRank1Documents[topic] += block.numRank1Documents[topic];
+				numNonZeroDocuments[topic] += block.numNonZeroDocuments[topic];
+				sumCountTimesLogCount[topic] += block.sumCountTimesLogCount[topic];
+				for (int i = 0; i < DEFAULT_DOC_PROPORTIONS.length; i++) {
+					numDocumentsAtProportions[topic][i] += block.numDocumentsAtProportions[topic][i];
+				}
+			}
+		}
 
-			FeatureSequence tokens = (FeatureSequence) document.instance.getData();
-			FeatureSequence topics =  (FeatureSequence) document.topicSequence;
-			
-			for (int position = 0; position < tokens.size(); position++) {
-				int type = tokens.getIndexAtPosition(position);
-				int topic = topics.getIndexAtPosition(position);
+		List<Callable<Object>> topicTasks = new ArrayList<Callable<Object>>();
+		for (int topic = 0; topic < numTopics; topic++) {
+			final int currentTopic = topic;
+			topicTasks.add(() -> { countCodocuments(currentTopic, blocks); return null; });
+		}
+		invokeAll(executor, topicTasks);
+	}
 
-				numTokens++;
-				wordTypeCounts[type]++;
+	/** Fill in one topic's co-document matrix from the blocks' document lists. */
+	private void countCodocuments (int topic, List<DocumentStatistics> blocks) {
+		int[][] matrix = topicCodocumentMatrices[topic];
 
-				topicCounts[topic]++;
-				
-				if (topicTopWordIndices[topic].contains(type)) {
-					docTopicWordIndices[topic].add(type);
+		// Diagonals are total number of documents with word W in topic T
+		int[][] documents = new int[numTopWords][];
+		for (int i = 0; i < numTopWords; i++) {
+			IntArrayList joined = new IntArrayList();
+			for (DocumentStatistics block: blocks) {
+				joined.addAll(block.topicWordDocuments[topic][i]);
+			}
+			documents[i] = joined.toArray();
+			matrix[i][i] = documents[i].length;
+		}
+
+		for (int i = 0; i < numTopWords; i++) {
+			for (int j = i + 1; j < numTopWords; j++) {
+				int count = WordDocumentIndex.intersectionSize(documents[i], documents[j]);
+				matrix[i][j] = count;
+				matrix[j][i] = count;
+			}
+		}
+	}
+
+	/** Run tasks on the executor, or in this thread if there is none, and return their results in order. */
+	private <T> List<T> invokeAll (ExecutorService executor, List<Callable<T>> tasks) {
+		List<T> results = new ArrayList<T>();
+		try {
+			if (executor == null) {
+				for (Callable<T> task: tasks) {
+					results.add(task.call());
 				}
 			}
+			else {
+				for (Future<T> future: executor.invokeAll(tasks)) {
+					results.add(future.get());
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while collecting topic diagnostics", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Topic diagnostics thread failed", e.getCause());
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+		return results;
+	}
+
+	/** Document statistics for one contiguous block of documents. */
+	class DocumentStatistics implements Callable<DocumentStatistics> {
+		IntIntHashMap[] topicTopWordRanks;
+		int startDoc, endDoc;
+
+		long numTokens = 0;
+		int[] wordTypeCounts = new int[alphabet.size()];
+		int[] numRank1Documents = new int[numTopics];
+		int[] numNonZeroDocuments = new int[numTopics];
+		int[][] numDocumentsAtProportions = new int[numTopics][ DEFAULT_DOC_PROPORTIONS.length ];
+		double[] sumCountTimesLogCount = new double[numTopics];
+
+		// For each topic and top word, the documents in which that word is assigned to that topic
+		IntArrayList[][] topicWordDocuments = new IntArrayList[numTopics][numTopWords];
+
+		DocumentStatistics (IntIntHashMap[] topicTopWordRanks, int startDoc, int endDoc) {
+			this.topicTopWordRanks = topicTopWordRanks;
+			this.startDoc = startDoc;
+			this.endDoc = endDoc;
+
+			for (int topic = 0; topic < numTopics; topic++) {
+				for (int i = 0; i < numTopWords; i++) {
+					topicWordDocuments[topic][i] = new IntArrayList();
+				}
+			}
+		}
+
+		public DocumentStatistics call () {
+			ArrayList<TopicAssignment> data = model.getData();
+
+			// The count of each topic and the topics present, cleared after every document.
+			int[] topicCounts = new int[numTopics];
+			int[] docTopics = new int[numTopics];
+
+			for (int doc = startDoc; doc < endDoc; doc++) {
+				TopicAssignment document = data.get(doc);
+
+				FeatureSequence tokens = (FeatureSequence) document.instance.getData();
+				FeatureSequence topics =  (FeatureSequence) document.topicSequence;
+				int numDocTopics = 0;
+			
+				for (int position = 0; position < tokens.size(); position++) {
+					int type = tokens.getIndexAtPosition(position);
+					int topic = topics.getIndexAtPosition(position);
 
-			int docLength = tokens.size();
+					numTokens++;
+					wordTypeCounts[type]++;
 
-			if (docLength > 0) {
+					if (topicCounts[topic] == 0) {
+						docTopics[numDocTopics] = topic;
+						numDocTopics++;
+					}
+					topicCounts[topic]++;
+
+					int rank = topicTopWordRanks[topic].getOrDefault(type, -1);
+					if (rank != -1) {
+						IntArrayList documents = topicWordDocuments[topic][rank];
+						if (documents.isEmpty() || documents.get(documents.size() - 1) != doc) {
+							documents.add(doc);
+						}
+					}
+				}
+
+				int docLength = tokens.size();
 				int maxTopic = -1;
 				int maxCount = -1;
 
-				for (int topic = 0; topic < numTopics; topic++) {
+				for (int i = 0; i < numDocTopics; i++) {
+					int topic = docTopics[i];
 					
-					if (topicCounts[topic] > 0) {
-						numNonZeroDocuments[topic]++;
+					numNonZeroDocuments[topic]++;
 						
-						if (topicCounts[topic] > maxCount) { 
-							maxTopic = topic;
-							maxCount = topicCounts[topic];
-						}
-
-						sumCountTimesLogCount[topic] += topicCounts[topic] * Math.log(topicCounts[topic]);
-						
-						double proportion = (model.alpha[topic] + topicCounts[topic]) / (model.alphaSum + docLength);
-						for (int i = 0; i < DEFAULT_DOC_PROPORTIONS.length; i++) {
-							if (proportion < DEFAULT_DOC_PROPORTIONS[i]) { break; }
-							numDocumentsAtProportions[topic][i]++;
-						}
+					// Ties go to the lowest topic number
+					if (topicCounts[topic] > maxCount || (topicCounts[topic] == maxCount && topic < maxTopic)) { 
+						maxTopic = topic;
+						maxCount = topicCounts[topic];
+					}
 
-						IntHashSet supportedWords = docTopicWordIndices[topic];
-						int[] indices = topicWordIndicesInOrder[topic];
-
-						for (int i = 0; i < numTopWords; i++) {
-							if (supportedWords.contains(indices[i])) {
-								for (int j = i; j < numTopWords; j++) {
-									if (i == j) {
-										// Diagonals are total number of documents with word W in topic T
-										topicCodocumentMatrices[topic][i][i]++;
-									}
-									else if (supportedWords.contains(indices[j])) {
-										topicCodocumentMatrices[topic][i][j]++;
-										topicCodocumentMatrices[topic][j][i]++;
-									}
-								}
-							}
-						}
+					sumCountTimesLogCount[topic] += topicCounts[topic] * Math.log(topicCounts[topic]);
 						
-						docTopicWordIndices[topic].clear();
-						topicCounts[topic] = 0;
+					double proportion = (model.alpha[topic] + topicCounts[topic]) / (model.alphaSum + docLength);
+					for (int j = 0; j < DEFAULT_DOC_PROPORTIONS.length; j++) {
+						if (proportion < DEFAULT_DOC_PROPORTIONS[j]) { break; }
+						numDocumentsAtProportions[topic][j]++;
 					}
+
+					topicCounts[topic] = 0;
 				}
 
 				if (maxTopic > -1) {
@@ -204,7 +347,7 @@ public class TopicModelDiagnostics {
 				}
 			}
 
-			doc++;
+			return this;
 		}
 	}
 
@@ -487,6 +630,52 @@ public class TopicModelDiagnostics {
 		return scores;
 	}
 
+	/**
+	 *  Coherence as in {@link #getCoherence()}, but counting documents that contain both
+	 *   words anywhere in the corpus, from the word/document index. Unlike the topic-specific
+	 *   counts, these do not depend on the sampling state, so scores from different models
+	 *   of the same corpus can be compared. Topics are scored in parallel if there is an executor.
+	 */
+	public TopicScores getCorpusCoherence(ExecutorService executor) {
+		TopicScores scores = new TopicScores("corpus_coherence", numTopics, numTopWords);
+		scores.wordScoresDefined = true;
+
+		List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+		for (int topic = 0; topic < numTopics; topic++) {
+			final int currentTopic = topic;
+			tasks.add(() -> { scoreCorpusCoherence(currentTopic, scores); return null; });
+		}
+		invokeAll(executor, tasks);
+
+		return scores;
+	}
+
+	private void scoreCorpusCoherence(int topic, TopicScores scores) {
+		int[] types = new int[numTopWords];
+		int numWords = 0;
+		while (numWords < numTopWords && topicTopWords[topic][numWords] != null) {
+			types[numWords] = alphabet.lookupIndex(topicTopWords[topic][numWords]);
+			numWords++;
+		}
+
+		double topicScore = 0.0;
+
+		for (int row = 0; row < numWords; row++) {
+			double rowScore = 0.0;
+			double minScore = 0.0;
+			for (int col = 0; col < row; col++) {
+				double score = Math.log( (wordDocumentIndex.getCodocumentFrequency(types[row], types[col]) + model.beta) /
+										 (wordDocumentIndex.getDocumentFrequency(types[col]) + model.beta) );
+				rowScore += score;
+				if (score < minScore) { minScore = score; }
+			}
+			topicScore += rowScore;
+			scores.setTopicWordScore(topic, row, minScore);
+		}
+
+		scores.setTopicScore(topic, topicScore);
+	}
+
 	public TopicScores getRank1Percent() {
         TopicScores scores = new TopicScores("rank_1_docs", numTopics, numTopWords);
 
@@ -0,0 +1,398 @@
+/* Copyright (C) 2026 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package cc.mallet.topics;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.function.IntFunction;
+
+import com.google.errorprone.annotations.Var;
+
+import cc.mallet.types.Alphabet;
+import cc.mallet.types.FeatureSequence;
+import cc.mallet.types.InstanceList;
+
+/**
+ * An inverted index from each word type to the sorted list of documents that
+ *  contain it, for counting how many documents contain a pair of words
+ *  without sweeping the corpus.
+ * <p>
+ * The index depends only on the documents, not on any topic assignments, so
+ *  it can be built once, written with {@link #write(File)}, and reused by
+ *  every model trained on the same instances: {@link #getCoherence(int[], double)}
+ *  scores a list of top words in time proportional to the lengths of their
+ *  postings. On disk each posting list is stored as a varint document
+ *  frequency followed by varint gaps between document numbers.
+ * <p>
+ * An index records the number of documents, word types and tokens it was
+ *  built from, and a hash of the alphabet's entries and of every document's
+ *  word types in order; {@link #matches(InstanceList)} compares these against
+ *  a corpus before a cached index is reused.
+ */
+
+public class WordDocumentIndex {
+
+    public static final int MAGIC = 0x4d4c5744; // "MLWD"
+    public static final int CURRENT_FORMAT_VERSION = 2;
+
+    int numDocs;
+    long numTokens;
+    long contentHash;
+    int[][] postings; // indexed by <feature index, position>, in increasing document order
+
+    private WordDocumentIndex(int numDocs, long numTokens, long contentHash, int[][] postings) {
+        this.numDocs = numDocs;
+        this.numTokens = numTokens;
+        this.contentHash = contentHash;
+        this.postings = postings;
+    }
+
+    /** Index the data of an instance list, whose instances must hold <code>FeatureSequence</code>s. */
+    public static WordDocumentIndex build(InstanceList instances, int numThreads) {
+        return build(instances.size(), doc -> (FeatureSequence) instances.get(doc).getData(),
+                     instances.getDataAlphabet(), numThreads);
+    }
+
+    /** Index the documents of a topic model, in the order of {@link ParallelTopicModel#getData()}. */
+    public static WordDocumentIndex build(ParallelTopicModel model, int numThreads) {
+        List<TopicAssignment> data = model.getData();
+        return build(data.size(), doc -> (FeatureSequence) data.get(doc).instance.getData(),
+                     model.getAlphabet(), numThreads);
+    }
+
+    /**
+     * Build the index in two passes over contiguous blocks of documents, one
+     *  block per thread. The first pass counts the documents of each type in
+     *  each block, which fixes where each block's documents go in the posting
+     *  lists; the second fills them in, so the lists come out sorted with no
+     *  merging.
+     */
+    private static WordDocumentIndex build(int numDocs, IntFunction<FeatureSequence> documents,
+                                           Alphabet alphabet, int numThreads) {
+        try {
+            return buildBlocks(numDocs, documents, alphabet, numThreads);
+        } catch (IOException e) {
+            // The tasks do no I/O, so this only happens if the thread is interrupted
+            throw new IllegalStateException("Interrupted while building word/document index", e);
+        }
+    }
+
+    private static WordDocumentIndex buildBlocks(int numDocs, IntFunction<FeatureSequence> documents,
+                                                 Alphabet alphabet, int numThreads) throws IOException {
+        int numTypes = alphabet.size();
+        int numBlocks = Math.max(1, Math.min(numThreads, numDocs));
+        int[] blockStarts = new int[numBlocks + 1];
+        for (int block = 0; block <= numBlocks; block++) {
+            blockStarts[block] = (int) ((long) numDocs * block / numBlocks);
+        }
+
+        List<Callable<int[]>> countTasks = new ArrayList<Callable<int[]>>();
+        for (int block = 0; block < numBlocks; block++) {
+            int startDoc = blockStarts[block];
+            int endDoc = blockStarts[block + 1];
+            countTasks.add(() -> countDocuments(documents, startDoc, endDoc, numTypes));
+        }
+        List<int[]> blockCounts = ShardUtils.runAll(countTasks, numThreads);
+
+        // Turn the counts into each block's starting offset in each posting list
+        int[][] postings = new int[numTypes][];
+        for (int type = 0; type < numTypes; type++) {
+            @Var
+            int total = 0;
+            for (int[] counts: blockCounts) {
+                int count = counts[type];
+                counts[type] = total;
+                total += count;
+            }
+            postings[type] = new int[total];
+        }
+
+        long[] documentHashes = new long[numDocs];
+        List<Callable<Long>> fillTasks = new ArrayList<Callable<Long>>();
+        for (int block = 0; block < numBlocks; block++) {
+            int startDoc = blockStarts[block];
+            int endDoc = blockStarts[block + 1];
+            int[] offsets = blockCounts.get(block);
+            fillTasks.add(() -> fillPostings(documents, startDoc, endDoc, offsets, postings, documentHashes));
+        }
+
+        @Var
+        long numTokens = 0;
+        for (long blockTokens: ShardUtils.runAll(fillTasks, numThreads)) {
+            numTokens += blockTokens;
+        }
+
+        // Combine the documents' hashes in order, so the hash doesn't depend on the number of blocks
+        @Var
+        long contentHash = alphabetHash(alphabet);
+        for (long documentHash: documentHashes) {
+            contentHash = 31 * contentHash + documentHash;
+        }
+
+        return new WordDocumentIndex(numDocs, numTokens, contentHash, postings);
+    }
+
+    /** A hash of the entries of an alphabet, in index order. */
+    private static long alphabetHash(Alphabet alphabet) {
+        @Var
+        long hash = alphabet.size();
+        for (int type = 0; type < alphabet.size(); type++) {
+            hash = 31 * hash + alphabet.lookupObject(type).hashCode();
+        }
+        return hash;
+    }
+
+    /** A hash of the word types of a document, in order. */
+    private static long documentHash(FeatureSequence tokens) {
+        @Var
+        long hash = tokens.getLength();
+        for (int position = 0; position < tokens.getLength(); position++) {
+            hash = 31 * hash + tokens.getIndexAtPosition(position);
+        }
+        return hash;
+    }
+
+    /** The hash {@link #build} records for these documents, computed in this thread. */
+    private static long contentHash(int numDocs, IntFunction<FeatureSequence> documents, Alphabet alphabet) {
+        @Var
+        long hash = alphabetHash(alphabet);
+        for (int doc = 0; doc < numDocs; doc++) {
+            hash = 31 * hash + documentHash(documents.apply(doc));
+        }
+        return hash;
+    }
+
+    /** Count, for each type, the documents in a block that contain it. */
+    private static int[] countDocuments(IntFunction<FeatureSequence> documents, int startDoc, int endDoc, int numTypes) {
+        int[] counts = new int[numTypes];
+        int[] lastDoc = new int[numTypes];
+        Arrays.fill(lastDoc, -1);
+
+        for (int doc = startDoc; doc < endDoc; doc++) {
+            FeatureSequence tokens = documents.apply(doc);
+            for (int position = 0; position < tokens.getLength(); position++) {
+                int type = tokens.getIndexAtPosition(position);
+                if (lastDoc[type] != doc) {
+                    lastDoc[type] = doc;
+                    counts[type]++;
+                }
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Write a block's documents into the posting lists, starting at the given offsets,
+     *  and their hashes into <code>documentHashes</code>. Returns the number of tokens in the block.
+     */
+    private static long fillPostings(IntFunction<FeatureSequence> documents, int startDoc, int endDoc,
+                                      int[] offsets, int[][] postings, long[] documentHashes) {
+        int[] lastDoc = new int[postings.length];
+        Arrays.fill(lastDoc, -1);
+
+        @Var
+        long numTokens = 0;
+        for (int doc = startDoc; doc < endDoc; doc++) {
+            FeatureSequence tokens = documents.apply(doc);
+            for (int position = 0; position < tokens.getLength(); position++) {
+                int type = tokens.getIndexAtPosition(position);
+                if (lastDoc[type] != doc) {
+                    lastDoc[type] = doc;
+                    postings[type][ offsets[type] ] = doc;
+                    offsets[type]++;
+                }
+            }
+            documentHashes[doc] = documentHash(tokens);
+            numTokens += tokens.getLength();
+        }
+        return numTokens;
+    }
+
+    public int getNumDocs() { return numDocs; }
+
+    public int getNumTypes() { return postings.length; }
+
+    public long getNumTokens() { return numTokens; }
+
+    /** The number of documents that contain <code>type</code>. */
+    public int getDocumentFrequency(int type) {
+        return postings[type].length;
+    }
+
+    /** The documents that contain <code>type</code>, in increasing order. Do not modify the array. */
+    public int[] getDocuments(int type) {
+        return postings[type];
+    }
+
+    /** The number of documents that contain both types. */
+    public int getCodocumentFrequency(int type1, int type2) {
+        return intersectionSize(postings[type1], postings[type2]);
+    }
+
+    /**
+     * Count the values two sorted arrays have in common. When one list is much
+     *  shorter than the other, each of its values is found by binary search in
+     *  the part of the longer list not yet passed.
+     */
+    public static int intersectionSize(int[] list1, int[] list2) {
+        int[] shorter = list1.length <= list2.length ? list1 : list2;
+        int[] longer = list1.length <= list2.length ? list2 : list1;
+
+        @Var
+        int count = 0;
+        if ((long) shorter.length * 16 < longer.length) {
+            @Var
+            int start = 0;
+            for (int value: shorter) {
+                int index = Arrays.binarySearch(longer, start, longer.length, value);
+                if (index >= 0) {
+                    count++;
+                    start = index + 1;
+                }
+                else {
+                    start = -index - 1;
+                }
+                if (start == longer.length) { break; }
+            }
+            return count;
+        }
+
+        @Var
+        int i = 0;
+        @Var
+        int j = 0;
+        while (i < shorter.length && j < longer.length) {
+            if (shorter[i] < longer[j]) { i++; }
+            else if (shorter[i] > longer[j]) { j++; }
+            else {
+                count++;
+                i++;
+                j++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * The document co-occurrence coherence of a list of words, most probable first:
+     *  the sum over pairs of <code>log((D(w_i, w_j) + smoothing) / (D(w_j) + smoothing))</code>
+     *  for <code>j &lt; i</code>, where <code>D</code> counts documents. This is the
+     *  coherence reported by {@link TopicModelDiagnostics}, but with documents
+     *  counted over the whole corpus rather than only where the words are
+     *  assigned to the topic, so scores are comparable between models.
+     */
+    public double getCoherence(int[] types, double smoothing) {
+        @Var
+        double coherence = 0.0;
+        for (int row = 1; row < types.length; row++) {
+            for (int col = 0; col < row; col++) {
+                coherence += Math.log((getCodocumentFrequency(types[row], types[col]) + smoothing) /
+                                      (getDocumentFrequency(types[col]) + smoothing));
+            }
+        }
+        return coherence;
+    }
+
+    /**
+     * Returns true if this index was built from these instances: they have the
+     *  same number of documents and word types, and the same hash of the
+     *  alphabet and of the word types in each document.
+     */
+    public boolean matches(InstanceList instances) {
+        if (instances.size() != numDocs || instances.getDataAlphabet().size() != postings.length) {
+            return false;
+        }
+        return contentHash(instances.size(), doc -> (FeatureSequence) instances.get(doc).getData(),
+                           instances.getDataAlphabet()) == contentHash;
+    }
+
+    /** Returns true if this index was built from the documents of a topic model. */
+    public boolean matches(ParallelTopicModel model) {
+        List<TopicAssignment> data = model.getData();
+        if (data.size() != numDocs || model.getAlphabet().size() != postings.length) {
+            return false;
+        }
+        return contentHash(data.size(), doc -> (FeatureSequence) data.get(doc).instance.getData(),
+                           model.getAlphabet()) == contentHash;
+    }
+
+    /**
+     * Write the index to a file. The index is written to a temporary file in the
+     *  same directory and then renamed, so an interrupted write never leaves a
+     *  partial index behind.
+     */
+    public void write(File file) throws IOException {
+        File tempFile = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(CURRENT_FORMAT_VERSION);
+            out.writeInt(numDocs);
+            out.writeLong(numTokens);
+            out.writeLong(contentHash);
+            out.writeInt(postings.length);
+
+            for (int[] documents: postings) {
+                ShardUtils.writeVarInt(out, documents.length);
+                @Var
+                int previous = 0;
+                for (int doc: documents) {
+                    ShardUtils.writeVarInt(out, doc - previous);
+                    previous = doc;
+                }
+            }
+        }
+
+        if (file.exists() && ! file.delete()) {
+            throw new IOException("Couldn't replace word/document index " + file);
+        }
+        if (! tempFile.renameTo(file)) {
+            throw new IOException("Couldn't rename " + tempFile + " to " + file);
+        }
+    }
+
+    public static WordDocumentIndex read(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(file + " is not a word/document index");
+            }
+            int version = in.readInt();
+            if (version != CURRENT_FORMAT_VERSION) {
+                throw new IOException("Unsupported word/document index version " + version + " in " + file);
+            }
+
+            int numDocs = in.readInt();
+            long numTokens = in.readLong();
+            long contentHash = in.readLong();
+            int numTypes = in.readInt();
+
+            int[][] postings = new int[numTypes][];
+            for (int type = 0; type < numTypes; type++) {
+                int[] documents = new int[ ShardUtils.readVarInt(in) ];
+                @Var
+                int doc = 0;
+                for (int i = 0; i < documents.length; i++) {
+                    doc += ShardUtils.readVarInt(in);
+                    documents[i] = doc;
+                }
+                postings[type] = documents;
+            }
+
+            return new WordDocumentIndex(numDocs, numTokens, contentHash, postings);
+        }
+    }
+}
@@ -10,6 +10,8 @@ package cc.mallet.topics;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.ReentrantLock;
 
 import com.google.errorprone.annotations.Var;
 
@@ -62,6 +64,16 @@ public class WorkerCallable implements Callable<Integer> {
     protected int[] localTopicCounts;
     protected int[] localTopicIndex;
     protected double[] topicTermScores;
+
+    // Shared-counts mode: all workers sample against one type/topic
+    //  table, guarded by lock stripes over word types. Each worker keeps
+    //  a stale local copy of the topic totals and periodically pushes its
+    //  changes into a shared atomic array.
+    protected ReentrantLock[] typeLocks = null;
+    protected int lockMask;
+    protected AtomicIntegerArray sharedTokensPerTopic = null;
+    protected int[] syncedTokensPerTopic;
+    protected int reconcileInterval;
     
     public WorkerCallable() {}
     
@@ -123,6 +135,45 @@ public class WorkerCallable implements Callable<Integer> {
         shouldBuildLocalCounts = false;
     }
 
+    /**
+     *  Sample against a type/topic count table that is shared with other
+     *   workers rather than a private copy. Each row is protected by one of
+     *   <code>typeLocks</code> (the array length must be a power of 2), and
+     *   this worker's changes to topic totals are added to
+     *   <code>sharedTokensPerTopic</code> every <code>reconcileInterval</code>
+     *   documents. Local counts are not rebuilt after sampling.
+     */
+    public void shareCounts(ReentrantLock[] typeLocks, AtomicIntegerArray sharedTokensPerTopic,
+                            int reconcileInterval) {
+        this.typeLocks = typeLocks;
+        this.lockMask = typeLocks.length - 1;
+        this.sharedTokensPerTopic = sharedTokensPerTopic;
+        this.syncedTokensPerTopic = new int[numTopics];
+        this.reconcileInterval = reconcileInterval;
+        shouldBuildLocalCounts = false;
+
+        for (int topic = 0; topic < numTopics; topic++) {
+            tokensPerTopic[topic] = sharedTokensPerTopic.get(topic);
+            syncedTokensPerTopic[topic] = tokensPerTopic[topic];
+        }
+    }
+
+    /**
+     *  Add the changes this worker has made to its local topic totals since
+     *   the last reconciliation to the shared totals, and then refresh the
+     *   local totals with the changes made by all other workers.
+     */
+    public void reconcileTokensPerTopic() {
+        for (int topic = 0; topic < numTopics; topic++) {
+            int delta = tokensPerTopic[topic] - syncedTokensPerTopic[topic];
+            int total = (delta == 0) ?
+                sharedTokensPerTopic.get(topic) :
+                sharedTokensPerTopic.addAndGet(topic, delta);
+            tokensPerTopic[topic] = total;
+            syncedTokensPerTopic[topic] = total;
+        }
+    }
+
     public int[] getTokensPerTopic() { return tokensPerTopic; }
     public int[][] getTypeTopicCounts() { return typeTopicCounts; }
 
@@ -240,7 +291,8 @@ public class WorkerCallable implements Callable<Integer> {
         }
     }
 
-    public Integer call () throws Exception {
+    /** Reset the smoothing-only bucket and cached coefficients from the current topic totals. */
+    protected void initializeSmoothingOnlyMass() {
 
         // Initialize the smoothing-only sampling bucket
         smoothingOnlyMass = 0;
@@ -253,24 +305,51 @@ public class WorkerCallable implements Callable<Integer> {
             smoothingOnlyMass += alpha[topic] * beta / (tokensPerTopic[topic] + betaSum);
             cachedCoefficients[topic] =  alpha[topic] / (tokensPerTopic[topic] + betaSum);
         }
+    }
+
+    public Integer call () throws Exception {
+
+        if (sharedTokensPerTopic != null) {
+            reconcileTokensPerTopic();
+        }
+
+        initializeSmoothingOnlyMass();
 
         @Var
         int changed = 0;
 
-        for (int doc = startDoc; doc < data.size() && doc < startDoc + numDocs; doc++) {
-            
-            /*
-                if (doc % 10000 == 0) {
-                System.out.println("processing doc " + doc);
+        try {
+            for (int doc = startDoc; doc < data.size() && doc < startDoc + numDocs; doc++) {
+                
+                /*
+                    if (doc % 10000 == 0) {
+                    System.out.println("processing doc " + doc);
+                    }
+                */
+                
+                FeatureSequence tokenSequence =
+                    (FeatureSequence) data.get(doc).instance.getData();
+                LabelSequence topicSequence =
+                    (LabelSequence) data.get(doc).topicSequence;
+                
+                changed += sampleTopicsForOneDoc (tokenSequence, topicSequence, true);
+
+                if (sharedTokensPerTopic != null && (doc - startDoc + 1) % reconcileInterval == 0) {
+                    reconcileTokensPerTopic();
+                    initializeSmoothingOnlyMass();
                 }
-            */
-            
-            FeatureSequence tokenSequence =
-                (FeatureSequence) data.get(doc).instance.getData();
-            LabelSequence topicSequence =
-                (LabelSequence) data.get(doc).topicSequence;
-            
-            changed += sampleTopicsForOneDoc (tokenSequence, topicSequence, true);
+            }
+        } finally {
+            if (typeLocks != null) {
+                // Never leave a row locked if sampling failed part way through a token.
+                for (ReentrantLock lock: typeLocks) {
+                    if (lock.isHeldByCurrentThread()) { lock.unlock(); }
+                }
+            }
+        }
+
+        if (sharedTokensPerTopic != null) {
+            reconcileTokensPerTopic();
         }
         
         if (shouldBuildLocalCounts) {
@@ -357,6 +436,10 @@ public class WorkerCallable implements Callable<Integer> {
 
             currentTypeTopicCounts = typeTopicCounts[type];
 
+            if (typeLocks != null) {
+                typeLocks[type & lockMask].lock();
+            }
+
             if (oldTopic != ParallelTopicModel.UNASSIGNED_TOPIC) {
                 //    Remove this token from all counts. 
                 
@@ -594,6 +677,10 @@ public class WorkerCallable implements Callable<Integer> {
 
             }
 
+            if (typeLocks != null) {
+                typeLocks[type & lockMask].unlock();
+            }
+
             if (newTopic == -1) {
                 System.err.println("WorkerCallable sampling error: "+ origSample + " " + sample + " " + smoothingOnlyMass + " " + 
                         topicBetaMass + " " + topicTermMass);
@@ -5,6 +5,7 @@ import cc.mallet.types.*;
 import cc.mallet.topics.*;
 
 import java.io.*;
+import java.util.Iterator;
 
 public class EvaluateTopics {
 
@@ -58,6 +59,12 @@ public class EvaluateTopics {
         (EvaluateTopics.class, "random-seed", "INTEGER", true, -1,
          "The random seed for the Gibbs sampler.  Default is -1, which will use the clock.", null);
 
+    static CommandOption.Integer numThreads = new CommandOption.Integer
+        (EvaluateTopics.class, "num-threads", "INTEGER", true, 1,
+         "The number of threads for left-to-right evaluation. Documents are read and their probabilities " +
+         "written in batches, in input order. With more than one thread, each document is sampled with its own " +
+         "random seed derived from --random-seed, so results do not depend on the number of threads.", null);
+
 	public static void main (String[] args) {
 
         // Process the command-line options
@@ -95,11 +102,24 @@ public class EvaluateTopics {
 			
 			evaluator.setRandomSeed(randomSeed.value);
 
-			InstanceList instances = InstanceList.load (new File(inputFile.value));
+			// Chunked files are streamed rather than loaded into memory
+			File file = new File(inputFile.value);
+			Iterator<Instance> instances;
+			if (ChunkedInstanceReader.isChunkedFile(file)) {
+				instances = new ChunkedInstanceReader(file).iterator();
+			}
+			else {
+				instances = InstanceList.load(file).iterator();
+			}
 
 			outputStream.println(evaluator.evaluateLeftToRight(instances, numParticles.value, 
 															   usingResampling.value,
-															   docProbabilityStream));
+															   docProbabilityStream,
+															   numThreads.value));
+
+			if (docProbabilityStream != null) {
+				docProbabilityStream.close();
+			}
 			
 
 		} catch (Exception e) {
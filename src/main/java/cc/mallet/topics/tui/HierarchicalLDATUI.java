@@ -3,7 +3,7 @@ package cc.mallet.topics.tui;
 import cc.mallet.util.CommandOption;
 import cc.mallet.util.Randoms;
 import cc.mallet.types.InstanceList;
-import cc.mallet.topics.HierarchicalLDA;
+import cc.mallet.topics.ParallelHierarchicalLDA;
 
 import java.io.*;
 
@@ -60,6 +60,10 @@ public class HierarchicalLDATUI {
 		(HierarchicalLDATUI.class, "eta", "DECIMAL", true, 0.1,
 		 "Eta parameter: smoothing over topic-word distributions", null);
 	
+	static CommandOption.Integer numThreads = new CommandOption.Integer
+		(HierarchicalLDATUI.class, "num-threads", "INTEGER", true, 1,
+		 "The number of threads for sampling document paths.", null);
+
 	public static void main (String[] args) throws java.io.IOException {
 
 		// Process the command-line options
@@ -80,13 +84,14 @@ public class HierarchicalLDATUI {
 			testing = InstanceList.load(new File(testingFile.value()));
 		}
 	
-		HierarchicalLDA hlda = new HierarchicalLDA();
+		ParallelHierarchicalLDA hlda = new ParallelHierarchicalLDA();
 		
 		// Set hyperparameters
 
 		hlda.setAlpha(alpha.value());
 		hlda.setGamma(gamma.value());
 		hlda.setEta(eta.value());
+		hlda.setNumThreads(numThreads.value());
 		
 		// Display preferences
 
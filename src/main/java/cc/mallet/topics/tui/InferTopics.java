@@ -5,17 +5,19 @@ import cc.mallet.types.*;
 import cc.mallet.topics.*;
 
 import java.io.*;
+import java.util.Iterator;
 
 public class InferTopics {
 
     static CommandOption.String inferencerFilename = new CommandOption.String(InferTopics.class, "inferencer", "FILENAME", true, null,
-         "A serialized topic inferencer from a trained topic model.\n" + 
+         "A serialized topic inferencer from a trained topic model, or a memory-mapped inferencer file.\n" + 
          "By default this is null, indicating that no file will be read.", null);
 
     static CommandOption.String inputFile = new CommandOption.String(InferTopics.class, "input", "FILENAME", true, null,
          "The filename from which to read the list of instances\n" +
          "for which topics should be inferred.  Use - for stdin.  " +
-         "The instances must be FeatureSequence or FeatureSequenceWithBigrams, not FeatureVector", null);
+         "The instances must be FeatureSequence or FeatureSequenceWithBigrams, not FeatureVector.  " +
+         "Chunked instance files are streamed rather than loaded into memory.", null);
     
     static CommandOption.String docTopicsFile = new CommandOption.String(InferTopics.class, "output-doc-topics", "FILENAME", true, null,
          "The filename in which to write the inferred topic\n" +
@@ -44,6 +46,9 @@ public class InferTopics {
     static CommandOption.Integer burnInIterations = new CommandOption.Integer(InferTopics.class, "burn-in", "INTEGER", true, 10,
          "The number of iterations before the first sample is saved.", null);
 
+    static CommandOption.Integer numThreads = new CommandOption.Integer(InferTopics.class, "num-threads", "INTEGER", true, 1,
+         "The number of threads for inference. Output is written in input order.", null);
+
     static CommandOption.Integer randomSeed = new CommandOption.Integer(InferTopics.class, "random-seed", "INTEGER", true, 0,
          "The random seed for the Gibbs sampler.  Default is 0, which will use the clock.", null);
 
@@ -66,9 +71,17 @@ public class InferTopics {
 
         try {
             
-            ObjectInputStream ois = new ObjectInputStream (new FileInputStream(inferencerFilename.value));
-            Object o = ois.readObject();
-            ois.close();
+            File inferencerFile = new File(inferencerFilename.value);
+
+            Object o;
+            if (MappedTopicInferencer.isMappedFile(inferencerFile)) {
+                o = MappedTopicInferencer.read(inferencerFile);
+            }
+            else {
+                ObjectInputStream ois = new ObjectInputStream (new FileInputStream(inferencerFile));
+                o = ois.readObject();
+                ois.close();
+            }
             
             TopicInferencer inferencer = null;
             if (o instanceof DMRInferencer) {
@@ -82,17 +95,28 @@ public class InferTopics {
                 System.exit(0);
             }
 
-            InstanceList instances = InstanceList.load (new File(inputFile.value));
+            // Chunked files are streamed rather than loaded into memory
+            File file = new File(inputFile.value);
+            Iterator<Instance> instances;
+            if (ChunkedInstanceReader.isChunkedFile(file)) {
+                instances = new ChunkedInstanceReader(file).iterator();
+            }
+            else {
+                instances = InstanceList.load(file).iterator();
+            }
 
             if (randomSeed.value != 0) {
                 inferencer.setRandomSeed(randomSeed.value);
             }
 
-            inferencer.writeInferredDistributions(instances, new File(docTopicsFile.value),
+            PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(docTopicsFile.value)));
+            inferencer.writeInferredDistributions(instances, out,
                                                   numIterations.value, sampleInterval.value,
                                                   burnInIterations.value,
-                                                  docTopicsThreshold.value, docTopicsMax.value);
-            
+                                                  docTopicsThreshold.value, docTopicsMax.value,
+                                                  numThreads.value);
+            out.close();
+
 
         } catch (Exception e) {
             e.printStackTrace();
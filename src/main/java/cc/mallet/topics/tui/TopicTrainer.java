@@ -9,11 +9,14 @@ package cc.mallet.topics.tui;
 
 import cc.mallet.util.CommandOption;
 import cc.mallet.util.MalletLogger;
+import cc.mallet.types.ChunkedInstanceReader;
+import cc.mallet.types.Instance;
 import cc.mallet.types.InstanceList;
 import cc.mallet.types.FeatureSequence;
 import cc.mallet.topics.*;
 import cc.mallet.pipe.iterator.DBInstanceIterator;
 
+import java.util.Iterator;
 import java.util.logging.*;
 import java.io.*;
 
@@ -37,6 +40,11 @@ public class TopicTrainer {
          "The original input file must be included, using --input. " + 
          "By default this is null, indicating that no file will be read.", null);
 
+    static CommandOption.String resumeCheckpoint = new CommandOption.String(TopicTrainer.class, "resume", "DIRECTORY", true, null,
+         "Continue sampling from a binary checkpoint written with --output-checkpoint, starting at the iteration after it. " +
+         "The original input file must be included, using --input. --num-iterations is the total including the iterations before the checkpoint. " +
+         "By default this is null, indicating that no checkpoint will be read.", null);
+
     // Model output options
 
     static CommandOption.String outputModelFilename = new CommandOption.String(TopicTrainer.class, "output-model", "FILENAME", true, null,
@@ -55,12 +63,25 @@ public class TopicTrainer {
          "The number of iterations between writing the sampling state to a text file.  " +
          "You must also set the --output-state to use this option, whose argument will be the prefix of the filenames.", null);
 
+    static CommandOption.String checkpointPrefix = new CommandOption.String(TopicTrainer.class, "output-checkpoint", "DIRECTORY", true, null,
+         "The prefix of directories in which to write compact binary checkpoints of the Gibbs sampling state, " +
+         "with the iteration number as a suffix. Shards are written in parallel using --num-threads threads. " +
+         "You must also set --output-checkpoint-interval.", null);
+
+    static CommandOption.Integer checkpointInterval = new CommandOption.Integer(TopicTrainer.class, "output-checkpoint-interval", "INTEGER", true, 0,
+         "The number of iterations between writing checkpoints that can be read with --resume. Requires --output-checkpoint.", null);
+
     // Tools
 
     static CommandOption.String inferencerFilename = new CommandOption.String(TopicTrainer.class, "inferencer-filename", "FILENAME", true, null,
          "A topic inferencer applies a previously trained topic model to new documents.  " +
          "By default this is null, indicating that no file will be written.", null);
 
+    static CommandOption.String mappedInferencerFilename = new CommandOption.String(TopicTrainer.class, "mapped-inferencer-filename", "FILENAME", true, null,
+         "A read-only topic inferencer in a compact binary format that is memory-mapped when loaded, " +
+         "for fast startup and low heap use when serving. InferTopics accepts this file as --inferencer.  " +
+         "By default this is null, indicating that no file will be written.", null);
+
     static CommandOption.String evaluatorFilename = new CommandOption.String(TopicTrainer.class, "evaluator-filename", "FILENAME", true, null,
          "A held-out likelihood evaluator for new documents.  " +
          "By default this is null, indicating that no file will be written.", null);
@@ -89,6 +110,12 @@ public class TopicTrainer {
          "The filename in which to write measures of topic quality, in XML format.  " +
          "By default this is null, indicating that no file will be written.", null);
 
+    static CommandOption.String diagnosticsIndexFile = new CommandOption.String(TopicTrainer.class, "diagnostics-index", "FILENAME", true, null,
+         "A cached index from each word to the documents that contain it, used with --diagnostics-file to add a corpus-wide " +
+         "coherence score that can be compared between models. If the file exists and matches the input it is read, " +
+         "otherwise it is built with --num-threads threads and written there for later runs.  " +
+         "By default this is null, indicating that no index will be used.", null);
+
     static CommandOption.String topicReportXMLFile = new CommandOption.String(TopicTrainer.class, "xml-topic-report", "FILENAME", true, null,
          "The filename in which to write the top words for each topic and any Dirichlet parameters in XML format.  " +
          "By default this is null, indicating that no file will be written.", null);
@@ -126,6 +153,17 @@ public class TopicTrainer {
     static CommandOption.Integer numThreads = new CommandOption.Integer(TopicTrainer.class, "num-threads", "INTEGER", true, 1,
          "The number of threads for parallel training.", null);
 
+    static CommandOption.Boolean sharedCounts = new CommandOption.Boolean(TopicTrainer.class, "shared-counts", "true|false", false, false,
+         "With more than one thread, sample against a single shared word-topic count table instead of " +
+         "per-thread copies that are merged after every iteration. Uses less memory for large vocabularies.", null);
+
+    static CommandOption.String sampler = new CommandOption.String(TopicTrainer.class, "sampler", "sparse|alias", true, ParallelTopicModel.SPARSE_SAMPLER,
+         "The per-token Gibbs sampler. sparse is the exact SparseLDA sampler. alias uses Metropolis-Hastings " +
+         "proposals from stale per-word alias tables, which is faster for models with many topics.", null);
+
+    static CommandOption.Integer numMHSteps = new CommandOption.Integer(TopicTrainer.class, "num-mh-steps", "INTEGER", true, AliasWorkerCallable.DEFAULT_MH_STEPS,
+         "With --sampler alias, the number of document/word Metropolis-Hastings proposal pairs per token.", null);
+
     static CommandOption.Integer numIterations = new CommandOption.Integer(TopicTrainer.class, "num-iterations", "INTEGER", true, 1000,
          "The number of iterations of Gibbs sampling.", null);
     
@@ -164,6 +202,12 @@ public class TopicTrainer {
                                   "A tool for estimating, saving and printing diagnostics for topic models, such as LDA.");
         try {
             CommandOption.process (TopicTrainer.class, args);
+            if ((checkpointInterval.value != 0) != (checkpointPrefix.value != null)) {
+                throw new IllegalArgumentException("--output-checkpoint and --output-checkpoint-interval must be set together.");
+            }
+            if (diagnosticsIndexFile.value != null && diagnosticsFile.value == null) {
+                throw new IllegalArgumentException("--diagnostics-index is only used with --diagnostics-file.");
+            }
         } catch (IllegalArgumentException e) {
             logger.warning("");
             logger.warning(e.getMessage());
@@ -191,13 +235,27 @@ public class TopicTrainer {
 
         if (inputFile.value != null) {
             InstanceList training = null;
+            ChunkedInstanceReader streamedTraining = null;
+            Instance firstInstance = null;
             try {
                 if (inputFile.value.startsWith("db:")) {
                     training = DBInstanceIterator.getInstances(inputFile.value.substring(3));
                 }
+                else if (ChunkedInstanceReader.isChunkedFile(new File(inputFile.value))) {
+                    // Read chunks straight into the model rather than into an InstanceList
+                    streamedTraining = new ChunkedInstanceReader(new File(inputFile.value));
+                    Iterator<Instance> instances = streamedTraining.iterator();
+                    if (instances.hasNext()) {
+                        firstInstance = instances.next();
+                    }
+                }
                 else {
                     training = InstanceList.load (new File(inputFile.value));
                 }
+
+                if (training != null && training.size() > 0) {
+                    firstInstance = training.get(0);
+                }
             } catch (Exception e) {
                 logger.warning("Unable to restore instance list " +
                                    inputFile.value + ": " + e);
@@ -205,17 +263,19 @@ public class TopicTrainer {
             }
 
             logger.info("Data loaded.");
+
+            if (firstInstance != null &&
+                ! (firstInstance.getData() instanceof FeatureSequence)) {
+                logger.warning("Topic modeling currently only supports feature sequences: use --keep-sequence option when importing data.");
+                System.exit(1);
+            }
             
-            if (training.size() > 0 &&
-                training.get(0) != null) {
-                Object data = training.get(0).getData();
-                if (! (data instanceof FeatureSequence)) {
-                    logger.warning("Topic modeling currently only supports feature sequences: use --keep-sequence option when importing data.");
-                    System.exit(1);
-                }
+            if (streamedTraining != null) {
+                topicModel.addInstances(streamedTraining);
+            }
+            else {
+                topicModel.addInstances(training);
             }
-
-            topicModel.addInstances(training);
 
         }
 
@@ -239,7 +299,24 @@ public class TopicTrainer {
             topicModel.setSaveSerializedModel(outputModelInterval.value, outputModelFilename.value);
         }
 
+        if (checkpointInterval.value != 0) {
+            topicModel.setSaveCheckpoint(checkpointInterval.value, checkpointPrefix.value);
+        }
+
         topicModel.setNumThreads(numThreads.value);
+        topicModel.setSharedCounts(sharedCounts.value);
+        try {
+            topicModel.setSampler(sampler.value);
+        } catch (IllegalArgumentException e) {
+            logger.warning(e.getMessage());
+            System.exit(1);
+        }
+        topicModel.setNumMHSteps(numMHSteps.value);
+
+        if (resumeCheckpoint.value != null) {
+            int iteration = topicModel.initializeFromCheckpoint(new File(resumeCheckpoint.value));
+            logger.info("Resuming from checkpoint after iteration " + iteration + ".");
+        }
         
         if (! noInference.value()) {
             topicModel.estimate();
@@ -254,8 +331,28 @@ public class TopicTrainer {
         }
 
         if (diagnosticsFile.value != null) {
+            WordDocumentIndex index = null;
+            if (diagnosticsIndexFile.value != null) {
+                File indexFile = new File(diagnosticsIndexFile.value);
+                if (indexFile.exists()) {
+                    try {
+                        index = WordDocumentIndex.read(indexFile);
+                        if (! index.matches(topicModel)) {
+                            System.err.println("Word/document index " + indexFile + " does not match the input, rebuilding it");
+                            index = null;
+                        }
+                    } catch (IOException e) {
+                        System.err.println("Couldn't read word/document index " + indexFile + " (" + e.getMessage() + "), rebuilding it");
+                    }
+                }
+                if (index == null) {
+                    index = WordDocumentIndex.build(topicModel, numThreads.value);
+                    index.write(indexFile);
+                }
+            }
+
             PrintWriter out = new PrintWriter(diagnosticsFile.value);
-            TopicModelDiagnostics diagnostics = new TopicModelDiagnostics(topicModel, topWords.value);
+            TopicModelDiagnostics diagnostics = new TopicModelDiagnostics(topicModel, topWords.value, numThreads.value, index);
             out.println(diagnostics.toXML());
             out.close();
         }
@@ -329,6 +426,14 @@ public class TopicTrainer {
                     
         }
 
+        if (mappedInferencerFilename.value != null) {
+            try {
+                MappedTopicInferencer.write(topicModel, new File(mappedInferencerFilename.value));
+            } catch (Exception e) {
+                logger.warning("Couldn't create mapped inferencer: " + e.getMessage());
+            }
+        }
+
         if (evaluatorFilename.value != null) {
             try {
 
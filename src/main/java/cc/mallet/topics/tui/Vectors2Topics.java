@@ -206,6 +206,7 @@ public class Vectors2Topics {
 			if (inputModelFilename.value != null)
 				throw new IllegalArgumentException ("--input-model not supported with --use-pam.");
 			PAM4L pam = new PAM4L(pamNumSupertopics.value, pamNumSubtopics.value);
+			pam.setNumThreads(numThreads.value);
 			pam.estimate (ilist, numIterations.value, /*optimizeModelInterval*/50,
 						  showTopicsInterval.value,
 						  outputModelInterval.value, outputModelFilename.value, 
@@ -312,6 +313,7 @@ public class Vectors2Topics {
 			topicModel.setNumIterations(numIterations.value);
 			topicModel.setOptimizeInterval(optimizeInterval.value);
 			topicModel.setBurninPeriod(optimizeBurnIn.value);
+			topicModel.setNumThreads(numThreads.value);
 
 			if (outputStateInterval.value != 0) {
 				topicModel.setSaveState(outputStateInterval.value, stateFile.value);
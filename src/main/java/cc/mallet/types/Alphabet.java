@@ -22,14 +22,16 @@ import java.io.OutputStreamWriter;
 import java.io.PrintStream;
 import java.io.PrintWriter;
 import java.io.Serializable;
-import java.util.ArrayList;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.nio.charset.Charset;
 
-import com.carrotsearch.hppc.ObjectIntHashMap;
+import com.google.errorprone.annotations.Var;
 
 /**
  *  A mapping between integers and objects where the mapping in each
@@ -45,21 +47,47 @@ import com.carrotsearch.hppc.ObjectIntHashMap;
  * with a unique integer associated with it.   FeatureVectors rely on
  * the integer part of the mapping to efficiently represent the subset of
  * the Alphabet present in the FeatureVector.
+ * <p>
+ * Alphabets are safe to use from several threads. Lookups never lock: 
+ * entries are stored in an open-addressing hash table that is only
+ * changed by appending under a lock, and whose slots are published
+ * with release/acquire ordering. After {@link #stopGrowth()} the table
+ * is rebuilt at a lower load factor and read with plain loads.
  * @see FeatureVector
  * @see Instance
  * @see cc.mallet.pipe.Pipe
  */
 public class Alphabet implements Serializable
 {
-    ObjectIntHashMap map;
-    ArrayList entries;
+    /** Keys and their indices. A table is never changed once growth has stopped. */
+    static final class Table {
+        final Object[] keys;
+        final int[] values;
+        final int mask;
+        final boolean frozen;
+
+        Table (int capacity, boolean frozen) {
+            keys = new Object[capacity];
+            values = new int[capacity];
+            mask = capacity - 1;
+            this.frozen = frozen;
+        }
+    }
+
+    private static final VarHandle KEYS = MethodHandles.arrayElementVarHandle(Object[].class);
+    private static final double MAX_LOAD = 0.75;
+    private static final double FROZEN_LOAD = 0.5;
+
+    transient volatile Table table;
+    transient volatile Object[] entries;
+    transient volatile int size = 0;
     volatile boolean growthStopped = false;
-    Class entryClass = null;
+    volatile Class entryClass = null;
     UUID instanceId = UUID.randomUUID();  //used in readResolve to identify persitent instances
 
     public Alphabet (int capacity, Class entryClass) {
-        this.map = new ObjectIntHashMap (capacity);
-        this.entries = new ArrayList (capacity);
+        this.table = new Table (tableCapacity (capacity, MAX_LOAD), false);
+        this.entries = new Object[Math.max (capacity, 1)];
         this.entryClass = entryClass;
         // someone could try to deserialize us into this image (e.g., by RMI).  Handle this.
         deserializedEntries.putIfAbsent(instanceId, this);
@@ -85,40 +113,124 @@ public class Alphabet implements Serializable
 
     @Override public Object clone () {
         Alphabet ret = new Alphabet();
-        ret.map = (ObjectIntHashMap) map.clone();
-        ret.entries = (ArrayList) entries.clone();
-        ret.growthStopped = growthStopped;
-        ret.entryClass = entryClass;
+        synchronized (this) {
+            ret.entries = Arrays.copyOf (entries, entries.length);
+            ret.size = size;
+            ret.entryClass = entryClass;
+            ret.table = rehash (ret.entries, ret.size, growthStopped);
+            ret.growthStopped = growthStopped;
+        }
         return ret;
     }
 
+    /** The smallest power of two that holds this many keys at the given load. */
+    static int tableCapacity (int numKeys, double load) {
+        @Var
+        int capacity = 8;
+        while (capacity * load < numKeys + 1) {
+            capacity *= 2;
+        }
+        return capacity;
+    }
+
+    static int slot (Object key, int mask) {
+        int hash = key.hashCode() * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    /** Build a new table holding the first <code>size</code> entries. */
+    static Table rehash (Object[] entries, int size, boolean frozen) {
+        Table t = new Table (tableCapacity (size, frozen ? FROZEN_LOAD : MAX_LOAD), frozen);
+        for (int i = 0; i < size; i++) {
+            insert (t, entries[i], i);
+        }
+        return t;
+    }
+
+    /** Store the index before the key, so that a reader that sees the key also sees the index. */
+    static void insert (Table t, Object key, int index) {
+        @Var
+        int slot = slot (key, t.mask);
+        while (t.keys[slot] != null) {
+            slot = (slot + 1) & t.mask;
+        }
+        t.values[slot] = index;
+        KEYS.setRelease (t.keys, slot, key);
+    }
+
+    static int find (Table t, Object key) {
+        @Var
+        int slot = slot (key, t.mask);
+        while (true) {
+            Object current = t.frozen ? t.keys[slot] : KEYS.getAcquire (t.keys, slot);
+            if (current == null) {
+                return -1;
+            }
+            if (current == key || current.equals (key)) {
+                return t.values[slot];
+            }
+            slot = (slot + 1) & t.mask;
+        }
+    }
+
     /** Return -1 if entry isn't present. */
     public int lookupIndex (Object entry, boolean addIfNotPresent) {
         if (entry == null) {
             throw new IllegalArgumentException ("Can't lookup \"null\" in an Alphabet.");
         }
-        if (entryClass == null) {
-            entryClass = entry.getClass();
+        @Var
+        Class currentClass = entryClass;
+        if (currentClass == null) {
+            synchronized (this) {
+                if (entryClass == null) {
+                    entryClass = entry.getClass();
+                }
+                currentClass = entryClass;
+            }
         }
-        else {
-            // Insist that all entries in the Alphabet are of the same
-            // class.  This may not be strictly necessary, but will catch a
-            // bunch of easily-made errors.
-            if (entry.getClass() != entryClass)
-                throw new IllegalArgumentException("Non-matching entry class, " + entry.getClass() + ", was " + entryClass);
+        // Insist that all entries in the Alphabet are of the same
+        // class.  This may not be strictly necessary, but will catch a
+        // bunch of easily-made errors.
+        if (entry.getClass() != currentClass)
+            throw new IllegalArgumentException("Non-matching entry class, " + entry.getClass() + ", was " + currentClass);
+
+        int index = find (table, entry);
+        if (index >= 0 || growthStopped || !addIfNotPresent) {
+            return index;
         }
 
-        if (map.containsKey(entry)) {
-            return map.get(entry);
+        synchronized (this) {
+            // Another thread may have added the entry, or stopped growth
+            int existing = find (table, entry);
+            if (existing >= 0 || growthStopped) {
+                return existing;
+            }
+            return add (entry);
         }
+    }
+
+    /** Append a new entry. The caller must hold this alphabet's lock. */
+    private int add (Object entry) {
+        int index = size;
 
-        if (!growthStopped && addIfNotPresent) {
-            int retIndex = entries.size();
-            map.put(entry, retIndex);
-            entries.add(entry);
-            return retIndex;
+        @Var
+        Object[] currentEntries = entries;
+        if (index == currentEntries.length) {
+            currentEntries = Arrays.copyOf (currentEntries, 2 * currentEntries.length);
+            entries = currentEntries;
         }
-        return -1;
+        currentEntries[index] = entry;
+        // Grow before the key is published, so that any index a reader finds is below size()
+        size = index + 1;
+
+        @Var
+        Table t = table;
+        if (index + 1 > (t.mask + 1) * MAX_LOAD) {
+            t = rehash (currentEntries, index, false);
+            table = t;
+        }
+        insert (t, entry, index);
+        return index;
     }
 
     public int lookupIndex (Object entry) {
@@ -126,11 +238,15 @@ public class Alphabet implements Serializable
     }
 
     public Object lookupObject (int index) {
-        return entries.get(index);
+        if (index >= size) {
+            throw new IndexOutOfBoundsException ("Index " + index + " out of bounds for alphabet of size " + size);
+        }
+        return entries[index];
     }
 
     public Object[] toArray () {
-        return entries.toArray();
+        int currentSize = size;
+        return Arrays.copyOf (entries, currentSize);
     }
 
     /**
@@ -141,18 +257,28 @@ public class Alphabet implements Serializable
      *  <tt>ret[lookupIndex(obj)] = obj</tt> .
      */
     public Object[] toArray (Object[] in) {
-        return entries.toArray(in);
+        int currentSize = size;
+        Object[] currentEntries = entries;
+        if (in.length < currentSize) {
+            return Arrays.copyOf (currentEntries, currentSize, in.getClass());
+        }
+        System.arraycopy (currentEntries, 0, in, 0, currentSize);
+        if (in.length > currentSize) {
+            in[currentSize] = null;
+        }
+        return in;
     }
 
-    // xxx This should disable the iterator's remove method...
+    /** Iterate over the entries present when this method is called. The iterator does not support removal. */
     public Iterator iterator () {
-        return entries.iterator();
+        int currentSize = size;
+        return Arrays.asList (entries).subList (0, currentSize).iterator();
     }
 
     public Object[] lookupObjects (int[] indices) {
         Object[] ret = new Object[indices.length];
         for (int i = 0; i < indices.length; i++) {
-            ret[i] = entries.get(indices[i]);
+            ret[i] = lookupObject (indices[i]);
         }
         return ret;
     }
@@ -165,7 +291,7 @@ public class Alphabet implements Serializable
      */
     public Object[] lookupObjects (int[] indices, Object[] buf) {
         for (int i = 0; i < indices.length; i++) {
-            buf[i] = entries.get(indices[i]);
+            buf[i] = lookupObject (indices[i]);
         }
         return buf;
     }
@@ -179,19 +305,31 @@ public class Alphabet implements Serializable
     }
 
     public boolean contains (Object entry) {
-        return map.containsKey(entry);
+        return find (table, entry) >= 0;
     }
 
     public int size () {
-        return entries.size();
+        return size;
     }
 
+    /** Stop adding entries, and switch to a read-only table with shorter probe sequences. */
     public void stopGrowth () {
-        growthStopped = true;
+        synchronized (this) {
+            if (! growthStopped) {
+                table = rehash (entries, size, true);
+                growthStopped = true;
+            }
+        }
     }
 
     public void startGrowth () {
-        growthStopped = false;
+        synchronized (this) {
+            if (growthStopped) {
+                // Frozen tables are read without ordering, so never change one
+                table = rehash (entries, size, false);
+                growthStopped = false;
+            }
+        }
     }
 
     public boolean growthStopped () {
@@ -206,8 +344,8 @@ public class Alphabet implements Serializable
     separated by a newline. */
     @Override public String toString() {
         StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < entries.size(); i++) {
-            sb.append(entries.get(i).toString());
+        for (int i = 0; i < size; i++) {
+            sb.append(entries[i].toString());
             sb.append('\n');
         }
         return sb.toString();
@@ -220,8 +358,8 @@ public class Alphabet implements Serializable
     }
 
     public void dump (PrintWriter out) {
-        for (int i = 0; i < entries.size(); i++) {
-            out.println(i + " => " + entries.get(i));
+        for (int i = 0; i < size; i++) {
+            out.println(i + " => " + entries[i]);
         }
     }
 
@@ -246,10 +384,12 @@ public class Alphabet implements Serializable
     private static final int CURRENT_SERIAL_VERSION = 1;
 
     private void writeObject (ObjectOutputStream out) throws IOException {
+        int currentSize = size;
+        Object[] currentEntries = entries;
         out.writeInt(CURRENT_SERIAL_VERSION);
-        out.writeInt(entries.size());
-        for (int i = 0; i < entries.size(); i++) {
-            out.writeObject(entries.get(i));
+        out.writeInt(currentSize);
+        for (int i = 0; i < currentSize; i++) {
+            out.writeObject(currentEntries[i]);
         }
         out.writeBoolean(growthStopped);
         out.writeObject(entryClass);
@@ -258,15 +398,15 @@ public class Alphabet implements Serializable
 
     private void readObject (ObjectInputStream in) throws IOException, ClassNotFoundException {
         int version = in.readInt();
-        int size = in.readInt();
-        entries = new ArrayList(size);
-        map = new ObjectIntHashMap(size);
-        for (int i = 0; i < size; i++) {
-            Object o = in.readObject();
-            map.put(o, i);
-            entries.add(o);
+        int numEntries = in.readInt();
+        Object[] newEntries = new Object[Math.max (numEntries, 1)];
+        for (int i = 0; i < numEntries; i++) {
+            newEntries[i] = in.readObject();
         }
         growthStopped = in.readBoolean();
+        entries = newEntries;
+        size = numEntries;
+        table = rehash (newEntries, numEntries, growthStopped);
         entryClass = (Class) in.readObject();
         if (version > 0) { // instanced id added in version 1S
             instanceId = (UUID) in.readObject();
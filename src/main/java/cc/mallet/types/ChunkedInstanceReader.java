@@ -0,0 +1,184 @@
+/* Copyright (C) 2002 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package cc.mallet.types;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import cc.mallet.pipe.Pipe;
+
+/**
+ * Reads a file written by {@link ChunkedInstanceWriter} one chunk at a time.
+ * <p>
+ * Opening the file reads only the pipe and alphabets from its trailer.
+ *  Iterating reads and deserializes one chunk of instances at a time, so
+ *  consumers that process each instance and then drop it never hold the
+ *  whole file in memory. The alphabets and labels of every instance are the
+ *  shared objects from the trailer.
+ */
+
+public class ChunkedInstanceReader implements Iterable<Instance> {
+
+    File file;
+    Pipe pipe;
+    Alphabet[] alphabets;
+    int numInstances;
+    long[] chunkOffsets;
+    int[] chunkSizes;
+
+    public ChunkedInstanceReader(File file) throws IOException {
+        this.file = file;
+
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            if (raf.length() < 20 || raf.readInt() != ChunkedInstanceWriter.MAGIC) {
+                throw new IOException(file + " is not a chunked instance file");
+            }
+            int version = raf.readInt();
+            if (version != ChunkedInstanceWriter.CURRENT_FORMAT_VERSION) {
+                throw new IOException("Unsupported chunked instance file version " + version);
+            }
+
+            raf.seek(raf.length() - 12);
+            long trailerOffset = raf.readLong();
+            if (raf.readInt() != ChunkedInstanceWriter.MAGIC) {
+                throw new IOException(file + " is incomplete: the writer was not closed");
+            }
+
+            raf.seek(trailerOffset);
+            ObjectInputStream trailer =
+                new ObjectInputStream(new BufferedInputStream(new FileInputStream(raf.getFD())));
+            trailer.readInt();
+            pipe = (Pipe) trailer.readObject();
+            alphabets = (Alphabet[]) trailer.readObject();
+            numInstances = trailer.readInt();
+            chunkOffsets = (long[]) trailer.readObject();
+            chunkSizes = (int[]) trailer.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Couldn't read the trailer of " + file, e);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /** Returns true if the file starts with the magic number of the chunked format. */
+    public static boolean isChunkedFile(File file) {
+        if (! file.isFile() || file.length() < 20) { return false; }
+
+        try {
+            DataInputStream in = new DataInputStream(new FileInputStream(file));
+            int magic = in.readInt();
+            in.close();
+            return magic == ChunkedInstanceWriter.MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    public Pipe getPipe() { return pipe; }
+
+    public Alphabet getDataAlphabet() { return pipe == null ? null : pipe.getDataAlphabet(); }
+
+    public Alphabet getTargetAlphabet() { return pipe == null ? null : pipe.getTargetAlphabet(); }
+
+    /** The total number of instances in the file. */
+    public int size() { return numInstances; }
+
+    public int getNumChunks() { return chunkOffsets.length; }
+
+    /** Read and deserialize a single chunk. */
+    public List<Instance> readChunk(int chunk) throws IOException {
+        byte[] bytes;
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            raf.seek(chunkOffsets[chunk]);
+            bytes = new byte[raf.readInt()];
+            raf.readFully(bytes);
+        } finally {
+            raf.close();
+        }
+
+        ObjectInputStream in = new ReferenceInputStream(new ByteArrayInputStream(bytes));
+        try {
+            int size = in.readInt();
+            ArrayList<Instance> instances = new ArrayList<Instance>(size);
+            for (int i = 0; i < size; i++) {
+                instances.add((Instance) in.readObject());
+            }
+            return instances;
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Couldn't read chunk " + chunk + " of " + file, e);
+        } finally {
+            in.close();
+        }
+    }
+
+    /** Iterate over all instances, reading one chunk at a time. */
+    public Iterator<Instance> iterator() {
+        return new Iterator<Instance>() {
+            int nextChunk = 0;
+            Iterator<Instance> current = null;
+
+            public boolean hasNext() {
+                while ((current == null || ! current.hasNext()) && nextChunk < chunkOffsets.length) {
+                    try {
+                        current = readChunk(nextChunk).iterator();
+                    } catch (IOException e) {
+                        throw new IllegalStateException(e);
+                    }
+                    nextChunk++;
+                }
+                return current != null && current.hasNext();
+            }
+
+            public Instance next() {
+                if (! hasNext()) { throw new NoSuchElementException(); }
+                return current.next();
+            }
+        };
+    }
+
+    /** Read every instance into a new <code>InstanceList</code> that uses the file's pipe. */
+    public InstanceList toInstanceList() {
+        InstanceList instances = new InstanceList(pipe, numInstances);
+        for (Instance instance: this) {
+            instances.add(instance);
+        }
+        return instances;
+    }
+
+    class ReferenceInputStream extends ObjectInputStream {
+        ReferenceInputStream(InputStream stream) throws IOException {
+            super(stream);
+            enableResolveObject(true);
+        }
+
+        @Override
+        protected Object resolveObject(Object object) throws IOException {
+            if (object instanceof ChunkedInstanceWriter.LabelReference) {
+                ChunkedInstanceWriter.LabelReference reference = (ChunkedInstanceWriter.LabelReference) object;
+                return ((LabelAlphabet) alphabets[reference.alphabet]).lookupLabel(reference.index);
+            }
+            else if (object instanceof ChunkedInstanceWriter.AlphabetReference) {
+                return alphabets[((ChunkedInstanceWriter.AlphabetReference) object).alphabet];
+            }
+            return object;
+        }
+    }
+}
@@ -0,0 +1,217 @@
+/* Copyright (C) 2002 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package cc.mallet.types;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+
+import cc.mallet.pipe.Pipe;
+
+/**
+ * Writes instances to an append-only file in fixed-size chunks, so that a
+ *  corpus can be imported without holding an {@link InstanceList} in memory.
+ * <p>
+ * Each chunk is serialized on its own, with every reference to an
+ *  {@link Alphabet} or {@link Label} replaced by a small index. The pipe and
+ *  the alphabets, which keep growing during import, are written once in a
+ *  trailer when the writer is closed. Read the file back with
+ *  {@link ChunkedInstanceReader} or {@link InstanceList#load(File)}.
+ *
+ * <pre>
+ * ChunkedInstanceWriter writer = new ChunkedInstanceWriter(file, pipe, 1000);
+ * writer.addThruPipe(new CsvIterator(...));
+ * writer.close();
+ * </pre>
+ */
+
+public class ChunkedInstanceWriter implements Closeable {
+
+    public static final int MAGIC = 0x4d4c4943; // "MLIC"
+    public static final int CURRENT_FORMAT_VERSION = 1;
+    public static final int DEFAULT_INSTANCES_PER_CHUNK = 1000;
+
+    Pipe pipe;
+    int instancesPerChunk;
+
+    DataOutputStream out;
+    long position = 0;
+
+    ArrayList<Instance> buffer = new ArrayList<Instance>();
+    ByteArrayOutputStream chunkBytes = new ByteArrayOutputStream();
+
+    ArrayList<Alphabet> alphabets = new ArrayList<Alphabet>();
+    IdentityHashMap<Alphabet, Integer> alphabetIDs = new IdentityHashMap<Alphabet, Integer>();
+
+    ArrayList<Long> chunkOffsets = new ArrayList<Long>();
+    ArrayList<Integer> chunkSizes = new ArrayList<Integer>();
+    int numInstances = 0;
+
+    boolean closed = false;
+
+    public ChunkedInstanceWriter(File file, Pipe pipe) throws IOException {
+        this(file, pipe, DEFAULT_INSTANCES_PER_CHUNK);
+    }
+
+    public ChunkedInstanceWriter(File file, Pipe pipe, int instancesPerChunk) throws IOException {
+        this(new FileOutputStream(file), pipe, instancesPerChunk);
+    }
+
+    /** The file can only be read back by {@link ChunkedInstanceReader} once it is on disk. */
+    public ChunkedInstanceWriter(OutputStream stream, Pipe pipe, int instancesPerChunk) throws IOException {
+        if (instancesPerChunk < 1) {
+            throw new IllegalArgumentException("Chunks must hold at least one instance: " + instancesPerChunk);
+        }
+
+        this.pipe = pipe;
+        this.instancesPerChunk = instancesPerChunk;
+
+        out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+        out.writeInt(MAGIC);
+        out.writeInt(CURRENT_FORMAT_VERSION);
+        position = 8;
+    }
+
+    public Pipe getPipe() { return pipe; }
+
+    /** The number of instances written so far. */
+    public int size() { return numInstances; }
+
+    /** Append an instance without passing it through the pipe. */
+    public void add(Instance instance) throws IOException {
+        if (closed) {
+            throw new IllegalStateException("Writer is closed");
+        }
+
+        buffer.add(instance);
+        numInstances++;
+        if (buffer.size() >= instancesPerChunk) {
+            writeChunk();
+        }
+    }
+
+    /** Pass instances through the pipe and append them, one chunk at a time. */
+    public void addThruPipe(Iterator<Instance> source) throws IOException {
+        addThruPipe(source, 1);
+    }
+
+    /** Pass instances through the pipe with several threads, as in {@link InstanceList#addThruPipe(Iterator, int)}. */
+    public void addThruPipe(Iterator<Instance> source, int numThreads) throws IOException {
+        Iterator<Instance> pipedInstances = pipe.newIteratorFrom(source, numThreads);
+        while (pipedInstances.hasNext()) {
+            add(pipedInstances.next());
+        }
+    }
+
+    void writeChunk() throws IOException {
+        if (buffer.isEmpty()) { return; }
+
+        chunkBytes.reset();
+        ObjectOutputStream chunk = new ReferenceOutputStream(chunkBytes);
+        chunk.writeInt(buffer.size());
+        for (Instance instance: buffer) {
+            chunk.writeObject(instance);
+        }
+        chunk.close();
+
+        chunkOffsets.add(position);
+        chunkSizes.add(buffer.size());
+
+        out.writeInt(chunkBytes.size());
+        chunkBytes.writeTo(out);
+        position += 4 + chunkBytes.size();
+
+        buffer.clear();
+    }
+
+    /** Write any buffered instances, then the pipe and alphabets. */
+    public void close() throws IOException {
+        if (closed) { return; }
+
+        writeChunk();
+
+        long trailerOffset = position;
+
+        long[] offsets = new long[chunkOffsets.size()];
+        int[] sizes = new int[chunkSizes.size()];
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = chunkOffsets.get(i);
+            sizes[i] = chunkSizes.get(i);
+        }
+
+        // The pipe and the alphabet table share one stream, so that
+        //  the pipe's alphabets are the same objects as the table's.
+        ObjectOutputStream trailer = new ObjectOutputStream(out);
+        trailer.writeInt(CURRENT_FORMAT_VERSION);
+        trailer.writeObject(pipe);
+        trailer.writeObject(alphabets.toArray(new Alphabet[alphabets.size()]));
+        trailer.writeInt(numInstances);
+        trailer.writeObject(offsets);
+        trailer.writeObject(sizes);
+        trailer.flush();
+
+        out.writeLong(trailerOffset);
+        out.writeInt(MAGIC);
+        out.close();
+
+        closed = true;
+    }
+
+    int alphabetID(Alphabet alphabet) {
+        Integer id = alphabetIDs.get(alphabet);
+        if (id != null) { return id; }
+
+        alphabets.add(alphabet);
+        alphabetIDs.put(alphabet, alphabets.size() - 1);
+        return alphabets.size() - 1;
+    }
+
+    /** Stands in for an alphabet in a serialized chunk. */
+    static class AlphabetReference implements Serializable {
+        private static final long serialVersionUID = 1;
+        int alphabet;
+        AlphabetReference(int alphabet) { this.alphabet = alphabet; }
+    }
+
+    /** Stands in for a label in a serialized chunk. */
+    static class LabelReference implements Serializable {
+        private static final long serialVersionUID = 1;
+        int alphabet;
+        int index;
+        LabelReference(int alphabet, int index) { this.alphabet = alphabet; this.index = index; }
+    }
+
+    class ReferenceOutputStream extends ObjectOutputStream {
+        ReferenceOutputStream(OutputStream stream) throws IOException {
+            super(stream);
+            enableReplaceObject(true);
+        }
+
+        @Override
+        protected Object replaceObject(Object object) throws IOException {
+            if (object instanceof Label) {
+                Label label = (Label) object;
+                return new LabelReference(alphabetID(label.getLabelAlphabet()), label.getIndex());
+            }
+            else if (object instanceof Alphabet) {
+                return new AlphabetReference(alphabetID((Alphabet) object));
+            }
+            return object;
+        }
+    }
+}
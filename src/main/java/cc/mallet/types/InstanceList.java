@@ -255,6 +255,17 @@ public class InstanceList extends ArrayList<Instance> implements Serializable, I
         }
     }
     
+    /** Adds instances from the iterator after passing them through this list's pipe,
+     * using several threads for the stateless stages of the pipe. The instances,
+     * their order and the alphabet indices are the same as with {@link #addThruPipe(Iterator)}.
+     * See {@link cc.mallet.pipe.ParallelPipeIterator}. */
+    public void addThruPipe (Iterator<Instance> ii, int numThreads) {
+        Iterator<Instance> pipedInstanceIterator = pipe.newIteratorFrom(ii, numThreads);
+        while (pipedInstanceIterator.hasNext()) {
+            add (pipedInstanceIterator.next());
+        }
+    }
+    
     // gsc: method to add one instance at a time 
     /** Adds the input instance to this list, after passing it through the
      * InstanceList's pipe.
@@ -811,9 +822,14 @@ public class InstanceList extends ArrayList<Instance> implements Serializable, I
     }
 
     /** Constructs a new <code>InstanceList</code>, deserialized from <code>file</code>.  If the
-            string value of <code>file</code> is "-", then deserialize from {@link System.in}. */
+            string value of <code>file</code> is "-", then deserialize from {@link System.in}.
+            Files written by {@link ChunkedInstanceWriter} are read one chunk at a time. */
     public static InstanceList load (File file) {
         try {
+            if (ChunkedInstanceReader.isChunkedFile(file)) {
+                return new ChunkedInstanceReader(file).toInstanceList();
+            }
+
             ObjectInputStream ois;
             if (file.toString().equals("-"))
                 ois = new ObjectInputStream (System.in);
@@ -10,6 +10,10 @@ package cc.mallet.types;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.io.*;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+import com.google.errorprone.annotations.Var;
 
 import cc.mallet.types.Alphabet;
 /**
@@ -19,7 +23,16 @@ import cc.mallet.types.Alphabet;
    @author Andrew McCallum <a href="mailto:mccallum@cs.umass.edu">mccallum@cs.umass.edu</a>
  */
 public class LabelAlphabet extends Alphabet implements Serializable {
+    // The value computed for the class before labelArray was added, so that saved alphabets still load
+    private static final long serialVersionUID = 6767760702605293255L;
+
+    private static final VarHandle LABELS = MethodHandles.arrayElementVarHandle(Label[].class);
+
     ArrayList labels;
+    // A copy of labels that lookupLabel(int) reads without locking.  Each
+    //  label is published with a release store, so a reader that sees it
+    //  also sees its fields.  Rebuilt from labels after deserialization.
+    transient volatile Label[] labelArray;
         
     public LabelAlphabet () {
         super();
@@ -28,16 +41,40 @@ public class LabelAlphabet extends Alphabet implements Serializable {
 
     @Override public int lookupIndex (Object entry, boolean addIfNotPresent) {
         int index = super.lookupIndex (entry, addIfNotPresent);
-        if (index >= labels.size() && addIfNotPresent) {
-            labels.add (new Label (entry, this, index));
+        if (addIfNotPresent && index >= 0) {
+            Label[] current = labelArray;
+            if (current == null || index >= current.length || LABELS.getAcquire (current, index) == null) {
+                createLabels (index);
+            }
         }
         return index;
     }
 
+    /** Entries may have been added by other threads, so create labels for every index up to this one. */
+    private Label createLabels (int index) {
+        synchronized (labels) {
+            while (index >= labels.size()) {
+                labels.add (new Label (lookupObject (labels.size()), this, labels.size()));
+            }
+            @Var
+            Label[] current = labelArray;
+            if (current == null || current.length < labels.size()) {
+                current = new Label[Math.max (labels.size(), current == null ? 8 : 2 * current.length)];
+            }
+            for (int i = 0; i < labels.size(); i++) {
+                if (current[i] == null) {
+                    LABELS.setRelease (current, i, labels.get (i));
+                }
+            }
+            labelArray = current;
+            return current[index];
+        }
+    }
+
     public Label lookupLabel (Object entry, boolean addIfNotPresent) {
         int index = lookupIndex (entry, addIfNotPresent);
         if (index >= 0) {
-            return (Label) labels.get(index);
+            return lookupLabel (index);
         }
         else {
             return null;
@@ -49,7 +86,17 @@ public class LabelAlphabet extends Alphabet implements Serializable {
     }
 
     public Label lookupLabel (int labelIndex) {
-        return (Label) labels.get(labelIndex);
+        Label[] current = labelArray;
+        if (current != null && labelIndex >= 0 && labelIndex < current.length) {
+            Label label = (Label) LABELS.getAcquire (current, labelIndex);
+            if (label != null) {
+                return label;
+            }
+        }
+        if (labelIndex < 0 || labelIndex >= size()) {
+            throw new IndexOutOfBoundsException ("Index " + labelIndex + " out of bounds for alphabet of size " + size());
+        }
+        return createLabels (labelIndex);
     }
         
 }
@@ -0,0 +1,107 @@
+/* Copyright (C) 2002 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package cc.mallet.classify;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import cc.mallet.types.Alphabet;
+import cc.mallet.types.FeatureSelection;
+import cc.mallet.types.Instance;
+import cc.mallet.types.InstanceList;
+import cc.mallet.util.Randoms;
+
+public class TestFeatureMajorMaxEnt {
+
+	private static InstanceList randomInstances() {
+		Alphabet fd = new Alphabet();
+		for (int i = 0; i < 12; i++)
+			fd.lookupIndex("feature" + i);
+		String[] classNames = new String[]{"class0", "class1", "class2", "class3"};
+		return new InstanceList(new Randoms(1), fd, classNames, 40);
+	}
+
+	private static void assertScoresMatch(MaxEnt maxent, FeatureMajorMaxEnt compact,
+										  InstanceList instances, double tolerance) {
+		int numLabels = maxent.getLabelAlphabet().size();
+		double[] expected = new double[numLabels];
+		double[] actual = new double[numLabels];
+		for (Instance instance: instances) {
+			maxent.getUnnormalizedClassificationScores(instance, expected);
+			compact.getUnnormalizedClassificationScores(instance, actual);
+			assertArrayEquals(expected, actual, tolerance);
+
+			maxent.getClassificationScores(instance, expected);
+			compact.getClassificationScores(instance, actual);
+			assertArrayEquals(expected, actual, tolerance);
+		}
+	}
+
+	@Test
+	public void testScoresMatchMaxEnt() {
+		InstanceList instances = randomInstances();
+		MaxEnt maxent = new MaxEntTrainer().train(instances);
+
+		assertScoresMatch(maxent, new FeatureMajorMaxEnt(maxent), instances, 0.0);
+		assertScoresMatch(maxent, new FeatureMajorMaxEnt(maxent, true), instances, 1e-5);
+
+		FeatureMajorMaxEnt compact = new FeatureMajorMaxEnt(maxent, true);
+		assertTrue(compact.usesFloats());
+		assertEquals(new Trial(maxent, instances).getAccuracy(),
+					 new Trial(compact, instances).getAccuracy(), 0.0);
+	}
+
+	@Test
+	public void testFeatureSelection() {
+		InstanceList instances = randomInstances();
+		MaxEnt maxent = new MaxEntTrainer().train(instances);
+		Alphabet fd = instances.getDataAlphabet();
+
+		FeatureSelection selection = new FeatureSelection(fd);
+		for (int fi = 0; fi < fd.size(); fi += 2)
+			selection.add(fi);
+		maxent.setFeatureSelection(selection);
+		assertScoresMatch(maxent, new FeatureMajorMaxEnt(maxent), instances, 0.0);
+
+		FeatureSelection[] perClass = new FeatureSelection[maxent.getLabelAlphabet().size()];
+		for (int li = 0; li < perClass.length; li++) {
+			perClass[li] = new FeatureSelection(fd);
+			for (int fi = li; fi < fd.size(); fi += 3)
+				perClass[li].add(fi);
+		}
+		maxent.setFeatureSelection(null);
+		maxent.setPerClassFeatureSelection(perClass);
+		assertScoresMatch(maxent, new FeatureMajorMaxEnt(maxent), instances, 0.0);
+	}
+
+	@Test
+	public void testSerialization() throws Exception {
+		InstanceList instances = randomInstances();
+		MaxEnt maxent = new MaxEntTrainer().train(instances);
+
+		FeatureMajorMaxEnt original = new FeatureMajorMaxEnt(maxent, true);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(original);
+		out.close();
+		ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		FeatureMajorMaxEnt copy = (FeatureMajorMaxEnt) in.readObject();
+		in.close();
+
+		assertTrue(copy.usesFloats());
+		assertEquals(original.getNumLabels(), copy.getNumLabels());
+		assertArrayEquals(original.floatWeights, copy.floatWeights, 0.0f);
+		assertArrayEquals(original.biases, copy.biases, 0.0);
+	}
+
+}
@@ -0,0 +1,159 @@
+/* Copyright (C) 2002 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package cc.mallet.classify;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import cc.mallet.types.Alphabet;
+import cc.mallet.types.FeatureVector;
+import cc.mallet.types.Instance;
+import cc.mallet.types.InstanceList;
+import cc.mallet.types.LabelAlphabet;
+import cc.mallet.util.Randoms;
+
+public class TestMaxEntSGDTrainer {
+
+	private static InstanceList randomInstances(int seed, int size) {
+		Alphabet fd = new Alphabet();
+		for (int i = 0; i < 20; i++)
+			fd.lookupIndex("feature" + i);
+		String[] classNames = new String[]{"class0", "class1", "class2"};
+		return new InstanceList(new Randoms(seed), fd, classNames, size);
+	}
+
+	/** The value MaxEntTrainer maximizes, for the parameters of this classifier. */
+	private static double objective(MaxEnt maxent, InstanceList instances) {
+		MaxEntOptimizableByLabelLikelihood optimizable = new MaxEntOptimizableByLabelLikelihood(instances, maxent);
+		return optimizable.getValue();
+	}
+
+	private static double logLikelihood(MaxEnt maxent, InstanceList instances) {
+		double[] scores = new double[maxent.getLabelAlphabet().size()];
+		double value = 0.0;
+		for (Instance instance: instances) {
+			maxent.getClassificationScores(instance, scores);
+			value += Math.log(scores[instance.getLabeling().getBestIndex()]);
+		}
+		return value;
+	}
+
+	@Test
+	public void testApproachesBatchOptimum() {
+		InstanceList instances = randomInstances(1, 200);
+		MaxEnt batch = new MaxEntTrainer().train(instances);
+		double optimum = objective(batch, instances);
+
+		MaxEnt adaGrad = new MaxEntSGDTrainer().setLearningRate(0.3).setNumIterations(50).train(instances);
+		assertEquals(optimum, objective(adaGrad, instances), 0.01 * Math.abs(optimum));
+
+		MaxEnt sgd = new MaxEntSGDTrainer().setAdaGrad(false).setLearningRate(1.0)
+			.setNumIterations(50).train(instances);
+		assertEquals(optimum, objective(sgd, instances), 0.03 * Math.abs(optimum));
+	}
+
+	@Test
+	public void testSingleThreadIsDeterministic() {
+		InstanceList instances = randomInstances(1, 100);
+		MaxEnt first = new MaxEntSGDTrainer().setNumIterations(5).setL1Weight(0.5).train(instances);
+		MaxEnt second = new MaxEntSGDTrainer().setNumIterations(5).setL1Weight(0.5).train(instances);
+		assertArrayEquals(first.getParameters(), second.getParameters(), 0.0);
+	}
+
+	@Test
+	public void testL1GivesZeroWeights() {
+		InstanceList instances = randomInstances(1, 200);
+		MaxEnt dense = new MaxEntSGDTrainer().setNumIterations(20).train(instances);
+		MaxEnt sparse = new MaxEntSGDTrainer().setNumIterations(20).setL1Weight(20.0).train(instances);
+
+		int denseZeros = 0;
+		int sparseZeros = 0;
+		for (int i = 0; i < dense.getParameters().length; i++) {
+			if (dense.getParameters()[i] == 0.0) denseZeros++;
+			if (sparse.getParameters()[i] == 0.0) sparseZeros++;
+		}
+		assertEquals(0, denseZeros);
+		assertTrue(sparseZeros > dense.getParameters().length / 4);
+	}
+
+	@Test
+	public void testEarlyStopping() {
+		InstanceList instances = randomInstances(1, 200);
+		// These instances are easy to separate, so validate against shifted labels to make the model overfit
+		InstanceList validation = new InstanceList(instances.getPipe());
+		LabelAlphabet labels = (LabelAlphabet) instances.getTargetAlphabet();
+		for (int i = 0; i < 50; i++) {
+			Instance instance = instances.get(i);
+			int label = (instance.getLabeling().getBestIndex() + 1) % labels.size();
+			validation.add(new Instance(instance.getData(), labels.lookupLabel(label), null, null));
+		}
+
+		MaxEntSGDTrainer trainer = new MaxEntSGDTrainer()
+			.setNumIterations(500).setLearningRate(1.0).setGaussianPriorVariance(Double.POSITIVE_INFINITY).setPatience(2);
+		trainer.setValidationInstances(validation);
+		MaxEnt maxent = trainer.train(instances);
+
+		assertTrue(trainer.isFinishedTraining());
+		assertTrue(trainer.getIteration() < 500);
+		assertEquals(trainer.getLogLikelihood(validation), logLikelihood(maxent, validation), 1e-9);
+
+		// The same passes without validation end with the last weights, which did not improve
+		MaxEnt last = new MaxEntSGDTrainer()
+			.setNumIterations(trainer.getIteration()).setLearningRate(1.0).setGaussianPriorVariance(Double.POSITIVE_INFINITY)
+			.train(instances);
+		assertTrue(logLikelihood(maxent, validation) > logLikelihood(last, validation));
+	}
+
+	/** Copy the instances, adding <code>extraFeatures</code> with value 1 to each one. */
+	private static InstanceList withFeatures(InstanceList instances, int[] extraFeatures) {
+		InstanceList copy = new InstanceList(instances.getPipe());
+		for (Instance instance: instances) {
+			FeatureVector fv = (FeatureVector) instance.getData();
+			int[] indices = Arrays.copyOf(fv.getIndices(), fv.numLocations() + extraFeatures.length);
+			double[] values = Arrays.copyOf(fv.getValues(), indices.length);
+			for (int i = 0; i < extraFeatures.length; i++) {
+				indices[fv.numLocations() + i] = extraFeatures[i];
+				values[fv.numLocations() + i] = 1.0;
+			}
+			copy.add(new Instance(new FeatureVector(fv.getAlphabet(), indices, values), instance.getTarget(), null, null));
+		}
+		return copy;
+	}
+
+	@Test
+	public void testFeaturesAddedBetweenPassesAreIgnored() {
+		InstanceList instances = randomInstances(1, 150);
+		InstanceList first = instances.subList(0, 100);
+		InstanceList more = instances.subList(100, 150);
+		MaxEntSGDTrainer grown = new MaxEntSGDTrainer();
+		MaxEntSGDTrainer plain = new MaxEntSGDTrainer();
+		grown.trainIncremental(first);
+		plain.trainIncremental(first);
+
+		// The first new feature takes the index of the bias weights, the second is past the end
+		Alphabet fd = instances.getDataAlphabet();
+		int[] newFeatures = new int[]{ fd.lookupIndex("new0"), fd.lookupIndex("new1") };
+		grown.trainIncremental(withFeatures(more, newFeatures));
+		plain.trainIncremental(withFeatures(more, new int[0]));
+
+		assertArrayEquals(plain.getClassifier().getParameters(), grown.getClassifier().getParameters(), 0.0);
+	}
+
+	@Test
+	public void testThreadedTraining() {
+		InstanceList instances = randomInstances(1, 200);
+		MaxEnt single = new MaxEntSGDTrainer().setNumIterations(30).train(instances);
+		MaxEnt threaded = new MaxEntSGDTrainer().setNumIterations(30).setNumThreads(3).train(instances);
+
+		double expected = objective(single, instances);
+		assertEquals(expected, objective(threaded, instances), 0.02 * Math.abs(expected));
+	}
+
+}
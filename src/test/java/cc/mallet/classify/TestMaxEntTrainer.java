@@ -14,6 +14,12 @@
 
 package cc.mallet.classify;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 import org.junit.Test;
 import static org.junit.Assert.*;
 
@@ -63,4 +69,66 @@ public class TestMaxEntTrainer {
 		TestOptimizable.testValueAndGradientCurrentParameters(maxable);
 	}
 
+	@Test
+	public void testBatchesMatchSingleThread() {
+		Alphabet fd = dictOfSize(8);
+		String[] classNames = new String[]{"class0", "class1", "class2"};
+		InstanceList ilist = new InstanceList(new Randoms(1), fd, classNames, 50);
+
+		ExecutorService executor = Executors.newFixedThreadPool(3);
+		try {
+			MaxEntOptimizableByLabelLikelihood single = new MaxEntOptimizableByLabelLikelihood(ilist, null);
+			MaxEntOptimizableByLabelLikelihood batched = new MaxEntOptimizableByLabelLikelihood(ilist, null, 4, executor);
+
+			double[] parameters = new double[single.getNumParameters()];
+			Random random = new Random(2);
+			for (int i = 0; i < parameters.length; i++) {
+				parameters[i] = random.nextGaussian();
+			}
+			single.setParameters(parameters);
+			batched.setParameters(parameters);
+
+			assertEquals(single.getValue(), batched.getValue(), 1e-9);
+
+			double[] expected = new double[parameters.length];
+			double[] actual = new double[parameters.length];
+			single.getValueGradient(expected);
+			batched.getValueGradient(actual);
+			assertArrayEquals(expected, actual, 1e-9);
+
+			// The same batches through the ByCombiningBatchGradient interface
+			double value = 0.0;
+			List<double[]> gradients = new ArrayList<double[]>();
+			for (int batch = 0; batch < batched.getNumBatches(); batch++) {
+				int[] assignments = batched.getBatchAssignments(batch);
+				value += batched.getBatchValue(batch, assignments);
+				double[] gradient = new double[parameters.length];
+				batched.getBatchValueGradient(gradient, batch, assignments);
+				gradients.add(gradient);
+			}
+			batched.combineGradients(gradients, actual);
+			assertEquals(single.getValue(), value, 1e-9);
+			assertArrayEquals(expected, actual, 1e-9);
+
+			TestOptimizable.testValueAndGradient(batched);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testThreadedTraining() {
+		Alphabet fd = dictOfSize(10);
+		String[] classNames = new String[]{"class0", "class1", "class2"};
+		InstanceList ilist = new InstanceList(new Randoms(1), fd, classNames, 60);
+
+		MaxEnt expected = new MaxEntTrainer().train(ilist);
+		MaxEntTrainer trainer = new MaxEntTrainer().setNumThreads(3);
+		MaxEnt actual = trainer.train(ilist);
+
+		assertEquals(3, trainer.getOptimizable(ilist).getNumBatches());
+		assertArrayEquals(expected.getParameters(), actual.getParameters(), 1e-3);
+		assertEquals(new Trial(expected, ilist).getAccuracy(), new Trial(actual, ilist).getAccuracy(), 0.0);
+	}
+
 }
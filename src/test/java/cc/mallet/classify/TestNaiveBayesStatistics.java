@@ -0,0 +1,105 @@
+/* Copyright (C) 2002 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package cc.mallet.classify;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import cc.mallet.types.Alphabet;
+import cc.mallet.types.Instance;
+import cc.mallet.types.InstanceList;
+import cc.mallet.types.Labeling;
+import cc.mallet.util.Randoms;
+
+public class TestNaiveBayesStatistics {
+
+	private static InstanceList randomInstances() {
+		Alphabet fd = new Alphabet();
+		for (int i = 0; i < 50; i++)
+			fd.lookupIndex("feature" + i);
+		String[] classNames = new String[]{"class0", "class1", "class2", "class3"};
+		return new InstanceList(new Randoms(1), fd, classNames, 30);
+	}
+
+	private static void assertSameClassifications(NaiveBayes expected, NaiveBayes actual, InstanceList instances) {
+		for (Instance instance: instances) {
+			Labeling expectedLabeling = expected.classify(instance).getLabeling();
+			Labeling actualLabeling = actual.classify(instance).getLabeling();
+			for (int li = 0; li < expectedLabeling.getLabelAlphabet().size(); li++)
+				assertEquals(expectedLabeling.value(li), actualLabeling.value(li), 1e-12);
+		}
+	}
+
+	@Test
+	public void testThreadedTrainingMatchesSingleThread() {
+		InstanceList instances = randomInstances();
+		NaiveBayes single = new NaiveBayesTrainer().train(instances);
+		NaiveBayes threaded = new NaiveBayesTrainer().setNumThreads(3).train(instances);
+		assertSameClassifications(single, threaded, instances);
+
+		NaiveBayes normalized = new NaiveBayesTrainer().setDocLengthNormalization(20).train(instances);
+		NaiveBayes threadedNormalized = new NaiveBayesTrainer().setDocLengthNormalization(20).setNumThreads(4)
+			.train(instances);
+		assertSameClassifications(normalized, threadedNormalized, instances);
+	}
+
+	@Test
+	public void testMergedPartitions() {
+		InstanceList instances = randomInstances();
+		int half = instances.size() / 2;
+		NaiveBayesStatistics first = NaiveBayesStatistics.count(instances.subList(0, half), -1, 1);
+		NaiveBayesStatistics second = new NaiveBayesStatistics(instances.getDataAlphabet(), instances.getTargetAlphabet())
+			.add(instances.subList(half, instances.size()).iterator());
+		NaiveBayesStatistics all = NaiveBayesStatistics.count(instances, -1, 1);
+		NaiveBayesStatistics merged = first.merge(second);
+
+		for (int li = 0; li < all.getNumLabels(); li++) {
+			assertEquals(all.getLabelCount(li), merged.getLabelCount(li), 1e-12);
+			for (int fi = 0; fi < instances.getDataAlphabet().size(); fi++)
+				assertEquals(all.getFeatureCount(li, fi), merged.getFeatureCount(li, fi), 1e-12);
+		}
+		assertEquals(all.getNumFeatureCounts(), merged.getNumFeatureCounts());
+
+		assertSameClassifications(new NaiveBayesTrainer().train(instances),
+								  new NaiveBayesTrainer().train(merged), instances);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testMergeRejectsDifferentNormalization() {
+		InstanceList instances = randomInstances();
+		NaiveBayesStatistics.count(instances, -1, 1).merge(NaiveBayesStatistics.count(instances, 20, 1));
+	}
+
+	@Test
+	public void testSerialization() throws Exception {
+		InstanceList instances = randomInstances();
+		NaiveBayesStatistics original = NaiveBayesStatistics.count(instances, 20, 2);
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(original);
+		out.close();
+		ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		NaiveBayesStatistics copy = (NaiveBayesStatistics) in.readObject();
+		in.close();
+
+		assertEquals(20, copy.getDocLengthNormalization(), 0.0);
+		assertEquals(original.getNumFeatureCounts(), copy.getNumFeatureCounts());
+		for (int li = 0; li < original.getNumLabels(); li++) {
+			assertEquals(original.getLabelCount(li), copy.getLabelCount(li), 0.0);
+			for (int fi = 0; fi < instances.getDataAlphabet().size(); fi++)
+				assertEquals(original.getFeatureCount(li, fi), copy.getFeatureCount(li, fi), 0.0);
+		}
+	}
+
+}
@@ -0,0 +1,83 @@
+/* Copyright (C) 2002 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package cc.mallet.classify.tui;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import cc.mallet.types.Alphabet;
+import cc.mallet.types.InstanceList;
+import cc.mallet.util.Randoms;
+
+public class TestVectors2Classify {
+
+	private static InstanceList randomInstances() {
+		Alphabet fd = new Alphabet();
+		for (int i = 0; i < 30; i++)
+			fd.lookupIndex("feature" + i);
+		String[] classNames = new String[]{"class0", "class1", "class2"};
+		return new InstanceList(new Randoms(1), fd, classNames, 60);
+	}
+
+	/** Process the options and run the trials on <code>instances</code>, returning what they print. */
+	private static String run(InstanceList instances, String... args) throws Exception {
+		Vectors2Classify.processOptions(args);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		Vectors2Classify.runTrials(instances, null, null, null, new PrintStream(bytes));
+		return bytes.toString();
+	}
+
+	private static String run(InstanceList instances, int numThreads) throws Exception {
+		return run(instances,
+				"--trainer", "NaiveBayes",
+				"--trainer", "MaxEnt,gaussianPriorVariance=10",
+				"--training-portion", "0.7",
+				"--num-trials", "4",
+				"--random-seed", "1",
+				"--report", "train:accuracy", "test:accuracy", "test:f1:class1", "test:raw",
+				"--num-threads", Integer.toString(numThreads));
+	}
+
+	@Test
+	public void testThreadedOutputMatchesSingleThread() throws Exception {
+		InstanceList instances = randomInstances();
+		String single = run(instances, 1);
+		String threaded = run(instances, 3);
+
+		assertTrue(single.contains("Trial 3 Trainer"));
+		assertTrue(single.contains("Summary. test accuracy mean"));
+		assertEquals(single, threaded);
+	}
+
+	@Test
+	public void testTrainerSettersReachMaxEntThreads() throws Exception {
+		String output = run(randomInstances(),
+				"--trainer", "MaxEnt,numThreads=2",
+				"--training-portion", "0.7",
+				"--random-seed", "1",
+				"--report", "test:accuracy",
+				"--num-threads", "1");
+
+		assertTrue(output.contains("Trial 0 Trainer MaxEntTrainer,numThreads=2"));
+		assertTrue(output.contains("Summary. test accuracy mean"));
+	}
+
+	@Test
+	public void testMistypedBooleanSetterIsRejected() throws Exception {
+		try {
+			run(randomInstances(), "--trainer", "MaxEntSGD,adaGrad=ture", "--num-threads", "1");
+			fail("adaGrad=ture should be rejected");
+		} catch (IllegalArgumentException e) {
+			assertTrue(e.getMessage().contains("'adaGrad' with value 'ture'"));
+		}
+	}
+
+}
@@ -34,6 +34,7 @@ import cc.mallet.types.FeatureVector;
 import cc.mallet.types.FeatureVectorSequence;
 import cc.mallet.types.Instance;
 import cc.mallet.types.InstanceList;
+import cc.mallet.types.LabelAlphabet;
 import cc.mallet.types.MatrixOps;
 import cc.mallet.types.Sequence;
 import cc.mallet.types.SparseVector;
@@ -857,6 +858,147 @@ public class TestCRF {
                     + (totalTimeDefault - totalTimeScaling) + " ms)");
     }
 
+    @Test
+    public void testSumLatticeCRF() {
+        Pipe p = makeSpacePredictionPipe();
+
+        InstanceList instances = new InstanceList(p);
+        instances.addThruPipe(new ArrayIterator(data));
+
+        // Second-order states share weights between transitions
+        CRF crf = new CRF(p.getDataAlphabet(), p.getTargetAlphabet());
+        crf.addOrderNStates(instances, new int[] { 1, 2 },
+                new boolean[] { false, false }, "START", null, null, false);
+        new CRFTrainerByLabelLikelihood(crf).train(instances, 5);
+
+        LabelAlphabet labels = new LabelAlphabet();
+        for (int l = 0; l < crf.getOutputAlphabet().size(); l++)
+            labels.lookupIndex(crf.getOutputAlphabet().lookupObject(l));
+
+        SumLatticeFactory factory = new SumLatticeCRF.Factory();
+        for (Instance inst : instances) {
+            Sequence input = (Sequence) inst.getData();
+            Sequence output = (Sequence) inst.getTarget();
+            for (Sequence constraint : new Sequence[] { null, output }) {
+                SumLattice expected = new SumLatticeDefault(crf, input,
+                        constraint, null, true, labels);
+                SumLattice actual = factory.newSumLattice(crf, input,
+                        constraint, null, true, labels);
+                assertTrue(actual instanceof SumLatticeCRF);
+
+                assertEquals(expected.getTotalWeight(), actual.getTotalWeight(), 1e-8);
+                double[][] gammas = actual.getGammas();
+                double[][][] xis = actual.getXis();
+                for (int ip = 0; ip < expected.length(); ip++) {
+                    for (int i = 0; i < crf.numStates(); i++) {
+                        Transducer.State state = crf.getState(i);
+                        assertEquals(actual.getGammaWeight(ip, state), gammas[ip][i], 0);
+                        for (int j = 0; j < crf.numStates(); j++)
+                            assertEquals(actual.getXiWeight(ip, state, crf.getState(j)), xis[ip][i][j], 0);
+                        assertEquals(expected.getGammaProbability(ip, state),
+                                actual.getGammaProbability(ip, state), 1e-8);
+                        if (expected.getGammaProbability(ip, state) > 1e-100) {
+                            assertEquals(expected.getAlpha(ip, state), actual.getAlpha(ip, state), 1e-8);
+                            assertEquals(expected.getBeta(ip, state), actual.getBeta(ip, state), 1e-8);
+                        }
+                        for (int j = 0; j < crf.numStates(); j++)
+                            assertEquals(expected.getXiProbability(ip, state, crf.getState(j)),
+                                    actual.getXiProbability(ip, state, crf.getState(j)), 1e-8);
+                    }
+                    if (ip < expected.length() - 1)
+                        for (int l = 0; l < labels.size(); l++)
+                            assertEquals(expected.getLabelingAtPosition(ip).value(l),
+                                    actual.getLabelingAtPosition(ip).value(l), 1e-8);
+                }
+            }
+        }
+
+        // The likelihood gradient is the same whichever lattice gathers the expectations
+        crf.setSumLatticeFactory(new SumLatticeDefault.Factory());
+        CRFOptimizableByLabelLikelihood defaultOptimizable = new CRFOptimizableByLabelLikelihood(crf, instances);
+        double[] expectedGradient = new double[defaultOptimizable.getNumParameters()];
+        defaultOptimizable.getValueGradient(expectedGradient);
+        double expectedValue = defaultOptimizable.getValue();
+
+        crf.setSumLatticeFactory(factory);
+        CRFOptimizableByLabelLikelihood crfOptimizable = new CRFOptimizableByLabelLikelihood(crf, instances);
+        double[] actualGradient = new double[crfOptimizable.getNumParameters()];
+        crfOptimizable.getValueGradient(actualGradient);
+        assertEquals(expectedValue, crfOptimizable.getValue(), 1e-6);
+        for (int i = 0; i < expectedGradient.length; i++)
+            assertEquals(expectedGradient[i], actualGradient[i], 1e-6);
+    }
+
+    @Test
+    public void testCRFDecoder() {
+        Pipe p = makeSpacePredictionPipe();
+
+        InstanceList instances = new InstanceList(p);
+        instances.addThruPipe(new ArrayIterator(data));
+
+        CRF crf = new CRF(p.getDataAlphabet(), p.getTargetAlphabet());
+        // One state per label, so that each path has distinct outputs
+        crf.addFullyConnectedStatesForLabels();
+        new CRFTrainerByLabelLikelihood(crf).train(instances, 5);
+
+        CRFDecoder decoder = new CRFDecoder(crf);
+        java.util.List<FeatureVectorSequence> inputs = new java.util.ArrayList<FeatureVectorSequence>();
+        for (Instance inst : instances) {
+            FeatureVectorSequence input = (FeatureVectorSequence) inst.getData();
+            inputs.add(input);
+            MaxLatticeDefault lattice = new MaxLatticeDefault(crf, input);
+
+            Sequence expected = lattice.bestOutputSequence();
+            Sequence actual = decoder.bestOutputSequence(input);
+            assertEquals(expected.size(), actual.size());
+            int[] labels = new int[input.size()];
+            double weight = decoder.bestLabels(input, labels);
+            double bestDelta = Transducer.IMPOSSIBLE_WEIGHT;
+            for (int i = 0; i < crf.numStates(); i++)
+                bestDelta = Math.max(bestDelta, lattice.getDelta(input.size(), i));
+            assertEquals(bestDelta, weight, 1e-8);
+            for (int ip = 0; ip < expected.size(); ip++) {
+                assertEquals(expected.get(ip), actual.get(ip));
+                assertEquals(expected.get(ip), crf.getOutputAlphabet().lookupObject(labels[ip]));
+            }
+
+            java.util.List<cc.mallet.types.SequencePairAlignment<Object,Object>> kBest = decoder.bestOutputAlignments(input, 5);
+            assertEquals(actual.toString(), kBest.get(0).output().toString());
+            assertEquals(weight, kBest.get(0).getWeight(), 1e-8);
+        }
+
+        // Compare the k best paths of a short sequence with all of its paths
+        FeatureVectorSequence full = inputs.get(0);
+        FeatureVectorSequence input = new FeatureVectorSequence(new FeatureVector[] {
+                full.get(0), full.get(1), full.get(2), full.get(3) });
+        java.util.List<Double> pathWeights = new java.util.ArrayList<Double>();
+        for (int i = 0; i < crf.numStates(); i++)
+            addPathWeights(crf.getState(i), input, 0, crf.getState(i).getInitialWeight(), pathWeights);
+        java.util.Collections.sort(pathWeights, java.util.Collections.reverseOrder());
+        java.util.List<cc.mallet.types.SequencePairAlignment<Object,Object>> kBest = decoder.bestOutputAlignments(input, 7);
+        assertEquals(7, kBest.size());
+        for (int n = 0; n < kBest.size(); n++)
+            assertEquals(pathWeights.get(n), kBest.get(n).getWeight(), 1e-8);
+
+        java.util.List<Sequence<Object>> batch = decoder.bestOutputSequences(inputs, 3);
+        for (int i = 0; i < inputs.size(); i++)
+            assertEquals(decoder.bestOutputSequence(inputs.get(i)).toString(), batch.get(i).toString());
+    }
+
+    private void addPathWeights(Transducer.State state, Sequence input, int ip, double weight, java.util.List<Double> pathWeights) {
+        if (weight == Transducer.IMPOSSIBLE_WEIGHT)
+            return;
+        if (ip == input.size()) {
+            pathWeights.add(weight + state.getFinalWeight());
+            return;
+        }
+        Transducer.TransitionIterator it = state.transitionIterator(input, ip);
+        while (it.hasNext()) {
+            Transducer.State destination = it.nextState();
+            addPathWeights(destination, input, ip + 1, weight + it.getWeight(), pathWeights);
+        }
+    }
+
     @Test
     public void testSerialization() {
         doTestSpacePrediction(false, true, true);
@@ -0,0 +1,88 @@
+/* Copyright (C) 2002 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package cc.mallet.pipe;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import cc.mallet.types.FeatureVector;
+import cc.mallet.types.Instance;
+import cc.mallet.types.InstanceList;
+
+public class TestParallelPipeIterator {
+
+	static final String[] WORDS = {
+		"The", "cat", "sat", "on", "a", "mat", "Dogs", "chase", "cats", "and", "birds",
+		"fly", "over", "the", "river", "while", "fish", "swim", "under", "bridge"
+	};
+
+	private static Pipe newPipe() {
+		ArrayList<Pipe> pipes = new ArrayList<Pipe>();
+		pipes.add(new Target2Label());
+		pipes.add(new CharSequenceLowercase());
+		pipes.add(new CharSequence2TokenSequence());
+		pipes.add(new TokenSequenceRemoveStopwords(false, false));
+		pipes.add(new TokenSequence2FeatureSequence());
+		pipes.add(new FeatureSequence2AugmentableFeatureVector());
+		return new SerialPipes(pipes);
+	}
+
+	private static Iterator<Instance> documents() {
+		Random random = new Random(1);
+		ArrayList<Instance> instances = new ArrayList<Instance>();
+		// More than one batch for four threads
+		for (int doc = 0; doc < 2500; doc++) {
+			StringBuilder text = new StringBuilder();
+			int length = 1 + random.nextInt(30);
+			for (int i = 0; i < length; i++) {
+				// Rare words make late documents add new alphabet entries
+				text.append(random.nextInt(10) == 0 ? "w" + random.nextInt(5000) : WORDS[random.nextInt(WORDS.length)]);
+				text.append(' ');
+			}
+			instances.add(new Instance(text.toString(), "label" + random.nextInt(7), "doc" + doc, null));
+		}
+		return instances.iterator();
+	}
+
+	@Test
+	public void testMatchesSequentialPipe() {
+		InstanceList sequential = new InstanceList(newPipe());
+		sequential.addThruPipe(documents());
+
+		InstanceList parallel = new InstanceList(newPipe());
+		parallel.addThruPipe(documents(), 4);
+
+		assertEquals(sequential.size(), parallel.size());
+		assertEquals(sequential.getDataAlphabet().size(), parallel.getDataAlphabet().size());
+		for (int i = 0; i < sequential.getDataAlphabet().size(); i++) {
+			assertEquals(sequential.getDataAlphabet().lookupObject(i), parallel.getDataAlphabet().lookupObject(i));
+		}
+		for (int i = 0; i < sequential.getTargetAlphabet().size(); i++) {
+			assertEquals(sequential.getTargetAlphabet().lookupObject(i), parallel.getTargetAlphabet().lookupObject(i));
+		}
+
+		for (int doc = 0; doc < sequential.size(); doc++) {
+			Instance expected = sequential.get(doc);
+			Instance actual = parallel.get(doc);
+			assertEquals(expected.getName(), actual.getName());
+			assertEquals(expected.getLabeling().getBestIndex(), actual.getLabeling().getBestIndex());
+
+			FeatureVector expectedFeatures = (FeatureVector) expected.getData();
+			FeatureVector actualFeatures = (FeatureVector) actual.getData();
+			assertEquals(expectedFeatures.numLocations(), actualFeatures.numLocations());
+			for (int location = 0; location < expectedFeatures.numLocations(); location++) {
+				assertEquals(expectedFeatures.indexAtLocation(location), actualFeatures.indexAtLocation(location));
+				assertEquals(expectedFeatures.valueAtLocation(location), actualFeatures.valueAtLocation(location), 0.0);
+			}
+		}
+	}
+}
@@ -0,0 +1,130 @@
+/* Copyright (C) 2005 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package cc.mallet.topics;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import cc.mallet.optimize.TestOptimizable;
+import cc.mallet.pipe.Noop;
+import cc.mallet.types.Alphabet;
+import cc.mallet.types.FeatureVector;
+import cc.mallet.types.Instance;
+import cc.mallet.types.InstanceList;
+import cc.mallet.types.LabelAlphabet;
+
+public class TestDMROptimizable {
+
+	private static final int NUM_FEATURES = 4;
+	private static final int NUM_TOPICS = 3;
+
+	/** Documents with random features in the data field and random topic counts in the target. */
+	private static InstanceList buildParameterInstances(int numDocs) {
+		Alphabet featureAlphabet = new Alphabet();
+		for (int feature = 0; feature < NUM_FEATURES; feature++) {
+			featureAlphabet.lookupIndex("f" + feature);
+		}
+		LabelAlphabet topicAlphabet = new LabelAlphabet();
+		for (int topic = 0; topic < NUM_TOPICS; topic++) {
+			topicAlphabet.lookupIndex("topic" + topic);
+		}
+
+		Random random = new Random(1);
+		InstanceList instances = new InstanceList(new Noop(featureAlphabet, topicAlphabet));
+		for (int doc = 0; doc < numDocs; doc++) {
+			int feature = random.nextInt(NUM_FEATURES);
+			FeatureVector features = new FeatureVector(featureAlphabet, new int[] { feature }, new double[] { 1.0 });
+
+			double[] counts = new double[NUM_TOPICS];
+			for (int token = 0; token < 10; token++) {
+				// Documents mostly use the topic that matches their feature
+				counts[ random.nextInt(4) == 0 ? random.nextInt(NUM_TOPICS) : feature % NUM_TOPICS ]++;
+			}
+			FeatureVector topicCounts = new FeatureVector(topicAlphabet, new int[] { 0, 1, 2 }, counts);
+			instances.add(new Instance(features, topicCounts, null, null));
+		}
+		return instances;
+	}
+
+	@Test
+	public void gradientMatchesValue() {
+		DMROptimizable optimizable = new DMROptimizable(buildParameterInstances(30), null);
+		TestOptimizable.testValueAndGradientRandomParameters(optimizable, new Random(2));
+	}
+
+	@Test
+	public void batchesMatchSingleThread() throws Exception {
+		InstanceList instances = buildParameterInstances(50);
+		DMROptimizable single = new DMROptimizable(instances, null);
+
+		ExecutorService executor = Executors.newFixedThreadPool(3);
+		try {
+			DMROptimizable batched = new DMROptimizable(instances, null, 3, executor);
+			assertEquals(3, batched.getNumBatches());
+
+			double[] parameters = new double[ single.getNumParameters() ];
+			Random random = new Random(3);
+			for (int i = 0; i < parameters.length; i++) {
+				parameters[i] = random.nextGaussian();
+			}
+			single.setParameters(parameters);
+			batched.setParameters(parameters);
+
+			assertEquals(single.getValue(), batched.getValue(), 1e-8);
+
+			double[] singleGradient = new double[ parameters.length ];
+			double[] batchedGradient = new double[ parameters.length ];
+			single.getValueGradient(singleGradient);
+			batched.getValueGradient(batchedGradient);
+			assertArrayEquals(singleGradient, batchedGradient, 1e-8);
+
+			TestOptimizable.testValueAndGradientRandomParameters(batched, new Random(4));
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void threadedModelCachesAlphas() throws Exception {
+		InstanceList sequences = TestParallelTopicModelRegression.buildCorpus();
+		Alphabet featureAlphabet = new Alphabet();
+		InstanceList instances = new InstanceList(new Noop(sequences.getDataAlphabet(), featureAlphabet));
+		for (int doc = 0; doc < sequences.size(); doc++) {
+			int feature = featureAlphabet.lookupIndex("group" + (doc % 3));
+			FeatureVector features = new FeatureVector(featureAlphabet, new int[] { feature }, new double[] { 1.0 });
+			instances.add(new Instance(sequences.get(doc).getData(), features, "doc" + doc, null));
+		}
+
+		DMRTopicModel model = new DMRTopicModel(3);
+		model.setRandomSeed(5);
+		model.setNumThreads(2);
+		model.setNumIterations(20);
+		model.setOptimizeInterval(5);
+		model.setBurninPeriod(5);
+		model.addInstances(instances);
+		model.estimate();
+
+		// The cached alphas agree with a sequential recomputation from the final parameters
+		double[][] alphas = new double[ model.alphaCache.length ][];
+		for (int doc = 0; doc < alphas.length; doc++) {
+			alphas[doc] = model.alphaCache[doc].clone();
+		}
+		model.cacheAlphas(null);
+
+		for (int doc = 0; doc < alphas.length; doc++) {
+			assertArrayEquals(model.alphaCache[doc], alphas[doc], 1e-12);
+			for (double alpha: alphas[doc]) {
+				assertTrue(alpha > 0 && ! Double.isInfinite(alpha));
+			}
+		}
+	}
+}
@@ -0,0 +1,104 @@
+/* Copyright (C) 2005 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package cc.mallet.topics;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import cc.mallet.types.FeatureSequence;
+import cc.mallet.types.InstanceList;
+import cc.mallet.util.Randoms;
+
+public class TestHierarchicalPAM {
+
+	private static final int NUM_SUPER_TOPICS = 2;
+	private static final int NUM_SUB_TOPICS = 4;
+
+	/** The index into the type/topic counts of the output multinomial for one token. */
+	private static int topicIndex(int superTopic, int subTopic) {
+		if (superTopic == NUM_SUPER_TOPICS) {
+			return 0;
+		}
+		if (subTopic == NUM_SUB_TOPICS) {
+			return 1 + superTopic;
+		}
+		return 1 + NUM_SUPER_TOPICS + subTopic;
+	}
+
+	/** Recount the type/topic counts, token totals and document frequencies from the assignments. */
+	private static void checkCounts(HierarchicalPAM pam, InstanceList instances) {
+		int numTopics = 1 + NUM_SUPER_TOPICS + NUM_SUB_TOPICS;
+		int[][] typeCounts = new int[pam.numTypes][numTopics];
+		int[] topicTotals = new int[numTopics];
+		int[] superTopicFrequencies = new int[NUM_SUPER_TOPICS + 1];
+		int[][] superSubTopicFrequencies = new int[NUM_SUPER_TOPICS + 1][NUM_SUB_TOPICS + 1];
+		int[] sumSuperTopicFrequencies = new int[NUM_SUPER_TOPICS];
+		int sumFrequencies = 0;
+
+		for (int doc = 0; doc < instances.size(); doc++) {
+			FeatureSequence tokens = (FeatureSequence) instances.get(doc).getData();
+			boolean[] seenSuperTopic = new boolean[NUM_SUPER_TOPICS + 1];
+			boolean[][] seenSuperSubTopic = new boolean[NUM_SUPER_TOPICS + 1][NUM_SUB_TOPICS + 1];
+
+			for (int position = 0; position < tokens.getLength(); position++) {
+				int superTopic = pam.superTopics[doc][position];
+				int subTopic = pam.subTopics[doc][position];
+				int topic = topicIndex(superTopic, subTopic);
+				typeCounts[ tokens.getIndexAtPosition(position) ][topic]++;
+				topicTotals[topic]++;
+
+				if (! seenSuperTopic[superTopic]) {
+					seenSuperTopic[superTopic] = true;
+					superTopicFrequencies[superTopic]++;
+					sumFrequencies++;
+				}
+				if (superTopic < NUM_SUPER_TOPICS && ! seenSuperSubTopic[superTopic][subTopic]) {
+					seenSuperSubTopic[superTopic][subTopic] = true;
+					superSubTopicFrequencies[superTopic][subTopic]++;
+					sumSuperTopicFrequencies[superTopic]++;
+				}
+			}
+		}
+
+		assertArrayEquals(topicTotals, pam.tokensPerTopic);
+		assertArrayEquals(superTopicFrequencies, pam.superTopicDocumentFrequencies);
+		for (int superTopic = 0; superTopic < NUM_SUPER_TOPICS; superTopic++) {
+			assertArrayEquals(superSubTopicFrequencies[superTopic], pam.superSubTopicDocumentFrequencies[superTopic]);
+		}
+		assertArrayEquals(sumSuperTopicFrequencies, pam.sumSuperTopicDocumentFrequencies);
+		assertEquals(sumFrequencies, pam.sumDocumentFrequencies);
+
+		for (int type = 0; type < pam.numTypes; type++) {
+			for (int topic = 0; topic < numTopics; topic++) {
+				assertEquals(typeCounts[type][topic], pam.typeTopicCounts.getCount(type, topic));
+			}
+		}
+	}
+
+	private static HierarchicalPAM train(int numThreads) {
+		InstanceList instances = TestParallelTopicModelRegression.buildCorpus();
+		HierarchicalPAM pam = new HierarchicalPAM(NUM_SUPER_TOPICS, NUM_SUB_TOPICS, 1.0, 1.0);
+		pam.setNumThreads(numThreads);
+		pam.estimate(instances, null, 30, 0, 0, 0, null, new Randoms(3));
+		checkCounts(pam, instances);
+		return pam;
+	}
+
+	@Test
+	public void countsMatchAssignments() {
+		HierarchicalPAM pam = train(1);
+		assertFalse(Double.isNaN(pam.modelLogLikelihood()));
+	}
+
+	@Test
+	public void countsMatchAssignmentsWithThreads() {
+		HierarchicalPAM pam = train(3);
+		assertFalse(Double.isNaN(pam.modelLogLikelihood()));
+		assertTrue(pam.printTopWords(5, false).length() > 0);
+	}
+}
@@ -0,0 +1,75 @@
+/* Copyright (C) 2002 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package cc.mallet.topics;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import cc.mallet.pipe.Noop;
+import cc.mallet.types.Alphabet;
+import cc.mallet.types.FeatureSequence;
+import cc.mallet.types.FeatureVector;
+import cc.mallet.types.Instance;
+import cc.mallet.types.InstanceList;
+
+public class TestLabeledLDA {
+
+	private static final String[] LABELS = { "animals", "food", "music", "animals food", "food music" };
+
+	/** The regression corpus, with each document tagged by one or two labels. */
+	private static InstanceList buildCorpus() {
+		InstanceList sequences = TestParallelTopicModelRegression.buildCorpus();
+		Alphabet labelAlphabet = new Alphabet();
+		InstanceList instances = new InstanceList(new Noop(sequences.getDataAlphabet(), labelAlphabet));
+
+		for (int doc = 0; doc < sequences.size(); doc++) {
+			String[] labels = LABELS[doc % LABELS.length].split(" ");
+			int[] indices = new int[labels.length];
+			for (int i = 0; i < labels.length; i++) {
+				indices[i] = labelAlphabet.lookupIndex(labels[i]);
+			}
+			FeatureVector target = new FeatureVector(labelAlphabet, indices);
+			instances.add(new Instance(sequences.get(doc).getData(), target, "doc" + doc, null));
+		}
+		return instances;
+	}
+
+	@Test
+	public void multiThreadedCountsMatchAssignments() throws Exception {
+		LabeledLDA model = new LabeledLDA(0.1, 0.01);
+		model.setRandomSeed(42);
+		model.addInstances(buildCorpus());
+		model.setTopicDisplay(0, 0);
+		model.setNumIterations(30);
+		model.setNumThreads(3);
+		model.estimate();
+
+		int[][] typeTopicCounts = new int[model.numTypes][model.numTopics];
+		int[] tokensPerTopic = new int[model.numTopics];
+		for (TopicAssignment document : model.getData()) {
+			FeatureSequence tokens = (FeatureSequence) document.instance.getData();
+			FeatureVector labels = (FeatureVector) document.instance.getTarget();
+			int[] topics = document.topicSequence.getFeatures();
+			for (int position = 0; position < tokens.getLength(); position++) {
+				assertTrue(labels.location(topics[position]) >= 0);
+				typeTopicCounts[tokens.getIndexAtPosition(position)][topics[position]]++;
+				tokensPerTopic[topics[position]]++;
+			}
+		}
+
+		assertArrayEquals(tokensPerTopic, model.getTopicTotals());
+		for (int type = 0; type < model.numTypes; type++) {
+			assertArrayEquals(typeTopicCounts[type], model.getTypeTopicCounts()[type]);
+		}
+
+		TopicInferencer inferencer = model.getInferencer();
+		inferencer.setRandomSeed(7);
+		double[] distribution = inferencer.getSampledDistribution(model.getData().get(0).instance, 20, 5, 5);
+		assertEquals(model.numTopics, distribution.length);
+	}
+}
@@ -0,0 +1,92 @@
+/* Copyright (C) 2005 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package cc.mallet.topics;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import cc.mallet.types.InstanceList;
+import cc.mallet.util.Randoms;
+
+public class TestMarginalProbEstimator {
+
+	private static final int NUM_PARTICLES = 5;
+
+	private static ParallelTopicModel train(InstanceList training) throws Exception {
+		ParallelTopicModel model = new ParallelTopicModel(4, 4.0, 0.01);
+		model.setRandomSeed(42);
+		model.setTopicDisplay(0, 0);
+		model.printLogLikelihood = false;
+		model.addInstances(training);
+		model.setNumIterations(50);
+		model.estimate();
+		return model;
+	}
+
+	private static double evaluate(MarginalProbEstimator estimator, InstanceList testing,
+								   int numThreads, PrintStream docProbabilityStream) {
+		estimator.setRandomSeed(7);
+		return estimator.evaluateLeftToRight(testing.iterator(), NUM_PARTICLES, false,
+											 docProbabilityStream, numThreads);
+	}
+
+	@Test
+	public void threadedResultDoesNotDependOnThreadCount() throws Exception {
+		InstanceList instances = TestParallelTopicModelRegression.buildCorpus();
+		InstanceList testing = instances.subList(15, instances.size());
+		MarginalProbEstimator estimator = train(instances.subList(0, 15)).getProbEstimator();
+
+		double twoThreads = evaluate(estimator, testing, 2, null);
+		assertEquals(twoThreads, evaluate(estimator, testing, 3, null), 0.0);
+		assertEquals(twoThreads, evaluate(estimator, testing, 8, null), 0.0);
+
+		// A single thread samples from a different random stream, but estimates the same quantity
+		double oneThread = evaluate(estimator, testing, 1, null);
+		assertEquals(oneThread, twoThreads, 0.05 * Math.abs(oneThread));
+	}
+
+	@Test
+	public void documentProbabilitiesAreWrittenInOrder() throws Exception {
+		InstanceList instances = TestParallelTopicModelRegression.buildCorpus();
+		InstanceList testing = instances.subList(15, instances.size());
+		MarginalProbEstimator estimator = train(instances.subList(0, 15)).getProbEstimator();
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		PrintStream docProbabilityStream = new PrintStream(bytes);
+		double total = evaluate(estimator, testing, 3, docProbabilityStream);
+		docProbabilityStream.close();
+
+		String[] lines = bytes.toString().trim().split("\n");
+		assertEquals(testing.size(), lines.length);
+
+		double sum = 0.0;
+		for (int doc = 0; doc < lines.length; doc++) {
+			double docLogLikelihood = Double.parseDouble(lines[doc]);
+			assertTrue(docLogLikelihood < 0.0);
+			sum += docLogLikelihood;
+
+			// Each document's estimate is the same when it is evaluated alone, in the same position
+			assertEquals(docLogLikelihood,
+						 evaluateAt(estimator, testing, doc), 1e-12);
+		}
+		assertEquals(total, sum, 1e-9);
+	}
+
+	/** Evaluate one document with the seed it gets at position <code>doc</code> in a threaded run. */
+	private static double evaluateAt(MarginalProbEstimator estimator, InstanceList testing, int doc) {
+		estimator.setRandomSeed(7);
+		int seed = estimator.random.nextInt();
+		MarginalProbEstimator.Scratch scratch =
+			new MarginalProbEstimator.Scratch(new Randoms(MarginalProbEstimator.documentSeed(seed, doc)),
+											  estimator.cachedCoefficients.clone());
+		return estimator.evaluateDocument(testing.get(doc), NUM_PARTICLES, false, scratch);
+	}
+}
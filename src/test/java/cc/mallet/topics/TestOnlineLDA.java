@@ -0,0 +1,110 @@
+/* Copyright (C) 2002 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package cc.mallet.topics;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import cc.mallet.types.Instance;
+import cc.mallet.types.InstanceList;
+import cc.mallet.util.Randoms;
+
+public class TestOnlineLDA {
+
+	/** Several passes over the regression corpus, as one stream that is never stored. */
+	private static Iterator<Instance> stream(InstanceList instances, int passes) {
+		ArrayList<Instance> documents = new ArrayList<Instance>();
+		for (int pass = 0; pass < passes; pass++) {
+			documents.addAll(instances);
+		}
+		return documents.iterator();
+	}
+
+	private static OnlineLDA train(InstanceList instances, int numThreads) throws Exception {
+		OnlineLDA model = new OnlineLDA(3, 3.0, 0.01, new Randoms(42));
+		model.setBatchSize(4);
+		model.setLearningRate(64.0, 0.7);
+		model.setCorpusSize(100);
+		model.setNumThreads(numThreads);
+		model.train(stream(instances, 20));
+		return model;
+	}
+
+	private static int bestTopic(OnlineLDA model, String word) {
+		int type = model.getAlphabet().lookupIndex(word, false);
+		int best = 0;
+		for (int topic = 1; topic < model.getNumTopics(); topic++) {
+			if (model.getTopicWordWeight(topic, type) > model.getTopicWordWeight(best, type)) {
+				best = topic;
+			}
+		}
+		return best;
+	}
+
+	@Test
+	public void separatesTopics() throws Exception {
+		for (int numThreads = 1; numThreads <= 2; numThreads++) {
+			InstanceList instances = TestParallelTopicModelRegression.buildCorpus();
+			OnlineLDA model = train(instances, numThreads);
+
+			assertEquals(20 * instances.size(), model.getNumDocumentsSeen());
+			assertEquals(100, model.getNumUpdates());
+
+			int animals = bestTopic(model, "cat");
+			int food = bestTopic(model, "soup");
+			int music = bestTopic(model, "guitar");
+			assertTrue(animals != food && food != music && animals != music);
+			assertEquals(animals, bestTopic(model, "fish"));
+			assertEquals(food, bestTopic(model, "bread"));
+			assertEquals(music, bestTopic(model, "violin"));
+
+			// One row of topic weights per word type, however long the stream
+			assertTrue(model.typeTopicWeights.length <= 2 * model.getAlphabet().size());
+		}
+	}
+
+	@Test
+	public void inferencerMatchesTopics() throws Exception {
+		InstanceList instances = TestParallelTopicModelRegression.buildCorpus();
+		OnlineLDA model = train(instances, 1);
+		int animals = bestTopic(model, "cat");
+
+		TopicInferencer inferencer = model.getInferencer();
+		inferencer.setRandomSeed(1);
+		double[] distribution = inferencer.getSampledDistribution(instances.get(0), 50, 5, 10);
+
+		double sum = 0.0;
+		for (double proportion : distribution) {
+			sum += proportion;
+		}
+		assertEquals(1.0, sum, 1e-6);
+		assertTrue(distribution[animals] > 0.6);
+	}
+
+	@Test
+	public void writesInferencerSnapshots() throws Exception {
+		File prefix = File.createTempFile("online-lda", ".inferencer");
+		prefix.deleteOnExit();
+
+		OnlineLDA model = new OnlineLDA(3, 0.3, 0.01, new Randoms(1));
+		model.setBatchSize(5);
+		model.setInferencerOutput(2, prefix.getPath());
+		model.train(TestParallelTopicModelRegression.buildCorpus().iterator());
+
+		File snapshot = new File(prefix.getPath() + ".2");
+		snapshot.deleteOnExit();
+		assertTrue(snapshot.exists());
+		assertNotNull(TopicInferencer.read(snapshot));
+		assertFalse(new File(prefix.getPath() + ".3").exists());
+		new File(prefix.getPath() + ".4").delete();
+	}
+}
@@ -0,0 +1,118 @@
+/* Copyright (C) 2005 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package cc.mallet.topics;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import cc.mallet.types.FeatureSequence;
+import cc.mallet.types.IDSorter;
+import cc.mallet.types.InstanceList;
+import cc.mallet.util.Randoms;
+
+public class TestPAM4L {
+
+	private static final int NUM_SUPER_TOPICS = 3;
+	private static final int NUM_SUB_TOPICS = 5;
+
+	/** Recount the sparse type/sub-topic counts and the token totals from the assignments. */
+	private static void checkCounts(PAM4L pam, InstanceList instances) {
+		int[][] typeCounts = new int[pam.numTypes][NUM_SUB_TOPICS];
+		int[] subTotals = new int[NUM_SUB_TOPICS];
+		int[] superTotals = new int[NUM_SUPER_TOPICS];
+		int[][] superSubTotals = new int[NUM_SUPER_TOPICS][NUM_SUB_TOPICS];
+
+		for (int doc = 0; doc < instances.size(); doc++) {
+			FeatureSequence tokens = (FeatureSequence) instances.get(doc).getData();
+			for (int position = 0; position < tokens.getLength(); position++) {
+				int superTopic = pam.superTopics[doc][position];
+				int subTopic = pam.subTopics[doc][position];
+				typeCounts[ tokens.getIndexAtPosition(position) ][subTopic]++;
+				subTotals[subTopic]++;
+				superTotals[superTopic]++;
+				superSubTotals[superTopic][subTopic]++;
+			}
+		}
+
+		assertArrayEquals(subTotals, pam.tokensPerSubTopic);
+		assertArrayEquals(superTotals, pam.tokensPerSuperTopic);
+		for (int superTopic = 0; superTopic < NUM_SUPER_TOPICS; superTopic++) {
+			assertArrayEquals(superSubTotals[superTopic], pam.tokensPerSuperSubTopic[superTopic]);
+		}
+
+		SparseTypeTopicCounts counts = pam.typeSubTopicCounts;
+		for (int type = 0; type < pam.numTypes; type++) {
+			for (int subTopic = 0; subTopic < NUM_SUB_TOPICS; subTopic++) {
+				assertEquals(typeCounts[type][subTopic], counts.getCount(type, subTopic));
+			}
+
+			int[] packed = counts.getPackedCounts(type);
+			for (int i = 1; i < packed.length; i++) {
+				assertTrue("packed counts are sorted", packed[i - 1] >= packed[i]);
+			}
+		}
+	}
+
+	private static PAM4L train(int numThreads) {
+		InstanceList instances = TestParallelTopicModelRegression.buildCorpus();
+		PAM4L pam = new PAM4L(NUM_SUPER_TOPICS, NUM_SUB_TOPICS);
+		pam.setNumThreads(numThreads);
+		pam.estimate(instances, 30, 10, 0, 0, null, new Randoms(7));
+		checkCounts(pam, instances);
+		return pam;
+	}
+
+	@Test
+	public void countsMatchAssignments() {
+		train(1);
+	}
+
+	@Test
+	public void countsMatchAssignmentsWithThreads() {
+		train(3);
+	}
+
+	@Test
+	public void topWordsComeFromTheCounts() {
+		PAM4L pam = train(2);
+		IDSorter[][] sortedTypes = pam.typeSubTopicCounts.getSortedTypes();
+		int total = 0;
+		for (IDSorter[] types: sortedTypes) {
+			for (int i = 0; i < types.length; i++) {
+				if (i > 0) {
+					assertTrue(types[i - 1].getWeight() >= types[i].getWeight());
+				}
+				total += (int) types[i].getWeight();
+			}
+		}
+		assertEquals(pam.numTokens, total);
+		pam.printTopWords(5, false);
+	}
+
+	@Test
+	public void addingBeyondTheCapacityIsReported() {
+		// Type 0 never occurs, so it has no room; type 1 has room for one topic
+		SparseTypeTopicCounts counts = new SparseTypeTopicCounts(NUM_SUB_TOPICS, new int[] { 0, 1 });
+		try {
+			counts.increment(0, 2);
+			fail("Type 0 has no room for a topic");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+
+		counts.increment(1, 3);
+		counts.increment(1, 3);
+		assertEquals(2, counts.getCount(1, 3));
+		try {
+			counts.increment(1, 4);
+			fail("Type 1 has room for only one topic");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+	}
+}
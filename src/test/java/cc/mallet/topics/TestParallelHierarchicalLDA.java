@@ -0,0 +1,109 @@
+/* Copyright (C) 2002 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package cc.mallet.topics;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import cc.mallet.types.FeatureSequence;
+import cc.mallet.types.InstanceList;
+import cc.mallet.util.Randoms;
+
+public class TestParallelHierarchicalLDA {
+
+	private static ParallelHierarchicalLDA train(int numThreads) {
+		InstanceList instances = TestParallelTopicModelRegression.buildCorpus();
+
+		ParallelHierarchicalLDA hlda = new ParallelHierarchicalLDA();
+		hlda.setProgressDisplay(false);
+		hlda.setTopicDisplay(0, 5);
+		hlda.setNumThreads(numThreads);
+		hlda.initialize(instances, null, 3, new Randoms(42));
+		hlda.estimate(30);
+		return hlda;
+	}
+
+	/** Check the tree's counts against counts rebuilt from every document's path and levels. */
+	private static void assertConsistent(ParallelHierarchicalLDA hlda) {
+		int numNodes = hlda.numNodes;
+		int[] customers = new int[numNodes];
+		int[] totalTokens = new int[numNodes];
+		int[][] typeCounts = new int[numNodes][hlda.numTypes];
+
+		int[] path = new int[hlda.numLevels];
+		for (int doc = 0; doc < hlda.numDocuments; doc++) {
+			int node = hlda.getDocumentLeaves()[doc];
+			assertEquals(hlda.numLevels - 1, hlda.nodeLevel[node]);
+			for (int level = hlda.numLevels - 1; level >= 0; level--) {
+				path[level] = node;
+				customers[node]++;
+				node = hlda.getParent(node);
+			}
+			assertEquals(-1, node);
+
+			FeatureSequence tokens = (FeatureSequence) hlda.instances.get(doc).getData();
+			for (int token = 0; token < tokens.getLength(); token++) {
+				int pathNode = path[ hlda.getLevels()[doc][token] ];
+				totalTokens[pathNode]++;
+				typeCounts[pathNode][tokens.getIndexAtPosition(token)]++;
+			}
+		}
+
+		int liveNodes = 0;
+		for (int node = 0; node < numNodes; node++) {
+			if (hlda.nodeLevel[node] < 0) { continue; }
+			liveNodes++;
+			assertEquals(customers[node], hlda.getCustomers(node));
+			assertEquals(totalTokens[node], hlda.getTotalTokens(node));
+			assertTrue("empty nodes are removed", node == 0 || customers[node] > 0);
+			for (int type = 0; type < hlda.numTypes; type++) {
+				assertEquals(typeCounts[node][type], hlda.getTypeCount(node, type));
+			}
+		}
+		assertEquals(liveNodes, hlda.getNumNodes());
+	}
+
+	@Test
+	public void sequentialSamplingKeepsCountsConsistent() {
+		assertConsistent(train(1));
+	}
+
+	@Test
+	public void parallelSamplingKeepsCountsConsistent() {
+		assertConsistent(train(3));
+	}
+
+	@Test
+	public void serializedModelRebuildsCounts() throws Exception {
+		ParallelHierarchicalLDA hlda = train(2);
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(hlda);
+		out.close();
+		ParallelHierarchicalLDA copy = (ParallelHierarchicalLDA)
+			new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+		assertConsistent(copy);
+
+		StringWriter original = new StringWriter();
+		hlda.printState(new PrintWriter(original));
+		StringWriter restored = new StringWriter();
+		copy.printState(new PrintWriter(restored));
+		assertEquals(original.toString(), restored.toString());
+
+		copy.estimate(2);
+		assertConsistent(copy);
+	}
+}
@@ -0,0 +1,105 @@
+/* Copyright (C) 2005 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package cc.mallet.topics;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import cc.mallet.types.FeatureSequence;
+import cc.mallet.types.InstanceList;
+
+public class TestParallelNPTopicModel {
+
+	private static final int MAX_TOPICS = 32;
+
+	private static ParallelNPTopicModel train(int numThreads, int initialTopics) throws Exception {
+		InstanceList instances = TestParallelTopicModelRegression.buildCorpus();
+		ParallelNPTopicModel model = new ParallelNPTopicModel(1.0, 1.0, 0.1);
+		model.setMaxTopics(MAX_TOPICS);
+		model.setRandomSeed(3);
+		model.setTopicDisplay(0, 5);
+		model.setNumThreads(numThreads);
+		model.addInstances(instances, initialTopics);
+		model.sample(50);
+		return model;
+	}
+
+	/** Check the model's counts against counts rebuilt from the topic assignments. */
+	private static void assertConsistent(ParallelNPTopicModel model) {
+		int numTypes = model.getAlphabet().size();
+		int[][] typeCounts = new int[numTypes][MAX_TOPICS];
+		int[] tokens = new int[MAX_TOPICS];
+		int[] docs = new int[MAX_TOPICS];
+		int totalDocTopics = 0;
+
+		for (TopicAssignment assignment: model.getData()) {
+			FeatureSequence tokenSequence = (FeatureSequence) assignment.instance.getData();
+			int[] topics = assignment.topicSequence.getFeatures();
+			boolean[] seen = new boolean[MAX_TOPICS];
+			for (int position = 0; position < topics.length; position++) {
+				int topic = topics[position];
+				typeCounts[ tokenSequence.getIndexAtPosition(position) ][topic]++;
+				tokens[topic]++;
+				if (! seen[topic]) {
+					seen[topic] = true;
+					docs[topic]++;
+					totalDocTopics++;
+				}
+			}
+		}
+
+		assertArrayEquals(tokens, model.getTokensPerTopic());
+		assertArrayEquals(docs, model.getDocsPerTopic());
+		assertEquals(totalDocTopics, model.totalDocTopics);
+		for (int type = 0; type < numTypes; type++) {
+			for (int topic = 0; topic < MAX_TOPICS; topic++) {
+				assertEquals(typeCounts[type][topic], model.getTypeTopicCounts().getCount(type, topic));
+			}
+		}
+	}
+
+	@Test
+	public void sequentialSamplingKeepsCountsConsistent() throws Exception {
+		ParallelNPTopicModel model = train(1, 1);
+		assertConsistent(model);
+		assertTrue("new topics are created", model.getNumTopics() > 1);
+	}
+
+	@Test
+	public void parallelSamplingKeepsCountsConsistent() throws Exception {
+		ParallelNPTopicModel model = train(3, 1);
+		assertConsistent(model);
+		assertTrue("new topics are created", model.getNumTopics() > 1);
+		assertTrue(model.getNumTopics() <= MAX_TOPICS);
+	}
+
+	@Test
+	public void topicsAreRemovedWhenEmpty() throws Exception {
+		ParallelNPTopicModel model = train(2, MAX_TOPICS);
+		assertConsistent(model);
+		assertTrue("unused topics are dropped", model.getNumTopics() < MAX_TOPICS);
+	}
+
+	@Test
+	public void inferencerCoversTheCurrentTopics() throws Exception {
+		ParallelNPTopicModel model = train(2, 1);
+		TopicInferencer inferencer = model.getInferencer();
+		assertEquals(model.getNumTopics(), inferencer.numTopics);
+
+		InstanceList instances = TestParallelTopicModelRegression.buildCorpus();
+		double[] distribution = inferencer.getSampledDistribution(instances.get(0), 50, 5, 10);
+		assertEquals(model.getNumTopics(), distribution.length);
+		double sum = 0.0;
+		for (double weight: distribution) {
+			sum += weight;
+		}
+		assertEquals(1.0, sum, 1e-6);
+
+		assertTrue(model.topWords(5).split("\n").length == model.getNumTopics());
+	}
+}
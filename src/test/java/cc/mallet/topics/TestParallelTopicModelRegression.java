@@ -7,6 +7,8 @@
 
 package cc.mallet.topics;
 
+import java.io.File;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
 
@@ -19,6 +21,7 @@ import cc.mallet.pipe.SerialPipes;
 import cc.mallet.pipe.TokenSequence2FeatureSequence;
 import cc.mallet.pipe.TokenSequenceLowercase;
 import cc.mallet.pipe.iterator.StringArrayIterator;
+import cc.mallet.types.FeatureSequence;
 import cc.mallet.types.InstanceList;
 
 /**
@@ -62,7 +65,7 @@ public class TestParallelTopicModelRegression {
 		"pasta soup cheese pasta bread soup cheese pasta bread"
 	};
 
-	private static InstanceList buildCorpus() {
+	static InstanceList buildCorpus() {
 		ArrayList<Pipe> pipes = new ArrayList<Pipe>();
 		pipes.add(new CharSequence2TokenSequence());
 		pipes.add(new TokenSequenceLowercase());
@@ -113,4 +116,259 @@ public class TestParallelTopicModelRegression {
 		assertEquals(-437.5468111850073, model.modelLogLikelihood(), 0.0);
 		assertEquals(-294991111, Arrays.deepToString(model.getTypeTopicCounts()).hashCode());
 	}
+
+	/**
+	 * Shared-counts mode is not deterministic across threads, but the shared
+	 * type/topic table must always agree with the token-topic assignments.
+	 */
+	@Test
+	public void sharedCountsStayConsistentWithAssignments() throws Exception {
+		InstanceList instances = buildCorpus();
+
+		ParallelTopicModel model = new ParallelTopicModel(4, 4.0, 0.01);
+		model.setNumThreads(3);
+		model.setSharedCounts(true);
+		model.setSharedCountsReconcileInterval(2);
+		model.setRandomSeed(42);
+		model.setOptimizeInterval(0);
+		model.addInstances(instances);
+		model.setNumIterations(50);
+		model.setTopicDisplay(0, 0);
+		model.printLogLikelihood = false;
+		model.estimate();
+
+		assertCountsMatchAssignments(model);
+	}
+
+	@Test
+	public void sharedCountsSurviveSerialization() throws Exception {
+		ParallelTopicModel model = new ParallelTopicModel(4, 4.0, 0.01);
+		model.setNumThreads(3);
+		model.setSharedCounts(true);
+		model.setSharedCountsReconcileInterval(2);
+		model.setRandomSeed(42);
+		model.setOptimizeInterval(0);
+		model.addInstances(buildCorpus());
+		model.setNumIterations(10);
+		model.setTopicDisplay(0, 0);
+		model.printLogLikelihood = false;
+		model.estimate();
+
+		ParallelTopicModel restored = writeAndRead(model);
+		assertTrue(restored.usingSharedCounts);
+		assertEquals(2, restored.sharedCountsReconcileInterval);
+
+		restored.setNumIterations(20);
+		restored.estimate();
+		assertCountsMatchAssignments(restored);
+	}
+
+	/**
+	 * The alias sampler uses a different random stream from the SparseLDA
+	 * sampler, so it is checked for consistency and fit rather than for an
+	 * exact fingerprint.
+	 */
+	@Test
+	public void aliasSamplerKeepsCountsConsistentAndFits() throws Exception {
+		InstanceList instances = buildCorpus();
+
+		ParallelTopicModel model = new ParallelTopicModel(4, 4.0, 0.01);
+		model.setNumThreads(1);
+		model.setSampler(ParallelTopicModel.ALIAS_SAMPLER);
+		model.setRandomSeed(42);
+		model.setOptimizeInterval(0);
+		model.addInstances(instances);
+		double initialLogLikelihood = model.modelLogLikelihood();
+
+		model.setNumIterations(200);
+		model.setTopicDisplay(0, 0);
+		model.printLogLikelihood = false;
+		model.estimate();
+
+		assertCountsMatchAssignments(model);
+		assertTrue(model.modelLogLikelihood() > initialLogLikelihood);
+	}
+
+	@Test
+	public void samplerSurvivesSerialization() throws Exception {
+		ParallelTopicModel model = new ParallelTopicModel(4, 4.0, 0.01);
+		model.setNumThreads(1);
+		model.setSampler(ParallelTopicModel.ALIAS_SAMPLER);
+		model.setNumMHSteps(3);
+		model.setRandomSeed(42);
+		model.setOptimizeInterval(0);
+		model.addInstances(buildCorpus());
+		model.setNumIterations(10);
+		model.setTopicDisplay(0, 0);
+		model.printLogLikelihood = false;
+		model.estimate();
+
+		ParallelTopicModel restored = writeAndRead(model);
+		assertEquals(ParallelTopicModel.ALIAS_SAMPLER, restored.sampler);
+		assertEquals(3, restored.numMHSteps);
+
+		restored.setNumIterations(20);
+		restored.estimate();
+		assertCountsMatchAssignments(restored);
+	}
+
+	@Test
+	public void checkpointRestoresAssignmentsAndIteration() throws Exception {
+		File directory = Files.createTempDirectory("mallet-checkpoint").toFile();
+		String prefix = new File(directory, "state").getPath();
+
+		ParallelTopicModel model = new ParallelTopicModel(4, 4.0, 0.01);
+		model.setNumThreads(3);
+		model.setRandomSeed(42);
+		model.setOptimizeInterval(0);
+		model.addInstances(buildCorpus());
+		model.setNumIterations(20);
+		model.setTopicDisplay(0, 0);
+		model.printLogLikelihood = false;
+		model.setSaveCheckpoint(10, prefix);
+		model.estimate();
+
+		File checkpoint = new File(prefix + ".20");
+		assertTrue(TopicCheckpoint.isCheckpoint(checkpoint));
+		assertTrue(TopicCheckpoint.isCheckpoint(new File(prefix + ".10")));
+
+		// Restore with a different number of threads than wrote the shards
+		ParallelTopicModel restored = new ParallelTopicModel(4, 1.0, 0.5);
+		restored.setNumThreads(2);
+		restored.addInstances(buildCorpus());
+		assertEquals(20, restored.initializeFromCheckpoint(checkpoint));
+
+		assertArrayEquals(model.alpha, restored.alpha, 0.0);
+		assertEquals(model.beta, restored.beta, 0.0);
+		for (int doc = 0; doc < model.getData().size(); doc++) {
+			assertArrayEquals(model.getData().get(doc).topicSequence.getFeatures(),
+			                  restored.getData().get(doc).topicSequence.getFeatures());
+		}
+		assertCountsMatchAssignments(restored);
+		assertEquals(model.modelLogLikelihood(), restored.modelLogLikelihood(), 1e-9);
+
+		// Sampling resumes after the checkpoint, so there is nothing left to do
+		restored.setNumIterations(20);
+		restored.setTopicDisplay(0, 0);
+		restored.printLogLikelihood = false;
+		restored.estimate();
+		assertEquals(model.modelLogLikelihood(), restored.modelLogLikelihood(), 1e-9);
+
+		// A checkpoint cannot be restored against different documents
+		InstanceList other = buildCorpus();
+		other.remove(other.size() - 1);
+		ParallelTopicModel mismatched = new ParallelTopicModel(4, 4.0, 0.01);
+		mismatched.addInstances(other);
+		try {
+			mismatched.initializeFromCheckpoint(checkpoint);
+			fail("Expected a mismatch between the checkpoint and the instances");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+
+		deleteCheckpoints(directory);
+	}
+
+	@Test
+	public void checkpointResumesForTheRemainingIterations() throws Exception {
+		File directory = Files.createTempDirectory("mallet-checkpoint").toFile();
+		String prefix = new File(directory, "state").getPath();
+
+		ParallelTopicModel model = new ParallelTopicModel(4, 4.0, 0.01);
+		model.setNumThreads(2);
+		model.setRandomSeed(42);
+		model.setOptimizeInterval(0);
+		model.addInstances(buildCorpus());
+		model.setNumIterations(20);
+		model.setTopicDisplay(0, 0);
+		model.printLogLikelihood = false;
+		model.setSaveCheckpoint(10, prefix);
+		model.estimate();
+
+		// Resume from iteration 10 of 20, saving a checkpoint after every iteration
+		ParallelTopicModel restored = new ParallelTopicModel(4, 4.0, 0.01);
+		restored.setNumThreads(2);
+		restored.addInstances(buildCorpus());
+		assertEquals(10, restored.initializeFromCheckpoint(new File(prefix + ".10")));
+		restored.setNumIterations(20);
+		restored.setTopicDisplay(0, 0);
+		restored.printLogLikelihood = false;
+		String resumedPrefix = new File(directory, "resumed").getPath();
+		restored.setSaveCheckpoint(1, resumedPrefix);
+		restored.estimate();
+
+		// Exactly iterations 11 to 20 ran
+		assertEquals(10, countCheckpoints(directory, "resumed."));
+		assertFalse(new File(resumedPrefix + ".10").exists());
+		assertTrue(TopicCheckpoint.isCheckpoint(new File(resumedPrefix + ".11")));
+		assertTrue(TopicCheckpoint.isCheckpoint(new File(resumedPrefix + ".20")));
+		assertCountsMatchAssignments(restored);
+
+		// The next call to estimate starts again from the first iteration
+		restored.setNumIterations(3);
+		String againPrefix = new File(directory, "again").getPath();
+		restored.setSaveCheckpoint(1, againPrefix);
+		restored.estimate();
+		assertEquals(3, countCheckpoints(directory, "again."));
+		assertTrue(TopicCheckpoint.isCheckpoint(new File(againPrefix + ".1")));
+		assertTrue(TopicCheckpoint.isCheckpoint(new File(againPrefix + ".3")));
+
+		deleteCheckpoints(directory);
+	}
+
+	private static int countCheckpoints(File directory, String prefix) {
+		int count = 0;
+		for (File file: directory.listFiles()) {
+			if (file.getName().startsWith(prefix)) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private static void deleteCheckpoints(File directory) {
+		for (File checkpointDirectory: directory.listFiles()) {
+			for (File file: checkpointDirectory.listFiles()) {
+				file.delete();
+			}
+			checkpointDirectory.delete();
+		}
+		directory.delete();
+	}
+
+	private static ParallelTopicModel writeAndRead(ParallelTopicModel model) throws Exception {
+		File file = File.createTempFile("mallet-model", ".bin");
+		try {
+			model.write(file);
+			return ParallelTopicModel.read(file);
+		} finally {
+			file.delete();
+		}
+	}
+
+	private static void assertCountsMatchAssignments(ParallelTopicModel model) {
+		int numTopics = model.getNumTopics();
+		int[][] expectedTypeTopic = new int[model.numTypes][numTopics];
+		int[] expectedTotals = new int[numTopics];
+		for (TopicAssignment document : model.getData()) {
+			FeatureSequence tokens = (FeatureSequence) document.instance.getData();
+			int[] topics = document.topicSequence.getFeatures();
+			for (int position = 0; position < tokens.size(); position++) {
+				expectedTypeTopic[tokens.getIndexAtPosition(position)][topics[position]]++;
+				expectedTotals[topics[position]]++;
+			}
+		}
+
+		int[][] actualTypeTopic = new int[model.numTypes][numTopics];
+		int[][] typeTopicCounts = model.getTypeTopicCounts();
+		for (int type = 0; type < model.numTypes; type++) {
+			for (int packed : typeTopicCounts[type]) {
+				if (packed == 0) { break; }
+				actualTypeTopic[type][packed & model.topicMask] = packed >> model.topicBits;
+			}
+		}
+
+		assertTrue(Arrays.deepEquals(expectedTypeTopic, actualTypeTopic));
+		assertArrayEquals(expectedTotals, model.getTokensPerTopic());
+	}
 }
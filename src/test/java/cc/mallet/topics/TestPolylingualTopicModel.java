@@ -0,0 +1,99 @@
+/* Copyright (C) 2002 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package cc.mallet.topics;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import cc.mallet.pipe.iterator.StringArrayIterator;
+import cc.mallet.types.FeatureSequence;
+import cc.mallet.types.InstanceList;
+
+public class TestPolylingualTopicModel {
+
+	/** The regression corpus, and a second "language" with every word prefixed. */
+	private static InstanceList[] buildCorpus() {
+		String[] translated = new String[TestParallelTopicModelRegression.DOCUMENTS.length];
+		for (int doc = 0; doc < translated.length; doc++) {
+			translated[doc] = TestParallelTopicModelRegression.DOCUMENTS[doc].replaceAll("(\\w+)", "x$1");
+		}
+
+		InstanceList second = new InstanceList(TestParallelTopicModelRegression.buildCorpus().getPipe());
+		second.addThruPipe(new StringArrayIterator(translated));
+		return new InstanceList[] { TestParallelTopicModelRegression.buildCorpus(), second };
+	}
+
+	private static PolylingualTopicModel train(int numThreads) throws Exception {
+		PolylingualTopicModel model = new PolylingualTopicModel(4, 4.0);
+		model.setRandomSeed(42);
+		model.addInstances(buildCorpus());
+		model.setTopicDisplay(0, 0);
+		model.setNumIterations(40);
+		model.setBurninPeriod(5);
+		model.setOptimizeInterval(10);
+		model.setNumThreads(numThreads);
+		model.estimate();
+		return model;
+	}
+
+	@Test
+	public void multiThreadedCountsMatchAssignments() throws Exception {
+		PolylingualTopicModel model = train(3);
+
+		for (int language = 0; language < model.numLanguages; language++) {
+			int[][] typeTopicCounts = new int[model.vocabularySizes[language]][model.numTopics];
+			int[] tokensPerTopic = new int[model.numTopics];
+			for (PolylingualTopicModel.TopicAssignment document : model.getData()) {
+				FeatureSequence tokens = (FeatureSequence) document.instances[language].getData();
+				int[] topics = document.topicSequences[language].getFeatures();
+				for (int position = 0; position < tokens.getLength(); position++) {
+					typeTopicCounts[tokens.getIndexAtPosition(position)][topics[position]]++;
+					tokensPerTopic[topics[position]]++;
+				}
+			}
+
+			assertArrayEquals(tokensPerTopic, model.languageTokensPerTopic[language]);
+			for (int type = 0; type < typeTopicCounts.length; type++) {
+				int[] packed = model.languageTypeTopicCounts[language][type];
+				int[] counts = new int[model.numTopics];
+				for (int index = 0; index < packed.length && packed[index] > 0; index++) {
+					if (index > 0) {
+						assertTrue("counts must stay sorted", packed[index] <= packed[index - 1]);
+					}
+					counts[packed[index] & model.topicMask] = packed[index] >> model.topicBits;
+				}
+				assertArrayEquals(typeTopicCounts[type], counts);
+			}
+			assertTrue(model.betas[language] > 0);
+		}
+	}
+
+	@Test
+	public void multiThreadedModelSupportsInferenceAndState() throws Exception {
+		PolylingualTopicModel model = train(3);
+
+		ByteArrayOutputStream state = new ByteArrayOutputStream();
+		model.printState(new PrintStream(state));
+		assertTrue(state.toString().contains("xguitar"));
+
+		InstanceList[] corpus = buildCorpus();
+		for (int language = 0; language < 2; language++) {
+			TopicInferencer inferencer = model.getInferencer(language);
+			inferencer.setRandomSeed(7);
+			double[] distribution = inferencer.getSampledDistribution(corpus[language].get(0), 20, 5, 5);
+			double sum = 0;
+			for (double weight : distribution) {
+				sum += weight;
+			}
+			assertEquals(1.0, sum, 1e-6);
+		}
+	}
+}
@@ -0,0 +1,101 @@
+/* Copyright (C) 2002 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package cc.mallet.topics;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import cc.mallet.types.InstanceList;
+
+public class TestTopicInferencer {
+
+	private static TopicInferencer trainInferencer() throws Exception {
+		InstanceList instances = TestParallelTopicModelRegression.buildCorpus();
+
+		ParallelTopicModel model = new ParallelTopicModel(4, 4.0, 0.01);
+		model.setNumThreads(1);
+		model.setRandomSeed(42);
+		model.setOptimizeInterval(0);
+		model.addInstances(instances);
+		model.setNumIterations(100);
+		model.setTopicDisplay(0, 0);
+		model.printLogLikelihood = false;
+		model.estimate();
+
+		return model.getInferencer();
+	}
+
+	private static String infer(TopicInferencer inferencer, int numThreads) throws Exception {
+		InstanceList instances = TestParallelTopicModelRegression.buildCorpus();
+		inferencer.setRandomSeed(7);
+
+		StringWriter output = new StringWriter();
+		PrintWriter out = new PrintWriter(output);
+		inferencer.writeInferredDistributions(instances.iterator(), out, 20, 5, 5, 0.0, -1, numThreads);
+		out.close();
+		return output.toString();
+	}
+
+	@Test
+	public void singleThreadMatchesPerDocumentSampling() throws Exception {
+		TopicInferencer inferencer = trainInferencer();
+		String written = infer(inferencer, 1);
+
+		InstanceList instances = TestParallelTopicModelRegression.buildCorpus();
+		inferencer.setRandomSeed(7);
+		String[] lines = written.split("\n");
+		assertEquals(instances.size() + 1, lines.length);
+		for (int doc = 0; doc < instances.size(); doc++) {
+			double[] distribution = inferencer.getSampledDistribution(instances.get(doc), 20, 5, 5);
+			String[] fields = lines[doc + 1].split("\t");
+			assertEquals(Integer.toString(doc), fields[0]);
+			for (int topic = 0; topic < distribution.length; topic++) {
+				assertEquals(distribution[topic], Double.parseDouble(fields[topic + 2]), 0.0);
+			}
+		}
+	}
+
+	@Test
+	public void multiThreadedOutputIsOrderedAndReproducible() throws Exception {
+		TopicInferencer inferencer = trainInferencer();
+		String first = infer(inferencer, 3);
+		String second = infer(inferencer, 3);
+		assertEquals(first, second);
+
+		String[] lines = first.split("\n");
+		assertEquals(TestParallelTopicModelRegression.DOCUMENTS.length + 1, lines.length);
+		for (int doc = 1; doc < lines.length; doc++) {
+			assertTrue(lines[doc].startsWith((doc - 1) + "\t"));
+		}
+	}
+
+	@Test
+	public void mappedInferencerMatchesHeapInferencer() throws Exception {
+		TopicInferencer inferencer = trainInferencer();
+
+		File file = File.createTempFile("mallet-mapped", ".inferencer");
+		file.deleteOnExit();
+		MappedTopicInferencer.write(inferencer, file);
+		assertTrue(MappedTopicInferencer.isMappedFile(file));
+
+		MappedTopicInferencer mapped = MappedTopicInferencer.read(file);
+		assertEquals(infer(inferencer, 1), infer(mapped, 1));
+		assertEquals(infer(inferencer, 2), infer(mapped, 2));
+
+		for (int type = 0; type < inferencer.alphabet.size(); type++) {
+			String word = inferencer.alphabet.lookupObject(type).toString();
+			assertEquals(word, mapped.lookupObject(type));
+			assertEquals(type, mapped.lookupIndex(word));
+		}
+		assertEquals(-1, mapped.lookupIndex("not-in-the-vocabulary"));
+	}
+}
@@ -0,0 +1,167 @@
+/* Copyright (C) 2026 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package cc.mallet.topics;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.TreeSet;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import cc.mallet.types.FeatureSequence;
+import cc.mallet.types.IDSorter;
+import cc.mallet.types.InstanceList;
+
+public class TestTopicModelDiagnostics {
+
+	private static final int NUM_TOP_WORDS = 8;
+
+	private static ParallelTopicModel train() throws Exception {
+		ParallelTopicModel model = new ParallelTopicModel(4, 4.0, 0.01);
+		model.setRandomSeed(42);
+		model.setTopicDisplay(0, 0);
+		model.printLogLikelihood = false;
+		model.addInstances(TestParallelTopicModelRegression.buildCorpus());
+		model.setNumIterations(50);
+		model.estimate();
+		return model;
+	}
+
+	private static int[] topWords(ParallelTopicModel model, int topic) {
+		TreeSet<IDSorter> sortedWords = model.getSortedWords().get(topic);
+		int[] types = new int[ Math.min(NUM_TOP_WORDS, sortedWords.size()) ];
+		int i = 0;
+		for (IDSorter info: sortedWords) {
+			if (i == types.length) { break; }
+			types[i++] = info.getID();
+		}
+		return types;
+	}
+
+	/** Whether a document has a token of this type assigned to this topic. */
+	private static boolean hasWordInTopic(TopicAssignment document, int type, int topic) {
+		FeatureSequence tokens = (FeatureSequence) document.instance.getData();
+		for (int position = 0; position < tokens.size(); position++) {
+			if (tokens.getIndexAtPosition(position) == type &&
+				document.topicSequence.getIndexAtPosition(position) == topic) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Test
+	public void codocumentCountsMatchRecount() throws Exception {
+		ParallelTopicModel model = train();
+		TopicModelDiagnostics diagnostics = new TopicModelDiagnostics(model, NUM_TOP_WORDS, 3, null);
+
+		for (int topic = 0; topic < model.getNumTopics(); topic++) {
+			int[] types = topWords(model, topic);
+			int[][] matrix = diagnostics.getCodocumentMatrix(topic);
+
+			for (int i = 0; i < types.length; i++) {
+				for (int j = 0; j < types.length; j++) {
+					int expected = 0;
+					for (TopicAssignment document: model.getData()) {
+						if (hasWordInTopic(document, types[i], topic) &&
+							hasWordInTopic(document, types[j], topic)) {
+							expected++;
+						}
+					}
+					assertEquals("topic " + topic + " words " + i + ", " + j, expected, matrix[i][j]);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void threadedDiagnosticsMatchSingleThread() throws Exception {
+		ParallelTopicModel model = train();
+		String expected = new TopicModelDiagnostics(model, NUM_TOP_WORDS).toXML();
+		assertEquals(expected, new TopicModelDiagnostics(model, NUM_TOP_WORDS, 4, null).toXML());
+	}
+
+	@Test
+	public void indexPostingsMatchDocuments() throws Exception {
+		InstanceList instances = TestParallelTopicModelRegression.buildCorpus();
+		WordDocumentIndex index = WordDocumentIndex.build(instances, 3);
+
+		assertEquals(instances.size(), index.getNumDocs());
+		assertTrue(index.matches(instances));
+
+		for (int type = 0; type < index.getNumTypes(); type++) {
+			int[] expected = new int[instances.size()];
+			int numDocs = 0;
+			for (int doc = 0; doc < instances.size(); doc++) {
+				FeatureSequence tokens = (FeatureSequence) instances.get(doc).getData();
+				for (int position = 0; position < tokens.size(); position++) {
+					if (tokens.getIndexAtPosition(position) == type) {
+						expected[numDocs++] = doc;
+						break;
+					}
+				}
+			}
+			assertArrayEquals(Arrays.copyOf(expected, numDocs), index.getDocuments(type));
+		}
+	}
+
+	@Test
+	public void indexDoesNotMatchReorderedDocuments() throws Exception {
+		InstanceList instances = TestParallelTopicModelRegression.buildCorpus();
+		WordDocumentIndex index = WordDocumentIndex.build(instances, 3);
+
+		// Same alphabet and the same document and token counts, in a different order
+		InstanceList reversed = new InstanceList(instances.getPipe());
+		for (int doc = instances.size() - 1; doc >= 0; doc--) {
+			reversed.add(instances.get(doc));
+		}
+		assertFalse(index.matches(reversed));
+	}
+
+	@Test
+	public void intersectionSize() {
+		int[] evens = new int[100];
+		for (int i = 0; i < evens.length; i++) { evens[i] = 2 * i; }
+
+		assertEquals(3, WordDocumentIndex.intersectionSize(new int[] { 1, 2, 4, 7, 8 }, new int[] { 2, 3, 4, 8, 9 }));
+		// Short against long lists use binary search
+		assertEquals(2, WordDocumentIndex.intersectionSize(new int[] { 3, 10, 198 }, evens));
+		assertEquals(2, WordDocumentIndex.intersectionSize(evens, new int[] { 3, 10, 198 }));
+		assertEquals(0, WordDocumentIndex.intersectionSize(new int[0], evens));
+	}
+
+	@Test
+	public void cachedIndexGivesCorpusCoherence() throws Exception {
+		ParallelTopicModel model = train();
+		WordDocumentIndex built = WordDocumentIndex.build(model, 2);
+
+		File file = File.createTempFile("mallet-index", ".bin");
+		file.deleteOnExit();
+		built.write(file);
+		WordDocumentIndex index = WordDocumentIndex.read(file);
+
+		assertTrue(index.matches(model));
+		assertEquals(built.getNumTokens(), index.getNumTokens());
+		for (int type = 0; type < built.getNumTypes(); type++) {
+			assertArrayEquals(built.getDocuments(type), index.getDocuments(type));
+		}
+
+		TopicModelDiagnostics diagnostics = new TopicModelDiagnostics(model, NUM_TOP_WORDS, 2, index);
+		TopicModelDiagnostics.TopicScores coherence = null;
+		for (TopicModelDiagnostics.TopicScores scores: diagnostics.diagnostics) {
+			if (scores.name.equals("corpus_coherence")) { coherence = scores; }
+		}
+		assertNotNull(coherence);
+
+		for (int topic = 0; topic < model.getNumTopics(); topic++) {
+			assertEquals(index.getCoherence(topWords(model, topic), model.beta), coherence.scores[topic], 1e-9);
+		}
+		assertTrue(diagnostics.toXML().contains("corpus_coherence="));
+	}
+}
@@ -9,6 +9,7 @@ import org.junit.Test;
 import static org.junit.Assert.*;
 import cc.mallet.types.Alphabet;
 import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Created: Nov 24, 2004
@@ -41,4 +42,90 @@ public class TestAlphabet {
     assertTrue (dict == dict2);
   }
 
+  @Test
+  public void testConcurrentGrowth () throws InterruptedException
+  {
+    final Alphabet dict = new Alphabet ();
+    Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; t++) {
+      final int offset = t * 1000;
+      threads[t] = new Thread () {
+          public void run () {
+            // Overlapping ranges, so that threads race to add the same entries
+            for (int i = 0; i < 5000; i++) {
+              dict.lookupIndex ("w" + (offset + i));
+            }
+          }
+        };
+      threads[t].start ();
+    }
+    for (Thread thread : threads) { thread.join (); }
+
+    assertEquals (8000, dict.size ());
+    for (int i = 0; i < dict.size (); i++) {
+      assertEquals (i, dict.lookupIndex (dict.lookupObject (i), false));
+    }
+  }
+
+  @Test
+  public void testConcurrentLookup () throws InterruptedException
+  {
+    final Alphabet dict = new Alphabet ();
+    final int numEntries = 20000;
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable> ();
+    Thread writer = new Thread () {
+        public void run () {
+          for (int i = 0; i < numEntries; i++) {
+            dict.lookupIndex ("w" + i);
+          }
+        }
+      };
+    Thread[] readers = new Thread[3];
+    for (int t = 0; t < readers.length; t++) {
+      readers[t] = new Thread () {
+          public void run () {
+            try {
+              // Look up entries as they are being added: any index found must be usable
+              while (dict.size () < numEntries) {
+                for (int i = Math.max (0, dict.size () - 50); i < dict.size () + 50; i++) {
+                  int index = dict.lookupIndex ("w" + i, false);
+                  if (index >= 0) {
+                    assertTrue (index < dict.size ());
+                    assertEquals ("w" + i, dict.lookupObject (index));
+                  }
+                }
+              }
+            } catch (Throwable e) {
+              failure.compareAndSet (null, e);
+            }
+          }
+        };
+      readers[t].start ();
+    }
+    writer.start ();
+    writer.join ();
+    for (Thread reader : readers) { reader.join (); }
+
+    if (failure.get () != null) {
+      throw new AssertionError ("Concurrent lookup failed", failure.get ());
+    }
+    assertEquals (numEntries, dict.size ());
+  }
+
+  @Test
+  public void testStopAndStartGrowth ()
+  {
+    Alphabet dict = new Alphabet ();
+    for (int i = 0; i < 100; i++) { dict.lookupIndex ("w" + i); }
+    dict.stopGrowth ();
+    assertEquals (42, dict.lookupIndex ("w42"));
+    assertEquals (-1, dict.lookupIndex ("new"));
+    assertEquals (100, dict.size ());
+
+    dict.startGrowth ();
+    assertEquals (100, dict.lookupIndex ("new"));
+    assertEquals (42, dict.lookupIndex ("w42"));
+    assertEquals ("new", dict.lookupObject (100));
+  }
+
 }
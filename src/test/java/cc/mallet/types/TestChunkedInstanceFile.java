@@ -0,0 +1,91 @@
+/* Copyright (C) 2002 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package cc.mallet.types;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import cc.mallet.pipe.CharSequence2TokenSequence;
+import cc.mallet.pipe.Pipe;
+import cc.mallet.pipe.SerialPipes;
+import cc.mallet.pipe.Target2Label;
+import cc.mallet.pipe.TokenSequence2FeatureSequence;
+import cc.mallet.pipe.iterator.StringArrayIterator;
+
+public class TestChunkedInstanceFile {
+
+	static final String[] DOCUMENTS = {
+		"the cat sat on the mat", "dogs chase cats", "a mat for the dog",
+		"cats and dogs", "the end", "one more document about cats"
+	};
+
+	private static Pipe newPipe() {
+		ArrayList<Pipe> pipes = new ArrayList<Pipe>();
+		pipes.add(new Target2Label());
+		pipes.add(new CharSequence2TokenSequence());
+		pipes.add(new TokenSequence2FeatureSequence());
+		return new SerialPipes(pipes);
+	}
+
+	private static Iterator<Instance> documents() {
+		ArrayList<Instance> instances = new ArrayList<Instance>();
+		for (int doc = 0; doc < DOCUMENTS.length; doc++) {
+			instances.add(new Instance(DOCUMENTS[doc], doc % 2 == 0 ? "even" : "odd", "doc" + doc, null));
+		}
+		return instances.iterator();
+	}
+
+	@Test
+	public void testRoundTrip() throws Exception {
+		File file = File.createTempFile("mallet-chunked", ".vectors");
+		file.deleteOnExit();
+
+		// Four chunks, the last one partly full
+		ChunkedInstanceWriter writer = new ChunkedInstanceWriter(file, newPipe(), 2);
+		writer.addThruPipe(documents());
+		writer.close();
+		assertTrue(ChunkedInstanceReader.isChunkedFile(file));
+
+		InstanceList expected = new InstanceList(newPipe());
+		expected.addThruPipe(documents());
+
+		ChunkedInstanceReader reader = new ChunkedInstanceReader(file);
+		assertEquals(DOCUMENTS.length, reader.size());
+		assertEquals(3, reader.getNumChunks());
+
+		Alphabet dataAlphabet = reader.getDataAlphabet();
+		LabelAlphabet targetAlphabet = (LabelAlphabet) reader.getTargetAlphabet();
+		assertEquals(expected.getDataAlphabet().size(), dataAlphabet.size());
+
+		int doc = 0;
+		for (Instance instance: reader) {
+			FeatureSequence tokens = (FeatureSequence) instance.getData();
+			FeatureSequence expectedTokens = (FeatureSequence) expected.get(doc).getData();
+
+			// Alphabets and labels are the shared objects, not per-chunk copies
+			assertSame(dataAlphabet, tokens.getAlphabet());
+			assertSame(targetAlphabet.lookupLabel(expected.get(doc).getLabeling().toString()), instance.getTarget());
+
+			assertEquals("doc" + doc, instance.getName());
+			assertEquals(expectedTokens.size(), tokens.size());
+			for (int position = 0; position < tokens.size(); position++) {
+				assertEquals(expectedTokens.getObjectAtPosition(position), tokens.getObjectAtPosition(position));
+			}
+			doc++;
+		}
+		assertEquals(DOCUMENTS.length, doc);
+
+		InstanceList loaded = InstanceList.load(file);
+		assertEquals(DOCUMENTS.length, loaded.size());
+		assertSame(loaded.getDataAlphabet(), loaded.getPipe().getDataAlphabet());
+	}
+}
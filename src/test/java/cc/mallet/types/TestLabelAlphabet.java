@@ -10,6 +10,7 @@ import org.junit.Test;
 import static org.junit.Assert.*;
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicReference;
 import cc.mallet.types.Label;
 import cc.mallet.types.LabelAlphabet;
 
@@ -62,4 +63,52 @@ public class TestLabelAlphabet {
     assertTrue (l.theLabel.equals(l2.theLabel));
   }
 
+  @Test
+  public void testConcurrentLookupLabel () throws InterruptedException
+  {
+    final LabelAlphabet dict = new LabelAlphabet ();
+    final int numEntries = 5000;
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable> ();
+    Thread writer = new Thread () {
+        public void run () {
+          for (int i = 0; i < numEntries; i++) {
+            dict.lookupIndex ("L" + i);
+          }
+        }
+      };
+    Thread[] readers = new Thread[3];
+    for (int t = 0; t < readers.length; t++) {
+      readers[t] = new Thread () {
+          public void run () {
+            try {
+              // A label can be looked up as soon as its entry is visible, before the writer has created it
+              while (dict.size () < numEntries) {
+                for (int i = Math.max (0, dict.size () - 50); i < dict.size () + 50; i++) {
+                  int index = dict.lookupIndex ("L" + i, false);
+                  if (index >= 0) {
+                    Label label = dict.lookupLabel (index);
+                    assertEquals ("L" + i, label.getEntry ());
+                    assertEquals (index, label.getIndex ());
+                  }
+                }
+              }
+            } catch (Throwable e) {
+              failure.compareAndSet (null, e);
+            }
+          }
+        };
+      readers[t].start ();
+    }
+    writer.start ();
+    writer.join ();
+    for (Thread reader : readers) { reader.join (); }
+
+    if (failure.get () != null) {
+      throw new AssertionError ("Concurrent label lookup failed", failure.get ());
+    }
+    for (int i = 0; i < numEntries; i++) {
+      assertSame (dict.lookupLabel ("L" + i), dict.lookupLabel (i));
+    }
+  }
+
 }